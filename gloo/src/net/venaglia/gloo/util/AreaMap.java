@@ -27,6 +27,20 @@ public interface AreaMap<E> extends Iterable<AreaMap.Entry<E>> {
 
     int intersect(Bounds2D region, Consumer<E> consumer);
 
+    /**
+     * Reports the k entries nearest to (x,y), nearest first.
+     * @return The number of entries reported, fewer than k only if the map
+     *     holds fewer than k.
+     */
+    int nearest(double x, double y, int k, Consumer<E> consumer);
+
+    /**
+     * Reports every entry no further than r from (x,y), in no particular
+     * order.
+     * @return The number of entries reported.
+     */
+    int withinCircle(double x, double y, double r, Consumer<E> consumer);
+
     public interface Entry<S> extends Ref<S> {
 
         public double getX();
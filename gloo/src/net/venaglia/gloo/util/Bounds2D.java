@@ -42,7 +42,7 @@ public abstract class Bounds2D {
 
     public static Bounds2D createCircle(final double x, final double y, double r) {
         final double r2 = r * r;
-        return new Bounds2D(x - r, y - r, x + r, x + r) {
+        return new Bounds2D(x - r, y - r, x + r, y + r) {
             @Override
             public boolean includes(double i, double j) {
                 double a = i - x, b = j - y;
@@ -4,6 +4,8 @@ import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
 import net.venaglia.gloo.physical.geom.Point;
 import net.venaglia.common.util.Series;
 
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * User: ed
  * Date: 9/10/12
@@ -19,6 +21,43 @@ public interface SpatialMap<E> extends BasicSpatialMap<E>, Series<SpatialMap.Ent
 
     int intersect(SimpleBoundingVolume region, Consumer<E> consumer);
 
+    /**
+     * Reports the k entries nearest to (x,y,z), nearest first.
+     * @return The number of entries reported, fewer than k only if the map
+     *     holds fewer than k.
+     */
+    int nearest(double x, double y, double z, int k, Consumer<E> consumer);
+
+    /**
+     * Reports the k entries nearest to (x,y,z) that are no further than
+     * maxDistance from it, nearest first.
+     * @return The number of entries reported.
+     */
+    int nearest(double x, double y, double z, int k, double maxDistance, Consumer<E> consumer);
+
+    /**
+     * Reports every entry no further than r from (x,y,z), in no particular
+     * order.
+     * @return The number of entries reported.
+     */
+    int withinSphere(double x, double y, double z, double r, Consumer<E> consumer);
+
+    /**
+     * Runs withinSphere() for many points at once, the x, y and z of query i
+     * being centers[3i] to centers[3i+2], reporting each entry found along
+     * with the query that found it.
+     * @return The number of (query, entry) pairs reported.
+     */
+    int intersectAll(double[] centers, double radius, BatchConsumer<E> consumer);
+
+    /**
+     * As intersectAll(), with the queries split among the tasks of the pool.
+     * The consumer is called from many threads at once, but all the entries
+     * found by any one query are reported from the same thread.
+     * @return The number of (query, entry) pairs reported.
+     */
+    int intersectAll(double[] centers, double radius, BatchConsumer<E> consumer, ForkJoinPool pool);
+
     public interface Entry<S> extends BasicSpatialMap.BasicEntry<S> {
 
         public boolean move(Point p) throws IndexOutOfBoundsException, UnsupportedOperationException;
@@ -31,4 +70,8 @@ public interface SpatialMap<E> extends BasicSpatialMap<E>, Series<SpatialMap.Ent
     public interface Consumer<S> {
         void found(Entry<S> entry, double x, double y, double z);
     }
+
+    public interface BatchConsumer<S> {
+        void found(int query, Entry<S> entry, double x, double y, double z);
+    }
 }
@@ -1,15 +1,14 @@
 package net.venaglia.gloo.util.impl;
 
-import net.venaglia.gloo.physical.bounds.BoundingSphere;
 import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
 import net.venaglia.gloo.physical.geom.Axis;
 import net.venaglia.gloo.physical.geom.Point;
-import net.venaglia.gloo.physical.geom.Vector;
 import net.venaglia.common.util.Series;
 import net.venaglia.gloo.util.SpatialMap;
 
 import java.util.Iterator;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * User: ed
@@ -18,6 +17,8 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public abstract class AbstractSpatialMap<E> implements SpatialMap<E> {
 
+    private static final int MIN_BATCH_GRAIN = 64;
+
     public boolean isEmpty() {
         return size() == 0;
     }
@@ -40,24 +41,15 @@ public abstract class AbstractSpatialMap<E> implements SpatialMap<E> {
     }
 
     protected BasicEntry<E> getEntry(Point p, double r) {
-        final double x = p.x, y = p.y, z = p.z;
-        final AtomicReference<BasicEntry<E>> result = new AtomicReference<BasicEntry<E>>();
-        intersect(new BoundingSphere(p, r), new Consumer<E>() {
-            double best = Double.MAX_VALUE;
-
-            public void found(BasicEntry<E> entry, double i, double j, double k) {
-                double d = Vector.computeDistance(i - x, j - y, k - z);
-                if (d < best) {
-                    result.set(entry);
-                    best = d;
-                }
-            }
-
-            public void found(Entry<E> entry, double x, double y, double z) {
-                found((BasicEntry<E>)entry, x, y, z);
-            }
-        });
-        return result.get();
+        NearestSearch search = NearestSearch.acquire(p.x, p.y, p.z, 1, r);
+        try {
+            search(search);
+            @SuppressWarnings("unchecked")
+            BasicEntry<E> entry = (BasicEntry<E>)search.nearest();
+            return entry;
+        } finally {
+            search.release();
+        }
     }
 
     public E get(final double x, final double y, final double z, double r) {
@@ -72,6 +64,109 @@ public abstract class AbstractSpatialMap<E> implements SpatialMap<E> {
         });
     }
 
+    public int nearest(double x, double y, double z, int k, Consumer<E> consumer) {
+        return nearest(x, y, z, k, Double.POSITIVE_INFINITY, consumer);
+    }
+
+    public int nearest(double x, double y, double z, int k, double maxDistance, Consumer<E> consumer) {
+        NearestSearch search = NearestSearch.acquire(x, y, z, k, maxDistance);
+        try {
+            if (k > 0) {
+                search(search);
+            }
+            return search.deliver(consumer);
+        } finally {
+            search.release();
+        }
+    }
+
+    public int withinSphere(double x, double y, double z, double r, Consumer<E> consumer) {
+        NearestSearch search = NearestSearch.acquire(x, y, z, 0, r);
+        try {
+            return intersect(search, consumer);
+        } finally {
+            search.release();
+        }
+    }
+
+    public int intersectAll(double[] centers, double radius, BatchConsumer<E> consumer) {
+        QueryBatch batch = new QueryBatch(centers, radius);
+        return intersectAll(batch, 0, batch.size(), dummyBatchConsumer(consumer));
+    }
+
+    public int intersectAll(double[] centers, double radius, BatchConsumer<E> consumer, ForkJoinPool pool) {
+        QueryBatch batch = new QueryBatch(centers, radius);
+        int grain = Math.max(MIN_BATCH_GRAIN, batch.size() / (pool.getParallelism() * 8));
+        return pool.invoke(new BatchTask<E>(this, batch, 0, batch.size(), grain, dummyBatchConsumer(consumer)));
+    }
+
+    /**
+     * Runs the queries [from,to) of the batch, in its order. This default runs
+     * them one at a time; maps with a hierarchy walk it once for all of them.
+     */
+    int intersectAll(QueryBatch batch, int from, int to, BatchConsumer<E> consumer) {
+        QueryBatch.Forward<E> forward = new QueryBatch.Forward<E>(consumer);
+        int hits = 0;
+        for (int i = from; i < to; i++) {
+            int q = batch.order[i], j = q * 3;
+            forward.query = q;
+            hits += withinSphere(batch.centers[j], batch.centers[j + 1], batch.centers[j + 2], batch.radius, forward);
+        }
+        return hits;
+    }
+
+    /**
+     * Offers the search every entry that might be one of the nearest. This
+     * default intersects the search's sphere, or visits every entry if it has
+     * no max distance; maps with a hierarchy visit their nodes nearest first.
+     */
+    void search(NearestSearch search) {
+        Consumer<E> consumer = search.asConsumer();
+        if (search.isBounded()) {
+            intersect(search, consumer);
+        } else {
+            for (Entry<E> entry : this) {
+                consume(entry, consumer);
+            }
+        }
+    }
+
+    /**
+     * Halves a range of a batch, each half a run of queries close together,
+     * until it is small enough to run as one walk.
+     */
+    @SuppressWarnings("serial") // tasks only run in a pool, and are never serialized
+    private static final class BatchTask<E> extends RecursiveTask<Integer> {
+
+        private final AbstractSpatialMap<E> map;
+        private final QueryBatch batch;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final BatchConsumer<E> consumer;
+
+        private BatchTask(AbstractSpatialMap<E> map, QueryBatch batch, int from, int to, int grain, BatchConsumer<E> consumer) {
+            this.map = map;
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= grain) {
+                return map.intersectAll(batch, from, to, consumer);
+            }
+            int mid = (from + to) >>> 1;
+            BatchTask<E> upper = new BatchTask<E>(map, batch, mid, to, grain, consumer);
+            upper.fork();
+            int hits = new BatchTask<E>(map, batch, from, mid, grain, consumer).compute();
+            return hits + upper.join();
+        }
+    }
+
     public Series<E> asSeries() {
         return new Series<E>() {
             public int size() {
@@ -202,6 +297,20 @@ public abstract class AbstractSpatialMap<E> implements SpatialMap<E> {
         return consumer != null ? consumer : (Consumer<T>)DUMMY_CONSUMER;
     }
 
+    private static final BatchConsumer<?> DUMMY_BATCH_CONSUMER = new BatchConsumer<Object>() {
+        public void found(int query, Entry<Object> entry, double x, double y, double z) {
+        }
+    };
+
+    protected static <T> BatchConsumer<T> dummyBatchConsumer() {
+        return dummyBatchConsumer((BatchConsumer<T>)null);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static <T> BatchConsumer<T> dummyBatchConsumer(BatchConsumer<T> consumer) {
+        return consumer != null ? consumer : (BatchConsumer<T>)DUMMY_BATCH_CONSUMER;
+    }
+
     public static abstract class AbstractEntry<S> extends AbstractMutableEntry<S> {
 
         protected AbstractSpatialMap<S> parent;
@@ -0,0 +1,788 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingBox;
+import net.venaglia.gloo.physical.bounds.BoundingVolume;
+import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
+import net.venaglia.gloo.physical.geom.Axis;
+import net.venaglia.gloo.physical.geom.Point;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 5:05 AM
+ *
+ * An octree flattened into parallel arrays. Each point is quantized to 21
+ * bits per axis and the arrays are kept sorted by the 63-bit Morton code of
+ * the quantized point, so every octree node is a contiguous run of the arrays
+ * found by binary search, and no node objects exist. Queries walk the implicit
+ * nodes, cutting the run of each node into the runs of its eight children
+ * until a run is small enough to scan.
+ *
+ * A move that lands within leafSize places of the point's old place in the
+ * order is done by shifting the points in between. New points, and points
+ * that move further, go to an unsorted tail, which is sorted and merged into
+ * the rest once it grows past an eighth of the sorted part, or before the next
+ * query once it is longer than a few leaves. Removed points leave a hole,
+ * cleared out on the next merge.
+ *
+ * Entries hold their value and their current index; their coordinates live
+ * only in the arrays, so an entry that has been removed has no position.
+ */
+public class LinearOctreeMap<E> extends AbstractSpatialMap<E> {
+
+    private static final int BITS = 21;
+    private static final int MAX_CELL = (1 << BITS) - 1;
+    private static final int MIN_TAIL = 32;
+
+    private final int leafSize;
+    private final double x0;
+    private final double x1;
+    private final double y0;
+    private final double y1;
+    private final double z0;
+    private final double z1;
+    private final double scaleX;
+    private final double scaleY;
+    private final double scaleZ;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] codes;
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private Object[] entries;
+    private int sorted = 0; // [0,sorted) is ordered by code, holes included
+    private int count = 0; // [sorted,count) is the unsorted tail
+    private int holes = 0;
+    private int size = 0;
+    private int modCount = 0;
+
+    public LinearOctreeMap(BoundingVolume<?> bounds, int leafSize) {
+        if (leafSize < 1) {
+            throw new IllegalArgumentException("leafSize must be at least 1: " + leafSize);
+        }
+        this.leafSize = leafSize;
+        this.x0 = bounds.min(Axis.X);
+        this.x1 = bounds.max(Axis.X);
+        this.y0 = bounds.min(Axis.Y);
+        this.y1 = bounds.max(Axis.Y);
+        this.z0 = bounds.min(Axis.Z);
+        this.z1 = bounds.max(Axis.Z);
+        if (!(x1 > x0 && y1 > y0 && z1 > z0)) {
+            throw new IllegalArgumentException("Bounds must have a positive size on every axis");
+        }
+        this.scaleX = (MAX_CELL + 1) / (x1 - x0);
+        this.scaleY = (MAX_CELL + 1) / (y1 - y0);
+        this.scaleZ = (MAX_CELL + 1) / (z1 - z0);
+        allocate(16);
+    }
+
+    public LinearOctreeMap(BoundingVolume<?> bounds) {
+        this(bounds, 32);
+    }
+
+    private void allocate(int capacity) {
+        codes = new long[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        zs = new double[capacity];
+        entries = new Object[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public BoundingVolume<?> getBounds() {
+        return new BoundingBox(new Point(x0, y0, z0), new Point(x1, y1, z1));
+    }
+
+    private boolean withinBounds(double x, double y, double z) {
+        return x >= x0 && x < x1 && y >= y0 && y < y1 && z >= z0 && z < z1;
+    }
+
+    private static int quantize(double v, double v0, double scale) {
+        int q = (int)((v - v0) * scale);
+        return q < 0 ? 0 : q > MAX_CELL ? MAX_CELL : q;
+    }
+
+    private long code(double x, double y, double z) {
+        return interleave(quantize(x, x0, scaleX), quantize(y, y0, scaleY), quantize(z, z0, scaleZ));
+    }
+
+    static long interleave(int x, int y, int z) {
+        return spread(x) | spread(y) << 1 | spread(z) << 2;
+    }
+
+    private static long spread(int v) {
+        long n = v & 0x1FFFFFL;
+        n = (n | n << 32) & 0x1F00000000FFFFL;
+        n = (n | n << 16) & 0x1F0000FF0000FFL;
+        n = (n | n << 8) & 0x100F00F00F00F00FL;
+        n = (n | n << 4) & 0x10C30C30C30C30C3L;
+        n = (n | n << 2) & 0x1249249249249249L;
+        return n;
+    }
+
+    /**
+     * @return The first index in [lo,hi) with a code not less than key.
+     */
+    private static int lowerBound(long[] codes, int lo, int hi, long key) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (codes[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public boolean contains(double x, double y, double z) {
+        if (!withinBounds(x, y, z)) {
+            return false;
+        }
+        long code = code(x, y, z);
+        lock.readLock().lock();
+        try {
+            for (int i = lowerBound(codes, 0, sorted, code); i < sorted && codes[i] == code; i++) {
+                if (entries[i] != null && xs[i] == x && ys[i] == y && zs[i] == z) {
+                    return true;
+                }
+            }
+            for (int i = sorted; i < count; i++) {
+                if (xs[i] == x && ys[i] == y && zs[i] == z) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int intersect(SimpleBoundingVolume region, Consumer<E> consumer) {
+        double maxX = region.max(Axis.X);
+        double minX = region.min(Axis.X);
+        double maxY = region.max(Axis.Y);
+        double minY = region.min(Axis.Y);
+        double maxZ = region.max(Axis.Z);
+        double minZ = region.min(Axis.Z);
+        if (maxX < x0 || minX >= x1 || maxY < y0 || minY >= y1 || maxZ < z0 || minZ >= z1) {
+            return 0; // not within the bounds of this map
+        }
+        double[] box = { minX, maxX, minY, maxY, minZ, maxZ };
+        int[] cells = {
+                quantize(minX, x0, scaleX), quantize(maxX, x0, scaleX),
+                quantize(minY, y0, scaleY), quantize(maxY, y0, scaleY),
+                quantize(minZ, z0, scaleZ), quantize(maxZ, z0, scaleZ)
+        };
+        // start from the smallest node that holds the whole query
+        int level = Math.min(commonLevel(cells[0], cells[1]),
+                             Math.min(commonLevel(cells[2], cells[3]), commonLevel(cells[4], cells[5])));
+        int shift = BITS - level;
+        int cx = cells[0] >> shift, cy = cells[2] >> shift, cz = cells[4] >> shift;
+        mergeBeforeQuery();
+        lock.readLock().lock();
+        try {
+            int lo = 0, hi = sorted;
+            if (level > 0) {
+                long base = interleave(cx, cy, cz) << 3 * shift;
+                long end = base + (1L << 3 * shift); // wraps negative past the last node
+                lo = lowerBound(codes, 0, sorted, base);
+                hi = end < 0 ? sorted : lowerBound(codes, lo, sorted, end);
+            }
+            int hits = intersect(region, consumer, box, cells, level, cx, cy, cz, lo, hi);
+            return hits + scan(region, consumer, box, sorted, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int commonLevel(int a, int b) {
+        return Integer.numberOfLeadingZeros(a ^ b) - (32 - BITS);
+    }
+
+    /**
+     * Queries scan the unsorted tail, so a long one is merged first, unless
+     * this thread is already inside a query and cannot take the write lock.
+     */
+    private void mergeBeforeQuery() {
+        if (count - sorted > leafSize * 4 && lock.getReadHoldCount() == 0) {
+            lock.writeLock().lock();
+            try {
+                if (count - sorted > leafSize * 4) {
+                    merge();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Walks the node at (cx,cy,cz) on this level, which holds [lo,hi) and is
+     * known to overlap the query, into those of its children that do.
+     */
+    private int intersect(SimpleBoundingVolume region, Consumer<E> consumer, double[] box, int[] cells,
+                          int level, int cx, int cy, int cz, int lo, int hi) {
+        int shift = BITS - level;
+        if (hi - lo <= leafSize || shift == 0) {
+            return scan(region, consumer, box, lo, hi);
+        }
+        int ax = cx << shift, bx = ax + (1 << shift) - 1;
+        int ay = cy << shift, by = ay + (1 << shift) - 1;
+        int az = cz << shift, bz = az + (1 << shift) - 1;
+        if (ax > cells[0] && bx < cells[1] && ay > cells[2] && by < cells[3] && az > cells[4] && bz < cells[5]) {
+            return scan(region, consumer, box, lo, hi); // entirely inside the query's box
+        }
+        int half = 1 << shift - 1;
+        int children = 0xFF; // bit mask
+        children &= overlap(ax + half, cells[0], cells[1], 0x55, 0xAA);
+        children &= overlap(ay + half, cells[2], cells[3], 0x33, 0xCC);
+        children &= overlap(az + half, cells[4], cells[5], 0x0F, 0xF0);
+        int hits = 0;
+        int childShift = 3 * (shift - 1);
+        long base = interleave(cx, cy, cz) << 3 * shift;
+        for (int i = 0; i < 8 && lo < hi; i++) {
+            if ((children & 1 << i) != 0) {
+                long childBase = base + ((long)i << childShift);
+                int start = lowerBound(codes, lo, hi, childBase);
+                int end = i == 7 ? hi : lowerBound(codes, start, hi, childBase + (1L << childShift));
+                if (start < end) {
+                    hits += intersect(region, consumer, box, cells, level + 1,
+                                      cx << 1 | i & 1, cy << 1 | i >> 1 & 1, cz << 1 | i >> 2 & 1,
+                                      start, end);
+                }
+                lo = end;
+            }
+        }
+        return hits;
+    }
+
+    private static int overlap(int mid, int min, int max, int lower, int upper) {
+        if (mid > max) return lower;
+        if (mid <= min) return upper;
+        return lower | upper;
+    }
+
+    private int scan(SimpleBoundingVolume region, Consumer<E> consumer, double[] box, int lo, int hi) {
+        double minX = box[0], maxX = box[1], minY = box[2], maxY = box[3], minZ = box[4], maxZ = box[5];
+        int hits = 0;
+        for (int i = lo; i < hi; i++) {
+            double x = xs[i], y = ys[i], z = zs[i];
+            // the box test is cheap, and rules out most points before includes()
+            if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            EntryImpl<E> entry = (EntryImpl<E>)entries[i];
+            if (entry != null && region.includes(x, y, z)) {
+                hits++;
+                consumer.found(entry, x, y, z);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Visits the implicit nodes best first, nearest to the query point, after
+     * offering the whole unsorted tail.
+     */
+    @Override
+    void search(NearestSearch search) {
+        mergeBeforeQuery();
+        lock.readLock().lock();
+        try {
+            for (int i = sorted; i < count; i++) {
+                if (entries[i] != null) {
+                    search.offer(entries[i], xs[i], ys[i], zs[i]);
+                }
+            }
+            offerNode(search, 0, 0, 0, 0, 0, sorted);
+            for (int id = search.pollNode(); id >= 0; id = search.pollNode()) {
+                int[] ints = search.ints;
+                int j = id * NearestSearch.INTS;
+                int level = ints[j], cx = ints[j + 1], cy = ints[j + 2], cz = ints[j + 3];
+                int lo = ints[j + 4], hi = ints[j + 5];
+                int shift = BITS - level;
+                if (hi - lo <= leafSize || shift == 0) {
+                    for (int i = lo; i < hi; i++) {
+                        if (entries[i] != null) {
+                            search.offer(entries[i], xs[i], ys[i], zs[i]);
+                        }
+                    }
+                    continue;
+                }
+                int childShift = 3 * (shift - 1);
+                long base = interleave(cx, cy, cz) << 3 * shift;
+                for (int i = 0; i < 8 && lo < hi; i++) {
+                    long childBase = base + ((long)i << childShift);
+                    int end = i == 7 ? hi : lowerBound(codes, lo, hi, childBase + (1L << childShift));
+                    if (lo < end) {
+                        offerNode(search, level + 1, cx << 1 | i & 1, cy << 1 | i >> 1 & 1, cz << 1 | i >> 2 & 1, lo, end);
+                    }
+                    lo = end;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues the node at (cx,cy,cz) on this level, which holds [lo,hi). Its
+     * bounds are widened by a cell each way, so that rounding in quantize()
+     * never puts a point outside of them.
+     */
+    private void offerNode(NearestSearch search, int level, int cx, int cy, int cz, int lo, int hi) {
+        int shift = BITS - level;
+        int size = 1 << shift;
+        int ax = cx << shift, ay = cy << shift, az = cz << shift;
+        double distance = search.distanceTo(x0 + (ax - 1) / scaleX, x0 + (ax + size + 1) / scaleX,
+                                            y0 + (ay - 1) / scaleY, y0 + (ay + size + 1) / scaleY,
+                                            z0 + (az - 1) / scaleZ, z0 + (az + size + 1) / scaleZ);
+        int id = search.offerNode(distance, null);
+        if (id >= 0) {
+            int[] ints = search.ints;
+            int j = id * NearestSearch.INTS;
+            ints[j] = level;
+            ints[j + 1] = cx;
+            ints[j + 2] = cy;
+            ints[j + 3] = cz;
+            ints[j + 4] = lo;
+            ints[j + 5] = hi;
+        }
+    }
+
+    @Override
+    public boolean add(E obj, double x, double y, double z) {
+        if (!withinBounds(x, y, z)) {
+            throw new IndexOutOfBoundsException(new Point(x, y, z).toString());
+        }
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(count + 1);
+            append(new EntryImpl<E>(this, obj), x, y, z);
+            size++;
+            modCount++;
+            mergeIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds many objects at once, sorting them into place in one pass.
+     * @param xyz The coordinates of the objects, three per object.
+     * @return The number of objects added.
+     */
+    public int addAll(List<? extends E> objects, double[] xyz) {
+        int n = objects.size();
+        if (xyz.length != n * 3) {
+            throw new IllegalArgumentException("Expected " + n * 3 + " coordinates, got " + xyz.length);
+        }
+        for (int i = 0, j = 0; i < n; i++, j += 3) {
+            if (!withinBounds(xyz[j], xyz[j + 1], xyz[j + 2])) {
+                throw new IndexOutOfBoundsException(new Point(xyz[j], xyz[j + 1], xyz[j + 2]).toString());
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(count + n);
+            int j = 0;
+            for (E obj : objects) {
+                append(new EntryImpl<E>(this, obj), xyz[j], xyz[j + 1], xyz[j + 2]);
+                j += 3;
+            }
+            size += n;
+            modCount++;
+            merge();
+            return n;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > codes.length) {
+            capacity = Math.max(capacity, codes.length + (codes.length >> 1));
+            codes = Arrays.copyOf(codes, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            entries = Arrays.copyOf(entries, capacity);
+        }
+    }
+
+    private void append(EntryImpl<E> entry, double x, double y, double z) {
+        int i = count++;
+        set(i, entry, code(x, y, z), x, y, z);
+    }
+
+    private void set(int i, EntryImpl<E> entry, long code, double x, double y, double z) {
+        codes[i] = code;
+        xs[i] = x;
+        ys[i] = y;
+        zs[i] = z;
+        entries[i] = entry;
+        entry.index = i;
+    }
+
+    private void copy(int from, int to) {
+        codes[to] = codes[from];
+        xs[to] = xs[from];
+        ys[to] = ys[from];
+        zs[to] = zs[from];
+        Object entry = entries[to] = entries[from];
+        if (entry != null) {
+            ((EntryImpl<?>)entry).index = to;
+        }
+    }
+
+    /**
+     * Shifts [from,from+length) by one place, left or right.
+     */
+    private void shift(int from, int length, int by) {
+        int to = from + by;
+        System.arraycopy(codes, from, codes, to, length);
+        System.arraycopy(xs, from, xs, to, length);
+        System.arraycopy(ys, from, ys, to, length);
+        System.arraycopy(zs, from, zs, to, length);
+        System.arraycopy(entries, from, entries, to, length);
+        for (int i = to, j = to + length; i < j; i++) {
+            if (entries[i] != null) {
+                ((EntryImpl<?>)entries[i]).index = i;
+            }
+        }
+    }
+
+    private void mergeIfNeeded() {
+        int limit = Math.max(MIN_TAIL, sorted >> 3);
+        if (count - sorted > limit || holes > limit) {
+            merge();
+        }
+    }
+
+    /**
+     * Sorts the tail and merges it into the sorted part, dropping holes. This
+     * is done in place, only the tail is copied out.
+     */
+    @SuppressWarnings("unchecked")
+    private void merge() {
+        int tail = count - sorted;
+        long[] tailCodes = Arrays.copyOfRange(codes, sorted, count);
+        int[] order = new int[tail];
+        for (int j = 0; j < tail; j++) {
+            order[j] = sorted + j;
+        }
+        sort(tailCodes, order, 0, tail - 1);
+        double[] tailXs = new double[tail];
+        double[] tailYs = new double[tail];
+        double[] tailZs = new double[tail];
+        Object[] tailEntries = new Object[tail];
+        for (int j = 0; j < tail; j++) {
+            int o = order[j];
+            tailXs[j] = xs[o];
+            tailYs[j] = ys[o];
+            tailZs[j] = zs[o];
+            tailEntries[j] = entries[o];
+        }
+
+        // squeeze out the holes, then merge from the back
+        int n = 0;
+        for (int i = 0; i < sorted; i++) {
+            if (entries[i] != null) {
+                if (i != n) {
+                    copy(i, n);
+                }
+                n++;
+            }
+        }
+        int i = n - 1, j = tail - 1;
+        n += tail;
+        for (int k = n - 1; j >= 0; k--) {
+            if (i >= 0 && codes[i] > tailCodes[j]) {
+                copy(i--, k);
+            } else {
+                set(k, (EntryImpl<E>)tailEntries[j], tailCodes[j], tailXs[j], tailYs[j], tailZs[j]);
+                j--;
+            }
+        }
+        Arrays.fill(entries, n, count, null);
+        sorted = count = n;
+        holes = 0;
+        modCount++;
+    }
+
+    private static void sort(long[] keys, int[] order, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < keys[lo]) swap(keys, order, mid, lo);
+            if (keys[hi] < keys[lo]) swap(keys, order, hi, lo);
+            if (keys[hi] < keys[mid]) swap(keys, order, hi, mid);
+            long pivot = keys[mid];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    swap(keys, order, i++, j--);
+                }
+            }
+            // recurse into the smaller side, loop on the larger
+            if (j - lo < hi - i) {
+                sort(keys, order, lo, j);
+                lo = i;
+            } else {
+                sort(keys, order, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            long key = keys[i];
+            int o = order[i];
+            int j = i - 1;
+            while (j >= lo && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            order[j + 1] = o;
+        }
+    }
+
+    private static void swap(long[] keys, int[] order, int a, int b) {
+        long k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+        int o = order[a];
+        order[a] = order[b];
+        order[b] = o;
+    }
+
+    private boolean moveImpl(EntryImpl<E> entry, double x, double y, double z) {
+        if (!withinBounds(x, y, z)) {
+            throw new IndexOutOfBoundsException(new Point(x, y, z).toString());
+        }
+        long code = code(x, y, z);
+        lock.writeLock().lock();
+        try {
+            checkOwner(entry);
+            int i = entry.index;
+            if (i >= sorted || codes[i] == code ||
+                (i == 0 || codes[i - 1] <= code) && (i + 1 == sorted || code <= codes[i + 1])) {
+                // still in order, move in place
+                codes[i] = code;
+                xs[i] = x;
+                ys[i] = y;
+                zs[i] = z;
+                return true;
+            }
+            // within leafSize places in the order, shift the points in between
+            if (code > codes[i]) {
+                int end = Math.min(sorted, i + leafSize + 1);
+                int j = lowerBound(codes, i + 1, end, code);
+                if (j < end || end == sorted) {
+                    shift(i + 1, j - i - 1, -1);
+                    set(j - 1, entry, code, x, y, z);
+                    modCount++;
+                    return true;
+                }
+            } else {
+                int start = Math.max(0, i - leafSize);
+                int j = lowerBound(codes, start, i, code);
+                if (j > start || start == 0 || codes[start - 1] < code) {
+                    shift(j, i - j, 1);
+                    set(j, entry, code, x, y, z);
+                    modCount++;
+                    return true;
+                }
+            }
+            entries[i] = null;
+            holes++;
+            ensureCapacity(count + 1);
+            append(entry, x, y, z);
+            modCount++;
+            mergeIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean removeImpl(EntryImpl<E> entry) {
+        lock.writeLock().lock();
+        try {
+            checkOwner(entry);
+            int i = entry.index;
+            if (i < sorted) {
+                entries[i] = null;
+                holes++;
+            } else {
+                int last = --count;
+                if (i != last) {
+                    codes[i] = codes[last];
+                    xs[i] = xs[last];
+                    ys[i] = ys[last];
+                    zs[i] = zs[last];
+                    entries[i] = entries[last];
+                    ((EntryImpl<?>)entries[i]).index = i;
+                }
+                entries[last] = null;
+            }
+            entry.map = null;
+            size--;
+            modCount++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkOwner(EntryImpl<E> entry) {
+        if (entry.map != this) {
+            throw new IllegalStateException("This entity has been orphaned and longer belongs to a spatial map");
+        }
+    }
+
+    private double getAxis(EntryImpl<E> entry, Axis axis) {
+        lock.readLock().lock();
+        try {
+            checkOwner(entry);
+            int i = entry.index;
+            return axis.of(xs[i], ys[i], zs[i]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                if (entries[i] != null) {
+                    ((EntryImpl<?>)entries[i]).map = null;
+                }
+            }
+            allocate(16);
+            sorted = count = holes = size = 0;
+            modCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Iterates in Morton order, then over the unsorted tail. Removing through
+     * the iterator is fine; any other change, including a move that shifts
+     * points, causes a ConcurrentModificationException.
+     */
+    public Iterator<Entry<E>> iterator() {
+        return new Iterator<Entry<E>>() {
+
+            private int expectedModCount = modCount;
+            private int index = 0;
+            private EntryImpl<E> last;
+
+            private void checkForConcurrentModification() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+
+            public boolean hasNext() {
+                checkForConcurrentModification();
+                while (index < count && entries[index] == null) {
+                    index++;
+                }
+                return index < count;
+            }
+
+            @SuppressWarnings("unchecked")
+            public Entry<E> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = (EntryImpl<E>)entries[index++];
+                return last;
+            }
+
+            public void remove() {
+                if (last == null) {
+                    throw new NoSuchElementException();
+                }
+                checkForConcurrentModification();
+                int i = last.index;
+                removeImpl(last);
+                expectedModCount = modCount;
+                if (i < count && entries[i] != null) {
+                    index = i; // the last entry of the tail was moved here
+                }
+                last = null;
+            }
+        };
+    }
+
+    @SuppressWarnings("serial") // entries belong to a live map, and are never serialized
+    private static final class EntryImpl<S> implements Entry<S> {
+
+        private final S value;
+
+        private LinearOctreeMap<S> map;
+        private int index;
+
+        private EntryImpl(LinearOctreeMap<S> map, S value) {
+            this.map = map;
+            this.value = value;
+        }
+
+        public S get() {
+            return value;
+        }
+
+        private LinearOctreeMap<S> map() {
+            LinearOctreeMap<S> map = this.map;
+            if (map == null) {
+                throw new IllegalStateException("This entity has been orphaned and longer belongs to a spatial map");
+            }
+            return map;
+        }
+
+        public double getAxis(Axis axis) {
+            return map().getAxis(this, axis);
+        }
+
+        public boolean move(Point p) {
+            return move(p.x, p.y, p.z);
+        }
+
+        public boolean move(double x, double y, double z) {
+            return map().moveImpl(this, x, y, z);
+        }
+
+        public boolean remove() {
+            return map().removeImpl(this);
+        }
+
+        @Override
+        public String toString() {
+            LinearOctreeMap<S> map = this.map;
+            return map == null
+                   ? String.format("Entry[orphan] -> (%s)", value)
+                   : String.format("Entry[%.4f,%.4f,%.4f] -> (%s)",
+                                   getAxis(Axis.X), getAxis(Axis.Y), getAxis(Axis.Z), value);
+        }
+    }
+}
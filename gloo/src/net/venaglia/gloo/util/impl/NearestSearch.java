@@ -0,0 +1,388 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.common.util.ThreadSingletonSource;
+import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
+import net.venaglia.gloo.physical.geom.Axis;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.AreaMap;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.Arrays;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 1:10 PM
+ *
+ * Scratch space for a nearest neighbour search, one per thread. The best k
+ * entries found so far are kept in a max-heap on their squared distance, so
+ * the worst is the one dropped, and the nodes still to visit in a min-heap on
+ * the squared distance from the query point to their bounds. The search is
+ * done when the nearest node left is no nearer than the worst of k entries.
+ *
+ * The search is also the sphere around the query point with the max distance
+ * as its radius, for maps that answer with a plain intersect().
+ */
+final class NearestSearch implements SimpleBoundingVolume, SpatialMap.Consumer<Object> {
+
+    /**
+     * Ints kept with each node, for the map's use.
+     */
+    static final int INTS = 6;
+
+    private static final ThreadSingletonSource<NearestSearch> SEARCHES = new ThreadSingletonSource<NearestSearch>() {
+        @Override
+        protected NearestSearch newInstance() {
+            return new NearestSearch();
+        }
+    };
+
+    double x;
+    double y;
+    double z;
+    private int k;
+    private double r;
+    private double limit; // r squared
+    private boolean busy;
+
+    private Object[] entries = new Object[16];
+    private double[] distances = new double[16];
+    private double[] xyz = new double[48];
+    private int found;
+
+    private Object[] nodes = new Object[64];
+    private double[] nodeDistances = new double[64];
+    int[] ints = new int[64 * INTS];
+    private int[] queue = new int[64]; // a heap of node ids
+    private int queued;
+    private int created;
+
+    private double[] childDistances = new double[64];
+
+    private NearestSearch() {
+    }
+
+    /**
+     * @param k The most entries to find, 0 when the search is only used as a
+     *     sphere.
+     * @param r The max distance of an entry from (x,y,z).
+     */
+    static NearestSearch acquire(double x, double y, double z, int k, double r) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative: " + k);
+        }
+        if (!(r >= 0)) {
+            throw new IllegalArgumentException("distance must be zero or more: " + r);
+        }
+        NearestSearch search = SEARCHES.get();
+        if (search.busy) {
+            search = new NearestSearch(); // the consumer is searching again from found()
+        }
+        search.busy = true;
+        search.x = x;
+        search.y = y;
+        search.z = z;
+        search.k = k;
+        search.r = r;
+        search.limit = r * r;
+        if (search.entries.length < k) {
+            search.grow(k);
+        }
+        return search;
+    }
+
+    void release() {
+        restart();
+        busy = false;
+    }
+
+    /**
+     * Forgets everything found and queued, to search again from the start.
+     */
+    void restart() {
+        Arrays.fill(entries, 0, found, null);
+        Arrays.fill(nodes, 0, created, null);
+        found = 0;
+        queued = 0;
+        created = 0;
+    }
+
+    boolean isBounded() {
+        return r != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return true if nothing at this squared distance can improve on what
+     *     has been found.
+     */
+    boolean prunes(double distance) {
+        return found < k ? distance > limit : distance >= distances[0];
+    }
+
+    /**
+     * @return The squared distance from the query point to the box.
+     */
+    double distanceTo(double x0, double x1, double y0, double y1, double z0, double z1) {
+        double d = 0, a;
+        a = x < x0 ? x0 - x : x > x1 ? x - x1 : 0;
+        d += a * a;
+        a = y < y0 ? y0 - y : y > y1 ? y - y1 : 0;
+        d += a * a;
+        a = z < z0 ? z0 - z : z > z1 ? z - z1 : 0;
+        d += a * a;
+        return d;
+    }
+
+    /**
+     * Writes the squared distance from the query point to each octant of the
+     * box split at (x_,y_,z_) into eight slots from at, octant i being on the
+     * upper side of x, y and z for bits 1, 2 and 4 of i.
+     */
+    void distancesToOctants(double x0, double x_, double x1,
+                            double y0, double y_, double y1,
+                            double z0, double z_, double z1,
+                            double[] into, int at) {
+        double a;
+        a = x < x0 ? x0 - x : x > x_ ? x - x_ : 0;
+        double lx = a * a;
+        a = x < x_ ? x_ - x : x > x1 ? x - x1 : 0;
+        double ux = a * a;
+        a = y < y0 ? y0 - y : y > y_ ? y - y_ : 0;
+        double ly = a * a;
+        a = y < y_ ? y_ - y : y > y1 ? y - y1 : 0;
+        double uy = a * a;
+        a = z < z0 ? z0 - z : z > z_ ? z - z_ : 0;
+        double lz = a * a;
+        a = z < z_ ? z_ - z : z > z1 ? z - z1 : 0;
+        double uz = a * a;
+        into[at] = lx + ly + lz;
+        into[at + 1] = ux + ly + lz;
+        into[at + 2] = lx + uy + lz;
+        into[at + 3] = ux + uy + lz;
+        into[at + 4] = lx + ly + uz;
+        into[at + 5] = ux + ly + uz;
+        into[at + 6] = lx + uy + uz;
+        into[at + 7] = ux + uy + uz;
+    }
+
+    void offer(Object entry, double x, double y, double z) {
+        double a = x - this.x, b = y - this.y, c = z - this.z;
+        double distance = a * a + b * b + c * c;
+        if (prunes(distance)) {
+            return;
+        }
+        int i;
+        if (found < k) {
+            i = found++;
+            while (i > 0) { // sift up
+                int parent = (i - 1) >> 1;
+                if (distances[parent] >= distance) {
+                    break;
+                }
+                move(parent, i);
+                i = parent;
+            }
+        } else {
+            i = 0;
+            while (true) { // sift down, replacing the worst
+                int child = 2 * i + 1;
+                if (child >= found) {
+                    break;
+                }
+                if (child + 1 < found && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+        }
+        entries[i] = entry;
+        distances[i] = distance;
+        xyz[i * 3] = x;
+        xyz[i * 3 + 1] = y;
+        xyz[i * 3 + 2] = z;
+    }
+
+    public void found(SpatialMap.Entry<Object> entry, double x, double y, double z) {
+        offer(entry, x, y, z);
+    }
+
+    @SuppressWarnings("unchecked")
+    <E> SpatialMap.Consumer<E> asConsumer() {
+        Object consumer = this;
+        return (SpatialMap.Consumer<E>)consumer;
+    }
+
+    private void move(int from, int to) {
+        entries[to] = entries[from];
+        distances[to] = distances[from];
+        xyz[to * 3] = xyz[from * 3];
+        xyz[to * 3 + 1] = xyz[from * 3 + 1];
+        xyz[to * 3 + 2] = xyz[from * 3 + 2];
+    }
+
+    private void grow(int k) {
+        entries = Arrays.copyOf(entries, k);
+        distances = Arrays.copyOf(distances, k);
+        xyz = Arrays.copyOf(xyz, k * 3);
+    }
+
+    /**
+     * Queues a node to visit, unless it is too far away to matter.
+     *
+     * @return The node's id, for its ints, or -1 if it was not queued.
+     */
+    int offerNode(double distance, Object node) {
+        if (prunes(distance)) {
+            return -1;
+        }
+        int id = created++;
+        if (id == nodes.length) {
+            nodes = Arrays.copyOf(nodes, id * 2);
+            nodeDistances = Arrays.copyOf(nodeDistances, id * 2);
+            ints = Arrays.copyOf(ints, id * 2 * INTS);
+            queue = Arrays.copyOf(queue, id * 2);
+        }
+        nodes[id] = node;
+        nodeDistances[id] = distance;
+        int i = queued++;
+        while (i > 0) { // sift up
+            int parent = (i - 1) >> 1;
+            if (nodeDistances[queue[parent]] <= distance) {
+                break;
+            }
+            queue[i] = queue[parent];
+            i = parent;
+        }
+        queue[i] = id;
+        return id;
+    }
+
+    /**
+     * @return The id of the nearest node left to visit, or -1 when no node
+     *     left can hold a better entry.
+     */
+    int pollNode() {
+        if (queued == 0 || prunes(nodeDistances[queue[0]])) {
+            return -1;
+        }
+        int id = queue[0];
+        int last = queue[--queued];
+        double distance = nodeDistances[last];
+        int i = 0;
+        while (true) { // sift down
+            int child = 2 * i + 1;
+            if (child >= queued) {
+                break;
+            }
+            if (child + 1 < queued && nodeDistances[queue[child + 1]] < nodeDistances[queue[child]]) {
+                child++;
+            }
+            if (nodeDistances[queue[child]] >= distance) {
+                break;
+            }
+            queue[i] = queue[child];
+            i = child;
+        }
+        queue[i] = last;
+        return id;
+    }
+
+    Object node(int id) {
+        return nodes[id];
+    }
+
+    /**
+     * @return Eight slots for the squared distances of a node's children, at
+     *     8 * depth, for maps that descend recursively instead of queueing.
+     */
+    double[] childDistances(int depth) {
+        if (childDistances.length < depth * 8 + 8) {
+            childDistances = Arrays.copyOf(childDistances, depth * 16 + 16);
+        }
+        return childDistances;
+    }
+
+    /**
+     * @return The nearest entry found, or null if none was.
+     */
+    Object nearest() {
+        int best = -1;
+        for (int i = 0; i < found; i++) {
+            if (best < 0 || distances[i] < distances[best]) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : entries[best];
+    }
+
+    /**
+     * Sorts the heap in place, nearest first.
+     */
+    private void sort() {
+        for (int n = found - 1; n > 0; n--) {
+            Object entry = entries[n];
+            double distance = distances[n];
+            double x = xyz[n * 3], y = xyz[n * 3 + 1], z = xyz[n * 3 + 2];
+            move(0, n);
+            int i = 0;
+            while (true) { // sift down within [0,n)
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            entries[i] = entry;
+            distances[i] = distance;
+            xyz[i * 3] = x;
+            xyz[i * 3 + 1] = y;
+            xyz[i * 3 + 2] = z;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    <E> int deliver(SpatialMap.Consumer<E> consumer) {
+        sort();
+        for (int i = 0, j = 0; i < found; i++, j += 3) {
+            consumer.found((SpatialMap.Entry<E>)entries[i], xyz[j], xyz[j + 1], xyz[j + 2]);
+        }
+        return found;
+    }
+
+    @SuppressWarnings("unchecked")
+    <E> int deliver(AreaMap.Consumer<E> consumer) {
+        sort();
+        for (int i = 0, j = 0; i < found; i++, j += 3) {
+            consumer.found((AreaMap.Entry<E>)entries[i], xyz[j], xyz[j + 1]);
+        }
+        return found;
+    }
+
+    public double min(Axis axis) {
+        return axis.of(x, y, z) - r;
+    }
+
+    public double max(Axis axis) {
+        return axis.of(x, y, z) + r;
+    }
+
+    public boolean includes(Point point) {
+        return includes(point.x, point.y, point.z);
+    }
+
+    public boolean includes(double x, double y, double z) {
+        double a = x - this.x, b = y - this.y, c = z - this.z;
+        return a * a + b * b + c * c <= limit;
+    }
+}
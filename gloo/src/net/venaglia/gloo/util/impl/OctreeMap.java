@@ -1,5 +1,6 @@
 package net.venaglia.gloo.util.impl;
 
+import net.venaglia.common.util.ThreadSingletonSource;
 import net.venaglia.gloo.physical.bounds.BoundingBox;
 import net.venaglia.gloo.physical.bounds.BoundingVolume;
 import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
@@ -12,25 +13,66 @@ import net.venaglia.gloo.projection.GeometryBuffer;
 import net.venaglia.gloo.projection.Projectable;
 import net.venaglia.gloo.util.OctreeVoxel;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * User: ed
  * Date: 10/8/12
  * Time: 12:11 PM
+ *
+ * Each node has its own lock. Writers lock only the subtree they change: a
+ * remove locks the entry's leaf, a move locks the smallest node holding both
+ * the old and new position, a unify locks the node being collapsed, and an
+ * add locks the leaf it lands in. Any further locks are taken from there
+ * down, each while holding its parent's, so writers cannot deadlock. Counts
+ * above the locked subtree are updated atomically.
+ *
+ * In the LOCKING mode nodes have a ReentrantReadWriteLock, and queries take
+ * read locks from the root down, as before. An add also locks its way down
+ * from the root, as there is no way to find its leaf without a lock.
+ *
+ * In the OPTIMISTIC mode nodes have a StampedLock, and queries take no locks
+ * at all: a query reads each node it visits under an optimistic stamp, and
+ * reports its hits only once every stamp still validates, so it never sees a
+ * moving entry twice or not at all. A query that fails validation waits for
+ * the writer in its way, then starts over. Queries never hold up writers in
+ * this mode, but a large query may be retried many times while writers are
+ * busy in the region it covers.
  */
 public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
 
+    public enum Concurrency {
+        LOCKING, OPTIMISTIC
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<OctreeMap> COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(OctreeMap.class, "totalEntryCount");
+
+    private static final int OPTIMISTIC_CHUNK = 64; // queries of a batch validated together
+
+    private static final ThreadSingletonSource<Query> QUERIES = new ThreadSingletonSource<Query>() {
+        @Override
+        protected Query newInstance() {
+            return new Query();
+        }
+    };
+
     private final OctreeMap<E> parent;
     private final int depth;
     private final int divideThreshold;
     private final int unifyThreshold;
+    private final Concurrency concurrency;
     private final double x0;
     private final double x_;
     private final double x1;
@@ -40,22 +82,32 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
     private final double z0;
     private final double z_;
     private final double z1;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReadWriteLock lock; // in the LOCKING mode
+    private final StampedLock stampedLock; // in the OPTIMISTIC mode
 
     private boolean containsNodes = true;
     private Object[] children = new Object[4];
-    private int totalEntryCount = 0;
+    private volatile int totalEntryCount = 0;
     private int modCount = 0;
+    private boolean obsolete = false; // no longer in the tree, after a unify or clear
+    private long writeStamp;
 
     private OctreeMap(OctreeMap<E> parent, int depth,
                       int divideThreshold, int unifyThreshold,
+                      Concurrency concurrency,
                       double x0, double x1,
                       double y0, double y1,
                       double z0, double z1) {
+        if (concurrency == null) {
+            throw new NullPointerException("concurrency");
+        }
         this.parent = parent;
         this.depth = depth;
         this.divideThreshold = divideThreshold;
         this.unifyThreshold = unifyThreshold;
+        this.concurrency = concurrency;
+        this.lock = concurrency == Concurrency.LOCKING ? new ReentrantReadWriteLock() : null;
+        this.stampedLock = concurrency == Concurrency.OPTIMISTIC ? new StampedLock() : null;
         this.x0 = x0;
         this.x_ = (x0 + x1) / 2.0;
         this.x1 = x1;
@@ -73,14 +125,19 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
         }
     }
 
-    public OctreeMap(BoundingVolume<?> bounds, int divideThreshold, int unifyThreshold) {
+    public OctreeMap(BoundingVolume<?> bounds, int divideThreshold, int unifyThreshold, Concurrency concurrency) {
         this(null, 0,
              divideThreshold, unifyThreshold,
+             concurrency,
              bounds.min(Axis.X), bounds.max(Axis.X),
              bounds.min(Axis.Y), bounds.max(Axis.Y),
              bounds.min(Axis.Z), bounds.max(Axis.Z));
     }
 
+    public OctreeMap(BoundingVolume<?> bounds, int divideThreshold, int unifyThreshold) {
+        this(bounds, divideThreshold, unifyThreshold, Concurrency.LOCKING);
+    }
+
     public OctreeMap(BoundingVolume<?> bounds, int divideThreshold) {
         this(bounds, divideThreshold, divideThreshold - (divideThreshold / 8) - 1);
     }
@@ -89,26 +146,79 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
         this(bounds, 6);
     }
 
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
     public boolean contains(double x, double y, double z) {
-        if (withinBounds(x, y, z)) {
-            lock.readLock().lock();
-            try {
-                if (containsNodes) {
-                    for (int i = 0; i < totalEntryCount; i++) {
-                        Entry<?> child = (Entry<?>)children[i];
-                        if (child.getAxis(Axis.X) == x && child.getAxis(Axis.Y) == y && child.getAxis(Axis.Z) == z) {
-                            return true;
-                        }
+        if (!withinBounds(x, y, z)) {
+            return false;
+        }
+        if (concurrency == Concurrency.OPTIMISTIC) {
+            int found;
+            do {
+                found = containsOptimistic(x, y, z);
+            } while (found < 0);
+            return found == 1;
+        }
+        return containsLocked(x, y, z);
+    }
+
+    private boolean containsLocked(double x, double y, double z) {
+        lock.readLock().lock();
+        try {
+            if (containsNodes) {
+                for (int i = 0; i < totalEntryCount; i++) {
+                    Entry<?> child = (Entry<?>)children[i];
+                    if (child.getAxis(Axis.X) == x && child.getAxis(Axis.Y) == y && child.getAxis(Axis.Z) == z) {
+                        return true;
                     }
-                } else {
-                    OctreeMap<E> child = whichChild(x, y, z, false);
-                    return child != null && child.contains(x, y, z);
                 }
-            } finally {
-                lock.readLock().unlock();
+                return false;
+            } else {
+                OctreeMap<E> child = whichChild(x, y, z, false);
+                return child != null && child.containsLocked(x, y, z);
             }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 1 if found, 0 if not, or -1 if a writer got in the way.
+     */
+    private int containsOptimistic(double x, double y, double z) {
+        OctreeMap<E> node = this;
+        while (true) {
+            long stamp = node.stampedLock.tryOptimisticRead();
+            boolean containsNodes = node.containsNodes;
+            Object[] children = node.children;
+            int count = Math.min(node.totalEntryCount, children.length);
+            int i = node.indexFor(x, y, z);
+            Object child = containsNodes || i >= children.length ? null : children[i];
+            boolean found = false;
+            for (int j = 0; containsNodes && j < count && !found; j++) {
+                Object o = children[j];
+                if (o instanceof Entry) {
+                    Entry<?> entry = (Entry<?>)o;
+                    found = entry.getAxis(Axis.X) == x && entry.getAxis(Axis.Y) == y && entry.getAxis(Axis.Z) == z;
+                }
+            }
+            boolean obsolete = node.obsolete;
+            if (!node.stampedLock.validate(stamp) || obsolete) {
+                node.awaitWriter();
+                return -1;
+            }
+            if (containsNodes) {
+                return found ? 1 : 0;
+            }
+            if (!(child instanceof OctreeMap)) {
+                return 0;
+            }
+            @SuppressWarnings("unchecked")
+            OctreeMap<E> next = (OctreeMap<E>)child;
+            node = next;
         }
-        return false;
     }
 
     public int intersect(SimpleBoundingVolume region, Consumer<E> consumer) {
@@ -121,6 +231,31 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
         if (maxX < x0 || minX >= x1 || maxY < y0 || minY >= y1 || maxZ < z0 || minZ >= z1) {
             return 0; // not without the bounds of this node;
         }
+        if (concurrency == Concurrency.OPTIMISTIC) {
+            Query query = acquireQuery();
+            try {
+                query.load(region, minX, maxX, minY, maxY, minZ, maxZ);
+                while (true) {
+                    query.reset();
+                    if (collect(query) && query.validate()) {
+                        return query.deliver(consumer);
+                    }
+                }
+            } finally {
+                query.release();
+            }
+        }
+        return intersectLocked(region, minX, maxX, minY, maxY, minZ, maxZ, consumer);
+    }
+
+    private int intersectLocked(SimpleBoundingVolume region,
+                                double minX, double maxX,
+                                double minY, double maxY,
+                                double minZ, double maxZ,
+                                Consumer<E> consumer) {
+        if (maxX < x0 || minX >= x1 || maxY < y0 || minY >= y1 || maxZ < z0 || minZ >= z1) {
+            return 0; // not without the bounds of this node;
+        }
         int hits = 0;
         lock.readLock().lock();
         try {
@@ -134,16 +269,13 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
                     }
                 }
             } else {
-                int cells = 0xFF; // bit mask
-                cells &= intersect(x_, minX, maxX, 0x55, 0xAA);
-                cells &= intersect(y_, minY, maxY, 0x33, 0xCC);
-                cells &= intersect(z_, minZ, maxZ, 0x0F, 0xF0);
+                int cells = cellsFor(minX, maxX, minY, maxY, minZ, maxZ);
                 for (int i = 0; i < 8; i++) {
                     if ((cells & 1) == 1) {
                         @SuppressWarnings("unchecked")
                         OctreeMap<E> child = (OctreeMap<E>)children[i];
                         if (child != null) {
-                            hits += child.intersect(region, consumer);
+                            hits += child.intersectLocked(region, minX, maxX, minY, maxY, minZ, maxZ, consumer);
                         }
                     }
                     cells >>= 1;
@@ -155,6 +287,375 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
         return hits;
     }
 
+    /**
+     * Reads this node and the children the query overlaps under optimistic
+     * stamps, buffering the hits.
+     *
+     * @return false if a writer got in the way, and the query must start over.
+     */
+    private boolean collect(Query query) {
+        if (query.maxX < x0 || query.minX >= x1 || query.maxY < y0 || query.minY >= y1 || query.maxZ < z0 || query.minZ >= z1) {
+            return true;
+        }
+        long stamp = stampedLock.tryOptimisticRead();
+        boolean containsNodes = this.containsNodes;
+        Object[] children = this.children;
+        if (containsNodes) {
+            int count = Math.min(totalEntryCount, children.length);
+            for (int i = 0; i < count; i++) {
+                Object child = children[i];
+                double x, y, z;
+                if (child instanceof AbstractBasicEntry) {
+                    AbstractBasicEntry<?> entry = (AbstractBasicEntry<?>)child;
+                    x = entry.x;
+                    y = entry.y;
+                    z = entry.z;
+                } else if (child instanceof Entry) {
+                    Entry<?> entry = (Entry<?>)child;
+                    x = entry.getAxis(Axis.X);
+                    y = entry.getAxis(Axis.Y);
+                    z = entry.getAxis(Axis.Z);
+                } else {
+                    awaitWriter(); // half written
+                    return false;
+                }
+                if (query.region.includes(x, y, z)) {
+                    query.found(child, x, y, z);
+                }
+            }
+        }
+        boolean obsolete = this.obsolete;
+        if (!stampedLock.validate(stamp) || obsolete) {
+            awaitWriter();
+            return false;
+        }
+        query.visited(this, stamp);
+        if (!containsNodes) {
+            // children read past here are checked when the query validates
+            int cells = cellsFor(query.minX, query.maxX, query.minY, query.maxY, query.minZ, query.maxZ);
+            for (int i = 0; i < 8 && i < children.length; i++) {
+                if ((cells & 1) == 1) {
+                    Object child = children[i];
+                    if (child instanceof OctreeMap) {
+                        @SuppressWarnings("unchecked")
+                        OctreeMap<E> node = (OctreeMap<E>)child;
+                        if (!node.collect(query)) {
+                            return false;
+                        }
+                    }
+                }
+                cells >>= 1;
+            }
+        }
+        return true;
+    }
+
+    private static Query acquireQuery() {
+        Query query = QUERIES.get();
+        if (query.busy) {
+            query = new Query(); // the consumer is querying again from found()
+        }
+        query.busy = true;
+        return query;
+    }
+
+    /**
+     * Walks the tree once for a run of queries, taking down into each node
+     * only those that reach it. In the OPTIMISTIC mode the queries are read
+     * and validated a chunk at a time, so a writer in the way costs only the
+     * chunk it touched.
+     */
+    @Override
+    int intersectAll(QueryBatch batch, int from, int to, BatchConsumer<E> consumer) {
+        QueryBatch.Walk walk = QueryBatch.Walk.acquire();
+        try {
+            int[] in = walk.subset(depth, to - from);
+            System.arraycopy(batch.order, from, in, 0, to - from);
+            if (concurrency == Concurrency.LOCKING) {
+                return intersectAllLocked(batch, walk, in, to - from, consumer);
+            }
+            int hits = 0;
+            Query query = acquireQuery();
+            try {
+                for (int i = 0, n = to - from; i < n; i += OPTIMISTIC_CHUNK) {
+                    int j = Math.min(i + OPTIMISTIC_CHUNK, n);
+                    while (true) {
+                        query.reset();
+                        if (collectAll(batch, walk, in, i, j, query) && query.validate()) {
+                            hits += query.deliver(consumer);
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                query.release();
+            }
+            return hits;
+        } finally {
+            walk.release();
+        }
+    }
+
+    private int intersectAllLocked(QueryBatch batch, QueryBatch.Walk walk, int[] in, int count, BatchConsumer<E> consumer) {
+        int[] reaching = walk.subset(depth + 1, count);
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (batch.reaches(in[i], x0, x1, y0, y1, z0, z1)) {
+                reaching[n++] = in[i];
+            }
+        }
+        if (n == 0) {
+            return 0;
+        }
+        int hits = 0;
+        lock.readLock().lock();
+        try {
+            if (containsNodes) {
+                for (int i = 0; i < totalEntryCount; i++) {
+                    @SuppressWarnings("unchecked")
+                    AbstractEntry<E> child = (AbstractEntry<E>)children[i];
+                    double x = child.x, y = child.y, z = child.z;
+                    for (int j = 0; j < n; j++) {
+                        if (batch.includes(reaching[j], x, y, z)) {
+                            hits++;
+                            consumer.found(reaching[j], child, x, y, z);
+                        }
+                    }
+                }
+            } else {
+                for (int i = 0; i < 8; i++) {
+                    @SuppressWarnings("unchecked")
+                    OctreeMap<E> child = (OctreeMap<E>)children[i];
+                    if (child != null) {
+                        hits += child.intersectAllLocked(batch, walk, reaching, n, consumer);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    /**
+     * Like collect(), for the queries in[from,to) of a batch.
+     *
+     * @return false if a writer got in the way, and the queries must start over.
+     */
+    private boolean collectAll(QueryBatch batch, QueryBatch.Walk walk, int[] in, int from, int to, Query query) {
+        int[] reaching = walk.subset(depth + 1, to - from);
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (batch.reaches(in[i], x0, x1, y0, y1, z0, z1)) {
+                reaching[n++] = in[i];
+            }
+        }
+        if (n == 0) {
+            return true;
+        }
+        long stamp = stampedLock.tryOptimisticRead();
+        boolean containsNodes = this.containsNodes;
+        Object[] children = this.children;
+        if (containsNodes) {
+            int count = Math.min(totalEntryCount, children.length);
+            for (int i = 0; i < count; i++) {
+                Object child = children[i];
+                double x, y, z;
+                if (child instanceof AbstractBasicEntry) {
+                    AbstractBasicEntry<?> entry = (AbstractBasicEntry<?>)child;
+                    x = entry.x;
+                    y = entry.y;
+                    z = entry.z;
+                } else if (child instanceof Entry) {
+                    Entry<?> entry = (Entry<?>)child;
+                    x = entry.getAxis(Axis.X);
+                    y = entry.getAxis(Axis.Y);
+                    z = entry.getAxis(Axis.Z);
+                } else {
+                    awaitWriter(); // half written
+                    return false;
+                }
+                for (int j = 0; j < n; j++) {
+                    if (batch.includes(reaching[j], x, y, z)) {
+                        query.found(reaching[j], child, x, y, z);
+                    }
+                }
+            }
+        }
+        boolean obsolete = this.obsolete;
+        if (!stampedLock.validate(stamp) || obsolete) {
+            awaitWriter();
+            return false;
+        }
+        query.visited(this, stamp);
+        if (!containsNodes) {
+            // children read past here are checked when the query validates
+            for (int i = 0; i < 8 && i < children.length; i++) {
+                Object child = children[i];
+                if (child instanceof OctreeMap) {
+                    @SuppressWarnings("unchecked")
+                    OctreeMap<E> node = (OctreeMap<E>)child;
+                    if (!node.collectAll(batch, walk, reaching, 0, n, query)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void search(NearestSearch search) {
+        if (concurrency == Concurrency.OPTIMISTIC) {
+            Query query = acquireQuery();
+            try {
+                while (true) {
+                    query.reset();
+                    search.restart();
+                    if (searchOptimistic(search, query) && query.validate()) {
+                        return;
+                    }
+                }
+            } finally {
+                query.release();
+            }
+        }
+        searchLocked(search, 0);
+    }
+
+    /**
+     * Visits nodes best first, nearest to the query point, each under an
+     * optimistic stamp that the query validates once the search is done.
+     *
+     * @return false if a writer got in the way, and the search must start over.
+     */
+    private boolean searchOptimistic(NearestSearch search, Query query) {
+        search.offerNode(distanceTo(search), this);
+        for (int id = search.pollNode(); id >= 0; id = search.pollNode()) {
+            OctreeMap<?> node = (OctreeMap<?>)search.node(id);
+            long stamp = node.stampedLock.tryOptimisticRead();
+            boolean containsNodes = node.containsNodes;
+            Object[] children = node.children;
+            if (containsNodes) {
+                int count = Math.min(node.totalEntryCount, children.length);
+                for (int i = 0; i < count; i++) {
+                    Object child = children[i];
+                    if (child instanceof AbstractBasicEntry) {
+                        AbstractBasicEntry<?> entry = (AbstractBasicEntry<?>)child;
+                        search.offer(child, entry.x, entry.y, entry.z);
+                    } else if (child instanceof Entry) {
+                        Entry<?> entry = (Entry<?>)child;
+                        search.offer(child, entry.getAxis(Axis.X), entry.getAxis(Axis.Y), entry.getAxis(Axis.Z));
+                    } else {
+                        node.awaitWriter(); // half written
+                        return false;
+                    }
+                }
+            } else if (node.withinBounds(search.x, search.y, search.z) && search.prunes(node.distanceToSplits(search))) {
+                // only the child holding the query point is near enough
+                int i = node.indexFor(search.x, search.y, search.z);
+                Object child = i < children.length ? children[i] : null;
+                if (child instanceof OctreeMap) {
+                    search.offerNode(0, child);
+                }
+            } else {
+                double[] distances = search.childDistances(0);
+                node.distancesToChildren(search, distances, 0);
+                for (int i = 0; i < 8 && i < children.length; i++) {
+                    Object child = children[i];
+                    if (child instanceof OctreeMap) {
+                        search.offerNode(distances[i], child);
+                    }
+                }
+            }
+            boolean obsolete = node.obsolete;
+            if (!node.stampedLock.validate(stamp) || obsolete) {
+                node.awaitWriter();
+                return false;
+            }
+            query.visited(node, stamp);
+        }
+        return true;
+    }
+
+    /**
+     * Descends into the nearest child first, holding the read locks of the
+     * path down, like intersect(), and skips the children too far away.
+     */
+    private void searchLocked(NearestSearch search, int depth) {
+        lock.readLock().lock();
+        try {
+            if (containsNodes) {
+                for (int i = 0; i < totalEntryCount; i++) {
+                    AbstractEntry<?> child = (AbstractEntry<?>)children[i];
+                    search.offer(child, child.x, child.y, child.z);
+                }
+            } else {
+                // the child holding the query point is the nearest, and no
+                // other is nearer than the nearest of the planes between them
+                int first = -1;
+                if (withinBounds(search.x, search.y, search.z)) {
+                    first = indexFor(search.x, search.y, search.z);
+                    if (children[first] != null) {
+                        ((OctreeMap<?>)children[first]).searchLocked(search, depth + 1);
+                    }
+                    if (search.prunes(distanceToSplits(search))) {
+                        return;
+                    }
+                }
+                double[] distances = search.childDistances(depth);
+                int base = depth * 8;
+                distancesToChildren(search, distances, base);
+                int remaining = 0; // bit mask
+                for (int i = 0; i < 8; i++) {
+                    if (i != first && children[i] != null && !search.prunes(distances[base + i])) {
+                        remaining |= 1 << i;
+                    }
+                }
+                while (remaining != 0) {
+                    int nearest = -1;
+                    for (int i = 0; i < 8; i++) {
+                        if ((remaining & 1 << i) != 0 && (nearest < 0 || distances[base + i] < distances[base + nearest])) {
+                            nearest = i;
+                        }
+                    }
+                    if (search.prunes(distances[base + nearest])) {
+                        break; // so are the rest, they are no nearer
+                    }
+                    remaining &= ~(1 << nearest);
+                    ((OctreeMap<?>)children[nearest]).searchLocked(search, depth + 1);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private double distanceTo(NearestSearch search) {
+        return search.distanceTo(x0, x1, y0, y1, z0, z1);
+    }
+
+    /**
+     * @return The squared distance from the query point to the nearest of the
+     *     planes dividing this node.
+     */
+    private double distanceToSplits(NearestSearch search) {
+        double a = search.x - x_, b = search.y - y_, c = search.z - z_;
+        return Math.min(a * a, Math.min(b * b, c * c));
+    }
+
+    private void distancesToChildren(NearestSearch search, double[] into, int at) {
+        search.distancesToOctants(x0, x_, x1, y0, y_, y1, z0, z_, z1, into, at);
+    }
+
+    private int cellsFor(double minX, double maxX, double minY, double maxY, double minZ, double maxZ) {
+        int cells = 0xFF; // bit mask
+        cells &= intersect(x_, minX, maxX, 0x55, 0xAA);
+        cells &= intersect(y_, minY, maxY, 0x33, 0xCC);
+        cells &= intersect(z_, minZ, maxZ, 0x0F, 0xF0);
+        return cells;
+    }
+
     public BoundingVolume<?> getBounds() {
         return new BoundingBox(new Point(x0, y0, z0), new Point(x1, y1, z1));
     }
@@ -165,6 +666,47 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
         return lower | upper;
     }
 
+    private void lockWrite() {
+        if (stampedLock != null) {
+            writeStamp = stampedLock.writeLock();
+        } else {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlockWrite() {
+        if (stampedLock != null) {
+            stampedLock.unlockWrite(writeStamp);
+        } else {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long lockRead() {
+        if (stampedLock != null) {
+            return stampedLock.readLock();
+        }
+        lock.readLock().lock();
+        return 0L;
+    }
+
+    private void unlockRead(long stamp) {
+        if (stampedLock != null) {
+            stampedLock.unlockRead(stamp);
+        } else {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Blocks until the writer holding this node, if any, is done. Readers
+     * only wait here, they never hold the lock while working, so they cannot
+     * hold up writers.
+     */
+    private void awaitWriter() {
+        stampedLock.unlockRead(stampedLock.readLock());
+    }
+
     @Override
     protected boolean addImpl(AbstractEntry<E> entry) throws UnsupportedOperationException {
         double x = entry.getAxis(Axis.X);
@@ -177,76 +719,233 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
         if (!withinBounds(x, y, z)) {
             throw new IndexOutOfBoundsException();
         }
-        lock.writeLock().lock();
-        try {
-            if (containsNodes && totalEntryCount + 1 < divideThreshold) {
-                if (children.length <= totalEntryCount) {
-                    Object[] c = children;
-                    children = new Object[Math.min(c.length * 2, divideThreshold)];
-                    System.arraycopy(c, 0, children, 0, c.length);
-                }
-                children[totalEntryCount++] = entry;
-                setParent(entry, this);
-                modCount++;
-                return true;
-            } else if (containsNodes) {
-                // divide spaces
-                Object[] previousChildren = children;
-                children = new Object[8];
-                containsNodes = false;
-                for (int i = 0; i < totalEntryCount; i++) {
-                    @SuppressWarnings("unchecked")
-                    AbstractEntry<E> e = (AbstractEntry<E>)previousChildren[i];
-                    double a = e.getAxis(Axis.X);
-                    double b = e.getAxis(Axis.Y);
-                    double c = e.getAxis(Axis.Z);
-                    whichChild(a, b, c, true).addImpl(e, a, b, c);
+        while (true) {
+            OctreeMap<E> node = deepestNodeFor(x, y, z);
+            node.lockWrite();
+            try {
+                if (!node.obsolete) {
+                    node.addBelow(entry, x, y, z, null);
+                    return true;
                 }
-                containsNodes = false;
+            } finally {
+                node.unlockWrite();
             }
-            if (whichChild(x, y, z, true).addImpl(entry, x, y, z)) {
-                totalEntryCount++;
-                modCount++;
-                return true;
+        }
+    }
+
+    /**
+     * Finds, without locking, the deepest node there is for a point. It may be
+     * split, or made obsolete, before the caller locks it.
+     */
+    private OctreeMap<E> deepestNodeFor(double x, double y, double z) {
+        OctreeMap<E> node = this;
+        while (true) {
+            if (node.stampedLock == null) {
+                return this; // the LOCKING mode, no optimistic reads
             }
-            return false;
+            long stamp = node.stampedLock.tryOptimisticRead();
+            Object[] children = node.children;
+            int i = node.indexFor(x, y, z);
+            Object child = node.containsNodes || i >= children.length ? null : children[i];
+            if (!node.stampedLock.validate(stamp) || !(child instanceof OctreeMap)) {
+                return node;
+            }
+            @SuppressWarnings("unchecked")
+            OctreeMap<E> next = (OctreeMap<E>)child;
+            node = next;
+        }
+    }
+
+    /**
+     * Adds an entry below this node, which the caller holds write locked,
+     * locking each node on the way down. Counts are updated up to, but not
+     * including, the stop node.
+     */
+    private void addBelow(AbstractEntry<E> entry, double x, double y, double z, OctreeMap<E> stop) {
+        if (containsNodes) {
+            insert(entry, x, y, z);
+            for (OctreeMap<E> node = parent; node != stop; node = node.parent) {
+                COUNT.incrementAndGet(node);
+            }
+            return;
+        }
+        OctreeMap<E> child = whichChild(x, y, z, true);
+        child.lockWrite();
+        try {
+            child.addBelow(entry, x, y, z, stop);
         } finally {
-            lock.writeLock().unlock();
+            child.unlockWrite();
         }
     }
 
+    /**
+     * Adds an entry to this leaf, dividing it if it is full. The caller holds
+     * this node write locked, or has not yet linked it into the tree.
+     */
+    private void insert(AbstractEntry<E> entry, double x, double y, double z) {
+        if (containsNodes && totalEntryCount + 1 < divideThreshold) {
+            int count = totalEntryCount;
+            if (children.length <= count) {
+                Object[] c = children;
+                children = new Object[Math.min(c.length * 2, divideThreshold)];
+                System.arraycopy(c, 0, children, 0, c.length);
+            }
+            children[count] = entry;
+            totalEntryCount = count + 1;
+            setParent(entry, this);
+            modCount++;
+            return;
+        } else if (containsNodes) {
+            // divide spaces, the new children are not seen until this node is unlocked
+            Object[] previousChildren = children;
+            int count = totalEntryCount;
+            children = new Object[8];
+            containsNodes = false;
+            for (int i = 0; i < count; i++) {
+                @SuppressWarnings("unchecked")
+                AbstractEntry<E> e = (AbstractEntry<E>)previousChildren[i];
+                double a = e.getAxis(Axis.X);
+                double b = e.getAxis(Axis.Y);
+                double c = e.getAxis(Axis.Z);
+                whichChild(a, b, c, true).insert(e, a, b, c);
+            }
+        }
+        whichChild(x, y, z, true).insert(entry, x, y, z);
+        COUNT.incrementAndGet(this);
+        modCount++;
+    }
+
     @Override
     protected boolean removeImpl(AbstractEntry<E> entry) throws UnsupportedOperationException {
-        lock.writeLock().lock();
+        OctreeMap<E> leaf;
+        while (true) {
+            AbstractSpatialMap<E> p = getParent(entry);
+            if (!(p instanceof OctreeMap)) {
+                return false;
+            }
+            leaf = (OctreeMap<E>)p;
+            leaf.lockWrite();
+            try {
+                if (!leaf.obsolete && leaf.containsNodes && isParent(entry, leaf)) {
+                    if (leaf.removeBelow(entry, entry.x, entry.y, entry.z, null) == null) {
+                        return false;
+                    }
+                    break;
+                }
+            } finally {
+                leaf.unlockWrite();
+            }
+        }
+        unifyBelow(leaf, null);
+        return true;
+    }
+
+    /**
+     * Removes an entry below this node, which the caller holds write locked,
+     * locking each node on the way down. Counts are updated up to, but not
+     * including, the stop node.
+     *
+     * @return The leaf the entry was removed from, or null if it was not found.
+     */
+    private OctreeMap<E> removeBelow(AbstractEntry<E> entry, double x, double y, double z, OctreeMap<E> stop) {
+        if (containsNodes) {
+            int i = indexOf(entry);
+            if (i < 0) {
+                return null;
+            }
+            int count = totalEntryCount - 1;
+            children[i] = children[count];
+            children[count] = null;
+            totalEntryCount = count;
+            clearParent(entry, this);
+            modCount++;
+            for (OctreeMap<E> node = parent; node != stop; node = node.parent) {
+                COUNT.decrementAndGet(node);
+            }
+            return this;
+        }
+        OctreeMap<E> child = whichChild(x, y, z, false);
+        if (child == null) {
+            return null;
+        }
+        child.lockWrite();
         try {
-            if (containsNodes) {
-                int i = indexOf(entry);
-                if (i >= 0) {
-                    children[i] = children[--totalEntryCount];
-                    clearParent(entry, this);
-                    modCount++;
-                    return true;
+            return child.removeBelow(entry, x, y, z, stop);
+        } finally {
+            child.unlockWrite();
+        }
+    }
+
+    /**
+     * Collapses the highest node above the leaf, and below the stop node,
+     * that has few enough entries to be a leaf again. Called with no locks
+     * held.
+     */
+    private void unifyBelow(OctreeMap<E> leaf, OctreeMap<E> stop) {
+        OctreeMap<E> highest = null;
+        for (OctreeMap<E> node = leaf.parent; node != stop; node = node.parent) {
+            if (node.totalEntryCount <= unifyThreshold) {
+                highest = node;
+            }
+        }
+        if (highest != null) {
+            highest.unify();
+        }
+    }
+
+    private void unify() {
+        lockWrite();
+        try {
+            if (obsolete || containsNodes || totalEntryCount > unifyThreshold) {
+                return; // changed since it was picked
+            }
+            List<Object> entries = new ArrayList<Object>(divideThreshold);
+            for (Object child : children) {
+                if (child != null) {
+                    @SuppressWarnings("unchecked")
+                    OctreeMap<E> node = (OctreeMap<E>)child;
+                    node.drainTo(this, entries);
                 }
-                return false;
             }
-            OctreeMap<E> child = whichChild(entry.getAxis(Axis.X), entry.getAxis(Axis.Y), entry.getAxis(Axis.Z), true);
-            if (child != null && child.removeImpl(entry)) {
-                totalEntryCount--;
-                if (totalEntryCount <= unifyThreshold) {
-                    Object[] c = new Object[divideThreshold];
-                    int i = 0;
-                    for (Entry<E> e : this) {
-                        c[i++] = e;
+            children = entries.toArray(new Object[Math.max(divideThreshold, entries.size())]);
+            totalEntryCount = entries.size();
+            containsNodes = true;
+            modCount++;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Moves the entries of this subtree to the target, and marks its nodes
+     * obsolete. The caller holds the target write locked.
+     */
+    private void drainTo(OctreeMap<E> target, List<Object> entries) {
+        lockWrite();
+        try {
+            if (containsNodes) {
+                for (int i = 0; i < totalEntryCount; i++) {
+                    Object entry = children[i];
+                    entries.add(entry);
+                    if (entry instanceof AbstractEntry) {
+                        @SuppressWarnings("unchecked")
+                        AbstractEntry<E> moved = (AbstractEntry<E>)entry;
+                        setParent(moved, target);
+                    }
+                }
+            } else {
+                for (Object child : children) {
+                    if (child != null) {
+                        @SuppressWarnings("unchecked")
+                        OctreeMap<E> node = (OctreeMap<E>)child;
+                        node.drainTo(target, entries);
                     }
-                    children = c;
-                    modCount++;
-                    containsNodes = true;
                 }
-                return true;
             }
-            return false;
+            obsolete = true;
+            modCount++;
         } finally {
-            lock.writeLock().unlock();
+            unlockWrite();
         }
     }
 
@@ -264,23 +963,50 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
     @Override
     protected boolean moveImpl(AbstractEntry<E> entry, double x, double y, double z)
             throws IndexOutOfBoundsException, UnsupportedOperationException {
-        OctreeMap<E> ancestor = findAncestorThatContains(x, y, z);
-        assert containsNodes;
-        if (ancestor != this) {
-            ancestor.lock.writeLock().lock();
+        while (true) {
+            AbstractSpatialMap<E> p = getParent(entry);
+            if (!(p instanceof OctreeMap)) {
+                return false;
+            }
+            OctreeMap<E> leaf = (OctreeMap<E>)p;
+            OctreeMap<E> ancestor = leaf.findAncestorThatContains(x, y, z);
+            OctreeMap<E> removedFrom;
+            ancestor.lockWrite();
             try {
-                return ancestor.removeImpl(entry) && ancestor.addImpl(entry, x, y, z);
+                if (ancestor.obsolete) {
+                    continue;
+                }
+                if (ancestor.containsNodes) {
+                    if (!isParent(entry, ancestor)) {
+                        continue;
+                    }
+                    if (ancestor.indexOf(entry) < 0) {
+                        return false;
+                    }
+                    // readers see the move, the lock changed the stamp
+                    setPosition(entry, x, y, z);
+                    return true;
+                }
+                removedFrom = ancestor.removeBelow(entry, entry.x, entry.y, entry.z, ancestor);
+                if (removedFrom == null) {
+                    return false;
+                }
+                setPosition(entry, x, y, z);
+                ancestor.addBelow(entry, x, y, z, ancestor);
             } finally {
-                ancestor.lock.writeLock().unlock();
+                ancestor.unlockWrite();
             }
-        } else {
-            return (indexOf(entry) >= 0);
+            unifyBelow(removedFrom, ancestor);
+            return true;
         }
     }
 
+    private int indexFor(double x, double y, double z) {
+        return (x < x_ ? 0 : 1) | (y < y_ ? 0 : 2) | (z < z_ ? 0 : 4);
+    }
+
     private OctreeMap<E> whichChild(double x, double y, double z, boolean createIfMissing) {
-        // child 0 : x0 <= x < x & y0 <=
-        int i = (x < x_ ? 0 : 1) | (y < y_ ? 0 : 2) | (z < z_ ? 0 : 4);
+        int i = indexFor(x, y, z);
         //noinspection unchecked
         OctreeMap<E> child = (OctreeMap<E>)children[i];
         if (child == null&& createIfMissing) {
@@ -291,7 +1017,7 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
     }
 
     private OctreeMap<E> createChild(int i) {
-        return new OctreeMap<E>(this, depth + 1, divideThreshold, unifyThreshold,
+        return new OctreeMap<E>(this, depth + 1, divideThreshold, unifyThreshold, concurrency,
                                 ((i & 1) == 1 ? x_ : x0), ((i & 1) == 1 ? x1 : x_),
                                 ((i & 2) == 2 ? y_ : y0), ((i & 2) == 2 ? y1 : y_),
                                 ((i & 4) == 4 ? z_ : z0), ((i & 4) == 4 ? z1 : z_));
@@ -303,28 +1029,40 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
     }
 
     public void clear() {
-        lock.writeLock().lock();
+        lockWrite();
         try {
-            if (!containsNodes) {
-                for (Object child : children) {
-                    @SuppressWarnings("unchecked")
-                    OctreeMap<E> subMap = (OctreeMap<E>)child;
-                    if (subMap != null) {
-                        subMap.clear();
-                    }
+            detach(children, containsNodes);
+            children = new Object[4];
+            totalEntryCount = 0;
+            containsNodes = true;
+            modCount++;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Orphans the entries of a subtree that is being dropped, and marks its
+     * nodes obsolete. The caller holds this node write locked.
+     */
+    private void detach(Object[] children, boolean containsNodes) {
+        for (Object child : children) {
+            if (containsNodes && child instanceof AbstractEntry) {
+                @SuppressWarnings("unchecked")
+                AbstractEntry<E> dropped = (AbstractEntry<E>)child;
+                clearParent(dropped, this);
+            } else if (!containsNodes && child != null) {
+                @SuppressWarnings("unchecked")
+                OctreeMap<E> node = (OctreeMap<E>)child;
+                node.lockWrite();
+                try {
+                    node.detach(node.children, node.containsNodes);
+                    node.obsolete = true;
+                    node.modCount++;
+                } finally {
+                    node.unlockWrite();
                 }
-                Arrays.fill(children, null);
-                totalEntryCount = 0;
-                containsNodes = true;
-                modCount++;
-            } else {
-                Arrays.fill(children, null);
-                totalEntryCount = 0;
-                containsNodes = true;
-                modCount++;
             }
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
@@ -467,7 +1205,7 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
     }
 
     protected void reconstruct(Iterator<ReconstructOperation<E>> operations) {
-        lock.writeLock().lock();
+        lockWrite();
         Object[] children = this.children;
         boolean containsNodes = this.containsNodes;
         int totalEntryCount = this.totalEntryCount;
@@ -475,15 +1213,18 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
         this.containsNodes = true;
         this.totalEntryCount = 0;
         try {
+            Object[] previousChildren = children;
+            boolean previousContainsNodes = containsNodes;
             children = reconstructImpl(operations, true);
             containsNodes = this.containsNodes;
             totalEntryCount = this.totalEntryCount;
             modCount++;
+            detach(previousChildren, previousContainsNodes);
         } finally {
             this.children = children;
             this.containsNodes = containsNodes;
             this.totalEntryCount = totalEntryCount;
-            lock.writeLock().unlock();
+            unlockWrite();
         }
     }
 
@@ -576,7 +1317,7 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
     }
 
     public void projectImpl(long nowMS, GeometryBuffer buffer) {
-        lock.readLock().lock();
+        long stamp = lockRead();
         try {
             if (!containsNodes) {
                 for (int i = 0; i < 8; i++) {
@@ -588,7 +1329,7 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
             buffer.color(new Color(colorSine(depth, 0.0), colorSine(depth, 1.0), colorSine(depth, 2.0), 0.5f));
             BoundingShape.drawBox(buffer, new Point(x0, y0, z0), new Point(x1, y1, z1));
         } finally {
-            lock.readLock().unlock();
+            unlockRead(stamp);
         }
     }
 
@@ -663,6 +1404,109 @@ public class OctreeMap<E> extends AbstractSpatialMap<E> implements Projectable {
         }
     }
 
+    /**
+     * Scratch space for an optimistic query, one per thread: the hits found
+     * so far, and the stamp of every node read, to validate before the hits
+     * are reported.
+     */
+    private static final class Query {
+
+        private SimpleBoundingVolume region;
+        private double minX;
+        private double maxX;
+        private double minY;
+        private double maxY;
+        private double minZ;
+        private double maxZ;
+        private Object[] entries = new Object[32];
+        private double[] xyz = new double[96];
+        private int[] queries = new int[32]; // of each hit, in a batch
+        private int hits;
+        private OctreeMap<?>[] nodes = new OctreeMap<?>[32];
+        private long[] stamps = new long[32];
+        private int visited;
+        private boolean busy;
+
+        private void load(SimpleBoundingVolume region,
+                          double minX, double maxX,
+                          double minY, double maxY,
+                          double minZ, double maxZ) {
+            this.region = region;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.minZ = minZ;
+            this.maxZ = maxZ;
+        }
+
+        private void found(Object entry, double x, double y, double z) {
+            if (hits == entries.length) {
+                entries = Arrays.copyOf(entries, hits * 2);
+                xyz = Arrays.copyOf(xyz, hits * 6);
+                queries = Arrays.copyOf(queries, hits * 2);
+            }
+            int j = hits * 3;
+            entries[hits++] = entry;
+            xyz[j] = x;
+            xyz[j + 1] = y;
+            xyz[j + 2] = z;
+        }
+
+        private void found(int query, Object entry, double x, double y, double z) {
+            found(entry, x, y, z);
+            queries[hits - 1] = query;
+        }
+
+        private void visited(OctreeMap<?> node, long stamp) {
+            if (visited == nodes.length) {
+                nodes = Arrays.copyOf(nodes, visited * 2);
+                stamps = Arrays.copyOf(stamps, visited * 2);
+            }
+            nodes[visited] = node;
+            stamps[visited++] = stamp;
+        }
+
+        private boolean validate() {
+            for (int i = 0; i < visited; i++) {
+                if (!nodes[i].stampedLock.validate(stamps[i])) {
+                    nodes[i].awaitWriter();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <E> int deliver(Consumer<E> consumer) {
+            for (int i = 0, j = 0; i < hits; i++, j += 3) {
+                consumer.found((Entry<E>)entries[i], xyz[j], xyz[j + 1], xyz[j + 2]);
+            }
+            return hits;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <E> int deliver(BatchConsumer<E> consumer) {
+            for (int i = 0, j = 0; i < hits; i++, j += 3) {
+                consumer.found(queries[i], (Entry<E>)entries[i], xyz[j], xyz[j + 1], xyz[j + 2]);
+            }
+            return hits;
+        }
+
+        private void reset() {
+            Arrays.fill(entries, 0, hits, null);
+            Arrays.fill(nodes, 0, visited, null);
+            hits = 0;
+            visited = 0;
+        }
+
+        private void release() {
+            reset();
+            region = null;
+            busy = false;
+        }
+    }
+
     public static void main(String[] args) {
         int divideThreshold = 6;
         int unifyThreshold = divideThreshold - (divideThreshold / 8) - 1;
@@ -8,7 +8,6 @@ import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -81,20 +80,114 @@ public class QuadMap<E> implements AreaMap<E> {
         return contains(x, y) ? get(x, y, Double.MIN_VALUE) : null;
     }
 
-    public E get(final double x, final double y, double r) {
-        final AtomicReference<E> result = new AtomicReference<E>();
-        intersect(Bounds2D.createCircle(x, y, r), new Consumer<E>() {
-            double best = Double.MAX_VALUE;
+    public E get(double x, double y, double r) {
+        NearestSearch search = NearestSearch.acquire(x, y, 0, 1, r);
+        try {
+            search(search, 0);
+            @SuppressWarnings("unchecked")
+            Entry<E> entry = (Entry<E>)search.nearest();
+            return entry == null ? null : entry.get();
+        } finally {
+            search.release();
+        }
+    }
+
+    public int nearest(double x, double y, int k, Consumer<E> consumer) {
+        NearestSearch search = NearestSearch.acquire(x, y, 0, k, Double.POSITIVE_INFINITY);
+        try {
+            if (k > 0) {
+                search(search, 0);
+            }
+            return search.deliver(consumer);
+        } finally {
+            search.release();
+        }
+    }
+
+    /**
+     * Descends into the nearest child first, holding the read locks of the
+     * path down, and skips the children too far away.
+     */
+    private void search(NearestSearch search, int depth) {
+        lock.readLock().lock();
+        try {
+            if (containsNodes) {
+                for (int i = 0; i < totalEntryCount; i++) {
+                    Entry<?> child = (Entry<?>)children[i];
+                    search.offer(child, child.getX(), child.getY(), 0);
+                }
+            } else {
+                double[] distances = search.childDistances(depth);
+                int base = depth * 8;
+                search.distancesToOctants(x0, x_, x1, y0, y_, y1, 0, 0, 0, distances, base); // the first four are quadrants
+                int remaining = 0; // bit mask
+                for (int i = 0; i < 4; i++) {
+                    if (children[i] != null && !search.prunes(distances[base + i])) {
+                        remaining |= 1 << i;
+                    }
+                }
+                while (remaining != 0) {
+                    int nearest = -1;
+                    for (int i = 0; i < 4; i++) {
+                        if ((remaining & 1 << i) != 0 && (nearest < 0 || distances[base + i] < distances[base + nearest])) {
+                            nearest = i;
+                        }
+                    }
+                    if (search.prunes(distances[base + nearest])) {
+                        break; // so are the rest, they are no nearer
+                    }
+                    remaining &= ~(1 << nearest);
+                    ((QuadMap<?>)children[nearest]).search(search, depth + 1);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-            public void found(Entry<E> entry, double i, double j) {
-                double d = computeDistanceSquared(i - x, j - y);
-                if (d < best) {
-                    result.set(entry.get());
-                    best = d;
+    public int withinCircle(double x, double y, double r, Consumer<E> consumer) {
+        if (!(r >= 0)) {
+            throw new IllegalArgumentException("r must be zero or more: " + r);
+        }
+        return within(x, y, r * r, consumer);
+    }
+
+    private int within(double x, double y, double r2, Consumer<E> consumer) {
+        int hits = 0;
+        lock.readLock().lock();
+        try {
+            if (containsNodes) {
+                for (int i = 0; i < totalEntryCount; i++) {
+                    @SuppressWarnings("unchecked")
+                    Entry<E> child = (Entry<E>)children[i];
+                    double a = child.getX(), b = child.getY();
+                    if (computeDistanceSquared(a - x, b - y) <= r2) {
+                        hits++;
+                        consumer.found(child, a, b);
+                    }
+                }
+            } else {
+                for (int i = 0; i < 4; i++) {
+                    @SuppressWarnings("unchecked")
+                    QuadMap<E> child = (QuadMap<E>)children[i];
+                    if (child != null && child.distanceTo(x, y) <= r2) {
+                        hits += child.within(x, y, r2, consumer);
+                    }
                 }
             }
-        });
-        return result.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    /**
+     * @return The squared distance from (x,y) to the bounds of this node.
+     */
+    private double distanceTo(double x, double y) {
+        double a = x < x0 ? x0 - x : x > x1 ? x - x1 : 0;
+        double b = y < y0 ? y0 - y : y > y1 ? y - y1 : 0;
+        return computeDistanceSquared(a, b);
     }
 
     private double computeDistanceSquared(double a, double b) {
@@ -144,10 +237,10 @@ public class QuadMap<E> implements AreaMap<E> {
                     }
                 }
             } else {
-                int cells = 0xFF; // bit mask
-                cells &= intersect(x_, minX, maxX, 0x55, 0xAA);
-                cells &= intersect(y_, minY, maxY, 0x33, 0xCC);
-                for (int i = 0; i < 8; i++) {
+                int cells = 0xF; // bit mask
+                cells &= intersect(x_, minX, maxX, 0x5, 0xA);
+                cells &= intersect(y_, minY, maxY, 0x3, 0xC);
+                for (int i = 0; i < 4; i++) {
                     if ((cells & 1) == 1) {
                         @SuppressWarnings("unchecked")
                         QuadMap<E> child = (QuadMap<E>)children[i];
@@ -394,9 +487,9 @@ public class QuadMap<E> implements AreaMap<E> {
                         }
                         active = null;
                         @SuppressWarnings("unchecked")
-                        QuadMap<E> nextChild = childIndex < 8 ? (QuadMap<E>)children[childIndex++] : null;
+                        QuadMap<E> nextChild = childIndex < 4 ? (QuadMap<E>)children[childIndex++] : null;
                         if (nextChild == null) {
-                            if (childIndex >= 8) {
+                            if (childIndex >= 4) {
                                 return false;
                             }
                         } else {
@@ -0,0 +1,165 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.common.util.ThreadSingletonSource;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.Arrays;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 7:30 PM
+ *
+ * Many sphere queries of one radius, ordered by the Morton code of their
+ * centers, so queries near each other in space are near each other in the
+ * batch. A walk of a tree takes the queries that reach each node down into
+ * its children, and the ones that reach a small node are few and close
+ * together. The batch is read only once made, so the parts of a parallel
+ * walk share it; each thread walks with a Walk of its own.
+ */
+final class QueryBatch {
+
+    private static final ThreadSingletonSource<Walk> WALKS = new ThreadSingletonSource<Walk>() {
+        @Override
+        protected Walk newInstance() {
+            return new Walk();
+        }
+    };
+
+    final double[] centers;
+    final double radius;
+    final int[] order; // query numbers, in Morton order
+
+    private final double limit; // radius squared
+
+    QueryBatch(double[] centers, double radius) {
+        if (centers.length % 3 != 0) {
+            throw new IllegalArgumentException("centers must hold an x, y and z for each query: " + centers.length);
+        }
+        if (!(radius >= 0)) {
+            throw new IllegalArgumentException("radius must be zero or more: " + radius);
+        }
+        this.centers = centers;
+        this.radius = radius;
+        this.limit = radius * radius;
+        this.order = mortonOrder(centers);
+    }
+
+    int size() {
+        return order.length;
+    }
+
+    private static int[] mortonOrder(double[] centers) {
+        int n = centers.length / 3;
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        double minZ = Double.POSITIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < centers.length; j += 3) {
+            minX = Math.min(minX, centers[j]);
+            maxX = Math.max(maxX, centers[j]);
+            minY = Math.min(minY, centers[j + 1]);
+            maxY = Math.max(maxY, centers[j + 1]);
+            minZ = Math.min(minZ, centers[j + 2]);
+            maxZ = Math.max(maxZ, centers[j + 2]);
+        }
+        // the code and the query number share a long, the number in the low bits
+        int numberBits = 32 - Integer.numberOfLeadingZeros(Math.max(n - 1, 1));
+        int bits = Math.min(21, (63 - numberBits) / 3);
+        double cells = (1 << bits) - 1;
+        double scaleX = maxX > minX ? cells / (maxX - minX) : 0;
+        double scaleY = maxY > minY ? cells / (maxY - minY) : 0;
+        double scaleZ = maxZ > minZ ? cells / (maxZ - minZ) : 0;
+        long[] keys = new long[n];
+        for (int i = 0, j = 0; i < n; i++, j += 3) {
+            long code = LinearOctreeMap.interleave((int)((centers[j] - minX) * scaleX),
+                                                   (int)((centers[j + 1] - minY) * scaleY),
+                                                   (int)((centers[j + 2] - minZ) * scaleZ));
+            keys[i] = code << numberBits | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        long mask = (1L << numberBits) - 1;
+        for (int i = 0; i < n; i++) {
+            order[i] = (int)(keys[i] & mask);
+        }
+        return order;
+    }
+
+    /**
+     * @return true if the sphere of query q reaches into the box.
+     */
+    boolean reaches(int q, double x0, double x1, double y0, double y1, double z0, double z1) {
+        int j = q * 3;
+        double x = centers[j], y = centers[j + 1], z = centers[j + 2];
+        double d = 0, a;
+        a = x < x0 ? x0 - x : x > x1 ? x - x1 : 0;
+        d += a * a;
+        a = y < y0 ? y0 - y : y > y1 ? y - y1 : 0;
+        d += a * a;
+        a = z < z0 ? z0 - z : z > z1 ? z - z1 : 0;
+        d += a * a;
+        return d <= limit;
+    }
+
+    boolean includes(int q, double x, double y, double z) {
+        int j = q * 3;
+        double a = x - centers[j], b = y - centers[j + 1], c = z - centers[j + 2];
+        return a * a + b * b + c * c <= limit;
+    }
+
+    /**
+     * Scratch space for walking a tree with part of a batch: the queries that
+     * reach the node being visited at each depth.
+     */
+    static final class Walk {
+
+        private int[][] subsets = new int[16][];
+        private boolean busy;
+
+        static Walk acquire() {
+            Walk walk = WALKS.get();
+            if (walk.busy) {
+                walk = new Walk(); // the consumer is querying again from found()
+            }
+            walk.busy = true;
+            return walk;
+        }
+
+        void release() {
+            busy = false;
+        }
+
+        /**
+         * @return Room for the queries reaching a node at this depth.
+         */
+        int[] subset(int depth, int size) {
+            if (depth >= subsets.length) {
+                subsets = Arrays.copyOf(subsets, depth * 2);
+            }
+            int[] subset = subsets[depth];
+            if (subset == null || subset.length < size) {
+                subset = new int[Math.max(size, 64)];
+                subsets[depth] = subset;
+            }
+            return subset;
+        }
+    }
+
+    /**
+     * Passes the hits of one query at a time on to a batch consumer.
+     */
+    static final class Forward<E> implements SpatialMap.Consumer<E> {
+
+        private final SpatialMap.BatchConsumer<E> consumer;
+
+        int query;
+
+        Forward(SpatialMap.BatchConsumer<E> consumer) {
+            this.consumer = consumer;
+        }
+
+        public void found(SpatialMap.Entry<E> entry, double x, double y, double z) {
+            consumer.found(query, entry, x, y, z);
+        }
+    }
+}
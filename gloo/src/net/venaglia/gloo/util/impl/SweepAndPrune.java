@@ -1,5 +1,6 @@
 package net.venaglia.gloo.util.impl;
 
+import net.venaglia.common.util.ThreadSingletonSource;
 import net.venaglia.gloo.physical.bounds.BoundingVolume;
 import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
 import net.venaglia.gloo.physical.geom.Axis;
@@ -7,9 +8,10 @@ import net.venaglia.gloo.physical.geom.Point;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -18,19 +20,46 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * User: ed
  * Date: 9/20/12
  * Time: 10:39 PM
+ *
+ * A sweep and prune broad phase. Every entry is a box: its point, and a half
+ * size along each axis, zero unless given to add(). Each axis has an int[] of
+ * the two endpoints of every box, ordered by their value, the min of the box
+ * in slot s being endpoint 2s and its max 2s + 1, so the order holds no
+ * objects. Boxes that move a little leave the endpoints nearly in order, and
+ * an insertion sort puts them back in close to linear time before the next
+ * query. Boxes added since the last sort are sorted on their own and merged
+ * in; a sort that would shift too far falls back to a merge sort.
+ *
+ * Queries sweep the primary axis, the one along which the points of the boxes
+ * vary the most, since it separates the most boxes, and only that axis is
+ * kept in order. findPairs() reports every pair of overlapping boxes; the
+ * SpatialMap queries see each entry as its point.
  */
 public class SweepAndPrune<E> extends AbstractSpatialMap<E> {
 
-    private static Integer[] NIL = {};
+    private static final Axis[] AXES = { Axis.X, Axis.Y, Axis.Z };
+
+    private static final ThreadSingletonSource<Sweep> SWEEPS = new ThreadSingletonSource<Sweep>() {
+        @Override
+        protected Sweep newInstance() {
+            return new Sweep();
+        }
+    };
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final BoundingVolume<?> bounds;
 
-    private List<AbstractEntry<E>> entries = new ArrayList<AbstractEntry<E>>();
+    private Object[] entries = new Object[16];
+    private double[] halfSizes = new double[48]; // 3 per slot
+    private final double[][] values = new double[3][32]; // per axis, by endpoint
+    private final int[][] endpoints = new int[3][32]; // per axis, in order of value
+    private int[] scratch = new int[32];
+    private final double[] maxHalfSize = new double[3];
+    private int size = 0;
+    private final int[] sorted = new int[3]; // per axis, endpoints [0,sorted) were in order at its last sort
     private volatile boolean orderValid = true;
-    private Integer[] ordered = NIL;
-    private Axis primaryAxis = Axis.X;
-    private PrimarySweepComparator sweepComparator = new PrimarySweepComparator();
+    private int primary = 0;
+    private int modCount = 0;
 
     public SweepAndPrune() {
         this(null);
@@ -44,47 +73,59 @@ public class SweepAndPrune<E> extends AbstractSpatialMap<E> {
     }
 
     public boolean isEmpty() {
-        return entries.isEmpty();
+        return size == 0;
     }
 
     public void clear() {
         lock.writeLock().lock();
         try {
-            entries.clear();
+            for (int i = 0; i < size; i++) {
+                clearParent(entry(i), this);
+                entries[i] = null;
+            }
+            size = 0;
+            Arrays.fill(sorted, 0);
             orderValid = true;
-            primaryAxis = Axis.X;
+            primary = 0;
+            Arrays.fill(maxHalfSize, 0);
+            modCount++;
         } finally {
             lock.writeLock().unlock();
         }
     }
 
     public int size() {
-        return entries.size();
+        return size;
+    }
+
+    public Axis getPrimaryAxis() {
+        sort();
+        return AXES[primary];
+    }
+
+    @SuppressWarnings("unchecked")
+    private SlotEntry<E> entry(int slot) {
+        return (SlotEntry<E>)entries[slot];
     }
 
     public boolean contains(double x, double y, double z) {
         sort();
         lock.readLock().lock();
         try {
-            Comparator<Integer> toFind = sweepComparator.toFind(primaryAxis.of(x, y, z));
-            int min = binarySearch(ordered, 0, ordered.length - 1, -1, toFind, false);
-            int max = binarySearch(ordered, 0, ordered.length - 1, -1, toFind, true);
-            if (min <= max) {
-                max++;
-                Integer[] subset = new Integer[max - min];
-                System.arraycopy(ordered, min, subset, 0, subset.length);
-                SweepComparator secondary = sweepComparator.secondary;
-                Arrays.sort(subset, secondary);
-                toFind = secondary.toFind(secondary.axis().of(x,y,z));
-                min = binarySearch(subset, 0, subset.length - 1, -1, toFind, false);
-                max = binarySearch(subset, 0, subset.length - 1, -1, toFind, true);
-                if (min <= max) {
-                    SweepComparator tertiary = sweepComparator.tertiary;
-                    Arrays.sort(subset, min, max, tertiary);
-                    toFind = tertiary.toFind(tertiary.axis().of(x,y,z));
-                    int _min = binarySearch(subset, min, max, -1, toFind, false);
-                    int _max = binarySearch(subset, min, max, -1, toFind, true);
-                    return _min <= _max;
+            int a = primary;
+            double at = AXES[a].of(x, y, z);
+            int[] order = endpoints[a];
+            double[] v = values[a];
+            for (int i = lowerBound(a, at - maxHalfSize[a]), n = size * 2; i < n; i++) {
+                int e = order[i];
+                if (v[e] > at) {
+                    break;
+                }
+                if ((e & 1) == 0) {
+                    SlotEntry<E> entry = entry(e >> 1);
+                    if (entry.x == x && entry.y == y && entry.z == z) {
+                        return true;
+                    }
                 }
             }
         } finally {
@@ -99,27 +140,21 @@ public class SweepAndPrune<E> extends AbstractSpatialMap<E> {
         lock.readLock().lock();
         consumer = dummyConsumer(consumer);
         try {
-            int min = binarySearch(ordered, 0, ordered.length - 1, -1, sweepComparator.toFind(region.min(primaryAxis)), false);
-            int max = binarySearch(ordered, 0, ordered.length - 1, -1, sweepComparator.toFind(region.max(primaryAxis)), true);
-            if (min <= max) {
-                max++;
-                Integer[] subset = new Integer[max - min];
-                System.arraycopy(ordered, min, subset, 0, subset.length);
-                SweepComparator secondary = sweepComparator.secondary;
-                Arrays.sort(subset, secondary);
-                min = binarySearch(subset, 0, subset.length - 1, -1, secondary.toFind(region.min(secondary.axis())), false);
-                max = binarySearch(subset, 0, subset.length - 1, -1, secondary.toFind(region.max(secondary.axis())), true);
-                if (min <= max) {
-                    SweepComparator tertiary = sweepComparator.tertiary;
-                    Arrays.sort(subset, min, max, tertiary);
-                    int _min = binarySearch(subset, min, max, -1, tertiary.toFind(region.min(tertiary.axis())), false);
-                    int _max = binarySearch(subset, min, max, -1, tertiary.toFind(region.max(tertiary.axis())), true);
-                    for (int i = _min; i <= _max; i++) {
-                        AbstractEntry<E> entry = entries.get(subset[i]);
-                        if (includes(region, entry)) {
-                            hits++;
-                            consume(entry, consumer);
-                        }
+            int a = primary;
+            double max = region.max(AXES[a]);
+            int[] order = endpoints[a];
+            double[] v = values[a];
+            // a box's min is at most its half size below its point
+            for (int i = lowerBound(a, region.min(AXES[a]) - maxHalfSize[a]), n = size * 2; i < n; i++) {
+                int e = order[i];
+                if (v[e] > max) {
+                    break;
+                }
+                if ((e & 1) == 0) {
+                    SlotEntry<E> entry = entry(e >> 1);
+                    if (includes(region, entry)) {
+                        hits++;
+                        consume(entry, consumer);
                     }
                 }
             }
@@ -129,44 +164,133 @@ public class SweepAndPrune<E> extends AbstractSpatialMap<E> {
         return hits;
     }
 
-    public BoundingVolume<?> getBounds() {
-        return bounds;
+    /**
+     * @return The first place in the order of the axis with a value not less
+     *     than at.
+     */
+    private int lowerBound(int a, double at) {
+        int[] order = endpoints[a];
+        double[] v = values[a];
+        int lo = 0, hi = size * 2;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (v[order[mid]] < at) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
     }
 
-    protected int binarySearch(Integer[] entryOrder, int low, int high, Integer find, Comparator<Integer> comparator, boolean findFloor) {
-        int mid;
-        while (low <= high) {
-            mid = (low + high) / 2;
-            int cmp = comparator.compare(entryOrder[mid], find);
-            if (cmp < 0) {
-                low = mid + 1;
-            } else if (cmp > 0) {
-                high = mid - 1;
-            } else if (findFloor) {
-                if (low == mid) {
-                    return comparator.compare(entryOrder[high], find) == 0 ? high : mid;
+    /**
+     * Sweeps out both ways from the query point along the primary axis,
+     * taking the nearer side each step, until the distance along the axis
+     * alone is too far for an entry to matter.
+     */
+    @Override
+    void search(NearestSearch search) {
+        sort();
+        lock.readLock().lock();
+        try {
+            int a = primary;
+            int[] order = endpoints[a];
+            double[] v = values[a];
+            double pad = maxHalfSize[a];
+            double at = AXES[a].of(search.x, search.y, search.z);
+            int n = size * 2;
+            int above = lowerBound(a, at), below = above - 1;
+            while (below >= 0 || above < n) {
+                // a point is at or above its box's min, and at most pad above
+                // it, give or take the rounding of the min
+                double down = Double.POSITIVE_INFINITY;
+                if (below >= 0) {
+                    double min = v[order[below]];
+                    down = Math.max(0, pad > 0 ? at - min - pad - Math.ulp(min) : at - min);
+                }
+                double up = above < n ? v[order[above]] - at : Double.POSITIVE_INFINITY;
+                int e;
+                if (down <= up) {
+                    if (search.prunes(down * down)) {
+                        break;
+                    }
+                    e = order[below--];
+                } else {
+                    if (search.prunes(up * up)) {
+                        break;
+                    }
+                    e = order[above++];
+                }
+                if ((e & 1) == 0) {
+                    SlotEntry<E> entry = entry(e >> 1);
+                    search.offer(entry, entry.x, entry.y, entry.z);
                 }
-                low = mid;
-            } else {
-                if (high == mid) return mid;
-                high = mid;
             }
+        } finally {
+            lock.readLock().unlock();
         }
-        return findFloor ? high : low;
     }
 
-    protected void sort() {
-        sort(null);
+    /**
+     * Reports each pair of boxes that overlap, or touch, once.
+     *
+     * @return The number of pairs reported.
+     */
+    public int findPairs(PairConsumer<E> consumer) {
+        sort();
+        lock.readLock().lock();
+        Sweep sweep = Sweep.acquire(size);
+        try {
+            int a = primary, b = (a + 1) % 3, c = (a + 2) % 3;
+            int[] order = endpoints[a];
+            double[] vb = values[b], vc = values[c];
+            // the open boxes, with their bounds on the other two axes side by side
+            int[] active = sweep.active, where = sweep.where;
+            double[] open = sweep.bounds;
+            int live = 0, pairs = 0;
+            for (int i = 0, n = size * 2; i < n; i++) {
+                int e = order[i];
+                int s = e >> 1;
+                if ((e & 1) == 0) {
+                    double b0 = vb[e], b1 = vb[e + 1], c0 = vc[e], c1 = vc[e + 1];
+                    for (int j = 0, k = 0; j < live; j++, k += 4) {
+                        // & rather than &&, as about half of the first tests fail, unpredictably
+                        if (open[k] <= b1 & b0 <= open[k + 1] & open[k + 2] <= c1 & c0 <= open[k + 3]) {
+                            pairs++;
+                            consumer.overlap(entry(active[j]), entry(s));
+                        }
+                    }
+                    int k = live * 4;
+                    open[k] = b0;
+                    open[k + 1] = b1;
+                    open[k + 2] = c0;
+                    open[k + 3] = c1;
+                    where[s] = live;
+                    active[live++] = s;
+                } else {
+                    int j = where[s], last = active[--live];
+                    active[j] = last;
+                    where[last] = j;
+                    System.arraycopy(open, live * 4, open, j * 4, 4);
+                }
+            }
+            return pairs;
+        } finally {
+            sweep.release();
+            lock.readLock().unlock();
+        }
+    }
+
+    public BoundingVolume<?> getBounds() {
+        return bounds;
     }
 
-    protected void sort(Axis preferredAxis) {
-        if (!orderValid || (preferredAxis != null && primaryAxis != preferredAxis)) {
+    protected void sort() {
+        if (!orderValid) {
             lock.writeLock().lock();
             try {
-                synchronized (this) {
-                    if (!orderValid || (preferredAxis != null && primaryAxis != preferredAxis)) {
-                        sortImpl(preferredAxis);
-                    }
+                if (!orderValid) {
+                    sortImpl();
                 }
             } finally {
                 lock.writeLock().unlock();
@@ -174,88 +298,229 @@ public class SweepAndPrune<E> extends AbstractSpatialMap<E> {
         }
     }
 
-    private void sortImpl(Axis preferredAxis) {
-        if (preferredAxis == null) {
-            double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
-            double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
-            double minZ = Double.POSITIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
-            if (entries.isEmpty()) {
-                ordered = NIL;
-                return;
+    private void sortImpl() {
+        int n = size * 2;
+        double[] variance = new double[3];
+        int best = primary;
+        for (int a = 0; a < 3; a++) {
+            // twice the point, for the variance of the points along the axis
+            double[] v = values[a];
+            double sum = 0, sumOfSquares = 0, maxHalf = 0;
+            for (int e = 0, h = a; e < n; e += 2, h += 3) {
+                double mid = v[e] + v[e + 1];
+                sum += mid;
+                sumOfSquares += mid * mid;
+                maxHalf = Math.max(maxHalf, halfSizes[h]);
             }
-            if (ordered.length != entries.size()) {
-                ordered = genOrdered(entries.size());
+            variance[a] = n == 0 ? 0 : sumOfSquares / size - (sum / size) * (sum / size);
+            maxHalfSize[a] = maxHalf;
+            if (variance[a] > variance[best]) {
+                best = a;
             }
-            for (AbstractEntry<E> entry : entries) {
-                double axis;
-                axis = entry.getAxis(Axis.X);
-                minX = Math.min(minX, axis);
-                maxX = Math.max(maxX, axis);
-                axis = entry.getAxis(Axis.Y);
-                minY = Math.min(minY, axis);
-                maxY = Math.max(maxY, axis);
-                axis = entry.getAxis(Axis.Z);
-                minZ = Math.min(minZ, axis);
-                maxZ = Math.max(maxZ, axis);
+        }
+        if (variance[best] > variance[primary] * 1.25) { // not back and forth between axes that are about even
+            primary = best;
+        }
+        sortAxis(primary);
+        orderValid = true;
+    }
+
+    /**
+     * Only the primary axis is kept in order as boxes move; another axis is
+     * brought up to date when it becomes the primary.
+     */
+    private void sortAxis(int a) {
+        int n = size * 2, done = sorted[a];
+        int[] order = endpoints[a];
+        double[] v = values[a];
+        if (!insertionSort(order, v, 0, done, done * 32 + 64)) {
+            mergeSort(order, v, 0, done);
+        }
+        if (n > done) {
+            mergeSort(order, v, done, n);
+            merge(order, v, 0, done, n);
+        }
+        sorted[a] = n;
+    }
+
+    private static boolean before(int e, double value, int f, double w) {
+        return value < w || value == w && (e & 1) < (f & 1); // a min before a max of the same value
+    }
+
+    /**
+     * Sorts [lo,hi) in place, unless that takes more than budget shifts.
+     *
+     * @return false if it ran out of budget, leaving the range out of order.
+     */
+    private static boolean insertionSort(int[] order, double[] v, int lo, int hi, int budget) {
+        for (int i = lo + 1; i < hi; i++) {
+            int e = order[i];
+            double value = v[e];
+            int j = i - 1;
+            while (j >= lo && before(e, value, order[j], v[order[j]])) {
+                order[j + 1] = order[j];
+                j--;
             }
-            double dx = maxX - minX;
-            double dy = maxY - minY;
-            double dz = maxZ - minZ;
-            if (dx > dy) {
-                if (dx > dz) {
-                    primaryAxis = Axis.X;
-                } else {
-                    primaryAxis = Axis.Z;
-                }
+            order[j + 1] = e;
+            budget -= i - 1 - j;
+            if (budget < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void mergeSort(int[] order, double[] v, int lo, int hi) {
+        if (hi - lo <= 16) {
+            insertionSort(order, v, lo, hi, Integer.MAX_VALUE);
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(order, v, lo, mid);
+        mergeSort(order, v, mid, hi);
+        merge(order, v, lo, mid, hi);
+    }
+
+    /**
+     * Merges the ordered runs [lo,mid) and [mid,hi).
+     */
+    private void merge(int[] order, double[] v, int lo, int mid, int hi) {
+        if (lo == mid || mid == hi || !before(order[mid], v[order[mid]], order[mid - 1], v[order[mid - 1]])) {
+            return;
+        }
+        System.arraycopy(order, lo, scratch, lo, mid - lo);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+            int e = scratch[i], f = order[j];
+            if (before(f, v[f], e, v[e])) {
+                order[k++] = f;
+                j++;
             } else {
-                if (dy > dz) {
-                    primaryAxis = Axis.Y;
-                } else {
-                    primaryAxis = Axis.Z;
-                }
+                order[k++] = e;
+                i++;
             }
-        } else {
-            primaryAxis = preferredAxis;
         }
-        Arrays.sort(ordered, sweepComparator);
-        orderValid = true;
+        System.arraycopy(scratch, i, order, k, mid - i);
+    }
+
+    private void grow() {
+        int capacity = entries.length * 2;
+        entries = Arrays.copyOf(entries, capacity);
+        halfSizes = Arrays.copyOf(halfSizes, capacity * 3);
+        for (int a = 0; a < 3; a++) {
+            values[a] = Arrays.copyOf(values[a], capacity * 2);
+            endpoints[a] = Arrays.copyOf(endpoints[a], capacity * 2);
+        }
+        scratch = new int[capacity * 2];
+    }
+
+    /**
+     * Writes the endpoints of the box in slot s, centered on (x,y,z).
+     */
+    private void place(int s, double x, double y, double z) {
+        int h = s * 3, e = s * 2;
+        values[0][e] = x - halfSizes[h];
+        values[0][e + 1] = x + halfSizes[h];
+        values[1][e] = y - halfSizes[h + 1];
+        values[1][e + 1] = y + halfSizes[h + 1];
+        values[2][e] = z - halfSizes[h + 2];
+        values[2][e + 1] = z + halfSizes[h + 2];
+    }
+
+    @Override
+    protected AbstractEntry<E> createEntry(E obj, double x, double y, double z) {
+        return new SlotEntry<E>(obj, x, y, z);
     }
 
-    private Integer[] genOrdered(int size) {
-        Integer[] result = new Integer[size];
-        for (int i = 0; i < size; i++) {
-            result[i] = i;
+    /**
+     * Adds a box around a point, with the passed half size along each axis.
+     */
+    public boolean add(E obj, double x, double y, double z, double halfX, double halfY, double halfZ) {
+        if (!(halfX >= 0 && halfY >= 0 && halfZ >= 0)) {
+            throw new IllegalArgumentException("Half sizes must be zero or more: " + halfX + "," + halfY + "," + halfZ);
         }
-        return result;
+        return addImpl((SlotEntry<E>)createEntry(obj, x, y, z), halfX, halfY, halfZ);
     }
 
     @Override
     protected boolean addImpl(AbstractEntry<E> entry) throws UnsupportedOperationException {
+        return addImpl((SlotEntry<E>)entry, 0, 0, 0);
+    }
+
+    private boolean addImpl(SlotEntry<E> entry, double halfX, double halfY, double halfZ) {
         lock.writeLock().lock();
         try {
-            boolean added = entries.add(entry);
-            if (added) {
-                orderValid = false;
-                primaryAxis = null;
-                setParent(entry, this);
+            int s = size;
+            if (s == entries.length) {
+                grow();
+            }
+            entries[s] = entry;
+            entry.slot = s;
+            halfSizes[s * 3] = halfX;
+            halfSizes[s * 3 + 1] = halfY;
+            halfSizes[s * 3 + 2] = halfZ;
+            place(s, entry.x, entry.y, entry.z);
+            for (int[] order : endpoints) {
+                order[s * 2] = s * 2;
+                order[s * 2 + 1] = s * 2 + 1;
             }
-            return added;
+            size++;
+            orderValid = false;
+            modCount++;
+            setParent(entry, this);
+            return true;
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Drops the box's endpoints from every axis, keeping the rest in order,
+     * and moves the last box into its slot.
+     */
     @Override
     protected boolean removeImpl(AbstractEntry<E> entry) throws UnsupportedOperationException {
         lock.writeLock().lock();
         try {
-            boolean removed = entries.remove(entry);
-            if (removed) {
-                orderValid = false;
-                primaryAxis = null;
-                clearParent(entry, null);
+            if (!isParent(entry, this)) {
+                return false;
             }
-            return removed;
+            int s = ((SlotEntry<E>)entry).slot, last = size - 1;
+            int n = size * 2;
+            for (int a = 0; a < 3; a++) {
+                int[] order = endpoints[a];
+                int kept = 0;
+                for (int i = 0, j = 0; i < n; i++) {
+                    int e = order[i];
+                    if (e >> 1 == s) {
+                        continue;
+                    }
+                    if (e >> 1 == last) {
+                        e = s * 2 | e & 1;
+                    }
+                    if (i < sorted[a]) {
+                        kept++;
+                    }
+                    order[j++] = e;
+                }
+                sorted[a] = kept;
+            }
+            if (s != last) {
+                SlotEntry<E> moved = entry(last);
+                entries[s] = moved;
+                moved.slot = s;
+                System.arraycopy(halfSizes, last * 3, halfSizes, s * 3, 3);
+                for (double[] v : values) {
+                    v[s * 2] = v[last * 2];
+                    v[s * 2 + 1] = v[last * 2 + 1];
+                }
+            }
+            entries[last] = null;
+            size = last;
+            orderValid = false; // the sizes may have shrunk, and so the primary axis changed
+            modCount++;
+            clearParent(entry, this);
+            return true;
         } finally {
             lock.writeLock().unlock();
         }
@@ -264,31 +529,112 @@ public class SweepAndPrune<E> extends AbstractSpatialMap<E> {
     @Override
     protected boolean moveImpl(AbstractEntry<E> entry, double x, double y, double z)
             throws IndexOutOfBoundsException, UnsupportedOperationException {
-        if (isParent(entry, this)) {
-            lock.writeLock().lock();
-            try {
+        lock.writeLock().lock();
+        try {
+            if (isParent(entry, this)) {
+                place(((SlotEntry<E>)entry).slot, x, y, z);
                 orderValid = false;
                 return true;
-            } finally {
-                lock.writeLock().unlock();
             }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return false;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Moves many entries under a single lock, the i-th entry to the point at
+     * xyz[3i]. The order is fixed up once, before the next query.
+     *
+     * @return The number of entries moved; entries of another map are skipped.
+     */
+    public int moveAll(List<? extends Entry<E>> entries, double[] xyz) {
+        if (xyz.length < entries.size() * 3) {
+            throw new IllegalArgumentException("Expected " + entries.size() * 3 + " coordinates, got " + xyz.length);
+        }
+        int moved = 0;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0, j = 0, l = entries.size(); i < l; i++, j += 3) {
+                Entry<E> entry = entries.get(i);
+                if (entry instanceof SlotEntry && isParent((SlotEntry<E>)entry, this)) {
+                    SlotEntry<E> slotEntry = (SlotEntry<E>)entry;
+                    place(slotEntry.slot, xyz[j], xyz[j + 1], xyz[j + 2]);
+                    setPosition(slotEntry, xyz[j], xyz[j + 1], xyz[j + 2]);
+                    moved++;
+                }
+            }
+            orderValid = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return moved;
+    }
+
+    /**
+     * The iterator's remove() is fine; any other change to the map causes a
+     * ConcurrentModificationException.
+     */
     public Iterator<Entry<E>> iterator() {
-        Iterator<?> iterator = entries.iterator();
-        return (Iterator<Entry<E>>)iterator;
+        return new Iterator<Entry<E>>() {
+
+            private int expectedModCount = modCount;
+            private int index = 0;
+            private SlotEntry<E> last;
+
+            private void checkForConcurrentModification() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+
+            public boolean hasNext() {
+                checkForConcurrentModification();
+                return index < size;
+            }
+
+            public Entry<E> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = entry(index++);
+                return last;
+            }
+
+            public void remove() {
+                if (last == null) {
+                    throw new NoSuchElementException();
+                }
+                checkForConcurrentModification();
+                removeImpl(last);
+                expectedModCount = modCount;
+                index = last.slot; // the last entry was moved into its slot
+                last = null;
+            }
+        };
     }
 
+    /**
+     * @return Every entry, in order of the min of its box along the axis.
+     */
     public List<Entry<E>> toList(Axis axis) {
-        sort(axis);
-        lock.readLock().lock();
+        sort();
+        lock.writeLock().lock(); // to bring the axis up to date
         try {
-            return toList(ordered);
+            int a = axis.ordinal();
+            if (a != primary) {
+                sortAxis(a);
+            }
+            int[] order = endpoints[a];
+            List<Entry<E>> list = new ArrayList<Entry<E>>(size);
+            for (int i = 0, n = size * 2; i < n; i++) {
+                if ((order[i] & 1) == 0) {
+                    list.add(entry(order[i] >> 1));
+                }
+            }
+            return list;
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
@@ -296,66 +642,63 @@ public class SweepAndPrune<E> extends AbstractSpatialMap<E> {
         int size = indices.length;
         List<Entry<E>> list = new ArrayList<Entry<E>>(size);
         for (Integer index : indices) {
-            list.add(entries.get(index));
+            list.add(entry(index));
         }
         return list;
     }
 
-    private abstract class SweepComparator implements Comparator<Integer> {
-
-        public int compare(Integer left, Integer right) {
-            Axis axis = axis();
-            double l = entries.get(left).getAxis(axis);
-            double r = entries.get(right).getAxis(axis);
-            if (l == r) {
-                axis = axis.next();
-                l = entries.get(left).getAxis(axis);
-                r = entries.get(right).getAxis(axis);
-                if (l == r) {
-                    axis = axis.next();
-                    l = entries.get(left).getAxis(axis);
-                    r = entries.get(right).getAxis(axis);
-                    return l == r ? 0 : (l < r ? -1 : 1);
-                } else {
-                    return l < r ? -1 : 1;
-                }
-            } else {
-                return l < r ? -1 : 1;
-            }
-        }
+    public interface PairConsumer<S> {
+
+        /**
+         * Called under the map's read lock, so it must not add, remove or move
+         * entries of the same map.
+         */
+        void overlap(Entry<S> a, Entry<S> b);
+    }
 
-        public abstract Axis axis();
+    @SuppressWarnings("serial") // only ever held by a live sweep
+    private static final class SlotEntry<S> extends AbstractEntry<S> {
 
-        protected Comparator<Integer> toFind(final double value) {
-            return new Comparator<Integer>() {
-                public int compare(Integer left, Integer right) {
-                    Axis axis = axis();
-                    double l = left == -1 ? value : entries.get(left).getAxis(axis);
-                    double r = right == -1 ? value : entries.get(right).getAxis(axis);
-                    return l == r ? 0 : (l < r ? -1 : 1);
-                }
-            };
+        private final S value;
+
+        private int slot;
+
+        private SlotEntry(S value, double x, double y, double z) {
+            super(x, y, z);
+            this.value = value;
+        }
+
+        public S get() {
+            return value;
         }
     }
 
-    protected class PrimarySweepComparator extends SweepComparator {
+    /**
+     * The boxes open at a point of the sweep, per thread.
+     */
+    private static final class Sweep {
 
-        protected final SweepComparator secondary = new SweepComparator() {
-            @Override
-            public Axis axis() {
-                return primaryAxis.next();
-            }
-        };
+        private int[] active = new int[16];
+        private int[] where = new int[16]; // the place of each slot in active
+        private double[] bounds = new double[64]; // 4 per active box
+        private boolean busy;
 
-        protected final SweepComparator tertiary = new SweepComparator() {
-            @Override
-            public Axis axis() {
-                return primaryAxis.prev();
+        static Sweep acquire(int size) {
+            Sweep sweep = SWEEPS.get();
+            if (sweep.busy) {
+                sweep = new Sweep(); // the consumer is sweeping again from overlap()
             }
-        };
+            if (sweep.where.length < size) {
+                sweep.active = new int[size];
+                sweep.where = new int[size];
+                sweep.bounds = new double[size * 4];
+            }
+            sweep.busy = true;
+            return sweep;
+        }
 
-        public Axis axis() {
-            return primaryAxis;
+        void release() {
+            busy = false;
         }
     }
 
@@ -445,9 +788,8 @@ public class SweepAndPrune<E> extends AbstractSpatialMap<E> {
             map.add(names[i], values[i], values[i], values[i]);
         }
 
-        Comparator<Integer> comparator = map.sweepComparator.toFind(1.5);
         map.sort();
-        int index = map.binarySearch(map.ordered, 0, map.ordered.length - 1, -1, comparator, false);
+        int index = map.lowerBound(map.primary, 1.5) / 2;
         System.out.println(index);
     }
 }
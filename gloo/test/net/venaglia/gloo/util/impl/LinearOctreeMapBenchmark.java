@@ -0,0 +1,140 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingSphere;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 6:10 AM
+ *
+ * Compares OctreeMap and LinearOctreeMap holding points on the surface of a
+ * sphere, like the flow simulator's fragments: the time to build, to run
+ * sphere queries that each find about 16 points, and to move every point a
+ * short way, plus the heap used per point.
+ */
+public class LinearOctreeMapBenchmark {
+
+    private static final double RADIUS = 1000.0;
+    private static final BoundingSphere BOUNDS = new BoundingSphere(Point.ORIGIN, RADIUS * 1.2);
+    private static final int ROUNDS = 3;
+
+    private static long sink;
+
+    private static final SpatialMap.Consumer<Integer> COUNTER = new SpatialMap.Consumer<Integer>() {
+        public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+            sink++;
+        }
+    };
+
+    private interface Subject {
+        SpatialMap<Integer> build(double[] xyz);
+    }
+
+    public static void main(String[] args) {
+        for (int size : new int[]{ 8000, 1000000 }) {
+            double[] xyz = new double[size * 3];
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                point(random, xyz, i * 3);
+            }
+            double r = RADIUS * 8.0 / Math.sqrt(size); // about 16 points per query
+            BoundingSphere[] queries = new BoundingSphere[Math.min(size, 100000)];
+            double[] p = new double[3];
+            for (int i = 0; i < queries.length; i++) {
+                point(random, p, 0);
+                queries[i] = new BoundingSphere(new Point(p[0], p[1], p[2]), r);
+            }
+            double[] moved = xyz.clone();
+            for (int i = 0; i < moved.length; i++) {
+                moved[i] += random.nextGaussian() * r * 0.1;
+            }
+            System.out.printf("%d points, %d queries of radius %.1f\n", size, queries.length, r);
+            System.out.printf("%24s %12s %12s %12s %12s\n", "map", "bytes/point", "build (ms)", "query (ms)", "move (ms)");
+            run("OctreeMap", xyz, moved, queries, new Subject() {
+                public SpatialMap<Integer> build(double[] xyz) {
+                    OctreeMap<Integer> map = new OctreeMap<Integer>(BOUNDS, 12, 5);
+                    for (int i = 0, j = 0; j < xyz.length; i++, j += 3) {
+                        map.add(i, xyz[j], xyz[j + 1], xyz[j + 2]);
+                    }
+                    return map;
+                }
+            });
+            run("LinearOctreeMap add()", xyz, moved, queries, new Subject() {
+                public SpatialMap<Integer> build(double[] xyz) {
+                    LinearOctreeMap<Integer> map = new LinearOctreeMap<Integer>(BOUNDS);
+                    for (int i = 0, j = 0; j < xyz.length; i++, j += 3) {
+                        map.add(i, xyz[j], xyz[j + 1], xyz[j + 2]);
+                    }
+                    return map;
+                }
+            });
+            run("LinearOctreeMap addAll()", xyz, moved, queries, new Subject() {
+                public SpatialMap<Integer> build(double[] xyz) {
+                    LinearOctreeMap<Integer> map = new LinearOctreeMap<Integer>(BOUNDS);
+                    Integer[] values = new Integer[xyz.length / 3];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = i;
+                    }
+                    map.addAll(Arrays.asList(values), xyz);
+                    return map;
+                }
+            });
+            System.out.println();
+        }
+    }
+
+    private static void point(Random random, double[] xyz, int j) {
+        double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+        double l = RADIUS / Math.sqrt(x * x + y * y + z * z);
+        xyz[j] = x * l;
+        xyz[j + 1] = y * l;
+        xyz[j + 2] = z * l;
+    }
+
+    private static void run(String name, double[] xyz, double[] moved, BoundingSphere[] queries, Subject subject) {
+        long bestBuild = Long.MAX_VALUE, bestQuery = Long.MAX_VALUE, bestMove = Long.MAX_VALUE;
+        long heap = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long before = usedHeap();
+            long start = System.nanoTime();
+            SpatialMap<Integer> map = subject.build(xyz);
+            bestBuild = Math.min(bestBuild, System.nanoTime() - start);
+            heap = usedHeap() - before;
+
+            start = System.nanoTime();
+            for (BoundingSphere query : queries) {
+                map.intersect(query, COUNTER);
+            }
+            bestQuery = Math.min(bestQuery, System.nanoTime() - start);
+
+            List<SpatialMap.Entry<Integer>> entries = new ArrayList<SpatialMap.Entry<Integer>>(map.size());
+            for (SpatialMap.Entry<Integer> entry : map) {
+                entries.add(entry);
+            }
+            start = System.nanoTime();
+            for (SpatialMap.Entry<Integer> entry : entries) {
+                int j = entry.get() * 3;
+                entry.move(moved[j], moved[j + 1], moved[j + 2]);
+            }
+            bestMove = Math.min(bestMove, System.nanoTime() - start);
+            assert map.size() == xyz.length / 3;
+        }
+        System.out.printf("%24s %12.1f %12.1f %12.1f %12.1f\n", name, heap / (xyz.length / 3.0),
+                          bestBuild / 1.0e6, bestQuery / 1.0e6, bestMove / 1.0e6);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
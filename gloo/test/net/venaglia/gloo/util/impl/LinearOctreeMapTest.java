@@ -0,0 +1,192 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingBox;
+import net.venaglia.gloo.physical.bounds.BoundingSphere;
+import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
+import net.venaglia.gloo.physical.geom.Axis;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 5:50 AM
+ */
+public class LinearOctreeMapTest {
+
+    private static final BoundingBox BOUNDS = new BoundingBox(new Point(-10, -10, -10), new Point(10, 10, 10));
+
+    private final Random random = new Random(42);
+    private final LinearOctreeMap<Integer> map = new LinearOctreeMap<Integer>(BOUNDS, 4);
+    private final List<SpatialMap.Entry<Integer>> live = new ArrayList<SpatialMap.Entry<Integer>>();
+    private final List<double[]> positions = new ArrayList<double[]>(); // indexed by value
+    private final Set<Integer> present = new HashSet<Integer>();
+
+    private double coord() {
+        // clustered around a few centers, to get deep nodes
+        return random.nextInt(3) * 6.0 - 6.0 + random.nextGaussian() * (random.nextBoolean() ? 0.01 : 2.0);
+    }
+
+    private double[] point() {
+        double[] p;
+        do {
+            p = new double[]{ coord(), coord(), coord() };
+        } while (!BOUNDS.includes(p[0], p[1], p[2]));
+        return p;
+    }
+
+    private void add() {
+        double[] p = point();
+        int value = positions.size();
+        positions.add(p);
+        assert map.add(value, p[0], p[1], p[2]);
+        present.add(value);
+    }
+
+    private void check(SimpleBoundingVolume region) {
+        final Set<Integer> found = new HashSet<Integer>();
+        int hits = map.intersect(region, new SpatialMap.Consumer<Integer>() {
+            public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                double[] p = positions.get(entry.get());
+                assert p[0] == x && p[1] == y && p[2] == z;
+                assert found.add(entry.get()) : "reported twice: " + entry.get();
+            }
+        });
+        assert hits == found.size();
+        for (int value : present) {
+            double[] p = positions.get(value);
+            assert region.includes(p[0], p[1], p[2]) == found.contains(value) : value;
+        }
+    }
+
+    private void checkAll() {
+        assert map.size() == present.size();
+        for (int i = 0; i < 20; i++) {
+            Point c = new Point(coord(), coord(), coord());
+            double r = random.nextDouble() * (random.nextBoolean() ? 0.05 : 4.0);
+            check(new BoundingSphere(c, r));
+            check(new BoundingBox(c, new Point(c.x + r, c.y + r * 2, c.z + r / 2)));
+        }
+        check(BOUNDS);
+        check(new BoundingBox(new Point(-100, -100, -100), new Point(100, 100, 100)));
+        assert map.intersect(new BoundingSphere(new Point(50, 50, 50), 1), AbstractSpatialMap.<Integer>dummyConsumer()) == 0;
+        Set<Integer> iterated = new HashSet<Integer>();
+        for (SpatialMap.Entry<Integer> entry : map) {
+            assert iterated.add(entry.get());
+        }
+        assert iterated.equals(present);
+    }
+
+    private void run() {
+        for (int i = 0; i < 2000; i++) {
+            add();
+        }
+        live.clear();
+        for (SpatialMap.Entry<Integer> entry : map) {
+            live.add(entry);
+        }
+        checkAll();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 300; i++) {
+                SpatialMap.Entry<Integer> entry = live.get(random.nextInt(live.size()));
+                double[] p = positions.get(entry.get());
+                switch (random.nextInt(4)) {
+                    case 0: // a small move, usually in place
+                        double[] q = { p[0] + random.nextGaussian() * 0.001, p[1], p[2] };
+                        if (BOUNDS.includes(q[0], q[1], q[2])) {
+                            assert entry.move(q[0], q[1], q[2]);
+                            positions.set(entry.get(), q);
+                        }
+                        break;
+                    case 1:
+                        q = point();
+                        assert entry.move(q[0], q[1], q[2]);
+                        positions.set(entry.get(), q);
+                        break;
+                    case 2:
+                        assert entry.remove();
+                        live.remove(entry);
+                        present.remove(entry.get());
+                        try {
+                            entry.move(0, 0, 0);
+                            assert false : "fail";
+                        } catch (IllegalStateException e) {
+                            // expected
+                        }
+                        break;
+                    default:
+                        add();
+                        break;
+                }
+            }
+            live.clear();
+            for (SpatialMap.Entry<Integer> entry : map) {
+                live.add(entry);
+                double[] p = positions.get(entry.get());
+                assert entry.getAxis(Axis.X) == p[0] && entry.getAxis(Axis.Y) == p[1] && entry.getAxis(Axis.Z) == p[2];
+                assert map.contains(p[0], p[1], p[2]);
+            }
+            checkAll();
+        }
+
+        // removing through the iterator
+        for (Iterator<SpatialMap.Entry<Integer>> iterator = map.iterator(); iterator.hasNext();) {
+            SpatialMap.Entry<Integer> entry = iterator.next();
+            if (random.nextBoolean()) {
+                iterator.remove();
+                present.remove(entry.get());
+            }
+        }
+        checkAll();
+
+        // bulk loading
+        List<Integer> values = new ArrayList<Integer>();
+        double[] xyz = new double[3000];
+        for (int i = 0; i < 1000; i++) {
+            double[] p = point();
+            values.add(positions.size());
+            present.add(positions.size());
+            positions.add(p);
+            System.arraycopy(p, 0, xyz, i * 3, 3);
+        }
+        assert map.addAll(values, xyz) == 1000;
+        checkAll();
+        try {
+            map.addAll(Arrays.asList(1), new double[]{ 0, 0, 20 });
+            assert false : "fail";
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            map.add(1, 10, 0, 0);
+            assert false : "fail";
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        map.clear();
+        present.clear();
+        assert map.isEmpty();
+        checkAll();
+        try {
+            live.get(0).remove();
+            assert false : "fail";
+        } catch (IllegalStateException e) {
+            // expected, clear() orphans every entry
+        }
+    }
+
+    public static void main(String[] args) {
+        LinearOctreeMapTest test = new LinearOctreeMapTest();
+        test.run();
+        System.out.println("All tests passed");
+    }
+}
@@ -0,0 +1,134 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingSphere;
+import net.venaglia.gloo.physical.bounds.MutableSimpleBounds;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 3:15 PM
+ *
+ * Compares the searches that used to be built on intersect() with nearest(),
+ * on points spread over the surface of a sphere like the global point map:
+ * finding the point at a known position the way vertex snapping does, and
+ * finding the 16 points nearest to a random place by widening a sphere query
+ * until it holds enough of them.
+ */
+public class NearestSearchBenchmark {
+
+    private static final double RADIUS = 1000.0;
+    private static final int ROUNDS = 5;
+
+    private static long sink;
+
+    private interface Subject {
+        void run(SpatialMap<Integer> map, double[] xyz);
+    }
+
+    public static void main(String[] args) {
+        int size = 500000;
+        Random random = new Random(size);
+        final double[] xyz = new double[size * 3];
+        for (int i = 0; i < size; i++) {
+            point(random, xyz, i * 3);
+        }
+        final double[] places = new double[300000];
+        for (int i = 0; i < places.length; i += 3) {
+            point(random, places, i);
+        }
+        final double spacing = RADIUS * 4.0 / Math.sqrt(size); // about 16 points within this
+        System.out.printf("%d points, %d lookups\n", size, xyz.length / 3);
+        for (OctreeMap.Concurrency concurrency : OctreeMap.Concurrency.values()) {
+            OctreeMap<Integer> map = new OctreeMap<Integer>(new BoundingSphere(Point.ORIGIN, RADIUS * 1.024), 16, 12, concurrency);
+            for (int i = 0, j = 0; j < xyz.length; i++, j += 3) {
+                map.add(i, xyz[j], xyz[j + 1], xyz[j + 2]);
+            }
+            System.out.println(concurrency);
+            time("  find point, intersect()", map, xyz, new Subject() {
+                public void run(SpatialMap<Integer> map, double[] xyz) {
+                    MutableSimpleBounds bounds = new MutableSimpleBounds();
+                    Capture capture = new Capture();
+                    for (int j = 0; j < xyz.length; j += 3) {
+                        map.intersect(bounds.load(xyz[j], xyz[j + 1], xyz[j + 2]), capture);
+                    }
+                    sink += capture.count;
+                }
+            });
+            time("  find point, nearest()", map, xyz, new Subject() {
+                public void run(SpatialMap<Integer> map, double[] xyz) {
+                    Capture capture = new Capture();
+                    for (int j = 0; j < xyz.length; j += 3) {
+                        map.nearest(xyz[j], xyz[j + 1], xyz[j + 2], 1, 0.00005, capture);
+                    }
+                    sink += capture.count;
+                }
+            });
+            time("  16 nearest, intersect()", map, places, new Subject() {
+                public void run(SpatialMap<Integer> map, double[] xyz) {
+                    final double[] found = new double[256];
+                    for (int j = 0; j < xyz.length; j += 3) {
+                        final double x = xyz[j], y = xyz[j + 1], z = xyz[j + 2];
+                        int count;
+                        double r = spacing;
+                        do {
+                            final int[] n = { 0 };
+                            map.intersect(new BoundingSphere(new Point(x, y, z), r), new SpatialMap.Consumer<Integer>() {
+                                public void found(SpatialMap.Entry<Integer> entry, double i, double j, double k) {
+                                    if (n[0] < found.length) {
+                                        found[n[0]] = (i - x) * (i - x) + (j - y) * (j - y) + (k - z) * (k - z);
+                                    }
+                                    n[0]++;
+                                }
+                            });
+                            count = n[0];
+                            r *= 2;
+                        } while (count < 16);
+                        Arrays.sort(found, 0, Math.min(count, found.length));
+                        sink += count;
+                    }
+                }
+            });
+            time("  16 nearest, nearest()", map, places, new Subject() {
+                public void run(SpatialMap<Integer> map, double[] xyz) {
+                    Capture capture = new Capture();
+                    for (int j = 0; j < xyz.length; j += 3) {
+                        map.nearest(xyz[j], xyz[j + 1], xyz[j + 2], 16, capture);
+                    }
+                    sink += capture.count;
+                }
+            });
+        }
+    }
+
+    private static class Capture implements SpatialMap.Consumer<Integer> {
+
+        private long count;
+
+        public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+            count++;
+        }
+    }
+
+    private static void point(Random random, double[] xyz, int j) {
+        double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+        double l = RADIUS / Math.sqrt(x * x + y * y + z * z);
+        xyz[j] = x * l;
+        xyz[j + 1] = y * l;
+        xyz[j + 2] = z * l;
+    }
+
+    private static void time(String name, SpatialMap<Integer> map, double[] xyz, Subject subject) {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            subject.run(map, xyz);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %10.1f ms\n", name, best / 1.0e6);
+    }
+}
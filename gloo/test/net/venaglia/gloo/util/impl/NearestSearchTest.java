@@ -0,0 +1,250 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingBox;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.AreaMap;
+import net.venaglia.gloo.util.Bounds2D;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 2:30 PM
+ *
+ * Checks nearest() and withinSphere() on every SpatialMap, and nearest() and
+ * withinCircle() on QuadMap, against a brute force search.
+ */
+public class NearestSearchTest {
+
+    private static final BoundingBox BOUNDS = new BoundingBox(new Point(-10, -10, -10), new Point(10, 10, 10));
+
+    private final Random random = new Random(7);
+    private final String name;
+    private final SpatialMap<Integer> map;
+    private final List<double[]> positions = new ArrayList<double[]>(); // indexed by value
+    private final List<SpatialMap.Entry<Integer>> live = new ArrayList<SpatialMap.Entry<Integer>>();
+
+    private NearestSearchTest(String name, SpatialMap<Integer> map) {
+        this.name = name;
+        this.map = map;
+    }
+
+    private double coord() {
+        // clustered, with some exact duplicates, so that ties happen
+        double c = random.nextInt(3) * 6.0 - 6.0 + random.nextGaussian() * 1.5;
+        return random.nextInt(8) == 0 ? Math.rint(c) : c;
+    }
+
+    private double[] point() {
+        double[] p;
+        do {
+            p = new double[]{ coord(), coord(), coord() };
+        } while (!BOUNDS.includes(p[0], p[1], p[2]) || p[0] >= 10 || p[1] >= 10 || p[2] >= 10);
+        return p;
+    }
+
+    private static double distance(double[] p, double x, double y, double z) {
+        double a = p[0] - x, b = p[1] - y, c = p[2] - z;
+        return a * a + b * b + c * c;
+    }
+
+    private void checkNearest(final double x, final double y, final double z, int k, double maxDistance) {
+        // the k-th smallest squared distance, brute force
+        List<Double> all = new ArrayList<Double>();
+        for (SpatialMap.Entry<Integer> entry : live) {
+            double d = distance(positions.get(entry.get()), x, y, z);
+            if (d <= maxDistance * maxDistance) {
+                all.add(d);
+            }
+        }
+        Double[] sorted = all.toArray(new Double[all.size()]);
+        Arrays.sort(sorted);
+        final int expected = Math.min(k, sorted.length);
+        final double[] last = { -1 };
+        final Set<Integer> seen = new HashSet<Integer>();
+        SpatialMap.Consumer<Integer> consumer = new SpatialMap.Consumer<Integer>() {
+            public void found(SpatialMap.Entry<Integer> entry, double i, double j, double k) {
+                double[] p = positions.get(entry.get());
+                assert p[0] == i && p[1] == j && p[2] == k : name;
+                double d = distance(p, x, y, z);
+                assert d >= last[0] : name + ": not nearest first";
+                last[0] = d;
+                assert seen.add(entry.get()) : name + ": reported twice";
+            }
+        };
+        int found = maxDistance == Double.POSITIVE_INFINITY
+                    ? map.nearest(x, y, z, k, consumer)
+                    : map.nearest(x, y, z, k, maxDistance, consumer);
+        assert found == expected : name + ": " + found + " != " + expected;
+        assert seen.size() == expected;
+        if (expected > 0) {
+            assert last[0] == sorted[expected - 1] : name + ": " + last[0] + " != " + sorted[expected - 1];
+        }
+    }
+
+    private void checkWithinSphere(final double x, final double y, final double z, final double r) {
+        final Set<Integer> found = new HashSet<Integer>();
+        int hits = map.withinSphere(x, y, z, r, new SpatialMap.Consumer<Integer>() {
+            public void found(SpatialMap.Entry<Integer> entry, double i, double j, double k) {
+                assert found.add(entry.get()) : name + ": reported twice";
+            }
+        });
+        assert hits == found.size();
+        for (SpatialMap.Entry<Integer> entry : live) {
+            boolean within = distance(positions.get(entry.get()), x, y, z) <= r * r;
+            assert within == found.contains(entry.get()) : name + ": " + entry.get();
+        }
+    }
+
+    private void checkAll() {
+        for (int i = 0; i < 40; i++) {
+            double[] p = random.nextBoolean() ? positions.get(live.get(random.nextInt(live.size())).get()) : point();
+            checkNearest(p[0], p[1], p[2], 1, Double.POSITIVE_INFINITY);
+            checkNearest(p[0], p[1], p[2], 1 + random.nextInt(40), Double.POSITIVE_INFINITY);
+            checkNearest(p[0], p[1], p[2], 1 + random.nextInt(40), random.nextDouble() * 2.0);
+            checkNearest(p[0], p[1], p[2], 1, 0.0);
+            checkWithinSphere(p[0], p[1], p[2], random.nextDouble() * 3.0);
+            // exact matches, the way get() uses the search
+            Integer value = map.get(new Point(p[0], p[1], p[2]), 0.0);
+            assert (value != null) == map.contains(p[0], p[1], p[2]) : name;
+            if (value != null) {
+                assert Arrays.equals(positions.get(value), p) : name;
+            }
+        }
+        // from outside of the bounds, and more than there are
+        checkNearest(50, -30, 0, 5, Double.POSITIVE_INFINITY);
+        checkNearest(0, 0, 0, live.size() + 10, Double.POSITIVE_INFINITY);
+        assert map.nearest(0, 0, 0, 0, AbstractSpatialMap.<Integer>dummyConsumer()) == 0;
+    }
+
+    private void run() {
+        for (int i = 0; i < 2000; i++) {
+            double[] p = point();
+            int value = positions.size();
+            positions.add(p);
+            assert map.add(value, p[0], p[1], p[2]);
+        }
+        for (SpatialMap.Entry<Integer> entry : map) {
+            live.add(entry);
+        }
+        checkAll();
+        for (int i = 0; i < 1000; i++) {
+            SpatialMap.Entry<Integer> entry = live.get(random.nextInt(live.size()));
+            if (random.nextBoolean()) {
+                assert entry.remove();
+                live.remove(entry);
+            } else {
+                double[] p = point();
+                assert entry.move(p[0], p[1], p[2]);
+                positions.set(entry.get(), p);
+            }
+        }
+        checkAll();
+
+        try {
+            map.nearest(0, 0, 0, -1, AbstractSpatialMap.<Integer>dummyConsumer());
+            assert false : "fail";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            map.withinSphere(0, 0, 0, Double.NaN, AbstractSpatialMap.<Integer>dummyConsumer());
+            assert false : "fail";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A consumer that searches again from found() gets a search of its own.
+     */
+    private static void runReentrant(final SpatialMap<Integer> map) {
+        for (int i = 0; i < 100; i++) {
+            map.add(i, i * 0.1, 0, 0);
+        }
+        final int[] inner = { 0 };
+        int outer = map.nearest(0, 0, 0, 10, new SpatialMap.Consumer<Integer>() {
+            public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                inner[0] += map.nearest(x, y, z, 3, AbstractSpatialMap.<Integer>dummyConsumer());
+            }
+        });
+        assert outer == 10;
+        assert inner[0] == 30 : inner[0];
+    }
+
+    private static void runQuadMap() {
+        Random random = new Random(11);
+        QuadMap<Integer> map = new QuadMap<Integer>(Bounds2D.createRectangle(-10, -10, 10, 10));
+        final List<double[]> positions = new ArrayList<double[]>();
+        for (int i = 0; i < 2000; i++) {
+            double[] p = { random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10 };
+            positions.add(p);
+            assert map.add(i, p[0], p[1]);
+        }
+        for (int n = 0; n < 200; n++) {
+            final double x = random.nextDouble() * 24 - 12, y = random.nextDouble() * 24 - 12;
+            final int k = 1 + random.nextInt(30);
+            double[] all = new double[positions.size()];
+            for (int i = 0; i < all.length; i++) {
+                double[] p = positions.get(i);
+                all[i] = (p[0] - x) * (p[0] - x) + (p[1] - y) * (p[1] - y);
+            }
+            double[] sorted = all.clone();
+            Arrays.sort(sorted);
+            final double[] last = { -1 };
+            int found = map.nearest(x, y, k, new AreaMap.Consumer<Integer>() {
+                public void found(AreaMap.Entry<Integer> entry, double i, double j) {
+                    double d = (i - x) * (i - x) + (j - y) * (j - y);
+                    assert d >= last[0];
+                    last[0] = d;
+                }
+            });
+            assert found == k;
+            assert last[0] == sorted[k - 1];
+
+            final double r = random.nextDouble() * 3;
+            final Set<Integer> within = new HashSet<Integer>();
+            int hits = map.withinCircle(x, y, r, new AreaMap.Consumer<Integer>() {
+                public void found(AreaMap.Entry<Integer> entry, double i, double j) {
+                    assert within.add(entry.get());
+                }
+            });
+            assert hits == within.size();
+            for (int i = 0; i < all.length; i++) {
+                assert (all[i] <= r * r) == within.contains(i) : i;
+            }
+            int nearest = 0;
+            for (int i = 1; i < all.length; i++) {
+                if (all[i] < all[nearest]) {
+                    nearest = i;
+                }
+            }
+            Integer value = map.get(x, y, r);
+            if (all[nearest] <= r * r) {
+                assert value != null && all[value] == all[nearest];
+            } else {
+                assert value == null;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        for (OctreeMap.Concurrency concurrency : OctreeMap.Concurrency.values()) {
+            new NearestSearchTest("OctreeMap " + concurrency, new OctreeMap<Integer>(BOUNDS, 6, 4, concurrency)).run();
+            runReentrant(new OctreeMap<Integer>(BOUNDS, 6, 4, concurrency));
+        }
+        new NearestSearchTest("LinearOctreeMap", new LinearOctreeMap<Integer>(BOUNDS, 8)).run();
+        runReentrant(new LinearOctreeMap<Integer>(BOUNDS, 8));
+        new NearestSearchTest("SweepAndPrune", new SweepAndPrune<Integer>(BOUNDS)).run();
+        runReentrant(new SweepAndPrune<Integer>(BOUNDS));
+        runQuadMap();
+        System.out.println("All tests passed");
+    }
+}
@@ -0,0 +1,167 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingSphere;
+import net.venaglia.gloo.physical.geom.Axis;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 11:05 AM
+ *
+ * Measures how OctreeMap query throughput scales with the number of querying
+ * threads, in each concurrency mode, with and without a thread moving points
+ * the whole time, the way the flow simulator's workers share its map.
+ */
+public class OctreeMapScalingBenchmark {
+
+    private static final double RADIUS = 1000.0;
+    private static final BoundingSphere BOUNDS = new BoundingSphere(Point.ORIGIN, RADIUS * 1.2);
+    private static final int SIZE = 100000;
+    private static final int QUERIES = 400000;
+    private static final int ROUNDS = 3;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+    private static final AtomicLong sink = new AtomicLong();
+
+    public static void main(String[] args) throws InterruptedException {
+        Random random = new Random(SIZE);
+        double[] xyz = new double[SIZE * 3];
+        for (int i = 0; i < SIZE; i++) {
+            point(random, xyz, i * 3);
+        }
+        double r = RADIUS * 8.0 / Math.sqrt(SIZE); // about 16 points per query
+        BoundingSphere[] queries = new BoundingSphere[QUERIES];
+        double[] p = new double[3];
+        for (int i = 0; i < queries.length; i++) {
+            point(random, p, 0);
+            queries[i] = new BoundingSphere(new Point(p[0], p[1], p[2]), r);
+        }
+        System.out.printf("%d points, %d queries of radius %.1f, %d cpus\n",
+                          SIZE, QUERIES, r, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%12s %8s", "mode", "mover");
+        for (int threads : THREADS) {
+            System.out.printf(" %10s", threads + " thr");
+        }
+        System.out.println("   (queries/ms)");
+        OctreeMap.Concurrency[] modes = OctreeMap.Concurrency.values();
+        List<OctreeMap<Integer>> maps = new ArrayList<OctreeMap<Integer>>(modes.length);
+        for (OctreeMap.Concurrency concurrency : modes) {
+            OctreeMap<Integer> map = new OctreeMap<Integer>(BOUNDS, 12, 5, concurrency);
+            for (int i = 0, j = 0; j < xyz.length; i++, j += 3) {
+                map.add(i, xyz[j], xyz[j + 1], xyz[j + 2]);
+            }
+            maps.add(map);
+        }
+        for (OctreeMap<Integer> map : maps) {
+            run(map, queries, 1, true, r); // warm up both modes before timing either
+        }
+        for (boolean mover : new boolean[]{ false, true }) {
+            for (OctreeMap<Integer> map : maps) {
+                System.out.printf("%12s %8s", map.getConcurrency(), mover ? "yes" : "no");
+                for (int threads : THREADS) {
+                    long best = Long.MAX_VALUE;
+                    for (int round = 0; round < ROUNDS; round++) {
+                        best = Math.min(best, run(map, queries, threads, mover, r));
+                    }
+                    System.out.printf(" %10.1f", QUERIES / (best / 1.0e6));
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    private static void point(Random random, double[] xyz, int j) {
+        double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+        double l = RADIUS / Math.sqrt(x * x + y * y + z * z);
+        xyz[j] = x * l;
+        xyz[j + 1] = y * l;
+        xyz[j + 2] = z * l;
+    }
+
+    /**
+     * @return The nanoseconds taken for the query threads to share out and
+     *     run every query.
+     */
+    private static long run(final OctreeMap<Integer> map,
+                            final BoundingSphere[] queries,
+                            int threads,
+                            boolean mover,
+                            final double r) throws InterruptedException {
+        final SpatialMap.Consumer<Integer> counter = new SpatialMap.Consumer<Integer>() {
+            public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                sink.incrementAndGet();
+            }
+        };
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        List<Thread> workers = new ArrayList<Thread>(threads);
+        int share = queries.length / threads;
+        for (int t = 0; t < threads; t++) {
+            final int from = t * share;
+            final int to = t == threads - 1 ? queries.length : from + share;
+            workers.add(new Thread(new Runnable() {
+                public void run() {
+                    await(start);
+                    for (int i = from; i < to; i++) {
+                        map.intersect(queries[i], counter);
+                    }
+                }
+            }));
+        }
+        Thread moving = null;
+        if (mover) {
+            final List<SpatialMap.Entry<Integer>> entries = new ArrayList<SpatialMap.Entry<Integer>>(map.size());
+            for (SpatialMap.Entry<Integer> entry : map) {
+                entries.add(entry);
+            }
+            moving = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(0);
+                    double step = r * 0.1;
+                    await(start);
+                    while (!done.get()) {
+                        SpatialMap.Entry<Integer> entry = entries.get(random.nextInt(entries.size()));
+                        double x = entry.getAxis(Axis.X) + random.nextGaussian() * step;
+                        double y = entry.getAxis(Axis.Y) + random.nextGaussian() * step;
+                        double z = entry.getAxis(Axis.Z) + random.nextGaussian() * step;
+                        if (BOUNDS.includes(x, y, z)) {
+                            entry.move(x, y, z);
+                        }
+                    }
+                }
+            });
+            moving.start();
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        done.set(true);
+        if (moving != null) {
+            moving.join();
+        }
+        return elapsed;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingBox;
+import net.venaglia.gloo.physical.bounds.BoundingSphere;
+import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
+import net.venaglia.gloo.physical.geom.Axis;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 8:20 AM
+ */
+public class OctreeMapTest {
+
+    private static final BoundingBox BOUNDS = new BoundingBox(new Point(-10, -10, -10), new Point(10, 10, 10));
+
+    private final Random random = new Random(42);
+    private final OctreeMap<Integer> map;
+    private final List<SpatialMap.Entry<Integer>> live = new ArrayList<SpatialMap.Entry<Integer>>();
+    private final List<double[]> positions = new ArrayList<double[]>(); // indexed by value
+    private final Set<Integer> present = new HashSet<Integer>();
+
+    private OctreeMapTest(OctreeMap.Concurrency concurrency) {
+        map = new OctreeMap<Integer>(BOUNDS, 6, 4, concurrency);
+        assert map.getConcurrency() == concurrency;
+    }
+
+    private double coord() {
+        // clustered around a few centers, so nodes divide and unify as points move between them
+        return random.nextInt(3) * 6.0 - 6.0 + random.nextGaussian() * (random.nextBoolean() ? 0.01 : 2.0);
+    }
+
+    private double[] point() {
+        double[] p;
+        do {
+            p = new double[]{ coord(), coord(), coord() };
+        } while (!BOUNDS.includes(p[0], p[1], p[2]) || p[0] >= 10 || p[1] >= 10 || p[2] >= 10);
+        return p;
+    }
+
+    private SpatialMap.Entry<Integer> add() {
+        double[] p = point();
+        int value = positions.size();
+        positions.add(p);
+        assert map.add(value, p[0], p[1], p[2]);
+        present.add(value);
+        return find(value);
+    }
+
+    private SpatialMap.Entry<Integer> find(int value) {
+        for (SpatialMap.Entry<Integer> entry : map) {
+            if (entry.get() == value) {
+                return entry;
+            }
+        }
+        throw new AssertionError("missing: " + value);
+    }
+
+    private void check(SimpleBoundingVolume region) {
+        final Set<Integer> found = new HashSet<Integer>();
+        int hits = map.intersect(region, new SpatialMap.Consumer<Integer>() {
+            public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                double[] p = positions.get(entry.get());
+                assert p[0] == x && p[1] == y && p[2] == z;
+                assert found.add(entry.get()) : "reported twice: " + entry.get();
+            }
+        });
+        assert hits == found.size();
+        for (int value : present) {
+            double[] p = positions.get(value);
+            assert region.includes(p[0], p[1], p[2]) == found.contains(value) : value;
+        }
+    }
+
+    private void checkAll() {
+        assert map.size() == present.size() : map.size() + " != " + present.size();
+        for (int i = 0; i < 20; i++) {
+            Point c = new Point(coord(), coord(), coord());
+            double r = random.nextDouble() * (random.nextBoolean() ? 0.05 : 4.0);
+            check(new BoundingSphere(c, r));
+            check(new BoundingBox(c, new Point(c.x + r, c.y + r * 2, c.z + r / 2)));
+        }
+        check(BOUNDS);
+        Set<Integer> iterated = new HashSet<Integer>();
+        for (SpatialMap.Entry<Integer> entry : map) {
+            assert iterated.add(entry.get());
+            double[] p = positions.get(entry.get());
+            assert map.contains(p[0], p[1], p[2]);
+        }
+        assert iterated.equals(present);
+    }
+
+    private void run() {
+        for (int i = 0; i < 1000; i++) {
+            live.add(add());
+        }
+        checkAll();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                SpatialMap.Entry<Integer> entry = live.get(random.nextInt(live.size()));
+                double[] p = positions.get(entry.get());
+                switch (random.nextInt(4)) {
+                    case 0: // a small move, usually within its leaf
+                        double[] q = { p[0] + random.nextGaussian() * 0.001, p[1], p[2] };
+                        if (BOUNDS.includes(q[0], q[1], q[2]) && q[0] < 10) {
+                            assert entry.move(q[0], q[1], q[2]);
+                            positions.set(entry.get(), q);
+                        }
+                        break;
+                    case 1:
+                        q = point();
+                        assert entry.move(q[0], q[1], q[2]);
+                        positions.set(entry.get(), q);
+                        break;
+                    case 2:
+                        assert entry.remove();
+                        live.remove(entry);
+                        present.remove(entry.get());
+                        break;
+                    default:
+                        live.add(add());
+                        break;
+                }
+            }
+            checkAll();
+        }
+
+        // removing most entries unifies nodes back into leaves
+        while (live.size() > 3) {
+            SpatialMap.Entry<Integer> entry = live.remove(random.nextInt(live.size()));
+            assert entry.remove();
+            present.remove(entry.get());
+        }
+        checkAll();
+        assert map.getNodeView().getEntryCount() == 3;
+
+        try {
+            map.add(1, 10, 0, 0);
+            assert false : "fail";
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            live.get(0).move(0, 0, 11);
+            assert false : "fail";
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        map.clear();
+        present.clear();
+        assert map.isEmpty();
+        checkAll();
+        try {
+            live.get(0).remove();
+            assert false : "fail";
+        } catch (IllegalStateException e) {
+            // expected, clear() orphans every entry
+        }
+    }
+
+    /**
+     * Movers teleport points between clusters, so nodes keep dividing and
+     * unifying, while readers check that every query of the whole map sees
+     * each point exactly once.
+     */
+    private static void runConcurrently(OctreeMap.Concurrency concurrency) throws InterruptedException {
+        final OctreeMapTest test = new OctreeMapTest(concurrency);
+        final int size = 4000;
+        for (int i = 0; i < size; i++) {
+            test.add();
+        }
+        final List<List<SpatialMap.Entry<Integer>>> owned = new ArrayList<List<SpatialMap.Entry<Integer>>>();
+        final int movers = 3;
+        for (int t = 0; t < movers; t++) {
+            owned.add(new ArrayList<SpatialMap.Entry<Integer>>());
+        }
+        for (SpatialMap.Entry<Integer> entry : test.map) {
+            owned.get(entry.get() % movers).add(entry);
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger queries = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < movers; t++) {
+            final List<SpatialMap.Entry<Integer>> mine = owned.get(t);
+            final Random random = new Random(t);
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < 60000; i++) {
+                        SpatialMap.Entry<Integer> entry = mine.get(random.nextInt(mine.size()));
+                        double x = random.nextInt(3) * 6.0 - 6.0 + random.nextGaussian() * 0.5;
+                        double y = random.nextInt(3) * 6.0 - 6.0 + random.nextGaussian() * 0.5;
+                        double z = random.nextInt(3) * 6.0 - 6.0 + random.nextGaussian() * 0.5;
+                        if (!entry.move(x, y, z)) {
+                            failure.compareAndSet(null, "move failed: " + entry);
+                        }
+                    }
+                }
+            }));
+        }
+        for (int t = 0; t < 3; t++) {
+            final Random random = new Random(100 + t);
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    await(start);
+                    while (!done.get()) {
+                        final boolean[] seen = new boolean[size];
+                        final AtomicInteger twice = new AtomicInteger();
+                        int hits = test.map.intersect(BOUNDS, new SpatialMap.Consumer<Integer>() {
+                            public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                                if (seen[entry.get()]) {
+                                    twice.incrementAndGet();
+                                }
+                                seen[entry.get()] = true;
+                            }
+                        });
+                        if (hits != size || twice.get() > 0) {
+                            failure.compareAndSet(null, hits + " hits, " + twice.get() + " seen twice");
+                        }
+                        // a batch of queries each reaching the whole map, which must each see every point once
+                        final boolean[][] batchSeen = new boolean[4][size];
+                        double[] centers = new double[batchSeen.length * 3];
+                        for (int j = 0; j < centers.length; j++) {
+                            centers[j] = random.nextDouble() * 20.0 - 10.0;
+                        }
+                        hits = test.map.intersectAll(centers, 40.0, new SpatialMap.BatchConsumer<Integer>() {
+                            public void found(int query, SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                                if (batchSeen[query][entry.get()]) {
+                                    twice.incrementAndGet();
+                                }
+                                batchSeen[query][entry.get()] = true;
+                            }
+                        });
+                        if (hits != size * batchSeen.length || twice.get() > 0) {
+                            failure.compareAndSet(null, hits + " batch hits, " + twice.get() + " seen twice");
+                        }
+                        // a small query, to exercise the partial descent
+                        Point c = new Point(random.nextInt(3) * 6.0 - 6.0, random.nextInt(3) * 6.0 - 6.0, 0);
+                        test.map.intersect(new BoundingSphere(c, 0.5), AbstractSpatialMap.<Integer>dummyConsumer());
+                        // and a nearest search, which must see 16 distinct points, nearest first
+                        final double x = c.x, y = c.y, z = c.z;
+                        final Set<Integer> nearest = new HashSet<Integer>();
+                        final double[] last = { -1 };
+                        int found = test.map.nearest(x, y, z, 16, new SpatialMap.Consumer<Integer>() {
+                            public void found(SpatialMap.Entry<Integer> entry, double i, double j, double k) {
+                                double d = (i - x) * (i - x) + (j - y) * (j - y) + (k - z) * (k - z);
+                                if (!nearest.add(entry.get()) || d < last[0]) {
+                                    failure.compareAndSet(null, "nearest out of order, or seen twice");
+                                }
+                                last[0] = d;
+                            }
+                        });
+                        if (found != 16 || nearest.size() != 16) {
+                            failure.compareAndSet(null, found + " nearest found");
+                        }
+                        queries.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (int t = 0; t < movers; t++) {
+            threads.get(t).join();
+        }
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert failure.get() == null : concurrency + ": " + failure.get();
+        assert queries.get() > 0;
+        assert test.map.size() == size;
+        int count = 0;
+        for (SpatialMap.Entry<Integer> entry : test.map) {
+            assert test.map.contains(entry.getAxis(Axis.X),
+                                     entry.getAxis(Axis.Y),
+                                     entry.getAxis(Axis.Z));
+            count++;
+        }
+        assert count == size;
+        System.out.printf("%s: %d full map queries during %d moves\n", concurrency, queries.get(), movers * 60000);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (OctreeMap.Concurrency concurrency : OctreeMap.Concurrency.values()) {
+            new OctreeMapTest(concurrency).run();
+            runConcurrently(concurrency);
+        }
+        System.out.println("All tests passed");
+    }
+}
@@ -0,0 +1,111 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingSphere;
+import net.venaglia.gloo.physical.bounds.MutableSimpleBounds;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 8:40 PM
+ *
+ * Every point spread over the surface of a sphere looks for its neighbors,
+ * the way the flow simulator does each step: one intersect() per point, in
+ * the order the points were added, against one intersectAll() for all of
+ * them, on one thread and in a pool.
+ */
+public class QueryBatchBenchmark {
+
+    private static final double RADIUS = 1000.0;
+    private static final int ROUNDS = 5;
+
+    private static long sink;
+
+    private interface Subject {
+        int run(SpatialMap<Integer> map, double[] xyz);
+    }
+
+    public static void main(String[] args) {
+        int size = 500000;
+        Random random = new Random(size);
+        final double[] xyz = new double[size * 3];
+        for (int j = 0; j < xyz.length; j += 3) {
+            double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+            double l = RADIUS / Math.sqrt(x * x + y * y + z * z);
+            xyz[j] = x * l;
+            xyz[j + 1] = y * l;
+            xyz[j + 2] = z * l;
+        }
+        final double radius = RADIUS * 4.0 / Math.sqrt(size); // about 5 neighbors
+        final ForkJoinPool pool = new ForkJoinPool();
+        System.out.printf("%d points, %d threads in the pool\n", size, pool.getParallelism());
+        for (OctreeMap.Concurrency concurrency : OctreeMap.Concurrency.values()) {
+            OctreeMap<Integer> map = new OctreeMap<Integer>(new BoundingSphere(Point.ORIGIN, RADIUS * 1.024), 16, 12, concurrency);
+            for (int i = 0, j = 0; j < xyz.length; i++, j += 3) {
+                map.add(i, xyz[j], xyz[j + 1], xyz[j + 2]);
+            }
+            System.out.println(concurrency);
+            time("  intersect() each", map, xyz, new Subject() {
+                public int run(SpatialMap<Integer> map, double[] xyz) {
+                    MutableSimpleBounds bounds = new MutableSimpleBounds(true, radius);
+                    Capture capture = new Capture();
+                    int hits = 0;
+                    for (int j = 0; j < xyz.length; j += 3) {
+                        hits += map.intersect(bounds.load(xyz[j], xyz[j + 1], xyz[j + 2]), capture);
+                    }
+                    return hits;
+                }
+            });
+            time("  withinSphere() each", map, xyz, new Subject() {
+                public int run(SpatialMap<Integer> map, double[] xyz) {
+                    Capture capture = new Capture();
+                    int hits = 0;
+                    for (int j = 0; j < xyz.length; j += 3) {
+                        hits += map.withinSphere(xyz[j], xyz[j + 1], xyz[j + 2], radius, capture);
+                    }
+                    return hits;
+                }
+            });
+            time("  intersectAll()", map, xyz, new Subject() {
+                public int run(SpatialMap<Integer> map, double[] xyz) {
+                    return map.intersectAll(xyz, radius, new Capture());
+                }
+            });
+            time("  intersectAll(), pool", map, xyz, new Subject() {
+                public int run(SpatialMap<Integer> map, double[] xyz) {
+                    return map.intersectAll(xyz, radius, new Capture(), pool);
+                }
+            });
+        }
+        pool.shutdown();
+    }
+
+    private static class Capture implements SpatialMap.Consumer<Integer>, SpatialMap.BatchConsumer<Integer> {
+
+        private long count;
+
+        public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+            count++;
+        }
+
+        public void found(int query, SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+            count++;
+        }
+    }
+
+    private static void time(String name, SpatialMap<Integer> map, double[] xyz, Subject subject) {
+        long best = Long.MAX_VALUE;
+        int hits = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            hits = subject.run(map, xyz);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        sink += hits;
+        System.out.printf("%-28s %10.1f ms %10d hits\n", name, best / 1.0e6, hits);
+    }
+}
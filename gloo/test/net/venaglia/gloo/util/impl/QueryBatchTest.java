@@ -0,0 +1,167 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingBox;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 8:15 PM
+ *
+ * Checks intersectAll() on every SpatialMap, one thread and in a pool,
+ * against a brute force search for each query.
+ */
+public class QueryBatchTest {
+
+    private static final BoundingBox BOUNDS = new BoundingBox(new Point(-10, -10, -10), new Point(10, 10, 10));
+
+    private final Random random = new Random(25);
+    private final String name;
+    private final SpatialMap<Integer> map;
+    private final ForkJoinPool pool;
+    private final List<double[]> positions = new ArrayList<double[]>(); // indexed by value
+    private final List<SpatialMap.Entry<Integer>> live = new ArrayList<SpatialMap.Entry<Integer>>();
+
+    private QueryBatchTest(String name, SpatialMap<Integer> map, ForkJoinPool pool) {
+        this.name = name;
+        this.map = map;
+        this.pool = pool;
+    }
+
+    private double[] point() {
+        double[] p;
+        do {
+            // clustered, with some on a grid, so that queries land exactly on entries
+            p = new double[]{ random.nextGaussian() * 4, random.nextGaussian() * 4, random.nextGaussian() * 4 };
+            if (random.nextInt(8) == 0) {
+                p[0] = Math.rint(p[0]);
+                p[1] = Math.rint(p[1]);
+                p[2] = Math.rint(p[2]);
+            }
+        } while (!BOUNDS.includes(p[0], p[1], p[2]) || p[0] >= 10 || p[1] >= 10 || p[2] >= 10);
+        return p;
+    }
+
+    private void check(int queries, double radius, boolean parallel) {
+        final double[] centers = new double[queries * 3];
+        for (int j = 0; j < centers.length; j += 3) {
+            double[] p = random.nextBoolean() && !live.isEmpty()
+                         ? positions.get(live.get(random.nextInt(live.size())).get())
+                         : point();
+            System.arraycopy(p, 0, centers, j, 3);
+        }
+        final List<Set<Integer>> found = new ArrayList<Set<Integer>>(queries);
+        final Thread[] threads = new Thread[queries];
+        for (int q = 0; q < queries; q++) {
+            found.add(new HashSet<Integer>());
+        }
+        SpatialMap.BatchConsumer<Integer> consumer = new SpatialMap.BatchConsumer<Integer>() {
+            public void found(int query, SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                double[] p = positions.get(entry.get());
+                assert p[0] == x && p[1] == y && p[2] == z : name;
+                synchronized (found) {
+                    assert found.get(query).add(entry.get()) : name + ": reported twice";
+                    assert threads[query] == null || threads[query] == Thread.currentThread() : name + ": query split";
+                    threads[query] = Thread.currentThread();
+                }
+            }
+        };
+        int hits = parallel
+                   ? map.intersectAll(centers, radius, consumer, pool)
+                   : map.intersectAll(centers, radius, consumer);
+        int expected = 0;
+        for (int q = 0, j = 0; q < queries; q++, j += 3) {
+            for (SpatialMap.Entry<Integer> entry : live) {
+                double[] p = positions.get(entry.get());
+                double a = p[0] - centers[j], b = p[1] - centers[j + 1], c = p[2] - centers[j + 2];
+                boolean within = a * a + b * b + c * c <= radius * radius;
+                assert within == found.get(q).contains(entry.get()) : name + ": query " + q + ", " + entry.get();
+                if (within) {
+                    expected++;
+                }
+            }
+        }
+        assert hits == expected : name + ": " + hits + " != " + expected;
+    }
+
+    private void checkAll() {
+        for (boolean parallel : new boolean[]{ false, true }) {
+            check(0, 1.0, parallel);
+            check(1, 2.0, parallel);
+            check(500, 0.0, parallel);
+            check(500, 1.5, parallel);
+            check(3000, 0.75, parallel);
+            check(50, 30.0, parallel); // every query reaches everything
+        }
+    }
+
+    private void run() {
+        checkAll();
+        for (int i = 0; i < 2000; i++) {
+            double[] p = point();
+            int value = positions.size();
+            positions.add(p);
+            assert map.add(value, p[0], p[1], p[2]);
+        }
+        for (SpatialMap.Entry<Integer> entry : map) {
+            live.add(entry);
+        }
+        checkAll();
+        for (int i = 0; i < 1000; i++) {
+            SpatialMap.Entry<Integer> entry = live.get(random.nextInt(live.size()));
+            if (random.nextBoolean()) {
+                assert entry.remove();
+                live.remove(entry);
+            } else {
+                double[] p = point();
+                assert entry.move(p[0], p[1], p[2]);
+                positions.set(entry.get(), p);
+            }
+        }
+        checkAll();
+
+        // a query from found() walks with a batch of its own
+        final int[] inner = { 0 };
+        int outer = map.intersectAll(new double[]{ 0, 0, 0, 4, 4, 4 }, 1.0, new SpatialMap.BatchConsumer<Integer>() {
+            public void found(int query, SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                inner[0] += map.intersectAll(new double[]{ x, y, z }, 0.0, AbstractSpatialMap.<Integer>dummyBatchConsumer());
+            }
+        });
+        assert inner[0] >= outer : name;
+
+        try {
+            map.intersectAll(new double[4], 1.0, AbstractSpatialMap.<Integer>dummyBatchConsumer());
+            assert false : "fail";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            map.intersectAll(new double[3], Double.NaN, AbstractSpatialMap.<Integer>dummyBatchConsumer(), pool);
+            assert false : "fail";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (OctreeMap.Concurrency concurrency : OctreeMap.Concurrency.values()) {
+                new QueryBatchTest("OctreeMap " + concurrency, new OctreeMap<Integer>(BOUNDS, 6, 4, concurrency), pool).run();
+            }
+            new QueryBatchTest("LinearOctreeMap", new LinearOctreeMap<Integer>(BOUNDS, 8), pool).run();
+            new QueryBatchTest("SweepAndPrune", new SweepAndPrune<Integer>(BOUNDS), pool).run();
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("All tests passed");
+    }
+}
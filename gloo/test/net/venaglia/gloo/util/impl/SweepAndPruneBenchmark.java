@@ -0,0 +1,150 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 6:25 PM
+ *
+ * 10k boxes drift around a cube, bouncing off its walls, and every frame each
+ * one moves and then every overlapping pair is found. Compares moving them in
+ * one batch, moving them one at a time, and building the map again from
+ * scratch each frame, which sorts every endpoint from nothing, against one
+ * frame of checking every pair.
+ */
+public class SweepAndPruneBenchmark {
+
+    private static final int SIZE = 10000;
+    private static final double SIDE = 100.0;
+    private static final int FRAMES = 100;
+    private static final int ROUNDS = 5;
+
+    private static long sink;
+
+    private final double[] xyz = new double[SIZE * 3];
+    private final double[] velocity = new double[SIZE * 3];
+    private final double[] halfSizes = new double[SIZE * 3];
+
+    private SweepAndPruneBenchmark() {
+        Random random = new Random(SIZE);
+        for (int i = 0; i < xyz.length; i++) {
+            halfSizes[i] = 0.25 + random.nextDouble() * 0.75;
+            xyz[i] = halfSizes[i] + random.nextDouble() * (SIDE - halfSizes[i] * 2);
+            velocity[i] = random.nextGaussian() * 0.1;
+        }
+    }
+
+    private void step() {
+        for (int i = 0; i < xyz.length; i++) {
+            double v = xyz[i] + velocity[i];
+            if (v < halfSizes[i] || v > SIDE - halfSizes[i]) {
+                velocity[i] = -velocity[i];
+                v = xyz[i] + velocity[i];
+            }
+            xyz[i] = v;
+        }
+    }
+
+    private SweepAndPrune<Integer> build() {
+        SweepAndPrune<Integer> map = new SweepAndPrune<Integer>();
+        for (int i = 0, j = 0; i < SIZE; i++, j += 3) {
+            map.add(i, xyz[j], xyz[j + 1], xyz[j + 2], halfSizes[j], halfSizes[j + 1], halfSizes[j + 2]);
+        }
+        return map;
+    }
+
+    private static List<SpatialMap.Entry<Integer>> entries(SweepAndPrune<Integer> map) {
+        List<SpatialMap.Entry<Integer>> entries = new ArrayList<SpatialMap.Entry<Integer>>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            entries.add(null);
+        }
+        for (SpatialMap.Entry<Integer> entry : map) {
+            entries.set(entry.get(), entry);
+        }
+        return entries;
+    }
+
+    private static final SweepAndPrune.PairConsumer<Integer> COUNTER = new SweepAndPrune.PairConsumer<Integer>() {
+        public void overlap(SpatialMap.Entry<Integer> a, SpatialMap.Entry<Integer> b) {
+            sink++;
+        }
+    };
+
+    private int bruteForce() {
+        int pairs = 0;
+        for (int i = 0; i < xyz.length; i += 3) {
+            for (int j = i + 3; j < xyz.length; j += 3) {
+                if (Math.abs(xyz[i] - xyz[j]) <= halfSizes[i] + halfSizes[j] &&
+                    Math.abs(xyz[i + 1] - xyz[j + 1]) <= halfSizes[i + 1] + halfSizes[j + 1] &&
+                    Math.abs(xyz[i + 2] - xyz[j + 2]) <= halfSizes[i + 2] + halfSizes[j + 2]) {
+                    pairs++;
+                }
+            }
+        }
+        return pairs;
+    }
+
+    public static void main(String[] args) {
+        SweepAndPruneBenchmark scene = new SweepAndPruneBenchmark();
+        SweepAndPrune<Integer> map = scene.build();
+        List<SpatialMap.Entry<Integer>> entries = entries(map);
+        System.out.printf("%d boxes, %d frames\n", SIZE, FRAMES);
+
+        long best = Long.MAX_VALUE;
+        int pairs = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int f = 0; f < FRAMES; f++) {
+                scene.step();
+                map.moveAll(entries, scene.xyz);
+                pairs = map.findPairs(COUNTER);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        report("moveAll(), findPairs()", best, pairs);
+        assert pairs == scene.bruteForce();
+
+        best = Long.MAX_VALUE;
+        double[] xyz = scene.xyz;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int f = 0; f < FRAMES; f++) {
+                scene.step();
+                for (int i = 0, j = 0; i < SIZE; i++, j += 3) {
+                    entries.get(i).move(xyz[j], xyz[j + 1], xyz[j + 2]);
+                }
+                pairs = map.findPairs(COUNTER);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        report("move() each, findPairs()", best, pairs);
+
+        best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int f = 0; f < FRAMES; f++) {
+                scene.step();
+                pairs = scene.build().findPairs(COUNTER);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        report("rebuilt, findPairs()", best, pairs);
+
+        best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            pairs = scene.bruteForce();
+            best = Math.min(best, (System.nanoTime() - start) * FRAMES);
+        }
+        report("every pair", best, pairs);
+    }
+
+    private static void report(String name, long nanos, int pairs) {
+        System.out.printf("%-26s %8.3f ms/frame %8d pairs\n", name, nanos / 1.0e6 / FRAMES, pairs);
+    }
+}
@@ -0,0 +1,229 @@
+package net.venaglia.gloo.util.impl;
+
+import net.venaglia.gloo.physical.bounds.BoundingBox;
+import net.venaglia.gloo.physical.bounds.BoundingSphere;
+import net.venaglia.gloo.physical.bounds.SimpleBoundingVolume;
+import net.venaglia.gloo.physical.geom.Axis;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.util.SpatialMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 5:40 PM
+ *
+ * Checks the pairs and queries of SweepAndPrune against a brute force search,
+ * as boxes are added, jiggled, teleported, moved in batches and removed.
+ */
+public class SweepAndPruneTest {
+
+    private final Random random = new Random(24);
+    private final SweepAndPrune<Integer> map = new SweepAndPrune<Integer>();
+    private final List<double[]> boxes = new ArrayList<double[]>(); // x, y, z, half sizes, by value
+    private final List<SpatialMap.Entry<Integer>> live = new ArrayList<SpatialMap.Entry<Integer>>();
+
+    private double[] box(double spreadX, double spreadY, double spreadZ) {
+        double half = random.nextInt(4) == 0 ? 0 : random.nextDouble() * 2.0;
+        return new double[]{
+                Math.rint(random.nextGaussian() * spreadX * 4) / 4, // on a grid, so that boxes touch
+                Math.rint(random.nextGaussian() * spreadY * 4) / 4,
+                Math.rint(random.nextGaussian() * spreadZ * 4) / 4,
+                half, half * random.nextDouble(), half
+        };
+    }
+
+    private void add(double[] b) {
+        int value = boxes.size();
+        boxes.add(b);
+        if (b[3] == 0 && b[4] == 0 && b[5] == 0 && random.nextBoolean()) {
+            assert map.add(value, b[0], b[1], b[2]);
+        } else {
+            assert map.add(value, b[0], b[1], b[2], b[3], b[4], b[5]);
+        }
+    }
+
+    private static boolean overlap(double[] a, double[] b) {
+        for (int i = 0; i < 3; i++) {
+            if (a[i] - a[i + 3] > b[i] + b[i + 3] || b[i] - b[i + 3] > a[i] + a[i + 3]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long key(int a, int b) {
+        return a < b ? (long)a << 32 | b : (long)b << 32 | a;
+    }
+
+    private void check() {
+        assert map.size() == live.size();
+        final Set<Long> found = new HashSet<Long>();
+        int pairs = map.findPairs(new SweepAndPrune.PairConsumer<Integer>() {
+            public void overlap(SpatialMap.Entry<Integer> a, SpatialMap.Entry<Integer> b) {
+                assert a.get().intValue() != b.get() : "paired with itself";
+                assert found.add(key(a.get(), b.get())) : "reported twice: " + a.get() + ", " + b.get();
+            }
+        });
+        assert pairs == found.size();
+        int expected = 0;
+        for (int i = 0; i < live.size(); i++) {
+            int a = live.get(i).get();
+            for (int j = i + 1; j < live.size(); j++) {
+                int b = live.get(j).get();
+                if (overlap(boxes.get(a), boxes.get(b))) {
+                    expected++;
+                    assert found.contains(key(a, b)) : "missed: " + a + ", " + b;
+                }
+            }
+        }
+        assert expected == pairs : expected + " != " + pairs;
+
+        for (int i = 0; i < 10; i++) {
+            double[] b = box(6, 6, 6);
+            checkIntersect(new BoundingSphere(new Point(b[0], b[1], b[2]), random.nextDouble() * 4));
+            checkIntersect(new BoundingBox(new Point(b[0], b[1], b[2]), new Point(b[0] + 3, b[1] + 1, b[2] + 2)));
+            checkNearest(b[0], b[1], b[2], 1 + random.nextInt(10));
+        }
+        for (SpatialMap.Entry<Integer> entry : live) {
+            double[] b = boxes.get(entry.get());
+            assert entry.getAxis(Axis.X) == b[0] && entry.getAxis(Axis.Y) == b[1] && entry.getAxis(Axis.Z) == b[2];
+            assert map.contains(b[0], b[1], b[2]) : entry;
+        }
+    }
+
+    private void checkIntersect(SimpleBoundingVolume region) {
+        final Set<Integer> found = new HashSet<Integer>();
+        int hits = map.intersect(region, new SpatialMap.Consumer<Integer>() {
+            public void found(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+                assert found.add(entry.get());
+            }
+        });
+        assert hits == found.size();
+        for (SpatialMap.Entry<Integer> entry : live) {
+            double[] b = boxes.get(entry.get());
+            assert region.includes(b[0], b[1], b[2]) == found.contains(entry.get()) : entry;
+        }
+    }
+
+    /**
+     * The sweep for nearest() pads its bounds by the largest half size.
+     */
+    private void checkNearest(final double x, final double y, final double z, int k) {
+        List<Double> all = new ArrayList<Double>();
+        for (SpatialMap.Entry<Integer> entry : live) {
+            double[] b = boxes.get(entry.get());
+            all.add((b[0] - x) * (b[0] - x) + (b[1] - y) * (b[1] - y) + (b[2] - z) * (b[2] - z));
+        }
+        Collections.sort(all);
+        final double[] last = { -1 };
+        int found = map.nearest(x, y, z, k, new SpatialMap.Consumer<Integer>() {
+            public void found(SpatialMap.Entry<Integer> entry, double i, double j, double k) {
+                double d = (i - x) * (i - x) + (j - y) * (j - y) + (k - z) * (k - z);
+                assert d >= last[0];
+                last[0] = d;
+            }
+        });
+        assert found == Math.min(k, all.size());
+        if (found > 0) {
+            assert last[0] == all.get(found - 1) : last[0] + " != " + all.get(found - 1);
+        }
+    }
+
+    private void move(SpatialMap.Entry<Integer> entry, double x, double y, double z) {
+        double[] b = boxes.get(entry.get());
+        b[0] = x;
+        b[1] = y;
+        b[2] = z;
+        assert entry.move(x, y, z);
+    }
+
+    private void run() {
+        for (int i = 0; i < 600; i++) {
+            add(box(6, 6, 6));
+        }
+        for (SpatialMap.Entry<Integer> entry : map) {
+            live.add(entry);
+        }
+        check();
+
+        for (int round = 0; round < 10; round++) {
+            // most boxes jiggle a little, in one batch
+            double[] xyz = new double[live.size() * 3];
+            for (int i = 0, j = 0; i < live.size(); i++, j += 3) {
+                double[] b = boxes.get(live.get(i).get());
+                b[0] += random.nextGaussian() * 0.1;
+                b[1] += random.nextGaussian() * 0.1;
+                b[2] += random.nextGaussian() * 0.1;
+                System.arraycopy(b, 0, xyz, j, 3);
+            }
+            assert map.moveAll(live, xyz) == live.size();
+            check();
+            // a few jump far away, and the set changes
+            for (int i = 0; i < 40; i++) {
+                SpatialMap.Entry<Integer> entry = live.get(random.nextInt(live.size()));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        double[] b = box(6, 6, 6);
+                        move(entry, b[0], b[1], b[2]);
+                        break;
+                    case 1:
+                        assert entry.remove();
+                        live.remove(entry);
+                        break;
+                    default:
+                        add(box(6, 6, 6));
+                        break;
+                }
+            }
+            live.clear();
+            for (SpatialMap.Entry<Integer> entry : map) {
+                live.add(entry);
+            }
+            check();
+        }
+
+        // stretch the boxes out along each axis in turn; the sweep follows
+        for (Axis axis : new Axis[]{ Axis.Y, Axis.Z, Axis.X }) {
+            for (SpatialMap.Entry<Integer> entry : live) {
+                double[] b = box(axis == Axis.X ? 40 : 2, axis == Axis.Y ? 40 : 2, axis == Axis.Z ? 40 : 2);
+                move(entry, b[0], b[1], b[2]);
+            }
+            assert map.getPrimaryAxis() == axis : map.getPrimaryAxis() + " != " + axis;
+            check();
+        }
+
+        // removing through the iterator
+        for (Iterator<SpatialMap.Entry<Integer>> i = map.iterator(); i.hasNext(); ) {
+            SpatialMap.Entry<Integer> entry = i.next();
+            if (random.nextBoolean()) {
+                i.remove();
+                live.remove(entry);
+            }
+        }
+        check();
+
+        try {
+            map.add(0, 0, 0, 0, 1, -1, 1);
+            assert false : "fail";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        map.clear();
+        live.clear();
+        assert map.isEmpty();
+        check();
+    }
+
+    public static void main(String[] args) {
+        new SweepAndPruneTest().run();
+        System.out.println("All tests passed");
+    }
+}
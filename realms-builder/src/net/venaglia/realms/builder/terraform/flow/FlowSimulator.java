@@ -4,7 +4,6 @@ import net.venaglia.common.util.CumulativeDeviation;
 import net.venaglia.common.util.Factory;
 import net.venaglia.common.util.recycle.Recyclable;
 import net.venaglia.common.util.recycle.RecycleBin;
-import net.venaglia.common.util.recycle.RecycleDeque;
 import net.venaglia.gloo.physical.bounds.BoundingBox;
 import net.venaglia.gloo.physical.bounds.BoundingSphere;
 import net.venaglia.gloo.physical.bounds.MutableSimpleBounds;
@@ -35,7 +34,9 @@ import java.util.NavigableMap;
 import java.util.Random;
 import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -50,7 +51,10 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class FlowSimulator {
 
+    private static final double NEIGHBOR_RADIUS = 2.5;
+
     private final ThreadPoolExecutor executor;
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors()); // for the fragments of each frame
 
     {
         final ThreadFactory threadFactory = new ThreadFactory() {
@@ -110,7 +114,7 @@ public class FlowSimulator {
         double max =  2.0 + radius;
         Random random = new Random(seed);
         BoundingBox bounds = new BoundingBox(new Point(min, min, min), new Point(max, max, max));
-        map = new OctreeMap<FragmentImpl>(bounds, 12, 5) {
+        map = new OctreeMap<FragmentImpl>(bounds, 12, 5, OctreeMap.Concurrency.OPTIMISTIC) {
             @Override
             protected AbstractEntry<FragmentImpl> createEntry(FragmentImpl fragment, double x, double y, double z) {
                 AbstractEntry<FragmentImpl> entry = super.createEntry(fragment, x, y, z);
@@ -293,6 +297,7 @@ public class FlowSimulator {
         observer = null;
         observerQueryLock = null;
         pendingWorkCount = null;
+        pool.shutdown();
         //To change body of created methods use File | Settings | File Templates.
     }
 
@@ -527,12 +532,10 @@ public class FlowSimulator {
     }
 
     protected class FragmentImpl
-            extends AbstractWorker
             implements SpatialMap.Consumer<FragmentImpl>, Comparator<Integer>, Fragment {
 
         private final int seq;
         private final Integer[] tectonicPointIndices = genIntSeq();
-        private final MutableSimpleBounds bounds = new MutableSimpleBounds(true, 2.5);
 
         private Color color;
 
@@ -580,12 +583,6 @@ public class FlowSimulator {
             return new ImmutableFragment(x, y, z, i, j, k, p, color);
         }
 
-        @Override
-        protected void doWork() {
-            computeTectonicVector();
-            map.intersect(bounds.load(x, y, z), this);
-        }
-
         public int compare(Integer a, Integer b) {
             double cmp = tectonicPointDistances[b] - tectonicPointDistances[a];
             return cmp < 0.0 ? -1 : cmp > 0.0 ? 1 : 0;
@@ -654,7 +651,7 @@ public class FlowSimulator {
             if (fragment != this) {
                 Vector vector = new Vector(this.x - x, this.y - y, this.z - z);
                 if (vector.l > 0) {
-                    double d = (2.5 / vector.l) - 1.0;
+                    double d = (NEIGHBOR_RADIUS / vector.l) - 1.0;
                     vector = vector.scale(d * 0.05);
                     i += vector.i;
                     j += vector.j;
@@ -730,6 +727,13 @@ public class FlowSimulator {
         private int bootstrapFrameCount = 0;
         private long nextRun;
         private double frameDither = 0;
+        private double[] centers = new double[0];
+
+        private final SpatialMap.BatchConsumer<FragmentImpl> neighbors = new SpatialMap.BatchConsumer<FragmentImpl>() {
+            public void found(int query, SpatialMap.Entry<FragmentImpl> entry, double x, double y, double z) {
+                entries[query].get().found(entry, x, y, z);
+            }
+        };
 
         public Advance(Point[] startingPoints) {
             this.startingPoints = new BoundingSphere[startingPoints.length];
@@ -784,11 +788,43 @@ public class FlowSimulator {
 //            try {
 //                Thread.sleep(90000L);
 //            } catch (InterruptedException e) { }
-            for (int i = 0; i < l; i++) {
+            if (centers.length != l * 3) {
+                centers = new double[l * 3];
+            }
+            for (int i = 0, c = 0; i < l; i++, c += 3) {
                 SpatialMap.Entry<FragmentImpl> entry = entries[i];
                 FragmentImpl fragment = entry.get();
                 fragment.move(entry);
-                fragment.addToQueue();
+                centers[c] = fragment.x;
+                centers[c + 1] = fragment.y;
+                centers[c + 2] = fragment.z;
+            }
+            // every fragment pushes off its neighbors, found in one walk of the map
+            pool.invoke(new ComputeTectonicVectors(0, l));
+            map.intersectAll(centers, NEIGHBOR_RADIUS, neighbors, pool);
+        }
+
+        @SuppressWarnings("serial") // forked within a frame, never serialized
+        private class ComputeTectonicVectors extends RecursiveAction {
+
+            private final int from;
+            private final int to;
+
+            private ComputeTectonicVectors(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= 256) {
+                    for (int i = from; i < to; i++) {
+                        entries[i].get().computeTectonicVector();
+                    }
+                } else {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new ComputeTectonicVectors(from, mid), new ComputeTectonicVectors(mid, to));
+                }
             }
         }
 
@@ -829,22 +865,20 @@ public class FlowSimulator {
 
         private QueryInterface() {
             {
-                RecycleDeque<WeakReference<QueryRunner>> recycleDeque = new RecycleDeque<WeakReference<QueryRunner>>();
                 Factory<QueryRunner> runnerFactory = new Factory<QueryRunner>() {
                     public QueryRunner createEmpty() {
                         return new QueryRunner(queryRunnerRecycleBin, nominalRadius, captureFragmentContributions);
                     }
                 };
-                queryRunnerRecycleBin = new RecycleBin<QueryRunner>(runnerFactory, recycleDeque);
+                queryRunnerRecycleBin = new RecycleBin<QueryRunner>(runnerFactory);
             }
             {
-                RecycleDeque<WeakReference<WorkRunner>> recycleDeque = new RecycleDeque<WeakReference<WorkRunner>>();
                 Factory<WorkRunner> runnerFactory = new Factory<WorkRunner>() {
                     public WorkRunner createEmpty() {
                         return new WorkRunner(workRunnerRecycleBin);
                     }
                 };
-                workRunnerRecycleBin = new RecycleBin<WorkRunner>(runnerFactory, recycleDeque);
+                workRunnerRecycleBin = new RecycleBin<WorkRunner>(runnerFactory);
             }
         }
 
@@ -977,9 +1011,7 @@ public class FlowSimulator {
                 processData();
             } finally {
                 queryInterface.oneLess();
-                synchronized (recycleBin) {
-                    recycleBin.put(this);
-                }
+                recycleBin.put(this);
             }
         }
 
@@ -1016,9 +1048,7 @@ public class FlowSimulator {
                 runnable.run();
             } finally {
                 queryInterface.oneLess();
-                synchronized (recycleBin) {
-                    recycleBin.put(this);
-                }
+                recycleBin.put(this);
             }
         }
 
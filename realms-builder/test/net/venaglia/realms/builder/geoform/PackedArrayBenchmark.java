@@ -0,0 +1,147 @@
+package net.venaglia.realms.builder.geoform;
+
+import net.venaglia.common.util.serializer.ArraySerializerStrategy;
+import net.venaglia.common.util.serializer.SerializerStrategy;
+import net.venaglia.realms.common.map.world.AcreDetail;
+import net.venaglia.realms.spec.map.Acre;
+import net.venaglia.realms.spec.map.Globe;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 11:59 PM
+ *
+ * Builds a world (the MEDIUM preset, unless -Dgeospec says otherwise) in
+ * memory, then compares the size and decode speed of each acre's id arrays
+ * written as fixed width values, the way they were always written, and as
+ * packed arrays.
+ */
+public class PackedArrayBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        if (System.getProperty("geospec") == null) {
+            System.setProperty("geospec", "MEDIUM");
+        }
+        if (System.getProperty("data-store.class") == null) {
+            System.setProperty("data-store.class", "net.venaglia.realms.common.map.data.memory.MemStore");
+        }
+        GeoFactory geoFactory = new GeoFactory();
+        Globe globe = geoFactory.createGlobe();
+        geoFactory.packNeighbors(globe.acresById);
+        List<Acre> acres = new ArrayList<Acre>(globe.acresById.values());
+        System.out.printf("%,d acres\n\n", acres.size());
+
+        List<Object> neighborIds = new ArrayList<Object>(acres.size());
+        List<Object> topography = new ArrayList<Object>(acres.size());
+        List<Object> seams = new ArrayList<Object>(acres.size());
+        List<Object> zones = new ArrayList<Object>(acres.size());
+        for (Acre acre : acres) {
+            neighborIds.add(acre.packNeighbors);
+            topography.add(acre.topographyDef);
+            seams.add(acre.seamStartVertexIds);
+            zones.add(acre.zoneStartVertexIds);
+        }
+        System.out.printf("%20s %14s %14s %8s %16s %16s\n",
+                          "array", "plain (bytes)", "packed (bytes)", "ratio", "plain (arr/s)", "packed (arr/s)");
+        compare("neighborIds", neighborIds);
+        compare("acreTopographyDef", topography);
+        compare("seamFirstVertexIds", seams);
+        compare("zoneFirstVertexIds", zones);
+
+        SerializerStrategy<AcreDetail> serializer = AcreDetail.DEFINITION.getSerializer();
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        long total = 0;
+        for (Acre acre : acres) {
+            AcreDetail detail = new AcreDetail();
+            acre.applyPackDataToGraphAcre(detail);
+            buffer.clear();
+            serializer.serialize(detail, buffer);
+            total += buffer.position();
+        }
+        System.out.printf("\nAcreDetail: %,d bytes in all, %,.1f per acre\n", total, (double)total / acres.size());
+    }
+
+    private static void compare(String name, List<Object> arrays) {
+        int count = arrays.size();
+        ByteBuffer[] plain = new ByteBuffer[count];
+        ByteBuffer[] packed = new ByteBuffer[count];
+        long plainBytes = 0, packedBytes = 0;
+        ByteBuffer out = ByteBuffer.allocate(65536);
+        for (int i = 0; i < count; i++) {
+            Object array = arrays.get(i);
+            plain[i] = writePlain(array);
+            out.clear();
+            ArraySerializerStrategy.INSTANCE.serialize(array, out);
+            out.flip();
+            packed[i] = ByteBuffer.allocate(out.limit());
+            packed[i].put(out).flip();
+            plainBytes += plain[i].limit();
+            packedBytes += packed[i].limit();
+            assert sameValues(array, ArraySerializerStrategy.INSTANCE.deserialize(plain[i]));
+            assert sameValues(array, ArraySerializerStrategy.INSTANCE.deserialize(packed[i]));
+        }
+        System.out.printf("%20s %,14d %,14d %8.2f %,16.0f %,16.0f\n",
+                          name, plainBytes, packedBytes, (double)packedBytes / plainBytes,
+                          decode(plain), decode(packed));
+    }
+
+    /**
+     * @return The best of several rounds, in arrays per second.
+     */
+    private static double decode(ByteBuffer[] buffers) {
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (ByteBuffer buffer : buffers) {
+                buffer.rewind();
+                sink += ArraySerializerStrategy.INSTANCE.deserialize(buffer).hashCode();
+            }
+            best = Math.max(best, buffers.length * 1.0e9 / (System.nanoTime() - start));
+        }
+        return best;
+    }
+
+    /**
+     * Writes an array in the fixed width layout used before arrays were
+     * packed: type name, length, element type marker, then the values.
+     */
+    private static ByteBuffer writePlain(Object array) {
+        boolean ints = array instanceof int[];
+        int length = ints ? ((int[])array).length : ((long[])array).length;
+        byte[] type = (ints ? "int" : "long").getBytes(UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(type.length + 8 + length * 8);
+        out.put((byte)type.length).put(type);
+        if (length > Byte.MAX_VALUE) {
+            out.put((byte)-1).putShort((short)length);
+        } else {
+            out.put((byte)length);
+        }
+        out.put((byte)(ints ? 'i' : 'l'));
+        for (int i = 0; i < length; i++) {
+            if (ints) {
+                out.putInt(((int[])array)[i]);
+            } else {
+                out.putLong(((long[])array)[i]);
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    private static boolean sameValues(Object expected, Object actual) {
+        return expected instanceof int[]
+               ? Arrays.equals((int[])expected, (int[])actual)
+               : Arrays.equals((long[])expected, (long[])actual);
+    }
+}
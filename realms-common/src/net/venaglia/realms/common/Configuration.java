@@ -36,6 +36,7 @@ public enum Configuration {
     },
     DATA_STORE_CLOUD_URL("datastore.cloud.url", Storage.IMMUTABLE),
     DATABASE_DIRECTORY("database.directory", Storage.IMMUTABLE),
+    BINARY_SEGMENT_FILE("database.binary.file", Storage.IMMUTABLE),
     DATABASE_HARMLESS("database.harmless", Storage.IMMUTABLE),
     JDBC_DRIVER("database.jdbc.driver", Storage.IMMUTABLE),
     JDBC_URL("database.jdbc.url", Storage.IMMUTABLE),
@@ -43,6 +44,13 @@ public enum Configuration {
     JDBC_PASSWORD("database.jdbc.password", Storage.IMMUTABLE),
     JDBC_POOL_SIZE("database.jdbc.poolSize", Storage.IMMUTABLE),
 
+    // working cache bounds, read from a file; 0 means unbounded
+    CUBE_CACHE_MAX_SIZE("cache.cube.maxSize", Storage.IMMUTABLE),
+    THING_CACHE_MAX_SIZE("cache.thing.maxSize", Storage.IMMUTABLE),
+    BINARY_CACHE_MAX_SIZE("cache.binary.maxSize", Storage.IMMUTABLE),
+    BINARY_CACHE_MAX_WEIGHT("cache.binary.maxBytes", Storage.IMMUTABLE),
+    CUBE_PREFETCH("cache.cube.prefetch", Storage.IMMUTABLE),
+
     // regular properties
     PARANOIA_ON_ACRES("paranoia.acres", Storage.TRANSIENT),
     THING_CHECKPOINT_SIZE("things.dirty.checkpoint.size", Storage.PERSISTENT),
@@ -205,6 +213,15 @@ public enum Configuration {
         setString(Integer.toString(value));
     }
 
+    public long getLong(long defaultValue) {
+        ensureLoaded();
+        try {
+            return Long.parseLong(getPropertyImpl());
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
     public String getString() {
         ensureLoaded();
         return getPropertyImpl();
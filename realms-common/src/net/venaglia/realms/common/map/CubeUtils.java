@@ -198,6 +198,10 @@ public class CubeUtils {
         return String.format("%012x", id);
     }
 
+    public static double getCubeSize() {
+        return cubeSize;
+    }
+
     public static double getCubeVolume() {
         return cubeVolume;
     }
@@ -2,9 +2,12 @@ package net.venaglia.realms.common.map;
 
 import net.venaglia.gloo.physical.bounds.BoundingVolume;
 import net.venaglia.realms.common.map.data.CommonDataSources;
+import net.venaglia.realms.common.map.data.binaries.BinaryResource;
+import net.venaglia.realms.common.map.things.ThingRef;
 import net.venaglia.common.util.Visitor;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * User: ed
@@ -22,4 +25,25 @@ public interface DataStore {
     CommonDataSources getCommonDataSources();
 
     void intersect(BoundingVolume<?> bounds, Visitor<Cube> visitor);
+
+    // Asynchronous calls, run on a bounded pool of I/O threads, one per
+    // pooled connection. Concurrent requests for the same id share a single
+    // load. A value that is already cached completes the future at once.
+    //
+    // The synchronous calls, through the caches in CommonDataSources, are
+    // not wrappers around these: they load on the calling thread, which
+    // would only block on the pool anyway. Both paths share the caches, so
+    // a sync and an async request for the same id still load it once.
+
+    CompletableFuture<Cube> getCubeAsync(Long id);
+
+    CompletableFuture<ThingRef<?>> getThingAsync(Long id);
+
+    CompletableFuture<BinaryResource> getBinaryResourceAsync(Long id);
+
+    CompletableFuture<BinaryResource> lookupBinaryResourceAsync(String mimetype, long locatorId);
+
+    CompletableFuture<BinaryResource> insertBinaryResourceAsync(BinaryResource resource, long locatorId);
+
+    CompletableFuture<BinaryResource> updateBinaryResourceAsync(BinaryResource resource, long locatorId, byte[] data);
 }
@@ -3,6 +3,7 @@ package net.venaglia.realms.common.map.data;
 import net.venaglia.common.util.Ref;
 import net.venaglia.common.util.Tuple2;
 import net.venaglia.common.util.Visitor;
+import net.venaglia.gloo.physical.bounds.BoundingBox;
 import net.venaglia.gloo.physical.bounds.BoundingVolume;
 import net.venaglia.gloo.physical.geom.Point;
 import net.venaglia.realms.common.Configuration;
@@ -16,17 +17,42 @@ import net.venaglia.realms.common.map.things.ThingProperties;
 import net.venaglia.realms.common.map.things.ThingRef;
 import net.venaglia.realms.common.map.things.ThingWriter;
 import net.venaglia.realms.common.map.things.AbstractThing;
+import net.venaglia.realms.common.map.things.annotations.PropertySchemaRegistry;
 import net.venaglia.realms.common.map.data.binaries.BinaryCache;
 import net.venaglia.realms.common.map.data.binaries.BinaryResource;
 import net.venaglia.realms.common.map.data.binaries.BinarySource;
 import net.venaglia.realms.common.util.cache.Cache;
 
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 /**
  * User: ed
@@ -35,6 +61,8 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public abstract class AbstractDataStore implements DataStore {
 
+    private static final long PREFETCH_PIN_MILLIS = 2000L;
+
     protected final ThingCache thingCache;
     protected final CubeCache cubeCache;
     protected final BinaryCache binaryCache;
@@ -48,6 +76,18 @@ public abstract class AbstractDataStore implements DataStore {
             new AtomicReference<Map<Long,ThingRef<?>>>(new ConcurrentSkipListMap<Long,ThingRef<?>>());
 
     private final AtomicBoolean open = new AtomicBoolean(true);
+    private final Executor ioExecutor = buildIoExecutor(Configuration.JDBC_POOL_SIZE.getInteger(8));
+    private final boolean cubePrefetch = Configuration.CUBE_PREFETCH.getBoolean(true);
+    private final ThreadPoolExecutor cubePrefetcher = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+                                                                   new ArrayBlockingQueue<Runnable>(1),
+                                                                   new ThreadFactory() {
+                                                                       public Thread newThread(Runnable r) {
+                                                                           Thread thread = new Thread(r, "Prefetch Cubes");
+                                                                           thread.setDaemon(true);
+                                                                           return thread;
+                                                                       }
+                                                                   },
+                                                                   new ThreadPoolExecutor.DiscardOldestPolicy());
 
     protected AbstractDataStore() {
         final Ref<UUID> instanceUUIDRef = new Ref<UUID>() {
@@ -55,7 +95,6 @@ public abstract class AbstractDataStore implements DataStore {
                 return getInstanceUuid();
             }
         };
-        new Thread(dirtyThingCheckpoint, "Flush Dirty Things");
         dirtyThings.set(new ConcurrentSkipListMap<Long,ThingRef<?>>());
         thingCache = new ThingCache(new Source<ThingRefImpl<? extends AbstractThing>>() {
             public ThingRefImpl<? extends AbstractThing> createEmpty() {
@@ -71,16 +110,11 @@ public abstract class AbstractDataStore implements DataStore {
                 return createEmptyCube();
             }
 
-            public void populate(final Long id, final CubeImpl cube) {
-                cube.load(id, new Ref<Cache<ThingRef<?>>>() {
-                    @SuppressWarnings("unchecked")
-                    public Cache<ThingRef<?>> get() {
-                        return (Cache<ThingRef<?>>)(Cache)thingCache.forCube(cube);
-                    }
-                });
+            public void populate(Long id, CubeImpl cube) {
+                loadCube(id, cube);
                 populateCube(id, cube);
             }
-        });
+        }, thingCache);
         binaryCache = new BinaryCache(new BinarySource() {
             public BinaryResource createEmpty() {
                 return createEmptyBinaryResource();
@@ -106,6 +140,10 @@ public abstract class AbstractDataStore implements DataStore {
                 return findBinaryResourceId(mimetype, locatorId);
             }
         });
+        cubeCache.setMaximumSize(Configuration.CUBE_CACHE_MAX_SIZE.getInteger(0));
+        thingCache.setMaximumSize(Configuration.THING_CACHE_MAX_SIZE.getInteger(0));
+        binaryCache.setMaximumSize(Configuration.BINARY_CACHE_MAX_SIZE.getInteger(0));
+        binaryCache.setMaximumWeight(Configuration.BINARY_CACHE_MAX_WEIGHT.getLong(0L));
         propertyStore = new PropertyStore() {
             public String get(String name) {
                 return getProperty(name);
@@ -120,21 +158,9 @@ public abstract class AbstractDataStore implements DataStore {
             }
         };
         dirtyThingQueue = new DirtyThingQueue() {
-
-            private int sizeLimit = Integer.MIN_VALUE;
-
             public void add(ThingRefImpl<?> thingRef) {
                 ensureOpen();
-                if (sizeLimit == Integer.MIN_VALUE) {
-                    sizeLimit = Configuration.THING_CHECKPOINT_SIZE.getInteger(1500);
-                }
-                if (dirtyThings.get().put(thingRef.getId(), thingRef) == null) {
-                    if (dirtyThingCount.incrementAndGet() > sizeLimit) {
-                        synchronized (dirtyThingCheckpoint) {
-                            dirtyThingCheckpoint.notifyAll();
-                        }
-                    }
-                }
+                dirtyThingCheckpoint.enqueue(thingRef);
             }
         };
         IdSourceProvider idSourceProvider = new IdSourceProvider() {
@@ -150,23 +176,187 @@ public abstract class AbstractDataStore implements DataStore {
                                                   idSourceProvider);
     }
 
+    /**
+     * Runs the asynchronous loads, one I/O thread per pooled connection.
+     * Synchronous loads run on the calling thread. When the queue is full, the
+     * caller runs the call itself rather than queueing without bound.
+     */
+    private static Executor buildIoExecutor(int poolSize) {
+        poolSize = Math.max(1, poolSize);
+        final AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                                                             new ArrayBlockingQueue<Runnable>(poolSize * 256),
+                                                             new ThreadFactory() {
+                                                                 public Thread newThread(Runnable r) {
+                                                                     Thread thread = new Thread(r, "Data Store I/O " + seq.incrementAndGet());
+                                                                     thread.setDaemon(true);
+                                                                     return thread;
+                                                                 }
+                                                             },
+                                                             new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public CommonDataSources getCommonDataSources() {
         return commonDataSources;
     }
 
     public void intersect(BoundingVolume<?> bounds, Visitor<Cube> visitor) {
+        List<Long> cubeIds = getCubeIds(bounds);
+        loadCubes(cubeIds);
+        for (Long cubeId : cubeIds) {
+            visitor.visit(cubeCache.get(cubeId));
+        }
+        if (cubePrefetch) {
+            prefetchCubes(bounds);
+        }
+    }
+
+    private List<Long> getCubeIds(BoundingVolume<?> bounds) {
+        List<Long> cubeIds = new ArrayList<Long>();
         CubeUtils.CubeIterator cubeIterator = CubeUtils.intersectionIterator(bounds);
         while (cubeIterator.next()) {
-            visitor.visit(cubeCache.get(cubeIterator.getCubeId()));
+            cubeIds.add(cubeIterator.getCubeId());
+        }
+        return cubeIds;
+    }
+
+    /**
+     * Loads all the cubes not already cached in one call to
+     * {@link #populateCubes(SortedMap)}, rather than one miss per cube.
+     */
+    protected void loadCubes(Collection<Long> cubeIds) {
+        loadCubes(cubeIds, 0L);
+    }
+
+    /**
+     * @param pinMillis How long the cubes loaded are kept from eviction by
+     *     the cache bounds, or 0 if they are not pinned.
+     */
+    private void loadCubes(Collection<Long> cubeIds, long pinMillis) {
+        SortedMap<Long,CubeImpl> missing = new TreeMap<Long,CubeImpl>();
+        for (Long cubeId : cubeIds) {
+            if (!missing.containsKey(cubeId) && !cubeCache.contains(cubeId)) {
+                CubeImpl cube = createEmptyCube();
+                loadCube(cubeId, cube);
+                missing.put(cubeId, cube);
+            }
         }
+        if (!missing.isEmpty()) {
+            populateCubes(missing);
+            cubeCache.seed(missing.values(), pinMillis);
+        }
+    }
+
+    /**
+     * Loads, in the background, the ring of cubes just outside the passed
+     * bounds, so they are cached by the time the view moves into them. Only
+     * the most recent request is kept if the prefetcher falls behind.
+     * Prefetched cubes, and so their things, are pinned for a little while,
+     * or a bounded cache could evict them as soon as they are seeded.
+     */
+    private void prefetchCubes(BoundingVolume<?> bounds) {
+        BoundingBox box = bounds.asBox();
+        double d = CubeUtils.getCubeSize();
+        final BoundingBox ring = new BoundingBox(new Point(box.corner1.x - d, box.corner1.y - d, box.corner1.z - d),
+                                                 new Point(box.corner2.x + d, box.corner2.y + d, box.corner2.z + d));
+        cubePrefetcher.execute(new Runnable() {
+            public void run() {
+                if (open.get()) {
+                    loadCubes(getCubeIds(ring), PREFETCH_PIN_MILLIS);
+                }
+            }
+        });
+    }
+
+    public CompletableFuture<Cube> getCubeAsync(final Long id) {
+        Cube cube = cubeCache.getIfPresent(id);
+        if (cube != null) {
+            return CompletableFuture.completedFuture(cube);
+        }
+        return submit(new Supplier<Cube>() {
+            public Cube get() {
+                return cubeCache.get(id);
+            }
+        });
+    }
+
+    public CompletableFuture<ThingRef<?>> getThingAsync(final Long id) {
+        ThingRef<?> thingRef = thingCache.getIfPresent(id);
+        if (thingRef != null) {
+            return CompletableFuture.<ThingRef<?>>completedFuture(thingRef);
+        }
+        return submit(new Supplier<ThingRef<?>>() {
+            public ThingRef<?> get() {
+                return thingCache.get(id);
+            }
+        });
+    }
+
+    public CompletableFuture<BinaryResource> getBinaryResourceAsync(final Long id) {
+        BinaryResource resource = binaryCache.getIfPresent(id);
+        if (resource != null) {
+            return CompletableFuture.completedFuture(resource);
+        }
+        return submit(new Supplier<BinaryResource>() {
+            public BinaryResource get() {
+                return binaryCache.get(id);
+            }
+        });
+    }
+
+    public CompletableFuture<BinaryResource> lookupBinaryResourceAsync(final String mimetype, final long locatorId) {
+        return submit(new Supplier<BinaryResource>() {
+            public BinaryResource get() {
+                return binaryCache.lookupByLocator(mimetype, locatorId);
+            }
+        });
+    }
+
+    public CompletableFuture<BinaryResource> insertBinaryResourceAsync(final BinaryResource resource, final long locatorId) {
+        return submit(new Supplier<BinaryResource>() {
+            public BinaryResource get() {
+                return binaryCache.insert(resource, locatorId);
+            }
+        });
+    }
+
+    public CompletableFuture<BinaryResource> updateBinaryResourceAsync(final BinaryResource resource,
+                                                                       final long locatorId,
+                                                                       final byte[] data) {
+        return submit(new Supplier<BinaryResource>() {
+            public BinaryResource get() {
+                return binaryCache.update(resource, locatorId, data);
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, ioExecutor);
+    }
+
+    private void loadCube(Long id, final CubeImpl cube) {
+        cube.load(id, new Ref<Cache<ThingRef<?>>>() {
+            @SuppressWarnings("unchecked")
+            public Cache<ThingRef<?>> get() {
+                return (Cache<ThingRef<?>>)(Cache)thingCache.forCube(cube);
+            }
+        });
     }
 
     public void closeAndFlush(long timeoutMS) {
         if (open.compareAndSet(true, false)) {
+            cubePrefetcher.shutdownNow();
             dirtyThingCheckpoint.stop(timeoutMS);
+            PropertySchemaRegistry.unbind(propertyStore);
         }
     }
 
+    public CheckpointStatistics getCheckpointStatistics() {
+        return dirtyThingCheckpoint.getStatistics();
+    }
+
     protected final void ensureOpen() {
         if (!open.get()) {
             throw new IllegalStateException("Data store has been closed");
@@ -190,7 +380,7 @@ public abstract class AbstractDataStore implements DataStore {
         System.out.println(buffer);
     }
 
-    protected abstract Tuple2<Long,Long> getNextAvailableIdRange(Sequence seq);
+    protected abstract Tuple2<Long,Long> getNextAvailableIdRange(Sequence seq, int size);
     protected abstract long lookupNextAvailableInRange(Sequence seq, long from, long to);
 
     protected CubeImpl createEmptyCube() {
@@ -199,8 +389,39 @@ public abstract class AbstractDataStore implements DataStore {
 
     protected abstract void populateCube(Long id, CubeImpl cube);
 
+    /**
+     * Populates several cubes at once. Implementations backed by a remote
+     * store should override this to fetch all the cubes' things in as few
+     * round trips as possible.
+     *
+     * @param cubes Empty cubes to populate, in ascending order by id.
+     */
+    protected void populateCubes(SortedMap<Long,CubeImpl> cubes) {
+        for (Map.Entry<Long,CubeImpl> entry : cubes.entrySet()) {
+            populateCube(entry.getKey(), entry.getValue());
+        }
+    }
+
     protected abstract void write(BufferedUpdates bufferedUpdates);
 
+    /**
+     * Called by the write-behind thread after each checkpoint, to write any
+     * other changes an implementation has chosen to batch. Changes that
+     * can't be written should be kept for the next call; a thrown exception
+     * is counted as a failed write.
+     */
+    protected void flushDeferredWrites() {
+        // no-op
+    }
+
+    /**
+     * Makes sure the write-behind thread is running, so that changes batched
+     * for {@link #flushDeferredWrites()} will be written.
+     */
+    protected final void deferredWritesPending() {
+        dirtyThingCheckpoint.ensureStarted();
+    }
+
     protected <T extends AbstractThing> ThingRefImpl<T> createEmptyRef() {
         return new ThingRefImpl<T>();
     }
@@ -235,8 +456,8 @@ public abstract class AbstractDataStore implements DataStore {
         }
 
         @Override
-        protected IdRange getNextRange() {
-            Tuple2<Long,Long> range = getNextAvailableIdRange(getSequence());
+        protected IdRange getNextRange(int size) {
+            Tuple2<Long,Long> range = getNextAvailableIdRange(getSequence(), size);
             return new IdRange(range.getA(), range.getB());
         }
 
@@ -246,11 +467,56 @@ public abstract class AbstractDataStore implements DataStore {
         }
     }
 
-    private class CheckpointRunnable implements Runnable, ThingWriter {
-
-        private final AtomicInteger running = new AtomicInteger(0);
+    /**
+     * Write-behind pipeline for dirty things. Writers add to the active map in
+     * {@link #dirtyThings}; the flusher swaps it for an empty one and writes
+     * the swapped-out map as a single batch. A flush happens when the active
+     * map reaches THING_CHECKPOINT_SIZE, after THING_CHECKPOINT_WAIT ms, or
+     * when the heap crosses its usage threshold. Writers are held back, for
+     * up to THING_CHECKPOINT_WAIT ms, once the active map grows to several
+     * times the checkpoint size.
+     *
+     * Dirty state is cleared as a batch is built, so a batch that fails to
+     * write is kept and written again, after a wait, before any newer one.
+     */
+    private class CheckpointRunnable implements Runnable, ThingWriter, Thread.UncaughtExceptionHandler {
+
+        private static final int NOT_STARTED = 0;
+        private static final int RUNNING = 1;
+        private static final int STOPPING = 2;
+        private static final int STOPPED = 3;
+
+        private static final int HIGH_WATER_MULTIPLE = 4;
+        private static final double MEMORY_PRESSURE_THRESHOLD = 0.85;
+        private static final AtomicBoolean MEMORY_THRESHOLDS_SET = new AtomicBoolean();
+
+        private final AtomicInteger running = new AtomicInteger(NOT_STARTED);
+        private final AtomicBoolean memoryPressure = new AtomicBoolean();
+        private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+        private final Object backpressure = new Object();
         private final BufferedUpdates bufferedUpdates = new BufferedUpdates();
 
+        private final AtomicLong flushCount = new AtomicLong();
+        private final AtomicLong thingsFlushed = new AtomicLong();
+        private final AtomicLong totalFlushNanos = new AtomicLong();
+        private final AtomicLong backpressureStalls = new AtomicLong();
+        private final AtomicInteger restarts = new AtomicInteger();
+        private final AtomicLong failedWrites = new AtomicLong();
+        private volatile Thread flusher;
+        private volatile boolean retryPending;
+        private int pendingBatchSize;
+        private long pendingBatchNanos;
+        private NotificationListener memoryListener;
+        private Thread shutdownHook;
+        private volatile int lastBatchSize;
+        private volatile int maxBatchSize;
+        private volatile long lastFlushNanos;
+        private volatile long maxFlushNanos;
+
+        private int sizeLimit;
+        private int highWaterMark;
+        private long wait;
+
         private ThingRef<?> currentThing;
         private Map<Long,ThingRef<?>> dirtyThingsToFlush = new ConcurrentSkipListMap<Long,ThingRef<?>>();
 
@@ -259,52 +525,177 @@ public abstract class AbstractDataStore implements DataStore {
         private Long cubeId;
         private ThingProperties properties;
 
-        public void run() {
-            final int wait = Configuration.THING_CHECKPOINT_WAIT.getInteger(5000);
-            if (!running.compareAndSet(0, 1)) {
-                throw new IllegalStateException("CheckpointRunnable was not in a waiting state: " + running.getAndIncrement());
+        public void ensureStarted() {
+            if (running.get() == NOT_STARTED) {
+                start();
             }
-            while (running.get() == 1 || !dirtyThings.get().isEmpty()) {
-                if (running.get() == 1) {
-                    synchronized (this) {
-                        try {
-                            wait(wait);
-                        } catch (InterruptedException e) {
-                            // don't care
+        }
+
+        public void enqueue(ThingRefImpl<?> thingRef) {
+            ensureStarted();
+            int count = -1;
+            swapLock.readLock().lock();
+            try {
+                if (dirtyThings.get().put(thingRef.getId(), thingRef) == null) {
+                    count = dirtyThingCount.incrementAndGet();
+                }
+            } finally {
+                swapLock.readLock().unlock();
+            }
+            if (count == sizeLimit) {
+                requestFlush();
+            }
+            if (count >= highWaterMark) {
+                awaitCapacity();
+            }
+        }
+
+        private synchronized void start() {
+            if (running.get() != NOT_STARTED) {
+                return;
+            }
+            sizeLimit = Math.max(1, Configuration.THING_CHECKPOINT_SIZE.getInteger(1500));
+            highWaterMark = sizeLimit * HIGH_WATER_MULTIPLE;
+            wait = Math.max(1, Configuration.THING_CHECKPOINT_WAIT.getInteger(5000));
+            watchMemory();
+            running.set(RUNNING);
+            startThread();
+            shutdownHook = new Thread("Flush Dirty Things On Exit") {
+                @Override
+                public void run() {
+                    closeAndFlush(wait * 2);
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+
+        private void startThread() {
+            Thread thread = new Thread(this, "Flush Dirty Things");
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler(this);
+            thread.start();
+        }
+
+        /**
+         * The pool thresholds belong to the whole JVM, so they are only set
+         * once, by the first store to start. Each store adds its own listener,
+         * and removes it in {@link #unwatch()}.
+         */
+        private void watchMemory() {
+            MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+            if (MEMORY_THRESHOLDS_SET.compareAndSet(false, true)) {
+                for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                    long max = pool.getUsage().getMax();
+                    if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && max > 0) {
+                        long threshold = (long)(max * MEMORY_PRESSURE_THRESHOLD);
+                        if (pool.getUsageThreshold() == 0 || pool.getUsageThreshold() > threshold) {
+                            pool.setUsageThreshold(threshold);
                         }
                     }
                 }
-                dirtyThingsToFlush = dirtyThings.getAndSet(dirtyThingsToFlush);
-                for (ThingRef<?> thingRef : dirtyThingsToFlush.values()) {
-                    currentThing = thingRef;
-                    currentThing.writeChangesTo(this, false);
-                    switch (mode) {
-                        case 1:
-                            bufferedUpdates.update(thingRef.getId(), position, cubeId, properties == null ? null : properties.updateBuffer());
-                            break;
-                        case 2:
-                            bufferedUpdates.update(thingRef.getId(), position, cubeId, properties.updateBuffer());
-                            break;
-                        case 3:
-                            bufferedUpdates.update(thingRef.getId(), position, cubeId, properties.updateBuffer());
-                            break;
-                        case 4:
-                            bufferedUpdates.add(thingRef.getId(), position, cubeId, properties.updateBuffer());
-                            break;
-                        case 8:
-                            bufferedUpdates.remove(thingRef.getId());
-                            break;
+            }
+            memoryListener = new NotificationListener() {
+                public void handleNotification(Notification notification, Object handback) {
+                    if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType()) &&
+                        running.get() == RUNNING &&
+                        dirtyThingCount.get() > 0) {
+                        memoryPressure.set(true);
+                        requestFlush();
                     }
-                    mode = 0;
                 }
-                currentThing = null;
-                dirtyThingsToFlush.clear();
-                if (!isReadonly()) {
-                    write(bufferedUpdates);
+            };
+            ((NotificationEmitter)memoryMXBean).addNotificationListener(memoryListener, null, null);
+        }
+
+        private synchronized void unwatch() {
+            if (memoryListener != null) {
+                try {
+                    ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).removeNotificationListener(memoryListener);
+                } catch (ListenerNotFoundException e) {
+                    // already gone
+                }
+                memoryListener = null;
+            }
+            if (shutdownHook != null) {
+                if (Thread.currentThread() != shutdownHook) {
+                    try {
+                        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                    } catch (IllegalStateException e) {
+                        // the JVM is already shutting down
+                    }
+                }
+                shutdownHook = null;
+            }
+        }
+
+        private void requestFlush() {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        private void awaitCapacity() {
+            if (Thread.currentThread() == flusher) {
+                return; // never block the flusher on itself
+            }
+            long waitUntil = System.currentTimeMillis() + wait;
+            synchronized (backpressure) {
+                boolean stalled = false;
+                while (dirtyThingCount.get() >= highWaterMark && running.get() == RUNNING) {
+                    long remaining = waitUntil - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break; // soft limit, don't wait on a flusher that may be waiting on us
+                    }
+                    if (!stalled) {
+                        stalled = true;
+                        backpressureStalls.incrementAndGet();
+                        requestFlush();
+                    }
+                    try {
+                        backpressure.wait(remaining);
+                    } catch (InterruptedException e) {
+                        // don't care
+                    }
+                }
+            }
+        }
+
+        public void run() {
+            flusher = Thread.currentThread();
+            while (true) {
+                int state = running.get();
+                if (state == RUNNING) {
+                    synchronized (this) {
+                        if ((retryPending || dirtyThingCount.get() < sizeLimit && !memoryPressure.get()) &&
+                            running.get() == RUNNING) {
+                            try {
+                                wait(wait);
+                            } catch (InterruptedException e) {
+                                // don't care
+                            }
+                        }
+                    }
+                }
+                memoryPressure.set(false);
+                boolean failed = false;
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    failed = true;
+                    failedWrites.incrementAndGet();
+                    e.printStackTrace(); // the batch is kept, and written again after the next wait
+                }
+                try {
+                    flushDeferredWrites();
+                } catch (RuntimeException e) {
+                    failedWrites.incrementAndGet();
+                    e.printStackTrace(); // implementations keep what they couldn't write for the next flush
+                }
+                if (state != RUNNING && (failed || dirtyThings.get().isEmpty() && !retryPending)) {
+                    break; // when stopping, a failed write is not retried
                 }
-                bufferedUpdates.clear();
             }
-            if (running.compareAndSet(2, 3)) {
+            if (running.compareAndSet(STOPPING, STOPPED)) {
                 synchronized (this) {
                     notifyAll();
                 }
@@ -313,6 +704,102 @@ public abstract class AbstractDataStore implements DataStore {
             }
         }
 
+        private void flush() {
+            if (retryPending) {
+                writeBatch(); // the last batch first, or not at all
+            }
+            swapLock.writeLock().lock();
+            try {
+                dirtyThingsToFlush = dirtyThings.getAndSet(dirtyThingsToFlush);
+                dirtyThingCount.set(0);
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            synchronized (backpressure) {
+                backpressure.notifyAll();
+            }
+            int batchSize = dirtyThingsToFlush.size();
+            if (batchSize == 0) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                for (ThingRef<?> thingRef : dirtyThingsToFlush.values()) {
+                    try {
+                        buffer(thingRef);
+                    } catch (RuntimeException e) {
+                        batchSize--;
+                        e.printStackTrace(); // this thing can't be written, but the rest of the batch can
+                    }
+                }
+            } finally {
+                dirtyThingsToFlush.clear();
+            }
+            pendingBatchSize = batchSize;
+            pendingBatchNanos = System.nanoTime() - start;
+            retryPending = true;
+            writeBatch();
+        }
+
+        private void buffer(ThingRef<?> thingRef) {
+            try {
+                currentThing = thingRef;
+                position = null;
+                cubeId = null;
+                properties = null;
+                currentThing.writeChangesTo(this, false);
+                switch (mode) {
+                    case 1:
+                        bufferedUpdates.update(thingRef.getId(), position, cubeId, null);
+                        break;
+                    case 2:
+                        bufferedUpdates.update(thingRef.getId(), null, null, properties.updateBuffer());
+                        break;
+                    case 3:
+                        bufferedUpdates.update(thingRef.getId(), position, cubeId, properties.updateBuffer());
+                        break;
+                    case 4:
+                        bufferedUpdates.add(thingRef.getId(), thingRef.getType(), position, cubeId, properties.updateBuffer());
+                        break;
+                    case 8:
+                        bufferedUpdates.remove(thingRef.getId());
+                        break;
+                }
+            } finally {
+                currentThing = null;
+                position = null;
+                cubeId = null;
+                properties = null;
+                mode = 0;
+            }
+        }
+
+        /**
+         * Writes the buffered batch. If the write fails the batch stays
+         * buffered, and {@link #retryPending} stays set.
+         */
+        private void writeBatch() {
+            long start = System.nanoTime();
+            if (!isReadonly()) {
+                write(bufferedUpdates);
+            }
+            long elapsed = pendingBatchNanos + System.nanoTime() - start;
+            int batchSize = pendingBatchSize;
+            bufferedUpdates.clear();
+            retryPending = false;
+            flushCount.incrementAndGet();
+            thingsFlushed.addAndGet(batchSize);
+            totalFlushNanos.addAndGet(elapsed);
+            lastBatchSize = batchSize;
+            lastFlushNanos = elapsed;
+            if (batchSize > maxBatchSize) {
+                maxBatchSize = batchSize;
+            }
+            if (elapsed > maxFlushNanos) {
+                maxFlushNanos = elapsed;
+            }
+        }
+
         public void unchanged(Point position, Cube cube, ThingProperties properties) {
             this.position = position;
             this.cubeId = cube == null ? null : cube.getId();
@@ -337,6 +824,9 @@ public abstract class AbstractDataStore implements DataStore {
         public void addThing(Point position, Cube cube, ThingProperties properties) {
             if (mode != 0) throw new IllegalStateException();
             mode |= 4;
+            this.position = position;
+            this.cubeId = cube.getId();
+            this.properties = properties;
         }
 
         public void deleteThing() {
@@ -344,22 +834,51 @@ public abstract class AbstractDataStore implements DataStore {
             mode |= 8;
         }
 
+        public void uncaughtException(Thread t, Throwable e) {
+            e.printStackTrace();
+            int state = running.get();
+            if (state == RUNNING || state == STOPPING) {
+                restarts.incrementAndGet();
+                startThread();
+            }
+        }
+
+        public CheckpointStatistics getStatistics() {
+            return new CheckpointStatistics(flushCount.get(),
+                                            thingsFlushed.get(),
+                                            lastBatchSize,
+                                            maxBatchSize,
+                                            totalFlushNanos.get(),
+                                            lastFlushNanos,
+                                            maxFlushNanos,
+                                            backpressureStalls.get(),
+                                            restarts.get(),
+                                            failedWrites.get(),
+                                            dirtyThingCount.get());
+        }
+
         public void stop(long timeout) {
             long waitUntil = System.currentTimeMillis() + timeout;
-            if (running.compareAndSet(1, 2)) {
-                while (true) {
-                    synchronized (this) {
-                        this.notifyAll();
+            if (running.compareAndSet(NOT_STARTED, STOPPED)) {
+                return; // nothing was ever queued
+            }
+            if (running.compareAndSet(RUNNING, STOPPING)) {
+                unwatch();
+                synchronized (backpressure) {
+                    backpressure.notifyAll();
+                }
+                synchronized (this) {
+                    this.notifyAll();
+                    while (running.get() != STOPPED) {
                         long wait = waitUntil - System.currentTimeMillis();
-                        if (wait > 0) {
-                            try {
-                                this.wait(wait);
-                            } catch (InterruptedException e) {
-                                // don't care
-                            }
-                        } else {
+                        if (wait <= 0) {
                             return;
                         }
+                        try {
+                            this.wait(wait);
+                        } catch (InterruptedException e) {
+                            // don't care
+                        }
                     }
                 }
             }
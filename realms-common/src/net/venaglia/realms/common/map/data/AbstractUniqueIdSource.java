@@ -22,12 +22,22 @@ import java.util.concurrent.locks.ReentrantLock;
  * User: ed
  * Date: 3/23/14
  * Time: 10:15 PM
+ *
+ * Hands out ids from ranges reserved in the backing store. The size of each
+ * reservation adapts to how fast ids are being consumed, so that a range
+ * lasts about a second, and the next one is fetched in the background once
+ * the ids on hand run low. Each thread takes a small block of ids at a time,
+ * and hands them out from that block without locking.
  */
 public abstract class AbstractUniqueIdSource implements UniqueIdSource {
 
     private static final Collection<WeakReference<Runnable>> KNOWN_ID_SOURCE_UPDATERS =
             new LinkedList<WeakReference<Runnable>>();
     private static final int THRESHOLD = 24;
+    private static final int MIN_RANGE_SIZE = 64;
+    private static final int MAX_RANGE_SIZE = 1 << 16;
+    private static final int MAX_BLOCK_SIZE = 64;
+    private static final long RANGE_LIFETIME_NANOS = 1000000000L;
 
     static {
         Thread pipeline = new Thread(new UniqueIdSourceUpdater(), "Unique Id Source Updater");
@@ -40,6 +50,12 @@ public abstract class AbstractUniqueIdSource implements UniqueIdSource {
     private final Sequence sequence;
     private final IdFetcher fetcher;
     private final Ref<UUID> instanceUUIDRef;
+    private final ThreadLocal<long[]> blocks = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2]; // { next, end }
+        }
+    };
 
     private File local;
 
@@ -47,6 +63,12 @@ public abstract class AbstractUniqueIdSource implements UniqueIdSource {
     protected long current;
     protected volatile int remaining = Integer.MIN_VALUE;
 
+    // guarded by lock
+    private int rangeSize = MIN_RANGE_SIZE;
+    private long consumed;
+    private long consumedAtLastFetch;
+    private long lastFetchNanos;
+
     protected AbstractUniqueIdSource(Sequence sequence, Ref<UUID> instanceUUIDRef) {
         if (sequence == null) throw new NullPointerException("sequence");
         if (instanceUUIDRef == null) throw new NullPointerException("instanceUUIDRef");
@@ -117,45 +139,98 @@ public abstract class AbstractUniqueIdSource implements UniqueIdSource {
     }
 
     public long next() {
+        long[] block = blocks.get();
+        if (block[0] >= block[1]) {
+            reserveBlock(block);
+        }
+        return block[0]++;
+    }
+
+    private void reserveBlock(long[] block) {
+        String updateAvailable = null;
+        boolean wakeUpFetcher;
         lock.lock();
         try {
-            while (remaining < THRESHOLD) {
-                boolean doInit = remaining == Integer.MIN_VALUE;
-                if (doInit) {
-                    remaining = 0;
-                }
-                lock.unlock(); // gonna let this one go
-                try {
+            while (true) {
+                while (remaining <= 0) {
+                    boolean doInit = remaining == Integer.MIN_VALUE;
                     if (doInit) {
-                        init();
+                        remaining = 0;
                     }
-                    synchronized (KNOWN_ID_SOURCE_UPDATERS) {
-                        KNOWN_ID_SOURCE_UPDATERS.notifyAll(); // wake up the id source thread
-                        KNOWN_ID_SOURCE_UPDATERS.wait(250L);
+                    lock.unlock(); // gonna let this one go
+                    try {
+                        if (doInit) {
+                            init();
+                        }
+                        synchronized (KNOWN_ID_SOURCE_UPDATERS) {
+                            KNOWN_ID_SOURCE_UPDATERS.notifyAll(); // wake up the id source thread
+                            KNOWN_ID_SOURCE_UPDATERS.wait(250L);
+                        }
+                    } catch (InterruptedException e) {
+                        // don't care
+                    } finally {
+                        lock.lock(); // and we're back
                     }
-                } catch (InterruptedException e) {
-                    // don't care
-                } finally {
-                    lock.lock(); // and we're back
                 }
+                if (current < active.end) {
+                    break;
+                }
+                available.remove(0); // used up before we got here
+                recalculate(false);
+                updateAvailable = toString(available);
+            }
+            int size = Math.min(active.sizeFrom(current), getBlockSize());
+            block[0] = current;
+            block[1] = current + size;
+            current += size;
+            remaining -= size;
+            consumed += size;
+            if (current >= active.end) {
+                available.remove(0);
+                recalculate(false);
+                updateAvailable = toString(available);
             }
-            remaining--;
-            return current++;
+            wakeUpFetcher = remaining < getThreshold();
         } finally {
-            String updateAvailable = null;
-            try {
-                if (active != null && current >= active.end) {
-                    available.remove(0);
-                    recalculate(false);
-                    updateAvailable = toString(available);
-                }
-            } finally {
-                lock.unlock();
+            lock.unlock();
+        }
+        if (updateAvailable != null) {
+            fetcher.writeToDisk(updateAvailable);
+        }
+        if (wakeUpFetcher) {
+            synchronized (KNOWN_ID_SOURCE_UPDATERS) {
+                KNOWN_ID_SOURCE_UPDATERS.notifyAll(); // fetch the next range before this one runs out
             }
-            if (updateAvailable != null) {
-                fetcher.writeToDisk(updateAvailable);
+        }
+    }
+
+    private int getBlockSize() {
+        return Math.max(1, Math.min(MAX_BLOCK_SIZE, rangeSize >> 4));
+    }
+
+    private int getThreshold() {
+        return Math.max(THRESHOLD, rangeSize >> 1);
+    }
+
+    /**
+     * Picks the size of the next range to reserve, from the rate at which
+     * ids were consumed since the last one was reserved.
+     */
+    private int nextRangeSize() {
+        long now = System.nanoTime();
+        if (lastFetchNanos != 0L) {
+            long elapsed = Math.max(now - lastFetchNanos, 1L);
+            double wanted = (double)(consumed - consumedAtLastFetch) * RANGE_LIFETIME_NANOS / elapsed;
+            while (rangeSize < wanted && rangeSize < MAX_RANGE_SIZE) {
+                rangeSize <<= 1;
+            }
+            if (rangeSize > wanted * 4 && rangeSize > MIN_RANGE_SIZE) {
+                rangeSize >>= 1; // shrink slowly, demand tends to come in bursts
             }
         }
+        lastFetchNanos = now;
+        consumedAtLastFetch = consumed;
+        return rangeSize;
     }
 
     private String toString(List<IdRange> available) {
@@ -166,7 +241,7 @@ public abstract class AbstractUniqueIdSource implements UniqueIdSource {
         return buffer.toString();
     }
 
-    protected abstract IdRange getNextRange();
+    protected abstract IdRange getNextRange(int size);
 
     protected abstract long lookupNextAvailableInRange(IdRange range);
 
@@ -211,33 +286,35 @@ public abstract class AbstractUniqueIdSource implements UniqueIdSource {
 
         public void run() {
             String updateAvailable = null;
+            boolean wakeUpWaiters = false;
             lock.lock();
             try {
-                for (int i = 0; remaining < THRESHOLD; i++) {
-                    IdRange range = getNextRange();
+                while (remaining < getThreshold()) {
+                    int size = nextRangeSize();
+                    IdRange range;
+                    lock.unlock(); // don't hold up next() while we talk to the store
+                    try {
+                        range = getNextRange(size);
+                    } finally {
+                        lock.lock();
+                    }
                     if (available.isEmpty()) {
                         current = range.getStart();
                         active = range;
                     }
                     available.add(range);
                     remaining += range.size();
-                    if (i == 0) {
-                        lock.unlock();
-                        try {
-                            synchronized (KNOWN_ID_SOURCE_UPDATERS) {
-                                KNOWN_ID_SOURCE_UPDATERS.notifyAll();
-                            }
-                        } finally {
-                            lock.lock();
-                        }
-                    }
-                    if (remaining >= THRESHOLD) {
-                        updateAvailable = AbstractUniqueIdSource.this.toString(available);
-                    }
+                    updateAvailable = AbstractUniqueIdSource.this.toString(available);
+                    wakeUpWaiters = true;
                 }
             } finally {
                 lock.unlock();
             }
+            if (wakeUpWaiters) {
+                synchronized (KNOWN_ID_SOURCE_UPDATERS) {
+                    KNOWN_ID_SOURCE_UPDATERS.notifyAll();
+                }
+            }
             if (updateAvailable != null) {
                 writeToDisk(updateAvailable);
             }
@@ -24,8 +24,8 @@ public class BufferedUpdates {
     private static final int DELETE_INDEX = 9;
 
     public enum UpdatedFields {
-        DeleteThing(INSERT_INDEX),
-        InsertThing(DELETE_INDEX),
+        DeleteThing(DELETE_INDEX),
+        InsertThing(INSERT_INDEX),
         UpdatePosition(UPDATING_POSITION_FLAG),
         UpdatePositionAndCube(UPDATING_POSITION_FLAG | UPDATING_CUBE_ID_FLAG),
         UpdateProperties(UPDATING_PROPERTIES_FLAG),
@@ -91,26 +91,27 @@ public class BufferedUpdates {
         }
     }
 
-    public void add(Long id, Point position, Long cubeId, byte[] properties) {
+    public void add(Long id, String type, Point position, Long cubeId, byte[] properties) {
         if (id == null) throw new NullPointerException("id");
+        if (type == null) throw new NullPointerException("type");
         if (position == null) throw new NullPointerException("position");
         if (cubeId == null) throw new NullPointerException("cubeId");
         if (properties == null) throw new NullPointerException("properties");
-        queueImpl(id, position, cubeId, properties, INSERT_INDEX);
+        queueImpl(id, type, position, cubeId, properties, INSERT_INDEX);
     }
 
     public void remove(Long id) {
         if (id == null) throw new NullPointerException("id");
-        queueImpl(id, null, null, null, DELETE_INDEX);
+        queueImpl(id, null, null, null, null, DELETE_INDEX);
     }
 
     public void update(Long id, Point position, Long cubeId, byte[] properties) {
         if (id == null) throw new NullPointerException("id");
-        queueImpl(id, position, cubeId, properties, -1);
+        queueImpl(id, null, position, cubeId, properties, -1);
     }
 
-    private void queueImpl(Long id, Point position, Long cubeId, byte[] properties, int index) {
-        Delta delta = getEmptyDelta().load(id, position, cubeId, properties);
+    private void queueImpl(Long id, String type, Point position, Long cubeId, byte[] properties, int index) {
+        Delta delta = getEmptyDelta().load(id, type, position, cubeId, properties);
         if (index == -1) index = delta.flags;
         Collection<Delta> deltas = buffer[index];
         if (deltas == null) {
@@ -165,16 +166,18 @@ public class BufferedUpdates {
         private final ReusableByteStream inputStream = new ReusableByteStream();
 
         private Long id;
+        private String type;
         private Point position;
         private Long cubeId;
         private byte[] properties;
         private int flags;
 
-        Delta load(Long id, Point position, Long cubeId, byte[] properties) {
+        Delta load(Long id, String type, Point position, Long cubeId, byte[] properties) {
             if (properties != null) {
                 inputStream.load(properties);
             }
             this.id = id;
+            this.type = type;
             this.position = position;
             this.cubeId = cubeId;
             this.properties = properties;
@@ -187,6 +190,7 @@ public class BufferedUpdates {
         void recycle() {
             inputStream.recycle();
             this.id = null;
+            this.type = null;
             this.position = null;
             this.cubeId = null;
             this.properties = null;
@@ -197,6 +201,13 @@ public class BufferedUpdates {
             return id;
         }
 
+        /**
+         * @return The thing type, only available on inserts.
+         */
+        public String getType() {
+            return type;
+        }
+
         public Point getPosition() {
             return position;
         }
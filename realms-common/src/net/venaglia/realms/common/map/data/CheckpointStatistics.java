@@ -0,0 +1,117 @@
+package net.venaglia.realms.common.map.data;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 1:20 PM
+ *
+ * Point-in-time snapshot of the dirty thing write-behind counters.
+ */
+public class CheckpointStatistics {
+
+    private final long flushCount;
+    private final long thingsFlushed;
+    private final int lastBatchSize;
+    private final int maxBatchSize;
+    private final long totalFlushNanos;
+    private final long lastFlushNanos;
+    private final long maxFlushNanos;
+    private final long backpressureStalls;
+    private final int restarts;
+    private final long failedWrites;
+    private final int pending;
+
+    public CheckpointStatistics(long flushCount,
+                                long thingsFlushed,
+                                int lastBatchSize,
+                                int maxBatchSize,
+                                long totalFlushNanos,
+                                long lastFlushNanos,
+                                long maxFlushNanos,
+                                long backpressureStalls,
+                                int restarts,
+                                long failedWrites,
+                                int pending) {
+        this.flushCount = flushCount;
+        this.thingsFlushed = thingsFlushed;
+        this.lastBatchSize = lastBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.totalFlushNanos = totalFlushNanos;
+        this.lastFlushNanos = lastFlushNanos;
+        this.maxFlushNanos = maxFlushNanos;
+        this.backpressureStalls = backpressureStalls;
+        this.restarts = restarts;
+        this.failedWrites = failedWrites;
+        this.pending = pending;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public long getThingsFlushed() {
+        return thingsFlushed;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public double getAverageBatchSize() {
+        return flushCount == 0 ? 0.0 : (double)thingsFlushed / flushCount;
+    }
+
+    public double getLastFlushMillis() {
+        return lastFlushNanos / 1000000.0;
+    }
+
+    public double getMaxFlushMillis() {
+        return maxFlushNanos / 1000000.0;
+    }
+
+    public double getAverageFlushMillis() {
+        return flushCount == 0 ? 0.0 : totalFlushNanos / 1000000.0 / flushCount;
+    }
+
+    /**
+     * @return The number of times a writer was made to wait because the
+     *     flusher had fallen behind.
+     */
+    public long getBackpressureStalls() {
+        return backpressureStalls;
+    }
+
+    /**
+     * @return The number of times the flusher thread died and was restarted.
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * @return The number of times writing a batch failed. A failed batch is
+     *     kept, and written again before any newer one.
+     */
+    public long getFailedWrites() {
+        return failedWrites;
+    }
+
+    /**
+     * @return The number of dirty things waiting for the next flush.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("flushes=%d things=%d batch[last=%d avg=%.1f max=%d] latency[last=%.2fms avg=%.2fms max=%.2fms] stalls=%d restarts=%d failed=%d pending=%d",
+                             flushCount, thingsFlushed, lastBatchSize, getAverageBatchSize(), maxBatchSize,
+                             getLastFlushMillis(), getAverageFlushMillis(), getMaxFlushMillis(),
+                             backpressureStalls, restarts, failedWrites, pending);
+    }
+}
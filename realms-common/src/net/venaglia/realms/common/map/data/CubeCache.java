@@ -1,19 +1,27 @@
 package net.venaglia.realms.common.map.data;
 
 import net.venaglia.realms.common.map.Source;
-import net.venaglia.realms.common.util.cache.BasicWorkingCache;
+import net.venaglia.realms.common.util.cache.BasicConcurrentWorkingCache;
 
 /**
  * User: ed
  * Date: 3/29/14
  * Time: 7:35 AM
  */
-public class CubeCache extends BasicWorkingCache<CubeImpl> {
+public class CubeCache extends BasicConcurrentWorkingCache<CubeImpl> {
 
     protected final Source<CubeImpl> source;
+    protected final ThingCache thingCache;
 
-    public CubeCache(Source<CubeImpl> source) {
+    /**
+     * The things in each cached cube are pinned in the passed thing cache,
+     * and evicted along with their cube. Locks are always taken cube cache
+     * first, then thing cache.
+     */
+    public CubeCache(Source<CubeImpl> source, ThingCache thingCache) {
         this.source = source;
+        this.thingCache = thingCache;
+        thingCache.bind(this);
     }
 
     @Override
@@ -22,4 +30,9 @@ public class CubeCache extends BasicWorkingCache<CubeImpl> {
         source.populate(id, cube);
         return cube;
     }
+
+    @Override
+    protected void evict(Node<CubeImpl> node) {
+        thingCache.evictCube(node.getValue().getId());
+    }
 }
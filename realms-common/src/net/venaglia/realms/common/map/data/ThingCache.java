@@ -3,7 +3,7 @@ package net.venaglia.realms.common.map.data;
 import net.venaglia.realms.common.map.Cube;
 import net.venaglia.realms.common.map.Source;
 import net.venaglia.realms.common.map.things.AbstractThing;
-import net.venaglia.realms.common.util.cache.BasicWorkingCache;
+import net.venaglia.realms.common.util.cache.BasicConcurrentWorkingCache;
 import net.venaglia.realms.common.util.cache.Cache;
 
 import java.util.Collection;
@@ -17,11 +17,13 @@ import java.util.concurrent.ConcurrentSkipListMap;
 * Date: 3/27/14
 * Time: 10:29 PM
 */
-public class ThingCache extends BasicWorkingCache<ThingRefImpl<?>> {
+public class ThingCache extends BasicConcurrentWorkingCache<ThingRefImpl<?>> {
 
     protected final Source<ThingRefImpl<? extends AbstractThing>> source;
     protected final NavigableMap<ThingRefImpl<?>,Node<ThingRefImpl<?>>> thingsByRef;
 
+    private volatile CubeCache cubeCache;
+
     public ThingCache(Source<ThingRefImpl<? extends AbstractThing>> source) {
         this.source = source;
         this.thingsByRef = new ConcurrentSkipListMap<ThingRefImpl<?>,Node<ThingRefImpl<?>>>(ThingRefImpl.ORDER_BY_CUBE_AND_TYPE);
@@ -32,6 +34,30 @@ public class ThingCache extends BasicWorkingCache<ThingRefImpl<?>> {
         return new CubeSubCache(cube.getId(), thingsByRef.subMap(boundaryRef, boundaryRef.next()));
     }
 
+    /**
+     * Things in a cube that is still cached are pinned, since the cube only
+     * sees them through {@link #forCube(Cube)}. Called once, by the
+     * {@link CubeCache} that pins them.
+     */
+    void bind(CubeCache cubeCache) {
+        this.cubeCache = cubeCache;
+    }
+
+    /**
+     * Evicts the clean things in a cube that was just evicted. Dirty things
+     * stay until they are written, then go the way of any other unpinned
+     * thing.
+     */
+    void evictCube(Long cubeId) {
+        BoundaryRef boundaryRef = BoundaryRef.forCubeAndType(cubeId, "");
+        for (Node<ThingRefImpl<?>> node : thingsByRef.subMap(boundaryRef, boundaryRef.next()).values()) {
+            ThingRefImpl<?> thingRef = node.getValue();
+            if (!thingRef.isDirty()) {
+                evict(thingRef);
+            }
+        }
+    }
+
     @Override
     protected ThingRefImpl<?> miss(Long id) {
         ThingRefImpl<? extends AbstractThing> ref = source.createEmpty();
@@ -49,6 +75,17 @@ public class ThingCache extends BasicWorkingCache<ThingRefImpl<?>> {
         thingsByRef.remove(node.getValue());
     }
 
+    @Override
+    protected boolean canEvict(Node<ThingRefImpl<?>> node) {
+        ThingRefImpl<?> thingRef = node.getValue();
+        if (thingRef.isDirty()) {
+            return false;
+        }
+        CubeCache cubeCache = this.cubeCache;
+        CubeImpl cube = thingRef.cube;
+        return cubeCache == null || cube == null || !cubeCache.contains(cube.id);
+    }
+
     public void update(ThingRefImpl<?> ref, Runnable doUpdate) {
         lock.lock();
         try {
@@ -66,14 +103,15 @@ public class ThingCache extends BasicWorkingCache<ThingRefImpl<?>> {
 
         private BoundaryRef next() {
             if ("".equals(type)) {
-                return forCubeAndType(id + 1L, type);
+                return forCubeAndType(cube.id + 1L, type);
             } else {
-                return forCubeAndType(id, type + '\0');
+                return forCubeAndType(cube.id, type + '\0');
             }
         }
 
         protected static BoundaryRef forCubeAndType(Long cubeID, String type) {
             BoundaryRef ref = new BoundaryRef();
+            ref.cube = new CubeImpl();
             ref.cube.id = cubeID;
             ref.type = type == null ? "" : type;
             return ref;
@@ -35,7 +35,14 @@ public class ThingRefImpl<T extends AbstractThing> extends AbstractMutableEntry<
                     long c1 = r1.cube.id;
                     long c2 = r2.cube.id;
                     int cmp = c1 < c2 ? -1 : c1 > c2 ? 1 : 0;
-                    return cmp == 0 ? r1.type.compareTo(r2.type) : cmp;
+                    if (cmp == 0) {
+                        cmp = r1.type.compareTo(r2.type);
+                    }
+                    if (cmp == 0 && r1.id != r2.id) {
+                        // things of one type in one cube are told apart by id, boundaries have none
+                        cmp = r1.id == null ? -1 : r2.id == null ? 1 : r1.id.compareTo(r2.id);
+                    }
+                    return cmp;
                 }
             };
 
@@ -140,6 +147,16 @@ public class ThingRefImpl<T extends AbstractThing> extends AbstractMutableEntry<
         }
     }
 
+    /**
+     * @return true if this thing has moved or changed since it was last
+     *     written, and so must not be dropped from the cache.
+     */
+    public boolean isDirty() {
+        AtomicBoolean moved = this.moved;
+        T thing = this.thing;
+        return moved != null && moved.get() || thing != null && AbstractThing.isDirty(thing);
+    }
+
     public void writeChangesTo(ThingWriter thingWriter, boolean setUnchangedValuesFirst) {
         boolean moved = this.moved.getAndSet(false);
         boolean hydrated = thing != null;
@@ -1,13 +1,13 @@
 package net.venaglia.realms.common.map.data.binaries;
 
-import net.venaglia.realms.common.util.cache.BasicWorkingCache;
+import net.venaglia.realms.common.util.cache.BasicConcurrentWorkingCache;
 
 /**
  * User: ed
  * Date: 4/11/14
  * Time: 5:04 PM
  */
-public class BinaryCache extends BasicWorkingCache<BinaryResource> {
+public class BinaryCache extends BasicConcurrentWorkingCache<BinaryResource> {
 
     private final BinarySource source;
 
@@ -22,6 +22,15 @@ public class BinaryCache extends BasicWorkingCache<BinaryResource> {
         return resource;
     }
 
+    @Override
+    protected long weigh(BinaryResource resource) {
+        if (resource.isDirect()) {
+            return 0L; // off-heap, doesn't count against the heap budget
+        }
+        byte[] data = resource.getData();
+        return data == null ? 0L : data.length;
+    }
+
     public BinaryResource insert(BinaryResource resource, long locatorId) {
         // todo: the returned object needs to be added to the cache.
         return source.insert(resource, locatorId);
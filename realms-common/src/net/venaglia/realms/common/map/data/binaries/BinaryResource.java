@@ -3,6 +3,7 @@ package net.venaglia.realms.common.map.data.binaries;
 import net.venaglia.common.util.Digest;
 import net.venaglia.common.util.Identifiable;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -20,32 +21,52 @@ public class BinaryResource implements Identifiable {
     private Map<String,Object> immutableMetadata = Collections.unmodifiableMap(mutableMetadata);
     private String sha1Hash;
     private byte[] data;
+    private ByteBuffer buffer; // set instead of data when the bytes live off-heap
 
     public void init(Long id,
                      BinaryType type,
                      Map<String,Object> metadata,
                      String sha1Hash,
                      byte[] data) {
-        if (this.data != null) {
+        if (data == null) throw new NullPointerException("data");
+        initImpl(id, type, metadata, sha1Hash);
+        this.data = data;
+    }
+
+    /**
+     * Loads this resource around a buffer, typically a slice of a memory
+     * mapped file, without copying it onto the heap.
+     */
+    public void init(Long id,
+                     BinaryType type,
+                     Map<String,Object> metadata,
+                     String sha1Hash,
+                     ByteBuffer buffer) {
+        if (buffer == null) throw new NullPointerException("buffer");
+        initImpl(id, type, metadata, sha1Hash);
+        this.buffer = buffer.asReadOnlyBuffer();
+    }
+
+    private void initImpl(Long id, BinaryType type, Map<String,Object> metadata, String sha1Hash) {
+        if (this.data != null || this.buffer != null) {
             throw new IllegalStateException("BinaryResource is already loaded");
         }
         if (type == null) throw new NullPointerException("type");
         if (metadata == null) throw new NullPointerException("metadata");
-        if (data == null) throw new NullPointerException("data");
         this.id = id;
         this.type = type;
         this.mutableMetadata.putAll(metadata);
         this.sha1Hash = sha1Hash;
-        this.data = data;
     }
 
     public void recycle() {
-        if (this.data != null) {
+        if (this.data != null || this.buffer != null) {
             this.id = null;
             this.type = null;
             this.mutableMetadata.clear();
             this.sha1Hash = null;
             this.data = null;
+            this.buffer = null;
         }
     }
 
@@ -62,17 +83,46 @@ public class BinaryResource implements Identifiable {
     }
 
     public int getLength() {
-        return data.length;
+        return data != null ? data.length : buffer.remaining();
+    }
+
+    /**
+     * @return true if this resource's bytes are held off-heap.
+     */
+    public boolean isDirect() {
+        return data == null && buffer != null;
     }
 
     public String getSha1Hash() {
         if (sha1Hash == null) {
-            sha1Hash = Digest.sha1(data);
+            sha1Hash = Digest.sha1(getDataBuffer());
         }
         return sha1Hash;
     }
 
+    /**
+     * @return The bytes of this resource. Resources loaded around a buffer
+     *     return a new heap copy on every call, which is not kept, so a
+     *     cached resource never grows past what the binary cache weighed;
+     *     readers that only need to read should use {@link #getDataBuffer()}.
+     */
     public byte[] getData() {
+        if (data == null && buffer != null) {
+            byte[] copy = new byte[buffer.remaining()];
+            buffer.duplicate().get(copy);
+            return copy;
+        }
         return data;
     }
+
+    /**
+     * @return A read-only view of the bytes of this resource, positioned at
+     *     zero. Does not copy.
+     */
+    public ByteBuffer getDataBuffer() {
+        if (buffer != null) {
+            return buffer.duplicate();
+        }
+        return data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
 }
@@ -1,5 +1,6 @@
 package net.venaglia.realms.common.map.data.binaries;
 
+import net.venaglia.common.util.FieldHandle;
 import net.venaglia.common.util.Predicate;
 import net.venaglia.common.util.serializer.SerializerException;
 import net.venaglia.common.util.serializer.SerializerStrategy;
@@ -179,11 +180,13 @@ public class BinaryTypeDefinition<B> implements BinaryType {
 
     private static class MetadataAccessor<O,F> {
         private final Field field;
+        private final FieldHandle handle;
         private final Class<F> type;
         private final F defaultValue;
 
         private MetadataAccessor(Field field, Class<F> type, F defaultValue) {
             this.field = field;
+            this.handle = FieldHandle.of(field);
             this.type = type;
             this.defaultValue = defaultValue;
         }
@@ -197,23 +200,20 @@ public class BinaryTypeDefinition<B> implements BinaryType {
         }
 
         void set(O object, F value) {
-            try {
-                field.set(object, value);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e.getMessage(), e);
-            }
+            handle.set(object, value);
         }
 
         F get(O object) {
-            Object value = null;
+            Object value = handle.get(object);
+            if (value == null) {
+                return defaultValue;
+            }
+            @SuppressWarnings("unchecked")
+            MetadataSerializer<F> serializer = (MetadataSerializer<F>)ALLOWED_TYPES.get(type);
             try {
-                value = field.get(object);
-                return value == null ? defaultValue : type.cast(value);
+                return serializer.cast(value); // type may be primitive, so Class.cast() won't do
             } catch (ClassCastException e) {
-                if (value == null) value = Void.TYPE;
                 throw new RuntimeException("Unable to convert " + value + " <" + value.getClass().getSimpleName() + "> to " + type);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e.getMessage(), e);
             }
         }
     }
@@ -0,0 +1,366 @@
+package net.venaglia.realms.common.map.data.binaries;
+
+import net.venaglia.common.util.Pair;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 6:20 PM
+ *
+ * An append-only file of binary resources, read through memory mapped
+ * regions. Two kinds of record are appended:
+ *
+ *   BINARY  - id, mimetype, sha1, metadata and data. A later record with
+ *             the same id replaces an earlier one.
+ *   LOCATOR - (mimetype, locatorId) -> binary id, or -1 to unlink.
+ *
+ * The offset index is rebuilt by scanning the file on open. The header
+ * holds the length of the file that has been fully written, so a torn
+ * append is ignored and overwritten. Records never straddle a region
+ * boundary, so every binary can be handed out as a slice of one mapping.
+ */
+public class MappedBinaryFile implements Closeable {
+
+    public static final int REGION_SIZE = 1 << 26; // 64MB
+
+    private static final String BANNER = "Realms binary segments v1";
+    private static final int HEADER_SIZE = 64;
+    private static final int END_OFFSET = HEADER_SIZE - 8;
+    private static final int RECORD_MAGIC = 0x52424E53;
+    private static final int RECORD_HEADER_SIZE = 9; // magic, kind, length
+    private static final byte BINARY_RECORD = 'B';
+    private static final byte LOCATOR_RECORD = 'L';
+    private static final byte PAD_RECORD = 'P';
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final boolean writable;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long end;
+    private MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+    private final Map<Long,Entry> binaries = new HashMap<Long,Entry>();
+    private final Map<Pair<String,Long>,Long> locators = new HashMap<Pair<String,Long>,Long>();
+    private final Map<String,Long> bySha1 = new HashMap<String,Long>();
+    private final Map<Long,Integer> referenceCounts = new HashMap<Long,Integer>();
+
+    public MappedBinaryFile(File file, boolean writable) {
+        this.file = file;
+        this.writable = writable;
+    }
+
+    public synchronized void open() throws IOException {
+        if (!file.exists()) {
+            if (!writable) {
+                throw new IOException("Binary segment file does not exist: " + file);
+            }
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory: " + dir);
+            }
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                byte[] bannerBytes = BANNER.getBytes(Charset.forName("ISO-8859-1"));
+                header.put(bannerBytes).put((byte)26);
+                header.putLong(END_OFFSET, HEADER_SIZE);
+                out.write(header.array());
+            } finally {
+                out.close();
+            }
+        }
+        raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        channel = raf.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0L);
+        byte[] bannerBytes = new byte[BANNER.length()];
+        header.get(bannerBytes);
+        if (!BANNER.equals(new String(bannerBytes, Charset.forName("ISO-8859-1")))) {
+            throw new IOException("Not a binary segment file: " + file);
+        }
+        end = Math.min(header.getLong(END_OFFSET), channel.size());
+        scan();
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            if (writable) {
+                channel.force(true);
+            }
+            channel.close();
+            raf.close();
+            channel = null;
+            raf = null;
+            regions = new MappedByteBuffer[0];
+        }
+    }
+
+    public boolean isWritable() {
+        return writable;
+    }
+
+    public synchronized Long findId(String mimetype, long locatorId) {
+        return locators.get(new Pair<String,Long>(mimetype, locatorId));
+    }
+
+    /**
+     * @return The id of a binary with the same content, for de-duplication.
+     */
+    public synchronized Long findId(String mimetype, String sha1, int length) {
+        return bySha1.get(sha1Key(mimetype, sha1, length));
+    }
+
+    /**
+     * @return The sha1 hash of a binary, or null if there is no binary with
+     *     this id.
+     */
+    public synchronized String getSha1(Long id) {
+        Entry entry = binaries.get(id);
+        return entry == null ? null : entry.sha1;
+    }
+
+    /**
+     * @return The length of a binary, or -1 if there is no binary with this
+     *     id.
+     */
+    public synchronized int getLength(Long id) {
+        Entry entry = binaries.get(id);
+        return entry == null ? -1 : entry.length;
+    }
+
+    public synchronized int getReferenceCount(Long id) {
+        Integer count = referenceCounts.get(id);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Loads a binary into the passed resource, around a slice of the mapped
+     * file. Nothing is copied.
+     *
+     * @return false if there is no binary with this id.
+     */
+    public synchronized boolean load(Long id, BinaryResource resource) throws IOException {
+        Entry entry = binaries.get(id);
+        if (entry == null) {
+            return false;
+        }
+        BinaryType type = BinaryTypeRegistry.get(entry.mimetype);
+        if (type == null) {
+            throw new RuntimeException("Unable to find a BinaryType for " + entry.mimetype);
+        }
+        resource.init(id, type, type.decodeMetadata(entry.metadata), entry.sha1, slice(entry.dataOffset, entry.length));
+        return true;
+    }
+
+    public synchronized void append(Long id, BinaryType type, Map<String,Object> metadata, String sha1, byte[] data)
+            throws IOException {
+        ensureWritable();
+        byte[] mimetype = type.mimeType().getBytes(UTF8);
+        byte[] sha1Bytes = sha1.getBytes(UTF8);
+        byte[] metadataBytes = type.encodeMetadata(metadata).getBytes(UTF8);
+        int length = RECORD_HEADER_SIZE + 8 + 2 + mimetype.length + 2 + sha1Bytes.length + 4 + metadataBytes.length + 4 + data.length;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(RECORD_MAGIC).put(BINARY_RECORD).putInt(length);
+        record.putLong(id);
+        record.putShort((short)mimetype.length).put(mimetype);
+        record.putShort((short)sha1Bytes.length).put(sha1Bytes);
+        record.putInt(metadataBytes.length).put(metadataBytes);
+        record.putInt(data.length);
+        long dataOffset = record.position();
+        record.put(data);
+        record.flip();
+        long at = write(record);
+        indexBinary(id, type.mimeType(), sha1, new String(metadataBytes, UTF8), at + dataOffset, data.length);
+    }
+
+    /**
+     * Points a locator at a binary, or unlinks it when binaryId is null.
+     */
+    public synchronized void link(String mimetype, long locatorId, Long binaryId) throws IOException {
+        ensureWritable();
+        byte[] mimetypeBytes = mimetype.getBytes(UTF8);
+        int length = RECORD_HEADER_SIZE + 2 + mimetypeBytes.length + 8 + 8;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(RECORD_MAGIC).put(LOCATOR_RECORD).putInt(length);
+        record.putShort((short)mimetypeBytes.length).put(mimetypeBytes);
+        record.putLong(locatorId);
+        record.putLong(binaryId == null ? -1L : binaryId);
+        record.flip();
+        write(record);
+        indexLocator(mimetype, locatorId, binaryId);
+    }
+
+    private void scan() throws IOException {
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = HEADER_SIZE;
+        while (position < end) {
+            if (REGION_SIZE - position % REGION_SIZE < RECORD_HEADER_SIZE) {
+                position += REGION_SIZE - position % REGION_SIZE;
+                continue;
+            }
+            recordHeader.clear();
+            readFully(recordHeader, position);
+            int magic = recordHeader.getInt();
+            byte kind = recordHeader.get();
+            int length = recordHeader.getInt();
+            if (magic != RECORD_MAGIC || length < RECORD_HEADER_SIZE || position + length > end) {
+                System.err.println("Truncating binary segment file at a damaged record: " + file + "@" + position);
+                end = position;
+                break;
+            }
+            if (kind != PAD_RECORD) {
+                ByteBuffer record = ByteBuffer.allocate(length - RECORD_HEADER_SIZE);
+                readFully(record, position + RECORD_HEADER_SIZE);
+                if (kind == BINARY_RECORD) {
+                    Long id = record.getLong();
+                    String mimetype = readString(record, record.getShort());
+                    String sha1 = readString(record, record.getShort());
+                    String metadata = readString(record, record.getInt());
+                    int dataLength = record.getInt();
+                    long dataOffset = position + RECORD_HEADER_SIZE + record.position();
+                    indexBinary(id, mimetype, sha1, metadata, dataOffset, dataLength);
+                } else if (kind == LOCATOR_RECORD) {
+                    String mimetype = readString(record, record.getShort());
+                    long locatorId = record.getLong();
+                    long binaryId = record.getLong();
+                    indexLocator(mimetype, locatorId, binaryId < 0 ? null : binaryId);
+                }
+            }
+            position += length;
+        }
+    }
+
+    private void indexBinary(Long id, String mimetype, String sha1, String metadata, long dataOffset, int length) {
+        Entry previous = binaries.put(id, new Entry(mimetype, sha1, metadata, dataOffset, length));
+        if (previous != null) {
+            bySha1.remove(sha1Key(previous.mimetype, previous.sha1, previous.length));
+        }
+        bySha1.put(sha1Key(mimetype, sha1, length), id);
+    }
+
+    private void indexLocator(String mimetype, long locatorId, Long binaryId) {
+        Pair<String,Long> key = new Pair<String,Long>(mimetype, locatorId);
+        Long previous = binaryId == null ? locators.remove(key) : locators.put(key, binaryId);
+        if (previous != null) {
+            int count = getReferenceCount(previous) - 1;
+            if (count > 0) {
+                referenceCounts.put(previous, count);
+            } else {
+                referenceCounts.remove(previous);
+            }
+        }
+        if (binaryId != null) {
+            referenceCounts.put(binaryId, getReferenceCount(binaryId) + 1);
+        }
+    }
+
+    private long write(ByteBuffer record) throws IOException {
+        int length = record.remaining();
+        if (length > REGION_SIZE) {
+            throw new IllegalArgumentException("Binary is too large for a " + REGION_SIZE + " byte region: " + length);
+        }
+        long remaining = REGION_SIZE - end % REGION_SIZE;
+        if (remaining < length) {
+            if (remaining >= RECORD_HEADER_SIZE) {
+                ByteBuffer pad = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+                pad.putInt(RECORD_MAGIC).put(PAD_RECORD).putInt((int)remaining);
+                pad.flip();
+                writeFully(pad, end);
+            }
+            end += remaining;
+        }
+        long at = end;
+        writeFully(record, at);
+        channel.force(false); // the record must be on disk before the header says it is
+        end = at + length;
+        ByteBuffer committed = ByteBuffer.allocate(8);
+        committed.putLong(0, end);
+        writeFully(committed, END_OFFSET);
+        return at;
+    }
+
+    private ByteBuffer slice(long offset, int length) throws IOException {
+        int region = (int)(offset / REGION_SIZE);
+        long regionStart = (long)region * REGION_SIZE;
+        int start = (int)(offset - regionStart);
+        if (region >= regions.length) {
+            regions = Arrays.copyOf(regions, region + 1);
+        }
+        MappedByteBuffer mapped = regions[region];
+        if (mapped == null || mapped.capacity() < start + length) {
+            // map what has been written so far; remapped as the region fills
+            long size = Math.min(REGION_SIZE, end - regionStart);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size);
+            regions[region] = mapped;
+        }
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position(start);
+        buffer.limit(start + length);
+        return buffer.slice();
+    }
+
+    private void ensureWritable() {
+        if (!writable) {
+            throw new IllegalStateException("Binary segment file is read only: " + file);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of binary segment file: " + file);
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static String sha1Key(String mimetype, String sha1, int length) {
+        return mimetype + ":" + sha1 + ":" + length;
+    }
+
+    private static class Entry {
+
+        private final String mimetype;
+        private final String sha1;
+        private final String metadata;
+        private final long dataOffset;
+        private final int length;
+
+        private Entry(String mimetype, String sha1, String metadata, long dataOffset, int length) {
+            this.mimetype = mimetype;
+            this.sha1 = sha1;
+            this.metadata = metadata;
+            this.dataOffset = dataOffset;
+            this.length = length;
+        }
+    }
+}
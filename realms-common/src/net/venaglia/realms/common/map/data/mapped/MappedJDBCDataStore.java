@@ -0,0 +1,159 @@
+package net.venaglia.realms.common.map.data.mapped;
+
+import net.venaglia.realms.common.Configuration;
+import net.venaglia.realms.common.map.data.Sequence;
+import net.venaglia.realms.common.map.data.binaries.BinaryResource;
+import net.venaglia.realms.common.map.data.binaries.BinaryType;
+import net.venaglia.realms.common.map.data.binaries.MappedBinaryFile;
+import net.venaglia.realms.common.map.data.rdbms.JDBCDataStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 6:55 PM
+ *
+ * A JDBC data store that keeps binary resources in a memory mapped segment
+ * file instead of the thing_binary tables. Binaries are handed out as
+ * slices of the mapping, without being copied onto the heap. Select it
+ * with:
+ *
+ *   data-store.class=net.venaglia.realms.common.map.data.mapped.MappedJDBCDataStore
+ */
+public class MappedJDBCDataStore extends JDBCDataStore {
+
+    private MappedBinaryFile binaries;
+
+    @Override
+    public void init() {
+        super.init();
+        File dir = new File("db", Configuration.DATABASE_DIRECTORY.getString());
+        File file = new File(dir, Configuration.BINARY_SEGMENT_FILE.getString("binaries.seg"));
+        binaries = new MappedBinaryFile(file, !isReadonly());
+        try {
+            binaries.open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void closeAndFlush(long timeoutMS) {
+        super.closeAndFlush(timeoutMS);
+        try {
+            binaries.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void populateBinaryResource(Long id, BinaryResource binaryResource) {
+        try {
+            binaries.load(id, binaryResource);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected Long findBinaryResourceId(String mimetype, long locatorId) {
+        return binaries.findId(mimetype, locatorId);
+    }
+
+    @Override
+    protected BinaryResource insertBinaryResource(BinaryResource resource, long locatorId) {
+        BinaryType type = resource.getType();
+        String sha1Hash = resource.getSha1Hash();
+        Long existingId;
+        try {
+            synchronized (binaryLock(binaryStripe(type.mimeType(), sha1Hash, resource.getLength()))) {
+                existingId = binaries.findId(type.mimeType(), sha1Hash, resource.getLength());
+                if (existingId != null) {
+                    binaries.link(type.mimeType(), locatorId, existingId);
+                } else {
+                    insertNewBinaryResource(resource, locatorId);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return existingId != null ? commonDataSources.getBinaryCache().get(existingId) : resource;
+    }
+
+    private void insertNewBinaryResource(BinaryResource resource, long locatorId) throws IOException {
+        BinaryType type = resource.getType();
+        String sha1Hash = resource.getSha1Hash();
+        Long id = commonDataSources.nextId(Sequence.BINARY);
+        byte[] data = resource.getData();
+        Map<String,Object> metadata = resource.getMetadata();
+        binaries.append(id, type, metadata, sha1Hash, data);
+        binaries.link(type.mimeType(), locatorId, id);
+        resource.recycle();
+        resource.init(id, type, metadata, sha1Hash, data);
+    }
+
+    @Override
+    protected BinaryResource updateBinaryResource(BinaryResource resource, long locatorId) {
+        BinaryType type = resource.getType();
+        String sha1Hash = resource.getSha1Hash();
+        // the new content, and the old content that may be rewritten in place
+        int newStripe = binaryStripe(type.mimeType(), sha1Hash, resource.getLength());
+        Long existingId = null;
+        boolean done = false;
+        try {
+            while (!done) {
+                int oldStripe = stripeFor(resource.getId(), type, newStripe);
+                synchronized (binaryLock(Math.min(newStripe, oldStripe))) {
+                synchronized (binaryLock(Math.max(newStripe, oldStripe))) {
+                    if (oldStripe != stripeFor(resource.getId(), type, newStripe)) {
+                        continue; // rewritten while we waited, lock its new content instead
+                    }
+                    done = true;
+                    existingId = binaries.findId(type.mimeType(), sha1Hash, resource.getLength());
+                    if (existingId != null && !existingId.equals(resource.getId())) {
+                        binaries.link(type.mimeType(), locatorId, existingId);
+                    } else if (resource.getId() != null && binaries.getReferenceCount(resource.getId()) == 1) {
+                        // only this locator uses it, replace it under the same id
+                        existingId = null;
+                        binaries.append(resource.getId(), type, resource.getMetadata(), sha1Hash, resource.getData());
+                    } else if (existingId != null) {
+                        // unchanged, and still shared
+                        binaries.link(type.mimeType(), locatorId, existingId);
+                    } else {
+                        insertNewBinaryResource(resource, locatorId);
+                    }
+                }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return existingId != null ? commonDataSources.getBinaryCache().get(existingId) : resource;
+    }
+
+    /**
+     * @return The lock stripe of a binary's current content, or otherwise if
+     *     there is no binary with this id.
+     */
+    private int stripeFor(Long id, BinaryType type, int otherwise) {
+        String sha1 = id == null ? null : binaries.getSha1(id);
+        return sha1 == null ? otherwise : binaryStripe(type.mimeType(), sha1, binaries.getLength(id));
+    }
+
+    @Override
+    protected void deleteBinaryResource(BinaryResource resource, long locatorId) {
+        BinaryType type = resource.getType();
+        try {
+            synchronized (binaryLock(stripeFor(resource.getId(), type, binaryStripe(type.mimeType(), resource.getSha1Hash(), resource.getLength())))) {
+                binaries.link(type.mimeType(), locatorId, null);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        resource.recycle();
+    }
+}
@@ -15,6 +15,7 @@ import net.venaglia.realms.common.map.things.AbstractThing;
 import net.venaglia.realms.common.map.things.ThingFactory;
 import net.venaglia.realms.common.map.things.ThingMetadata;
 import net.venaglia.realms.common.map.things.ThingProperties;
+import net.venaglia.realms.common.map.things.annotations.PropertySchemaRegistry;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -59,12 +60,12 @@ public class MemStore extends AbstractDataStore {
     }
 
     @Override
-    protected Tuple2<Long,Long> getNextAvailableIdRange(Sequence seq) {
+    protected Tuple2<Long,Long> getNextAvailableIdRange(Sequence seq, int size) {
         Long begin;
         Long end;
         synchronized (sequences) {
             begin = sequences.get(seq);
-            end = begin + 64L;
+            end = begin + size;
             sequences.put(seq, end);
         }
         return new Pair<Long,Long>(begin, end);
@@ -74,7 +75,9 @@ public class MemStore extends AbstractDataStore {
     protected long lookupNextAvailableInRange(Sequence seq, long from, long to) {
         switch (seq) {
             case THING:
-                return lookupNextAvailableInRange(things, from, to);
+                synchronized (things) {
+                    return lookupNextAvailableInRange(things, from, to);
+                }
             case BINARY:
                 return lookupNextAvailableInRange(binaries, from, to);
         }
@@ -83,23 +86,26 @@ public class MemStore extends AbstractDataStore {
 
     private long lookupNextAvailableInRange(NavigableMap<Long,?> map, long from, long to) {
         NavigableMap<Long,?> subMab = map.subMap(from, true, to, false);
-        return subMab.isEmpty() ? from : subMab.lastKey();
+        return subMab.isEmpty() ? from : subMab.lastKey() + 1;
     }
 
     @Override
     protected void populateCube(Long id, CubeImpl cube) {
         Pair<Long,Long> head = new Pair<Long,Long>(id, 0L);
         Pair<Long,Long> tail = new Pair<Long,Long>(id + 1L, 0L);
-        NavigableSet<Pair<Long,Long>> subset = cubeIndex.subSet(head, true, tail, false);
-        Collection<ThingRefImpl<?>> refs = new ArrayList<ThingRefImpl<?>>(subset.size());
-        for (Pair<Long,Long> entry : subset) {
-            ThingRow row = things.get(entry.getB());
-            if (row != null) {
-                ThingRefImpl<AbstractThing> ref = new ThingRefImpl<AbstractThing>();
-                ThingMetadata<?> metadata = ThingFactory.getFor(row.type).getMetadata();
-                ThingProperties properties = new ThingProperties(metadata, row.properties);
-                ref.load(row.thing_id, row.x, row.y, row.z, metadata, cube, properties);
-                refs.add(ref);
+        Collection<ThingRefImpl<?>> refs;
+        synchronized (things) {
+            NavigableSet<Pair<Long,Long>> subset = cubeIndex.subSet(head, true, tail, false);
+            refs = new ArrayList<ThingRefImpl<?>>(subset.size());
+            for (Pair<Long,Long> entry : subset) {
+                ThingRow row = things.get(entry.getB());
+                if (row != null) {
+                    ThingRefImpl<AbstractThing> ref = new ThingRefImpl<AbstractThing>();
+                    ThingMetadata<?> metadata = ThingFactory.getFor(row.type).getMetadata();
+                    ThingProperties properties = new ThingProperties(metadata, row.properties);
+                    ref.load(row.thing_id, row.x, row.y, row.z, metadata, cube, properties);
+                    refs.add(ref);
+                }
             }
         }
         thingCache.seed(refs);
@@ -107,6 +113,12 @@ public class MemStore extends AbstractDataStore {
 
     @Override
     protected void write(BufferedUpdates bufferedUpdates) {
+        synchronized (things) {
+            writeImpl(bufferedUpdates);
+        }
+    }
+
+    private void writeImpl(BufferedUpdates bufferedUpdates) {
         for (BufferedUpdates.UpdatedFields updatedFields : BufferedUpdates.UpdatedFields.values()) {
             Collection<BufferedUpdates.Delta> subset = bufferedUpdates.subset(updatedFields);
             char mode = modes.get(updatedFields);
@@ -124,6 +136,8 @@ public class MemStore extends AbstractDataStore {
                             entry = new Pair<Long,Long>(delta.getCubeId(), delta.getId());
                             cubeIndex.add(entry);
                             row = new ThingRow();
+                            row.thing_id = delta.getId();
+                            row.type = delta.getType();
                             things.put(delta.getId(), populateRow(delta, updatedFields, row));
                             break;
                         }
@@ -159,7 +173,10 @@ public class MemStore extends AbstractDataStore {
 
     @Override
     protected <T extends AbstractThing> void populateRef(Long id, ThingRefImpl<T> ref) {
-        ThingRow row = things.get(id);
+        ThingRow row;
+        synchronized (things) {
+            row = things.get(id);
+        }
         if (row != null) {
             ThingMetadata<T> metadata = ThingFactory.<T>getFor(row.type).getMetadata();
             CubeImpl cube = cubeCache.get(row.cube_id);
@@ -364,6 +381,7 @@ public class MemStore extends AbstractDataStore {
                 sequences.put(sequence, 1000L);
             }
             bootstrapPersistentProperties();
+            PropertySchemaRegistry.bind(propertyStore, true, uuid);
         }
     }
 
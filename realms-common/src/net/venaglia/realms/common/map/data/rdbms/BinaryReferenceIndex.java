@@ -0,0 +1,186 @@
+package net.venaglia.realms.common.map.data.rdbms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 8:05 PM
+ *
+ * In-memory copy of the content hash and reference count columns of
+ * thing_binary, so de-duplication checks and reference counting don't
+ * need to read the database. Reference counts are rebuilt from
+ * thing_binary_locator when the index is loaded, so the locator rows are
+ * the only record that has to be right after a crash. Count changes are
+ * applied here immediately, and the ids that changed are remembered so
+ * their counts can be written in a batch.
+ *
+ * Each method is atomic on its own. A check-then-act sequence that also
+ * writes to the database holds the stripe lock of the content it works
+ * on, see {@link #stripeFor(String, String, int)}, rather than the whole
+ * index, so writes of different content don't wait on each other. Two
+ * stripes are always locked lowest first.
+ */
+class BinaryReferenceIndex {
+
+    private static final int LOCK_STRIPES = 64; // must be a power of two
+
+    private final Map<String,Long> idsByContent = new HashMap<String,Long>();
+    private final Map<Long,String> contentById = new HashMap<Long,String>();
+    private final Map<Long,Integer> referenceCounts = new HashMap<Long,Integer>();
+    private final Set<Long> changed = new HashSet<Long>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    BinaryReferenceIndex() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private volatile boolean loaded;
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    synchronized void setLoaded() {
+        loaded = true;
+    }
+
+    /**
+     * Adds a row as it exists in the database, with the number of locators
+     * that point to it. Rows that nothing points to, or whose stored count
+     * was wrong, are marked as changed.
+     */
+    synchronized void load(Long id, String mimetype, String sha1, int length, int storedCount, int referenceCount) {
+        put(id, mimetype, sha1, length);
+        referenceCounts.put(id, referenceCount);
+        if (referenceCount <= 0 || referenceCount != storedCount) {
+            changed.add(id);
+        }
+    }
+
+    /**
+     * Adds a newly inserted row, which starts with one reference.
+     */
+    synchronized void add(Long id, String mimetype, String sha1, int length) {
+        put(id, mimetype, sha1, length);
+        referenceCounts.put(id, 1);
+    }
+
+    /**
+     * Records that the content of a row was replaced in the database.
+     */
+    synchronized void replace(Long id, String mimetype, String sha1, int length) {
+        put(id, mimetype, sha1, length);
+    }
+
+    synchronized Long findId(String mimetype, String sha1, int length) {
+        return idsByContent.get(contentKey(mimetype, sha1, length));
+    }
+
+    /**
+     * @return The current reference count, or -1 if the row is unknown.
+     */
+    synchronized int getReferenceCount(Long id) {
+        Integer count = referenceCounts.get(id);
+        return count == null ? -1 : count;
+    }
+
+    synchronized void addReferences(Long id, int delta) {
+        Integer count = referenceCounts.get(id);
+        if (count == null) {
+            return; // deleted, or never loaded
+        }
+        referenceCounts.put(id, count + delta);
+        changed.add(id);
+    }
+
+    synchronized boolean hasChanges() {
+        return !changed.isEmpty();
+    }
+
+    /**
+     * Removes and returns the current count of every row changed since the
+     * last drain. If they can't be written, hand them back with
+     * {@link #restoreChanges(Map)}.
+     */
+    synchronized Map<Long,Integer> drainChanges() {
+        Map<Long,Integer> counts = new HashMap<Long,Integer>(changed.size() * 2);
+        for (Long id : changed) {
+            Integer count = referenceCounts.get(id);
+            if (count != null) {
+                counts.put(id, count);
+            }
+        }
+        changed.clear();
+        return counts;
+    }
+
+    synchronized void restoreChanges(Map<Long,Integer> counts) {
+        changed.addAll(counts.keySet());
+    }
+
+    /**
+     * @return The ids, among those passed, that are no longer referenced.
+     */
+    synchronized List<Long> getUnreferenced(Iterable<Long> ids) {
+        List<Long> unreferenced = new ArrayList<Long>();
+        for (Long id : ids) {
+            Integer count = referenceCounts.get(id);
+            if (count != null && count <= 0) {
+                unreferenced.add(id);
+            }
+        }
+        return unreferenced;
+    }
+
+    synchronized void remove(Long id) {
+        String key = contentById.remove(id);
+        if (key != null && id.equals(idsByContent.get(key))) {
+            idsByContent.remove(key);
+        }
+        referenceCounts.remove(id);
+        changed.remove(id);
+    }
+
+    int stripeFor(String mimetype, String sha1, int length) {
+        return stripeFor(contentKey(mimetype, sha1, length));
+    }
+
+    /**
+     * @return The lock stripe of a row's content, or -1 if the row is
+     *     unknown.
+     */
+    synchronized int stripeFor(Long id) {
+        String key = id == null ? null : contentById.get(id);
+        return key == null ? -1 : stripeFor(key);
+    }
+
+    Object lock(int stripe) {
+        return locks[stripe];
+    }
+
+    private static int stripeFor(String contentKey) {
+        int h = contentKey.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    private void put(Long id, String mimetype, String sha1, int length) {
+        String key = contentKey(mimetype, sha1, length);
+        String previous = contentById.put(id, key);
+        if (previous != null && !previous.equals(key) && id.equals(idsByContent.get(previous))) {
+            idsByContent.remove(previous);
+        }
+        idsByContent.put(key, id);
+    }
+
+    private static String contentKey(String mimetype, String sha1, int length) {
+        return mimetype + ":" + sha1 + ":" + length;
+    }
+}
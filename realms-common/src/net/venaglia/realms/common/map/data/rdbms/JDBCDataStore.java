@@ -18,6 +18,7 @@ import net.venaglia.realms.common.map.data.Sequence;
 import net.venaglia.realms.common.map.data.ThingRefImpl;
 import net.venaglia.realms.common.map.things.ThingFactory;
 import net.venaglia.realms.common.map.things.ThingMetadata;
+import net.venaglia.realms.common.map.things.annotations.PropertySchemaRegistry;
 import net.venaglia.realms.common.map.things.ThingProperties;
 import net.venaglia.realms.common.map.things.AbstractThing;
 import net.venaglia.common.util.ThreadSingletonSource;
@@ -38,9 +39,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.SortedMap;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -53,12 +58,38 @@ import java.util.regex.Pattern;
 public class JDBCDataStore extends AbstractDataStore {
 
     private static final boolean RESET_DATABASE = "true".equals(System.getProperty("data.reset", "false"));
-    private static final Integer INCREMENT = 1;
-    private static final Integer DECREMENT = -1;
+    private static final int INCREMENT = 1;
+    private static final int DECREMENT = -1;
+    private static final int MULTI_ROW_CHUNK = 1000; // 8 params per insert row, well under the 32767 limit
+    private static final UpdatedFields[] WRITE_ORDER = {
+            UpdatedFields.InsertThing,
+            UpdatedFields.UpdatePosition,
+            UpdatedFields.UpdatePositionAndCube,
+            UpdatedFields.UpdateProperties,
+            UpdatedFields.UpdatePropertiesAndPosition,
+            UpdatedFields.UpdatePropertiesPositionAndCube,
+            UpdatedFields.DeleteThing
+    };
 
     private PooledDataSource cpds;
     private UUID instanceUuid;
     private boolean readonly = true;
+    private final BinaryReferenceIndex binaryIndex = new BinaryReferenceIndex();
+    private final boolean multiRowWrites;
+    private boolean mergeRows = false; // H2 has no ON CONFLICT or UPDATE ... FROM, but MERGE ... KEY does both
+
+    public JDBCDataStore() {
+        this(!"false".equals(System.getProperty("data.multiRowWrites", "true")));
+    }
+
+    /**
+     * @param multiRowWrites true to write each checkpoint as multi-row
+     *     statements in one transaction, false for the original batched,
+     *     auto-committed path.
+     */
+    public JDBCDataStore(boolean multiRowWrites) {
+        this.multiRowWrites = multiRowWrites;
+    }
 
     public void init() {
         readonly = Configuration.DATABASE_HARMLESS.getBoolean(false);
@@ -67,6 +98,7 @@ public class JDBCDataStore extends AbstractDataStore {
             throw new IllegalArgumentException("maxPoolSize must be positive: " + maxPoolSize);
         }
         cpds = buildDataSource(maxPoolSize);
+        mergeRows = "H2".equals(getDatabaseProductName());
 
         if (readonly) {
             System.out.println("Database is READ ONLY");
@@ -79,6 +111,7 @@ public class JDBCDataStore extends AbstractDataStore {
             loadUUID();
             runUpgrades();
         }
+        PropertySchemaRegistry.bind(propertyStore, !readonly, instanceUuid);
     }
 
     private PooledDataSource buildDataSource(int maxPoolSize) {
@@ -97,6 +130,18 @@ public class JDBCDataStore extends AbstractDataStore {
         return cpds;
     }
 
+    private String getDatabaseProductName() {
+        Connection con = null;
+        try {
+            con = cpds.getConnection();
+            return con.getMetaData().getDatabaseProductName();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            close(con);
+        }
+    }
+
     private int reduce(int base, int magnitude, int lowerLimit) {
         return Math.max(base >> magnitude, Math.min(base, lowerLimit));
     }
@@ -207,7 +252,7 @@ public class JDBCDataStore extends AbstractDataStore {
     }
 
     private List<String> loadUpgradeSQL() {
-        InputStream stream = getClass().getResourceAsStream("upgrade.sql");
+        InputStream stream = JDBCDataStore.class.getResourceAsStream("upgrade.sql"); // subclasses live in other packages
         Reader sqlIn = new InputStreamReader(stream, Charset.forName("UTF-8"));
         StringBuilder buffer = new StringBuilder(1024);
         try {
@@ -352,15 +397,15 @@ public class JDBCDataStore extends AbstractDataStore {
     }
 
     @Override
-    protected Tuple2<Long,Long> getNextAvailableIdRange(Sequence sequence) {
+    protected Tuple2<Long,Long> getNextAvailableIdRange(Sequence sequence, int size) {
         long next;
         do {
             next = runSingleValueQuery("SELECT next FROM thing_seq WHERE name = ?", Long.MIN_VALUE, sequence.name());
             if (next == Long.MIN_VALUE) {
                 runUpdateQuery("INSERT INTO thing_seq (name) VALUES (?)", sequence.name());
             }
-        } while (runUpdateQuery("UPDATE thing_seq SET next = ? WHERE next = ?", next + 64, next) == 0);
-        return new Pair<Long,Long>(next, next + 64);
+        } while (runUpdateQuery("UPDATE thing_seq SET next = ? WHERE name = ? AND next = ?", next + size, sequence.name(), next) == 0);
+        return new Pair<Long,Long>(next, next + size);
     }
 
     @Override
@@ -387,6 +432,22 @@ public class JDBCDataStore extends AbstractDataStore {
         thingCache.seed(list);
     }
 
+    @Override
+    protected void populateCubes(SortedMap<Long,CubeImpl> cubes) {
+        if (cubes.size() == 1) {
+            populateCube(cubes.firstKey(), cubes.get(cubes.firstKey()));
+            return;
+        }
+        StringBuilder cubeIds = new StringBuilder(cubes.size() * 12);
+        for (Long cubeId : cubes.keySet()) {
+            cubeIds.append(cubeIds.length() == 0 ? "{" : ",").append(cubeId);
+        }
+        cubeIds.append("}");
+        RowMapper<ThingRefImpl<AbstractThing>> rowMapper = thingRefRowMapper.get().init(cubes);
+        List<ThingRefImpl<AbstractThing>> list = runSelectQuery(rowMapper, "SELECT * FROM thing WHERE cube_id = ANY(?::bigint[])", cubeIds.toString());
+        thingCache.seed(list);
+    }
+
     @Override
     protected <T extends AbstractThing> void populateRef(final Long id, final ThingRefImpl<T> ref) {
         runSelectQuery(singleThingRefRowVisitor.get().init(ref, id), "SELECT * FROM thing WHERE thing_id = ?", id);
@@ -397,6 +458,86 @@ public class JDBCDataStore extends AbstractDataStore {
         if (readonly) {
             throw new IllegalStateException("Denying write access to readonly database");
         }
+        if (!multiRowWrites) {
+            writeBatched(bufferedUpdates);
+            return;
+        }
+        Connection con = null;
+        boolean committed = false;
+        try {
+            con = cpds.getConnection();
+            con.setAutoCommit(false);
+            for (UpdatedFields updatedFields : WRITE_ORDER) {
+                if (bufferedUpdates.has(updatedFields)) {
+                    writeMultiRow(con, updatedFields, bufferedUpdates.subset(updatedFields));
+                }
+            }
+            con.commit();
+            committed = true;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (con != null) {
+                rollbackUnless(committed, con);
+            }
+            close(con);
+        }
+    }
+
+    /**
+     * Writes a subset of deltas as multi-row statements, one round trip per
+     * {@link #MULTI_ROW_CHUNK} rows, rather than one statement per row.
+     */
+    private void writeMultiRow(Connection con, UpdatedFields updatedFields, Collection<Delta> deltas)
+            throws SQLException {
+        List<Delta> chunk = new ArrayList<Delta>(Math.min(deltas.size(), MULTI_ROW_CHUNK));
+        String fullChunkSql = null;
+        Iterator<Delta> iterator = deltas.iterator();
+        while (iterator.hasNext()) {
+            chunk.clear();
+            while (iterator.hasNext() && chunk.size() < MULTI_ROW_CHUNK) {
+                chunk.add(iterator.next());
+            }
+            String sql;
+            if (chunk.size() == MULTI_ROW_CHUNK) {
+                if (fullChunkSql == null) {
+                    fullChunkSql = getMultiRowSql(updatedFields, MULTI_ROW_CHUNK);
+                }
+                sql = fullChunkSql;
+            } else {
+                sql = getMultiRowSql(updatedFields, chunk.size());
+            }
+            PreparedStatement ps = null;
+            try {
+                ps = con.prepareStatement(sql);
+                int index = 1;
+                for (Delta delta : chunk) {
+                    index = setMultiRowParams(updatedFields, delta, ps, index);
+                }
+                ps.executeUpdate();
+            } finally {
+                close(ps, null);
+            }
+        }
+    }
+
+    private void rollbackUnless(boolean committed, Connection con) {
+        try {
+            if (!committed) {
+                con.rollback();
+            }
+            con.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The original write path: one JDBC batch per {@link UpdatedFields}
+     * subset, each statement auto-committed. Kept for comparison, see
+     * "data.multiRowWrites".
+     */
+    protected void writeBatched(BufferedUpdates bufferedUpdates) {
         Connection con = null;
         PreparedStatement ps = null;
         try {
@@ -437,12 +578,27 @@ public class JDBCDataStore extends AbstractDataStore {
     protected BinaryResource insertBinaryResource(BinaryResource resource, long locatorId) {
         BinaryType type = resource.getType();
         String sha1Hash = resource.getSha1Hash();
-        long existingId = runSingleValueQuery("SELECT thing_binary_id FROM thing_binary WHERE mimetype = ? AND sha1 = ? AND length = ?",
-                                              Long.MIN_VALUE, type.mimeType(), sha1Hash, resource.getLength());
-        if (existingId != Long.MIN_VALUE) {
-            bumpBinaryResourceReferenceCount(existingId, INCREMENT);
+        BinaryReferenceIndex index = getBinaryIndex();
+        Long existingId;
+        synchronized (index.lock(index.stripeFor(type.mimeType(), sha1Hash, resource.getLength()))) {
+            existingId = index.findId(type.mimeType(), sha1Hash, resource.getLength());
+            if (existingId != null) {
+                runUpdateQuery("INSERT INTO thing_binary_locator (locator_id, mimetype, thing_binary_id) VALUES (?, ?, ?)", locatorId, type.mimeType(), existingId);
+                index.addReferences(existingId, INCREMENT);
+            } else {
+                insertNewBinaryResource(index, resource, locatorId);
+            }
+        }
+        if (existingId != null) {
+            deferredWritesPending();
             return commonDataSources.getBinaryCache().get(existingId);
         }
+        return resource;
+    }
+
+    private void insertNewBinaryResource(BinaryReferenceIndex index, BinaryResource resource, long locatorId) {
+        BinaryType type = resource.getType();
+        String sha1Hash = resource.getSha1Hash();
         Long id = commonDataSources.nextId(Sequence.BINARY);
         byte[] data = resource.getData();
         ReusableByteStream dataStream = ReusableByteStream.get().load(data);
@@ -456,9 +612,9 @@ public class JDBCDataStore extends AbstractDataStore {
                            resource.getLength(),
                            dataStream);
             runUpdateQuery("INSERT INTO thing_binary_locator (locator_id, mimetype, thing_binary_id) VALUES (?, ?, ?)", locatorId, type.mimeType(), id);
+            index.add(id, type.mimeType(), sha1Hash, data.length);
             resource.recycle();
             resource.init(id, type, metadata, sha1Hash, data);
-            return resource;
         } finally {
             ReusableByteStream.recycle(dataStream);
         }
@@ -468,50 +624,180 @@ public class JDBCDataStore extends AbstractDataStore {
     protected BinaryResource updateBinaryResource(BinaryResource resource, long locatorId) {
         BinaryType type = resource.getType();
         String sha1Hash = resource.getSha1Hash();
-        long existingId = runSingleValueQuery("SELECT thing_binary_id FROM thing_binary WHERE mimetype = ? AND sha1 = ? AND length = ?",
-                                              Long.MIN_VALUE, type.mimeType(), sha1Hash, resource.getLength());
-        if (existingId != Long.MIN_VALUE && existingId != resource.getId()) {
-            bumpBinaryResourceReferenceCount(existingId, INCREMENT);
-            runUpdateQuery("UPDATE thing_binary_locator SET thing_binary_id = ? WHERE locator_id = ? AND mimetype = ?",
-                           existingId, locatorId, resource.getType().mimeType());
-            deleteResourceReferenceCount(resource);
+        BinaryReferenceIndex index = getBinaryIndex();
+        // the new content, and the old content that may be overwritten in place
+        int newStripe = index.stripeFor(type.mimeType(), sha1Hash, resource.getLength());
+        int oldStripe = index.stripeFor(resource.getId());
+        if (oldStripe < 0) {
+            oldStripe = newStripe;
+        }
+        Long existingId;
+        synchronized (index.lock(Math.min(newStripe, oldStripe))) {
+        synchronized (index.lock(Math.max(newStripe, oldStripe))) {
+            existingId = index.findId(type.mimeType(), sha1Hash, resource.getLength());
+            if (existingId != null && !existingId.equals(resource.getId())) {
+                // same content as another binary, share it
+                runUpdateQuery("UPDATE thing_binary_locator SET thing_binary_id = ? WHERE locator_id = ? AND mimetype = ?",
+                               existingId, locatorId, type.mimeType());
+                index.addReferences(existingId, INCREMENT);
+                index.addReferences(resource.getId(), DECREMENT);
+            } else {
+                existingId = null;
+                int count = resource.getId() == null ? -1 : index.getReferenceCount(resource.getId());
+                if (count == 1) {
+                    ReusableByteStream stream = ReusableByteStream.get();
+                    try {
+                        stream.load(resource.getData());
+                        runUpdateQuery("UPDATE thing_binary SET metadata = ?, sha1 = ?, length = ?, data = ? WHERE thing_binary_id = ?",
+                                       type.encodeMetadata(resource.getMetadata()),
+                                       sha1Hash,
+                                       resource.getLength(),
+                                       stream,
+                                       resource.getId());
+                    } finally {
+                        ReusableByteStream.recycle(stream);
+                    }
+                    index.replace(resource.getId(), type.mimeType(), sha1Hash, resource.getLength());
+                } else {
+                    if (count > 1) {
+                        // shared with other locators, this one gets its own copy
+                        unlinkBinaryResource(index, resource, locatorId);
+                    }
+                    insertNewBinaryResource(index, resource, locatorId);
+                }
+            }
+        }
+        }
+        if (existingId != null) {
+            deferredWritesPending();
             return commonDataSources.getBinaryCache().get(existingId);
         }
-        long count = runSingleValueQuery("SELECT reference_count FROM thing_binary WHERE thing_binary_id = ?",
-                                         Long.MIN_VALUE,
-                                         resource.getId());
-        if (count == Long.MIN_VALUE) {
-            return insertBinaryResource(resource, locatorId);
+        return resource;
+    }
+
+    @Override
+    protected void deleteBinaryResource(BinaryResource resource, long locatorId) {
+        BinaryReferenceIndex index = getBinaryIndex();
+        int stripe = index.stripeFor(resource.getId());
+        if (stripe < 0) {
+            stripe = index.stripeFor(resource.getType().mimeType(), resource.getSha1Hash(), resource.getLength());
+        }
+        synchronized (index.lock(stripe)) {
+            unlinkBinaryResource(index, resource, locatorId);
         }
-        if (count == 1) {
-            ReusableByteStream stream = ReusableByteStream.get();
-            try {
-                stream.load(resource.getData());
-                runUpdateQuery("UPDATE thing_binary SET metadata = ?, sha1 = ?, length = ?, data = ? WHERE thing_binary_id = ?",
-                               resource.getType().encodeMetadata(resource.getMetadata()),
-                               resource.getSha1Hash(),
-                               resource.getLength(),
-                               stream,
-                               resource.getId());
-            } catch (Exception e) {
-                ReusableByteStream.recycle(stream);
+        resource.recycle();
+    }
+
+    private void unlinkBinaryResource(BinaryReferenceIndex index, BinaryResource resource, long locatorId) {
+        runUpdateQuery("DELETE FROM thing_binary_locator WHERE locator_id = ? AND mimetype = ?", locatorId, resource.getType().mimeType());
+        index.addReferences(resource.getId(), DECREMENT);
+        deferredWritesPending();
+    }
+
+    /**
+     * @return The lock stripe that insert and update hold while they check
+     *     and change binaries with this content. Subclasses that keep
+     *     binaries elsewhere hold the same stripes, locking two lowest first.
+     */
+    protected final int binaryStripe(String mimetype, String sha1, int length) {
+        return binaryIndex.stripeFor(mimetype, sha1, length);
+    }
+
+    protected final Object binaryLock(int stripe) {
+        return binaryIndex.lock(stripe);
+    }
+
+    private BinaryReferenceIndex getBinaryIndex() {
+        if (!binaryIndex.isLoaded()) {
+            synchronized (binaryIndex) {
+                if (!binaryIndex.isLoaded()) {
+                    // counts come from the locators, the stored counts may lag them after a crash
+                    runSelectQuery(new RowVisitor() {
+                        public void visit(ResultSet rs) throws SQLException {
+                            binaryIndex.load(rs.getLong("thing_binary_id"),
+                                             rs.getString("mimetype"),
+                                             rs.getString("sha1"),
+                                             rs.getInt("length"),
+                                             rs.getInt("reference_count"),
+                                             rs.getInt("locator_count"));
+                        }
+                    }, "SELECT b.thing_binary_id, b.mimetype, b.sha1, b.length, b.reference_count, " +
+                       "(SELECT COUNT(*) FROM thing_binary_locator l WHERE l.thing_binary_id = b.thing_binary_id) AS locator_count " +
+                       "FROM thing_binary b");
+                    binaryIndex.setLoaded();
+                    if (binaryIndex.hasChanges() && !readonly) {
+                        deferredWritesPending();
+                    }
+                }
             }
-            return resource;
         }
-        deleteBinaryResource(resource, locatorId);
-        return insertBinaryResource(resource, locatorId);
+        return binaryIndex;
     }
 
-    private void deleteResourceReferenceCount(BinaryResource resource) {
-        bumpBinaryResourceReferenceCount(resource.getId(), DECREMENT);
-        runUpdateQuery("DELETE FROM thing_binary WHERE thing_binary_id = ? AND reference_count <= 0", resource.getId());
+    /**
+     * Writes the current reference count of every binary changed since the
+     * last flush as one batch, then deletes the binaries that are no longer
+     * referenced. Locator rows are written as they change; the counts
+     * written here are only a copy of them, rebuilt on load, so a batch
+     * lost to a crash costs nothing. A failed batch is put back, to be
+     * written on the next flush.
+     */
+    @Override
+    protected void flushDeferredWrites() {
+        if (readonly || !binaryIndex.isLoaded() || !binaryIndex.hasChanges()) {
+            return;
+        }
+        Map<Long,Integer> counts = binaryIndex.drainChanges();
+        Connection con = null;
+        PreparedStatement ps = null;
+        boolean committed = false;
+        try {
+            con = cpds.getConnection();
+            con.setAutoCommit(false);
+            ps = con.prepareStatement("UPDATE thing_binary SET reference_count = ? WHERE thing_binary_id = ?");
+            for (Map.Entry<Long,Integer> entry : counts.entrySet()) {
+                ps.setInt(1, Math.max(0, entry.getValue()));
+                ps.setLong(2, entry.getKey());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            con.commit();
+            committed = true;
+        } catch (SQLException e) {
+            binaryIndex.restoreChanges(counts);
+            throw new RuntimeException(e);
+        } finally {
+            close(ps, null);
+            if (con != null) {
+                rollbackUnless(committed, con);
+            }
+            close(con);
+        }
+        for (Long id : binaryIndex.getUnreferenced(counts.keySet())) {
+            deleteUnreferencedBinary(id);
+        }
     }
 
-    @Override
-    protected void deleteBinaryResource(BinaryResource resource, long locatorId) {
-        runUpdateQuery("DELETE FROM thing_binary_locator WHERE locator_id = ? AND mimetype = ?", locatorId, resource.getType().mimeType());
-        deleteResourceReferenceCount(resource);
-        resource.recycle();
+    /**
+     * Deletes a binary while holding its content's stripe, so that it can't
+     * be shared by a concurrent insert of the same content, and only if no
+     * locator points to it.
+     */
+    private void deleteUnreferencedBinary(Long id) {
+        int stripe = binaryIndex.stripeFor(id);
+        if (stripe < 0) {
+            return; // already gone
+        }
+        synchronized (binaryIndex.lock(stripe)) {
+            if (binaryIndex.getReferenceCount(id) > 0) {
+                return; // shared again since the flush began
+            }
+            long deleted = runUpdateQuery("DELETE FROM thing_binary WHERE thing_binary_id = ? AND NOT EXISTS " +
+                                          "(SELECT 1 FROM thing_binary_locator l WHERE l.thing_binary_id = thing_binary.thing_binary_id)", id);
+            if (deleted > 0) {
+                binaryIndex.remove(id);
+            }
+        }
     }
 
     @Override
@@ -533,10 +819,124 @@ public class JDBCDataStore extends AbstractDataStore {
         runUpdateQuery("DELETE FROM thing_props WHERE name = ?", name);
     }
 
-    private void bumpBinaryResourceReferenceCount(Long binaryResourceId, Integer by) {
-        runUpdateQuery("UPDATE thing_binary SET reference_count = reference_count + ? WHERE thing_binary_id = ?",
-                       by,
-                       binaryResourceId);
+    private String getMultiRowSql(UpdatedFields updatedFields, int rows) {
+        StringBuilder buffer = new StringBuilder(64 + rows * 64);
+        if (mergeRows && !updatedFields.isDelete()) {
+            return getMergeSql(buffer, updatedFields, rows);
+        }
+        switch (updatedFields) {
+            case DeleteThing:
+                buffer.append("DELETE FROM thing WHERE thing_id IN (");
+                for (int i = 0; i < rows; i++) {
+                    buffer.append(i == 0 ? "?" : ", ?");
+                }
+                return buffer.append(")").toString();
+            case InsertThing:
+                buffer.append("INSERT INTO thing (thing_id, cube_id, type, x, y, z, properties_length, properties) VALUES ");
+                for (int i = 0; i < rows; i++) {
+                    buffer.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, ?, ?)");
+                }
+                return buffer.append(" ON CONFLICT (thing_id) DO UPDATE SET cube_id = EXCLUDED.cube_id, type = EXCLUDED.type, ")
+                             .append("x = EXCLUDED.x, y = EXCLUDED.y, z = EXCLUDED.z, ")
+                             .append("properties_length = EXCLUDED.properties_length, properties = EXCLUDED.properties")
+                             .toString();
+        }
+        // UPDATE ... FROM (VALUES ...) applies every row in one statement
+        List<String> columns = new ArrayList<String>(7);
+        List<String> casts = new ArrayList<String>(7);
+        columns.add("thing_id");
+        casts.add("::bigint");
+        if (updatedFields.updateCubeId()) {
+            columns.add("cube_id");
+            casts.add("::bigint");
+        }
+        if (updatedFields.updatePosition()) {
+            columns.addAll(Arrays.asList("x", "y", "z"));
+            casts.addAll(Arrays.asList("::numeric", "::numeric", "::numeric"));
+        }
+        if (updatedFields.updateProperties()) {
+            columns.addAll(Arrays.asList("properties_length", "properties"));
+            casts.addAll(Arrays.asList("::integer", "::bytea"));
+        }
+        buffer.append("UPDATE thing SET ");
+        for (int i = 1, l = columns.size(); i < l; i++) {
+            String column = columns.get(i);
+            buffer.append(i == 1 ? "" : ", ").append(column).append(" = v.").append(column);
+        }
+        buffer.append(" FROM (VALUES ");
+        for (int i = 0; i < rows; i++) {
+            buffer.append(i == 0 ? "(" : ", (");
+            for (int j = 0, l = casts.size(); j < l; j++) {
+                buffer.append(j == 0 ? "?" : ", ?").append(casts.get(j));
+            }
+            buffer.append(")");
+        }
+        buffer.append(") AS v (");
+        for (int i = 0, l = columns.size(); i < l; i++) {
+            buffer.append(i == 0 ? "" : ", ").append(columns.get(i));
+        }
+        return buffer.append(") WHERE thing.thing_id = v.thing_id").toString();
+    }
+
+    /**
+     * Same columns, in the same order, as {@link #getMultiRowSql(UpdatedFields, int)},
+     * as one MERGE ... KEY statement. Existing rows only have the listed
+     * columns updated.
+     */
+    private String getMergeSql(StringBuilder buffer, UpdatedFields updatedFields, int rows) {
+        List<String> columns = new ArrayList<String>(8);
+        columns.add("thing_id");
+        if (updatedFields.updateCubeId()) {
+            columns.add("cube_id");
+        }
+        if (updatedFields.isInsert()) {
+            columns.add("type");
+        }
+        if (updatedFields.updatePosition()) {
+            columns.addAll(Arrays.asList("x", "y", "z"));
+        }
+        if (updatedFields.updateProperties()) {
+            columns.addAll(Arrays.asList("properties_length", "properties"));
+        }
+        buffer.append("MERGE INTO thing (");
+        for (int i = 0, l = columns.size(); i < l; i++) {
+            buffer.append(i == 0 ? "" : ", ").append(columns.get(i));
+        }
+        buffer.append(") KEY (thing_id) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            buffer.append(i == 0 ? "(" : ", (");
+            for (int j = 0, l = columns.size(); j < l; j++) {
+                buffer.append(j == 0 ? "?" : ", ?");
+            }
+            buffer.append(")");
+        }
+        return buffer.toString();
+    }
+
+    @SuppressWarnings("SuspiciousNameCombination")
+    private int setMultiRowParams(UpdatedFields updatedFields, Delta delta, PreparedStatement ps, int index)
+            throws SQLException {
+        ps.setLong(index++, delta.getId());
+        if (updatedFields.isDelete()) {
+            return index;
+        }
+        if (updatedFields.isInsert()) {
+            ps.setLong(index++, delta.getCubeId());
+            ps.setString(index++, delta.getType());
+        } else if (updatedFields.updateCubeId()) {
+            ps.setLong(index++, delta.getCubeId());
+        }
+        if (updatedFields.updatePosition()) {
+            Point position = delta.getPosition();
+            ps.setDouble(index++, position.x);
+            ps.setDouble(index++, position.y);
+            ps.setDouble(index++, position.z);
+        }
+        if (updatedFields.updateProperties()) {
+            ps.setInt(index++, delta.getPropertiesLength());
+            ps.setBytes(index++, delta.getProperties());
+        }
+        return index;
     }
 
     private String getSql(UpdatedFields updatedFields) {
@@ -571,11 +971,12 @@ public class JDBCDataStore extends AbstractDataStore {
             case InsertThing:
                 ps.setObject(1, delta.getId());
                 ps.setObject(2, delta.getCubeId());
-                ps.setDouble(3, position.x);
-                ps.setDouble(4, position.y);
-                ps.setDouble(5, position.z);
-                ps.setInt(6, delta.getPropertiesLength());
-                ps.setBlob(7, delta.getPropertiesStream());
+                ps.setString(3, delta.getType());
+                ps.setDouble(4, position.x);
+                ps.setDouble(5, position.y);
+                ps.setDouble(6, position.z);
+                ps.setInt(7, delta.getPropertiesLength());
+                ps.setBinaryStream(8, delta.getPropertiesStream(), delta.getPropertiesLength());
                 break;
             case UpdatePosition:
                 ps.setDouble(1, position.x);
@@ -592,7 +993,7 @@ public class JDBCDataStore extends AbstractDataStore {
                 break;
             case UpdateProperties:
                 ps.setInt(1, delta.getPropertiesLength());
-                ps.setBlob(2, delta.getPropertiesStream());
+                ps.setBinaryStream(2, delta.getPropertiesStream(), delta.getPropertiesLength());
                 ps.setObject(3, delta.getId());
                 break;
             case UpdatePropertiesAndPosition:
@@ -600,7 +1001,7 @@ public class JDBCDataStore extends AbstractDataStore {
                 ps.setDouble(2, position.y);
                 ps.setDouble(3, position.z);
                 ps.setInt(4, delta.getPropertiesLength());
-                ps.setBlob(5, delta.getPropertiesStream());
+                ps.setBinaryStream(5, delta.getPropertiesStream(), delta.getPropertiesLength());
                 ps.setObject(6, delta.getId());
                 break;
             case UpdatePropertiesPositionAndCube:
@@ -609,7 +1010,7 @@ public class JDBCDataStore extends AbstractDataStore {
                 ps.setDouble(3, position.y);
                 ps.setDouble(4, position.z);
                 ps.setInt(5, delta.getPropertiesLength());
-                ps.setBlob(6, delta.getPropertiesStream());
+                ps.setBinaryStream(6, delta.getPropertiesStream(), delta.getPropertiesLength());
                 ps.setObject(7, delta.getId());
                 break;
         }
@@ -731,9 +1132,17 @@ public class JDBCDataStore extends AbstractDataStore {
     protected class ThingRefRowMapper implements RowMapper<ThingRefImpl<AbstractThing>> {
 
         private CubeImpl cube;
+        private Map<Long,CubeImpl> cubes;
 
         public RowMapper<ThingRefImpl<AbstractThing>> init(CubeImpl cube) {
             this.cube = cube;
+            this.cubes = null;
+            return this;
+        }
+
+        public RowMapper<ThingRefImpl<AbstractThing>> init(Map<Long,CubeImpl> cubes) {
+            this.cube = null;
+            this.cubes = cubes;
             return this;
         }
 
@@ -749,10 +1158,11 @@ public class JDBCDataStore extends AbstractDataStore {
             double z = rs.getDouble("z");
             int length = rs.getInt("properties_length");
             byte[] data = length == 0 ? null : read(rs.getBinaryStream("properties"), length);
-            return build(id, x, y, z, type, data);
+            CubeImpl cube = cubes == null ? this.cube : cubes.get(rs.getLong("cube_id"));
+            return build(id, x, y, z, type, cube, data);
         }
 
-        private ThingRefImpl<AbstractThing> build(Long id, double x, double y, double z, ThingFactory<? extends AbstractThing> factory, byte[] data) {
+        private ThingRefImpl<AbstractThing> build(Long id, double x, double y, double z, ThingFactory<? extends AbstractThing> factory, CubeImpl cube, byte[] data) {
             ThingRefImpl<AbstractThing> ref = createEmptyRef();
             ThingMetadata<? extends AbstractThing> metadata = factory.getMetadata();
             ref.load(id, x, y, z, metadata, cube, new ThingProperties(metadata, data));
@@ -286,4 +286,18 @@ public abstract class AbstractThing implements Thing {
         thing.recycle();
     }
 
+    /**
+     * Unlocked peek at whether this thing has changes that are not yet
+     * persisted. Safe to call while holding other locks, but may be stale.
+     */
+    public static boolean isDirty(AbstractThing thing) {
+        switch (thing.status) {
+            case NEW:
+            case DIRTY:
+            case GHOST:
+                return true;
+        }
+        return false;
+    }
+
 }
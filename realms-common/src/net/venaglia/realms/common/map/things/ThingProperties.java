@@ -1,8 +1,8 @@
 package net.venaglia.realms.common.map.things;
 
 import net.venaglia.common.util.Pair;
-import net.venaglia.common.util.serializer.ObjectSerializer;
 import net.venaglia.common.util.serializer.PrimitiveSerializerStrategy;
+import net.venaglia.common.util.serializer.SerializerOutput;
 import net.venaglia.common.util.serializer.SerializerStrategy;
 import net.venaglia.common.util.serializer.StringSerializerStrategy;
 
@@ -31,33 +31,33 @@ public class ThingProperties implements Iterable<Pair<ThingMetadata.PropertyMeta
         this.buffer = buffer;
     }
 
-    public byte[] updateBuffer() {
-        if (dirtyValues == null || dirtyValues.isEmpty()) {
-            return buffer;
-        }
-        final StringSerializerStrategy stringSerializer = StringSerializerStrategy.INSTANCE;
-        final SerializerStrategy<Boolean> booleanSerializer = PrimitiveSerializerStrategy.BOOLEAN;
-        Iterator<Pair<ThingMetadata.PropertyMetadata<?>, Object>> iterator = dirtyIterator();
-        ByteBuffer out = ObjectSerializer.BUFFERS.get();
-        try {
+    private static final SerializerOutput.Writer<ThingProperties> DIRTY_WRITER = new SerializerOutput.Writer<ThingProperties>() {
+        public void write(ThingProperties value, ByteBuffer out) {
+            final StringSerializerStrategy stringSerializer = StringSerializerStrategy.INSTANCE;
+            final SerializerStrategy<Boolean> booleanSerializer = PrimitiveSerializerStrategy.BOOLEAN;
+            Iterator<Pair<ThingMetadata.PropertyMetadata<?>, Object>> iterator = value.dirtyIterator();
             while (iterator.hasNext()) {
                 Pair<ThingMetadata.PropertyMetadata<?>,Object> pair = iterator.next();
                 writeProperty(stringSerializer, booleanSerializer, out, pair);
             }
-            out.flip();
-            byte[] b = new byte[out.limit()];
-            out.get(b);
-            dirtyValues.clear();
-            return buffer = b;
-        } finally {
-            out.clear();
         }
+    };
+
+    public byte[] updateBuffer() {
+        if (dirtyValues == null || dirtyValues.isEmpty()) {
+            return buffer;
+        }
+        SerializerOutput output = SerializerOutput.get();
+        output.write(DIRTY_WRITER, this);
+        byte[] b = output.toByteArray();
+        dirtyValues.clear();
+        return buffer = b;
     }
 
-    private <P> void writeProperty(StringSerializerStrategy stringSerializer,
-                                   SerializerStrategy<Boolean> booleanSerializer,
-                                   ByteBuffer out,
-                                   Pair<ThingMetadata.PropertyMetadata<?>,Object> pair) {
+    private static <P> void writeProperty(StringSerializerStrategy stringSerializer,
+                                          SerializerStrategy<Boolean> booleanSerializer,
+                                          ByteBuffer out,
+                                          Pair<ThingMetadata.PropertyMetadata<?>,Object> pair) {
         @SuppressWarnings("unchecked")
         ThingMetadata.PropertyMetadata<P> property = (ThingMetadata.PropertyMetadata<P>)pair.getA();
         stringSerializer.serialize(property.getName(), out);
@@ -1,9 +1,12 @@
 package net.venaglia.realms.common.map.things.annotations;
 
 import net.venaglia.common.util.Factory;
+import net.venaglia.common.util.FieldHandle;
 import net.venaglia.common.util.Predicate;
 import net.venaglia.common.util.Visitor;
 import net.venaglia.common.util.serializer.AbstractSerializerStrategy;
+import net.venaglia.common.util.serializer.SerializerException;
+import net.venaglia.common.util.serializer.SerializerOutput;
 import net.venaglia.common.util.serializer.SerializerStrategy;
 import net.venaglia.realms.common.map.things.AbstractThing;
 import net.venaglia.realms.common.map.things.PropertyAccessor;
@@ -123,7 +126,7 @@ public class AnnotationDrivenThingProcessor {
                     fieldAccessors.put(field.getName(), accessor);
                 }
             }
-            serializer = new GeneratedSerializerStrategy<O>(fieldAccessors, factory, preProcessor, postProcessor);
+            serializer = new GeneratedSerializerStrategy<O>(type.getName(), fieldAccessors, factory, preProcessor, postProcessor);
             SERIALIZER_CACHE.put(type, serializer);
         }
         return serializer;
@@ -188,11 +191,12 @@ public class AnnotationDrivenThingProcessor {
     private static class FieldAccessor<O,F> {
 
         private final Field field;
+        private final FieldHandle handle;
         private final PropertyType<F> type;
 
         private FieldAccessor(Field field, PropertyType<F> type) {
-            field.setAccessible(true);
             this.field = field;
+            this.handle = FieldHandle.of(field);
             this.type = type;
         }
 
@@ -201,60 +205,99 @@ public class AnnotationDrivenThingProcessor {
         }
 
         void set(O object, F value) {
-            try {
-                field.set(object, value);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e.getMessage(), e);
-            }
+            handle.set(object, value);
         }
 
         F get(O object, F defaultValue) {
-            Object value = null;
+            Object value = handle.get(object);
             try {
-                value = field.get(object);
                 return value == null ? defaultValue : type.cast(value);
             } catch (ClassCastException e) {
-                if (value == null) value = Void.TYPE;
                 throw new RuntimeException("Unable to convert " + value + " <" + value.getClass().getSimpleName() + "> to " + type);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e.getMessage(), e);
             }
         }
     }
 
+    /**
+     * Records start with SCHEMA_TAGGED, then the schema version, the field
+     * count, and for each field its varint id from the type's PropertySchema,
+     * followed by its size and value. Records written before schemas existed
+     * start with the field count, and tag each field with its name; these are
+     * still read.
+     */
     public static class GeneratedSerializerStrategy<O> extends AbstractSerializerStrategy<O> {
 
+        static final byte SCHEMA_TAGGED = -4; // never the first byte of a name-tagged record
+
+        private final String typeName;
         private final Map<String, FieldAccessor<O, ?>> fieldAccessors;
         private final Factory<O> factory;
         private final Visitor<O> preProcessor;
         private final Visitor<O> postProcessor;
 
-        public GeneratedSerializerStrategy(Map<String, FieldAccessor<O, ?>> fieldAccessors,
+        private volatile Layout<O> layout;
+
+        public GeneratedSerializerStrategy(String typeName,
+                                           Map<String, FieldAccessor<O, ?>> fieldAccessors,
                                            Factory<O> factory,
                                            Visitor<O> preProcessor,
                                            Visitor<O> postProcessor) {
+            this.typeName = typeName;
             this.fieldAccessors = fieldAccessors;
             this.factory = factory;
             this.preProcessor = preProcessor;
             this.postProcessor = postProcessor;
         }
 
+        private Layout<O> getLayout() {
+            Layout<O> layout = this.layout;
+            int generation = PropertySchemaRegistry.getGeneration();
+            if (layout == null || layout.generation != generation) {
+                PropertySchema schema = PropertySchemaRegistry.resolve(typeName, fieldAccessors.keySet());
+                layout = new Layout<O>(schema, generation, fieldAccessors);
+                this.layout = layout;
+            }
+            return layout;
+        }
+
+        /**
+         * @return The layout for a record written with the passed schema
+         *     version. A newer version than the one held here was assigned by
+         *     another process sharing the store, so the schema is reloaded.
+         */
+        private Layout<O> getLayout(int version) {
+            Layout<O> layout = getLayout();
+            if (version > layout.schema.getVersion()) {
+                int generation = PropertySchemaRegistry.getGeneration();
+                PropertySchema schema = PropertySchemaRegistry.reload(typeName, fieldAccessors.keySet());
+                if (version > schema.getVersion()) {
+                    throw new SerializerException("Record of " + typeName + " uses schema version " + version +
+                                                  ", newer than the stored " + schema);
+                }
+                layout = new Layout<O>(schema, generation, fieldAccessors);
+                this.layout = layout;
+            }
+            return layout;
+        }
+
         public void serialize(O value, ByteBuffer out) {
-            if (preProcessor != null) {
+            if (preProcessor != null && SerializerOutput.firstAttempt(value)) {
                 preProcessor.visit(value);
             }
-            serializeSmallNonNegativeInteger("<fields>", fieldAccessors.size(), out);
+            Layout<O> layout = getLayout();
+            serializeByte("<format>", SCHEMA_TAGGED, out);
+            serializeVarint("<schema>", layout.schema.getVersion(), out);
+            serializeVarint("<fields>", fieldAccessors.size(), out);
             for (FieldAccessor<O, ?> accessor : fieldAccessors.values()) {
-                writeField(accessor, value, out);
+                serializeVarint("<id>", layout.schema.getId(accessor.field.getName()), out);
+                writeValue(accessor, value, out);
             }
         }
 
-        private <O,P> void writeField(FieldAccessor<O,P> accessor, O value, ByteBuffer out) {
-            String name = accessor.field.getName();
-            serializeString("<name>", name, out);
+        private <P> void writeValue(FieldAccessor<O,P> accessor, O value, ByteBuffer out) {
             P fieldValue = accessor.get(value, accessor.getType().getDefaultValue());
             if (fieldValue == null) {
-                serializeInt(name + ".bytes", -1, out);
+                serializeInt(label(accessor.field.getName(), ".bytes"), -1, out);
             } else {
                 SizeMarker sizeMarker = serializeSize(out);
                 accessor.getType().getSerializer().serialize(fieldValue, out);
@@ -263,12 +306,28 @@ public class AnnotationDrivenThingProcessor {
         }
 
         public void deserializePartial(ByteBuffer in, Predicate<? super String> filter, Map<String, Object> out) {
+            if (in.get(in.position()) == SCHEMA_TAGGED) {
+                in.get();
+                Layout<O> layout = getLayout((int)deserializeVarint("<schema>", in));
+                int n = (int)deserializeVarint("<fields>", in);
+                for (int i = 0; i < n; i++) {
+                    FieldAccessor<O,?> fieldAccessor = layout.get((int)deserializeVarint("<id>", in));
+                    if (fieldAccessor != null && filter.allow(fieldAccessor.field.getName())) {
+                        readField(fieldAccessor, out, in);
+                    } else {
+                        skipField(in);
+                    }
+                }
+                return;
+            }
             int n = (int)deserializeSmallNonNegativeInteger("<fields>", in);
             for (int i = 0; i < n; i++) {
                 String name = deserializeString("<name>", in);
                 if (filter.allow(name)) {
                     FieldAccessor<O,?> fieldAccessor = fieldAccessors.get(name);
                     readField(fieldAccessor, out, in);
+                } else {
+                    skipField(in);
                 }
             }
         }
@@ -279,11 +338,22 @@ public class AnnotationDrivenThingProcessor {
 
         public O deserializePartial(ByteBuffer in, Predicate<? super String> filter) {
             O value = factory.createEmpty();
-            int n = (int)deserializeSmallNonNegativeInteger("<fields>", in);
-            for (int i = 0; i < n; i++) {
-                String name = deserializeString("<name>", in);
-                FieldAccessor<O,?> fieldAccessor = fieldAccessors.get(name);
-                readField(fieldAccessor, value, in, filter.allow(name));
+            if (in.get(in.position()) == SCHEMA_TAGGED) {
+                in.get();
+                Layout<O> layout = getLayout((int)deserializeVarint("<schema>", in));
+                int n = (int)deserializeVarint("<fields>", in);
+                for (int i = 0; i < n; i++) {
+                    FieldAccessor<O,?> fieldAccessor = layout.get((int)deserializeVarint("<id>", in));
+                    boolean set = fieldAccessor != null && filter.allow(fieldAccessor.field.getName());
+                    readField(set ? fieldAccessor : null, value, in, set);
+                }
+            } else {
+                int n = (int)deserializeSmallNonNegativeInteger("<fields>", in);
+                for (int i = 0; i < n; i++) {
+                    String name = deserializeString("<name>", in);
+                    FieldAccessor<O,?> fieldAccessor = fieldAccessors.get(name);
+                    readField(fieldAccessor, value, in, filter.allow(name));
+                }
             }
             if (postProcessor != null) {
                 postProcessor.visit(value);
@@ -307,7 +377,7 @@ public class AnnotationDrivenThingProcessor {
 
         private <P> void readField(FieldAccessor<O,P> fieldAccessor, Map<String,Object> out, ByteBuffer in) {
             String name = fieldAccessor == null ? "<?>" : fieldAccessor.field.getName();
-            int size = deserializeInt(name + ".bytes", in);
+            int size = deserializeInt(label(name, ".bytes"), in);
             if (fieldAccessor == null) {
                 if (size > 0) {
                     skip(size, in);
@@ -317,5 +387,37 @@ public class AnnotationDrivenThingProcessor {
             P value = size >= 0 ? fieldAccessor.getType().read(in) : fieldAccessor.getType().getDefaultValue();
             out.put(fieldAccessor.field.getName(), value);
         }
+
+        private void skipField(ByteBuffer in) {
+            int size = deserializeInt("<size>", in);
+            if (size > 0) {
+                skip(size, in);
+            }
+        }
+    }
+
+    /**
+     * The field accessors of a generated serializer, indexed by their id in
+     * one version of its schema.
+     */
+    private static class Layout<O> {
+
+        private final PropertySchema schema;
+        private final int generation;
+        private final FieldAccessor<O,?>[] byId;
+
+        @SuppressWarnings("unchecked")
+        private Layout(PropertySchema schema, int generation, Map<String,FieldAccessor<O,?>> fieldAccessors) {
+            this.schema = schema;
+            this.generation = generation;
+            this.byId = (FieldAccessor<O,?>[])new FieldAccessor<?,?>[schema.getMaxId() + 1];
+            for (Map.Entry<String,FieldAccessor<O,?>> entry : fieldAccessors.entrySet()) {
+                byId[schema.getId(entry.getKey())] = entry.getValue();
+            }
+        }
+
+        FieldAccessor<O,?> get(int id) {
+            return id > 0 && id < byId.length ? byId[id] : null;
+        }
     }
 }
@@ -0,0 +1,139 @@
+package net.venaglia.realms.common.map.things.annotations;
+
+import net.venaglia.common.util.serializer.SerializerException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 10:05 PM
+ *
+ * Assigns small integer ids to the @Property fields of a type. Ids are never
+ * reused: a field that goes away keeps its id, and new fields take the next
+ * one. Each change produces a new version. The encoded form is stored with
+ * the other persistent properties, e.g. "2:center=1,vertices=2,radius=3".
+ */
+public final class PropertySchema {
+
+    private final String typeName;
+    private final int version;
+    private final Map<String,Integer> ids;
+    private final String[] names; // indexed by id
+
+    private PropertySchema(String typeName, int version, Map<String,Integer> ids) {
+        this.typeName = typeName;
+        this.version = version;
+        this.ids = Collections.unmodifiableMap(ids);
+        int max = 0;
+        for (Integer id : ids.values()) {
+            max = Math.max(max, id);
+        }
+        this.names = new String[max + 1];
+        for (Map.Entry<String,Integer> entry : ids.entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The id assigned to the named field, or -1 if it has none.
+     */
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return The name of the field with the passed id, or null if no field
+     *     has that id in this version.
+     */
+    public String getName(int id) {
+        return id > 0 && id < names.length ? names[id] : null;
+    }
+
+    public int getMaxId() {
+        return names.length - 1;
+    }
+
+    /**
+     * @return This schema if it already has an id for every passed name,
+     *     otherwise the next version, with ids for the new names.
+     */
+    public PropertySchema extend(Collection<String> fieldNames) {
+        Map<String,Integer> extended = null;
+        int next = names.length;
+        for (String name : fieldNames) {
+            if (!ids.containsKey(name)) {
+                if (extended == null) {
+                    extended = new LinkedHashMap<String,Integer>(ids);
+                }
+                extended.put(name, next++);
+            }
+        }
+        return extended == null ? this : new PropertySchema(typeName, version + 1, extended);
+    }
+
+    public String encode() {
+        StringBuilder buffer = new StringBuilder(16 + ids.size() * 12);
+        buffer.append(version).append(':');
+        boolean first = true;
+        for (Map.Entry<String,Integer> entry : ids.entrySet()) {
+            if (!first) {
+                buffer.append(',');
+            }
+            buffer.append(entry.getKey()).append('=').append(entry.getValue());
+            first = false;
+        }
+        return buffer.toString();
+    }
+
+    @Override
+    public String toString() {
+        return typeName + "@" + encode();
+    }
+
+    public static PropertySchema create(String typeName, Collection<String> fieldNames) {
+        Map<String,Integer> ids = new LinkedHashMap<String,Integer>();
+        for (String name : fieldNames) {
+            ids.put(name, ids.size() + 1);
+        }
+        return new PropertySchema(typeName, 1, ids);
+    }
+
+    public static PropertySchema decode(String typeName, String encoded) {
+        int colon = encoded.indexOf(':');
+        if (colon < 0) {
+            throw new SerializerException("Malformed schema for " + typeName + ": " + encoded);
+        }
+        try {
+            int version = Integer.parseInt(encoded.substring(0, colon));
+            Map<String,Integer> ids = new LinkedHashMap<String,Integer>();
+            String fields = encoded.substring(colon + 1);
+            for (String nameId : fields.length() == 0 ? new String[0] : fields.split(",")) {
+                String[] nv = nameId.split("=", 2);
+                if (nv.length != 2) {
+                    throw new SerializerException("Malformed schema for " + typeName + ": " + encoded);
+                }
+                int id = Integer.parseInt(nv[1]);
+                if (id <= 0) {
+                    throw new SerializerException("Malformed schema for " + typeName + ", ids must be positive: " + encoded);
+                }
+                ids.put(nv[0], id);
+            }
+            return new PropertySchema(typeName, version, ids);
+        } catch (NumberFormatException e) {
+            throw new SerializerException("Malformed schema for " + typeName + ": " + encoded);
+        }
+    }
+}
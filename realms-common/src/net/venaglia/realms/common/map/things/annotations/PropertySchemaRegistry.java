@@ -0,0 +1,171 @@
+package net.venaglia.realms.common.map.things.annotations;
+
+import net.venaglia.realms.common.map.PropertyStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 10:20 PM
+ *
+ * Holds the current PropertySchema of each generated serializer type, for
+ * the data store that is bound. Schemas are read from, and new versions
+ * written to, the store's persistent properties as "schema.{type}". Binding
+ * with no store keeps schemas in memory only. Generated serializers can't be
+ * used until something is bound.
+ *
+ * Several stores may be bound at once if they are the same database
+ * instance, and so share one set of properties. A store of any other
+ * instance can't be bound beside them: its records would be written with
+ * field ids its own properties don't hold.
+ */
+public class PropertySchemaRegistry {
+
+    private static final String PROPERTY_PREFIX = "schema.";
+
+    private static final Map<String,PropertySchema> SCHEMAS = new HashMap<String,PropertySchema>();
+    private static final List<Binding> BINDINGS = new ArrayList<Binding>();
+
+    private static UUID instanceUuid;
+    private static boolean bound;
+    private static volatile int generation;
+
+    private PropertySchemaRegistry() {
+        // pure static class
+    }
+
+    /**
+     * Binds the registry to a data store's persistent properties, or to none
+     * if propertyStore is null. Schemas resolved before this are discarded,
+     * and resolved again from the store, unless another store of the same
+     * instance is already bound. A memory-only binding may always be
+     * replaced, but a store stays bound until it is released.
+     * @throws IllegalStateException if a store of another instance is bound,
+     *     or if propertyStore is null and any store is bound.
+     */
+    public static synchronized void bind(PropertyStore propertyStore, boolean writable, UUID instanceUuid) {
+        if (!BINDINGS.isEmpty()) {
+            if (propertyStore == null || !PropertySchemaRegistry.instanceUuid.equals(instanceUuid)) {
+                throw new IllegalStateException("Property schemas are bound to data store instance " +
+                                                PropertySchemaRegistry.instanceUuid + ", not " + instanceUuid);
+            }
+            if (find(propertyStore) < 0) {
+                BINDINGS.add(new Binding(propertyStore, writable)); // same properties, keep the schemas
+            }
+            return;
+        }
+        if (propertyStore != null) {
+            if (instanceUuid == null) {
+                throw new NullPointerException("instanceUuid");
+            }
+            BINDINGS.add(new Binding(propertyStore, writable));
+        }
+        PropertySchemaRegistry.instanceUuid = propertyStore == null ? null : instanceUuid;
+        bound = true;
+        SCHEMAS.clear();
+        generation++;
+    }
+
+    /**
+     * Releases the passed store. Once no store is bound, another instance
+     * can be.
+     */
+    public static synchronized void unbind(PropertyStore propertyStore) {
+        int i = find(propertyStore);
+        if (i >= 0) {
+            BINDINGS.remove(i);
+            if (BINDINGS.isEmpty()) {
+                instanceUuid = null;
+                bound = false;
+                SCHEMAS.clear();
+                generation++;
+            }
+        }
+    }
+
+    /**
+     * Changes each time the registry is bound. Callers that keep a resolved
+     * schema should resolve it again when this changes.
+     */
+    static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The current schema for the named type, extended with ids for
+     *     any of the passed fields that don't already have one.
+     */
+    static synchronized PropertySchema resolve(String typeName, Collection<String> fieldNames) {
+        ensureBound();
+        PropertySchema schema = SCHEMAS.get(typeName);
+        if (schema == null || schema.extend(fieldNames) != schema) {
+            PropertyStore propertyStore = BINDINGS.isEmpty() ? null : BINDINGS.get(0).propertyStore;
+            String encoded = propertyStore == null ? null : propertyStore.get(PROPERTY_PREFIX + typeName);
+            if (encoded != null) {
+                schema = PropertySchema.decode(typeName, encoded).extend(fieldNames);
+            } else if (schema == null) {
+                schema = PropertySchema.create(typeName, fieldNames);
+            } else {
+                schema = schema.extend(fieldNames);
+            }
+            PropertyStore writableStore = findWritable();
+            if (writableStore != null && !schema.encode().equals(encoded)) {
+                writableStore.set(PROPERTY_PREFIX + typeName, schema.encode());
+            }
+            SCHEMAS.put(typeName, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Discards the named type's schema and resolves it again from the store,
+     * for when a record was written with a newer version than the one held
+     * here, by another process sharing the store.
+     */
+    static synchronized PropertySchema reload(String typeName, Collection<String> fieldNames) {
+        ensureBound();
+        SCHEMAS.remove(typeName);
+        return resolve(typeName, fieldNames);
+    }
+
+    private static int find(PropertyStore propertyStore) {
+        for (int i = 0, l = BINDINGS.size(); i < l; i++) {
+            if (BINDINGS.get(i).propertyStore == propertyStore) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static PropertyStore findWritable() {
+        for (Binding binding : BINDINGS) {
+            if (binding.writable) {
+                return binding.propertyStore;
+            }
+        }
+        return null;
+    }
+
+    private static void ensureBound() {
+        if (!bound) {
+            throw new IllegalStateException("Property schemas are not bound to a data store");
+        }
+    }
+
+    private static class Binding {
+
+        private final PropertyStore propertyStore;
+        private final boolean writable;
+
+        private Binding(PropertyStore propertyStore, boolean writable) {
+            this.propertyStore = propertyStore;
+            this.writable = writable;
+        }
+    }
+}
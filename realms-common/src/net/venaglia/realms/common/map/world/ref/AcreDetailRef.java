@@ -6,7 +6,6 @@ import net.venaglia.realms.common.map.BinaryStore;
 import net.venaglia.realms.common.map.data.binaries.BinaryResource;
 import net.venaglia.realms.common.map.world.AcreDetail;
 
-import java.nio.ByteBuffer;
 
 /**
  * User: ed
@@ -29,7 +28,7 @@ public class AcreDetailRef extends AbstractCachingRef<AcreDetail> implements Ide
         if (resource == null) {
             return null;
         }
-        return AcreDetail.DEFINITION.getSerializer().deserialize(ByteBuffer.wrap(resource.getData()));
+        return AcreDetail.DEFINITION.getSerializer().deserialize(resource.getDataBuffer());
     }
 
     public Long getId() {
@@ -7,7 +7,11 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.NavigableMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -15,23 +19,28 @@ import java.util.concurrent.locks.ReentrantLock;
  * User: ed
  * Date: 3/21/14
  * Time: 10:37 PM
+ *
+ * Entries are kept in id order for iteration, in a hash index for lookups,
+ * and in a single LRU list that every hit updates under the lock. The package-private recency methods are
+ * the policy, so that {@link ConcurrentWorkingCache} can replace it while
+ * sharing everything else.
  */
 public abstract class AbstractWorkingCache<E extends Identifiable, N extends AbstractWorkingCache.Node<E>> implements Cache<E> {
 
     protected final Lock lock = new ReentrantLock();
 
-    private final NavigableMap<Long,N> all;
+    final NavigableMap<Long,N> all = new ConcurrentSkipListMap<Long,N>();
+    final ConcurrentMap<Long,N> index = new ConcurrentHashMap<Long,N>();
+    final RecencyList<E> recency = new RecencyList<E>(); // guarded by lock
+    final AtomicLong missCount = new AtomicLong();
+    final AtomicLong evictionCount = new AtomicLong();
 
-    private volatile Node<E> head; // most recently used
-    private volatile Node<E> tail; // least recently used
-    private volatile int modCount = 0;
+    private final SingleFlight<N> loads = new SingleFlight<N>();
 
-    public AbstractWorkingCache() {
-        this.all = new ConcurrentSkipListMap<Long,N>();
-    }
+    volatile int modCount = 0;
 
     public int size() {
-        return all.size();
+        return index.size();
     }
 
     public Iterator<E> iterator() {
@@ -56,6 +65,7 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
                 }
                 lock.lock();
                 try {
+                    beforeChange();
                     modCount++;
                     doEvict(current);
                     current = null;
@@ -70,10 +80,31 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
         return modCount;
     }
 
+    /**
+     * @return true if the value is already cached. Does not load it on a
+     *     miss, and does not count as a hit.
+     */
+    public boolean contains(Long id) {
+        return index.containsKey(id);
+    }
+
+    /**
+     * @return The cached value, counted as a hit, or null if it is not
+     *     cached. Never loads it.
+     */
+    public E getIfPresent(Long id) {
+        N node = index.get(id);
+        if (node == null) {
+            return null;
+        }
+        recordHit(node);
+        return node.getValue();
+    }
+
     public E get(Long id) {
-        N node = all.get(id);
+        N node = index.get(id);
         if (node != null) {
-            doHit(node);
+            recordHit(node);
             return node.getValue();
         }
         node = doLoad(id);
@@ -85,26 +116,19 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
         if (id == null) {
             throw new IllegalArgumentException(value.toString());
         }
+        if (value instanceof Volatile) {
+            return false;
+        }
         lock.lock();
         try {
-            N node = all.get(id);
-            if (node == null) {
-                modCount++;
-                node = createEmptyNode();
-                node.id = id;
-                node.setValue(value);
-                if (head != null) {
-                    head.prev = node;
-                    node.next = head;
-                } else {
-                    tail = node;
-                }
-                head = node;
-                all.put(id, node);
-                admit(node);
-                return true;
+            beforeChange();
+            if (index.containsKey(id)) {
+                return false;
             }
-            return false;
+            modCount++;
+            doAdmit(createNode(id, value));
+            afterAdmit();
+            return true;
         } finally {
             lock.unlock();
         }
@@ -117,39 +141,24 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
             if (id == null) {
                 throw new IllegalArgumentException(value.toString());
             }
-            toAdd.put(id, value);
+            if (!(value instanceof Volatile)) {
+                toAdd.put(id, value);
+            }
         }
         int count = 0;
         lock.lock();
         try {
-            toAdd.keySet().removeAll(all.keySet());
-            count = toAdd.size();
+            beforeChange();
+            for (E value : toAdd.values()) {
+                Long id = value.getId();
+                if (!index.containsKey(id)) {
+                    doAdmit(createNode(id, value));
+                    count++;
+                }
+            }
             if (count > 0) {
                 modCount++;
-                N first = null;
-                N last = null;
-                for (E value : toAdd.values()) {
-                    N next = createEmptyNode();
-                    if (last != null) {
-                        last.next = next;
-                        next.prev = last;
-                        last = next;
-                    } else {
-                        first = next;
-                        last = next;
-                    }
-                    last.id = value.getId();
-                    last.setValue(value);
-                }
-                if (head != null) {
-                    assert last != null;
-                    last.next = head;
-                    head = first;
-                } else {
-                    head = first;
-                    tail = last;
-                }
-
+                afterAdmit();
             }
         } finally {
             lock.unlock();
@@ -164,16 +173,18 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
     public void clear() {
         lock.lock();
         try {
+            beforeChange();
             modCount++;
-            head = null;
-            tail = null;
+            unlinkAll();
             for (N node : all.values()) {
                 node.prev = null;
                 node.next = null;
+                node.evicted = true;
                 evict(node);
             }
         } finally {
             all.clear();
+            index.clear();
             lock.unlock();
         }
     }
@@ -181,7 +192,8 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
     public void evict(E value) {
         lock.lock();
         try {
-            N node = all.get(value.getId());
+            beforeChange();
+            N node = index.get(value.getId());
             if (node != null) {
                 modCount++;
                 doEvict(node);
@@ -192,22 +204,28 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
     }
 
     public void evictOldest() {
+        evictOldest(null);
+    }
+
+    /**
+     * Evicts the least recently used entry that matches the passed predicate.
+     * @param predicate Which entries to consider, or null for any entry.
+     */
+    public void evictOldest(Predicate<E> predicate) {
         lock.lock();
         try {
-            if (tail != null) {
+            beforeChange();
+            N victim = findVictim(predicate);
+            if (victim != null) {
                 modCount++;
-                //noinspection unchecked
-                doEvict((N)tail);
+                doEvict(victim);
+                evictionCount.incrementAndGet();
             }
         } finally {
             lock.unlock();
         }
     }
 
-    public void evictOldest(Predicate<E> predicate) {
-
-    }
-
     protected abstract N createEmptyNode();
 
     protected E miss(Long id) {
@@ -226,65 +244,122 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
         // no-op
     }
 
-    private N doLoad(Long id) {
+    /**
+     * Moves a node to the front on a hit. Called without holding the lock.
+     */
+    void recordHit(N node) {
+        lock.lock();
+        try {
+            if (!node.evicted) {
+                recency.moveToFront(node);
+                hit(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called while holding the lock, before any structural change.
+     */
+    void beforeChange() {
+        // no-op
+    }
+
+    /**
+     * Called while holding the lock, after one or more nodes are admitted.
+     */
+    void afterAdmit() {
+        // no-op
+    }
+
+    void link(N node) {
+        recency.linkFirst(node);
+    }
+
+    void unlink(N node) {
+        recency.unlink(node);
+    }
+
+    void unlinkAll() {
+        recency.clear();
+    }
+
+    /**
+     * @return The least recently used node that matches the predicate, or
+     *     null if there is none.
+     */
+    N findVictim(Predicate<E> predicate) {
+        for (Node<E> node = recency.tail; node != null; node = node.prev) {
+            if (predicate == null || predicate.allow(node.getValue())) {
+                return downcast(node);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Every node linked into a recency list was made by createEmptyNode().
+     */
+    @SuppressWarnings("unchecked")
+    final N downcast(Node<E> node) {
+        return (N)node;
+    }
+
+    private N createNode(Long id, E value) {
+        N node = createEmptyNode();
+        node.id = id;
+        node.setValue(value);
+        return node;
+    }
+
+    private N doLoad(final Long id) {
+        return loads.load(id, new Callable<N>() {
+            public N call() {
+                return doLoadImpl(id);
+            }
+        });
+    }
+
+    private N doLoadImpl(Long id) {
+        N existing = index.get(id);
+        if (existing != null) {
+            return existing; // loaded by another thread since we looked
+        }
+        missCount.incrementAndGet();
         E thing = miss(id);
         if (thing == null || thing instanceof Volatile) {
             return null;
         }
-        N node = createEmptyNode();
-        node.id = id;
-        node.setValue(thing);
+        N node = createNode(id, thing);
         lock.lock();
         try {
-            if (all.containsKey(id)) {
-                return all.get(id);
-            } else {
-                all.put(id, node);
-                node.next = head;
-                head = node;
+            beforeChange();
+            existing = index.get(id);
+            if (existing != null) {
+                return existing;
             }
+            modCount++;
+            doAdmit(node);
+            afterAdmit();
         } finally {
             lock.unlock();
         }
         return node;
     }
 
-    private void doHit(N node) {
-        if (head != node) {
-            lock.lock();
-            try {
-                if (node.next != null) {
-                    node.next.prev = node.prev;
-                } else if (tail == node) {
-                    tail = node.prev;
-                }
-                if (node.prev != null) {
-                    node.prev.next = node.next;
-                }
-                node.prev = null;
-                node.next = head;
-                hit(node);
-            } finally {
-                lock.unlock();
-            }
-        }
+    private void doAdmit(N node) {
+        all.put(node.id, node);
+        index.put(node.id, node);
+        link(node);
+        admit(node);
     }
 
-    private void doEvict(N node) {
-        if (all.containsKey(node.id)) {
+    void doEvict(N node) {
+        if (index.remove(node.id, node)) {
             all.remove(node.id);
-            if (node.next != null) {
-                node.next.prev = node.prev;
-            } else if (tail == node) {
-                tail = node.prev;
-            }
-            if (node.prev != null) {
-                node.prev.next = node.next;
-            } else if (head == node) {
-                head = node.next;
-            }
-            node.prev = null;
-            node.next = null;
+            node.evicted = true;
+            unlink(node);
             evict(node);
         }
     }
@@ -294,6 +369,10 @@ public abstract class AbstractWorkingCache<E extends Identifiable, N extends Abs
         Long id;
         Node<E> prev;
         Node<E> next;
+        long weight;
+        boolean protectedSegment;
+        boolean evicted; // guarded by the cache lock
+        long pinnedUntil; // System.nanoTime(), guarded by the cache lock
 
         private E value;
 
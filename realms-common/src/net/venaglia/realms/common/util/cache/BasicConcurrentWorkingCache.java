@@ -0,0 +1,15 @@
+package net.venaglia.realms.common.util.cache;
+
+import net.venaglia.common.util.Identifiable;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 9:12 AM
+ */
+public class BasicConcurrentWorkingCache<E extends Identifiable> extends ConcurrentWorkingCache<E, AbstractWorkingCache.Node<E>> {
+
+    protected AbstractWorkingCache.Node<E> createEmptyNode() {
+        return new AbstractWorkingCache.Node<E>();
+    }
+}
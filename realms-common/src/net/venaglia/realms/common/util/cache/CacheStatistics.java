@@ -0,0 +1,56 @@
+package net.venaglia.realms.common.util.cache;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 11:05 AM
+ *
+ * Point-in-time snapshot of a working cache's counters.
+ */
+public class CacheStatistics {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int size;
+    private final long weight;
+
+    public CacheStatistics(long hitCount, long missCount, long evictionCount, int size, long weight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double)hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d (%.1f%%) evictions=%d size=%d weight=%d",
+                             hitCount, missCount, getHitRate() * 100.0, evictionCount, size, weight);
+    }
+}
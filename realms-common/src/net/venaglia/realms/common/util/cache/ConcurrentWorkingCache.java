@@ -0,0 +1,367 @@
+package net.venaglia.realms.common.util.cache;
+
+import net.venaglia.common.util.Identifiable;
+import net.venaglia.common.util.Predicate;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 9:12 AM
+ *
+ * Working cache that shares everything with {@link AbstractWorkingCache}
+ * but its recency policy, and never takes the cache-wide lock on a hit.
+ *
+ * Hits are recorded into one of several striped, lossy ring buffers. The
+ * buffers are drained in batches, under the lock, by whichever thread finds
+ * a buffer half full (using tryLock, so readers never wait on each other),
+ * and by every structural change before it touches the recency lists. A
+ * dropped hit only costs a little LRU precision, never correctness.
+ *
+ * Recency is tracked as a segmented LRU: new entries start on probation and
+ * are promoted to the protected segment on their first hit. When a maximum
+ * size or weight is set, victims are taken from the tail of probation first,
+ * skipping any entry that {@link #canEvict(Node)} says must stay resident,
+ * and any entry still pinned by {@link #seed(Collection, long)}.
+ * Hits reach {@link #hit(Node)} when their buffer is drained, which may be
+ * some time after they happened, and on a different thread.
+ */
+public abstract class ConcurrentWorkingCache<E extends Identifiable, N extends AbstractWorkingCache.Node<E>> extends AbstractWorkingCache<E,N> {
+
+    private static final int READ_BUFFER_SIZE = 32; // must be a power of two
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE >> 1;
+    private static final int READ_BUFFER_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int VICTIM_SCAN_LIMIT = 64;
+
+    private final ReadBuffer[] readBuffers;
+    private final RecencyList<E> probation = recency; // guarded by lock
+    private final RecencyList<E> protectedSegment = new RecencyList<E>(); // guarded by lock
+
+    private volatile int maximumSize = 0;
+    private volatile long maximumWeight = 0L;
+    private long seedPinnedUntil = 0L; // guarded by lock
+
+    public ConcurrentWorkingCache() {
+        this.readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+        for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    /**
+     * @return The maximum number of entries to hold, or 0 if unbounded.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize cannot be negative: " + maximumSize);
+        }
+        lock.lock();
+        try {
+            this.maximumSize = maximumSize;
+            drainReadBuffers();
+            enforceBounds();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The maximum total weight, as computed by {@link #weigh(Object)},
+     *     to hold, or 0 if unbounded.
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight cannot be negative: " + maximumWeight);
+        }
+        lock.lock();
+        try {
+            this.maximumWeight = maximumWeight;
+            drainReadBuffers();
+            enforceBounds();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStatistics getStatistics() {
+        long hits = 0;
+        for (ReadBuffer readBuffer : readBuffers) {
+            hits += readBuffer.hitCount.get();
+        }
+        long weight;
+        lock.lock();
+        try {
+            weight = probation.weight + protectedSegment.weight;
+        } finally {
+            lock.unlock();
+        }
+        return new CacheStatistics(hits, missCount.get(), evictionCount.get(), size(), weight);
+    }
+
+    /**
+     * Called while holding the lock, before a node is chosen for eviction by
+     * a size or weight bound. Nodes that return false are skipped, and moved
+     * to the front of their segment so they are not scanned again right away.
+     */
+    protected boolean canEvict(N node) {
+        return true;
+    }
+
+    /**
+     * @return The weight this value counts for against the maximum weight.
+     *     Evaluated when the value is admitted to the cache, again each time
+     *     a hit on it is applied, and on {@link #reweigh(Identifiable)}.
+     */
+    protected long weigh(E value) {
+        return 0L;
+    }
+
+    /**
+     * Seeds values that nothing has asked for yet, such as a prefetch, and
+     * keeps the bounds from evicting them for a short while, so they are
+     * still here when they are asked for.
+     *
+     * @param pinMillis How long the newly seeded values are pinned.
+     */
+    public boolean seed(Collection<? extends E> values, long pinMillis) {
+        lock.lock();
+        try {
+            seedPinnedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pinMillis);
+            return seed(values);
+        } finally {
+            seedPinnedUntil = 0L;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evaluates {@link #weigh(Object)} again for a value that has grown or
+     * shrunk since it was cached, and evicts as needed to stay in bounds.
+     */
+    public void reweigh(E value) {
+        lock.lock();
+        try {
+            drainReadBuffers();
+            N node = index.get(value.getId());
+            if (node != null && !node.evicted) {
+                reweigh(node);
+                enforceBounds();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void recordHit(N node) {
+        int pending = readBuffers[stripe()].offer(node);
+        if ((pending < 0 || pending >= READ_BUFFER_DRAIN_THRESHOLD) && lock.tryLock()) {
+            try {
+                drainReadBuffers();
+                enforceBounds(); // for anything that grew
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    void beforeChange() {
+        drainReadBuffers();
+    }
+
+    @Override
+    void afterAdmit() {
+        enforceBounds();
+    }
+
+    @Override
+    void link(N node) {
+        node.weight = weigh(node.getValue());
+        node.protectedSegment = false;
+        node.pinnedUntil = seedPinnedUntil;
+        probation.linkFirst(node);
+    }
+
+    @Override
+    void unlink(N node) {
+        (node.protectedSegment ? protectedSegment : probation).unlink(node);
+    }
+
+    @Override
+    void unlinkAll() {
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    /**
+     * Skips the entries pinned by {@link #canEvict(Node)}.
+     */
+    @Override
+    N findVictim(Predicate<E> predicate) {
+        return findVictim(predicate, Integer.MAX_VALUE);
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer readBuffer : readBuffers) {
+            readBuffer.drainTo(this);
+        }
+    }
+
+    private void applyHit(N node) {
+        if (node.evicted) {
+            return; // evicted since the hit was recorded
+        }
+        reweigh(node);
+        if (node.protectedSegment) {
+            protectedSegment.moveToFront(node);
+        } else {
+            probation.unlink(node);
+            protectedSegment.linkFirst(node);
+            node.protectedSegment = true;
+            demoteOverflow();
+        }
+        hit(node);
+    }
+
+    private void reweigh(N node) {
+        long weight = weigh(node.getValue());
+        if (weight != node.weight) {
+            (node.protectedSegment ? protectedSegment : probation).weight += weight - node.weight;
+            node.weight = weight;
+        }
+    }
+
+    private void demoteOverflow() {
+        int maxSize = maximumSize;
+        long maxWeight = maximumWeight;
+        int maxProtectedSize = maxSize > 0 ? (int)(maxSize * (long)PROTECTED_PERCENT / 100) : Integer.MAX_VALUE;
+        long maxProtectedWeight = maxWeight > 0 ? maxWeight / 100 * PROTECTED_PERCENT : Long.MAX_VALUE;
+        while (protectedSegment.tail != null &&
+               (protectedSegment.size > maxProtectedSize || protectedSegment.weight > maxProtectedWeight)) {
+            Node<E> demote = protectedSegment.tail;
+            protectedSegment.unlink(demote);
+            probation.linkFirst(demote);
+            demote.protectedSegment = false;
+        }
+    }
+
+    private boolean isOverBounds() {
+        int maxSize = maximumSize;
+        long maxWeight = maximumWeight;
+        return maxSize > 0 && probation.size + protectedSegment.size > maxSize ||
+               maxWeight > 0 && probation.weight + protectedSegment.weight > maxWeight;
+    }
+
+    private void enforceBounds() {
+        while (isOverBounds()) {
+            N victim = findVictim(null, VICTIM_SCAN_LIMIT);
+            if (victim == null) {
+                break; // everything we looked at is pinned, try again on the next admission
+            }
+            modCount++;
+            doEvict(victim);
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private N findVictim(Predicate<E> predicate, int scanLimit) {
+        N victim = findVictim(probation, predicate, scanLimit);
+        return victim != null ? victim : findVictim(protectedSegment, predicate, scanLimit);
+    }
+
+    private N findVictim(RecencyList<E> segment, Predicate<E> predicate, int scanLimit) {
+        Node<E> node = segment.tail;
+        long now = System.nanoTime();
+        for (int i = 0; node != null && i < scanLimit && i < segment.size; i++) {
+            Node<E> prev = node.prev;
+            if (predicate == null || predicate.allow(node.getValue())) {
+                if ((node.pinnedUntil == 0L || node.pinnedUntil - now <= 0L) && canEvict(downcast(node))) {
+                    return downcast(node);
+                }
+                if (predicate == null) {
+                    segment.moveToFront(node); // pinned, give it another lap
+                }
+            }
+            node = prev;
+        }
+        return null;
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (READ_BUFFER_STRIPES - 1);
+    }
+
+    private static int stripesFor(int processors) {
+        int stripes = 1;
+        while (stripes < processors * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Bounded, multi-producer / single-consumer ring of recent hits. Producers
+     * claim a slot with a single CAS and give up rather than spin; the consumer
+     * is whichever thread holds the cache lock.
+     */
+    private static final class ReadBuffer {
+
+        private final AtomicLong writeCount = new AtomicLong();
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(READ_BUFFER_SIZE);
+
+        private volatile long readCount = 0;
+
+        /**
+         * @return the number of pending hits after this one was recorded, 0
+         *     if it was dropped due to contention, or -1 if the buffer is full.
+         */
+        int offer(Object node) {
+            hitCount.incrementAndGet();
+            long tail = writeCount.get();
+            long size = tail - readCount;
+            if (size >= READ_BUFFER_SIZE) {
+                return -1;
+            }
+            if (writeCount.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int)(tail & READ_BUFFER_MASK), node);
+                return (int)size + 1;
+            }
+            return 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        <E extends Identifiable, N extends AbstractWorkingCache.Node<E>> void drainTo(ConcurrentWorkingCache<E,N> cache) {
+            long head = readCount;
+            long tail = writeCount.get();
+            while (head < tail) {
+                int index = (int)(head & READ_BUFFER_MASK);
+                Object node = slots.get(index);
+                if (node == null) {
+                    break; // slot claimed, but not yet written; pick it up next time
+                }
+                slots.lazySet(index, null);
+                cache.applyHit((N)node);
+                head++;
+            }
+            readCount = head;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package net.venaglia.realms.common.util.cache;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 9:05 PM
+ *
+ * One doubly linked recency list of cache nodes, guarded by the cache lock.
+ */
+final class RecencyList<E> {
+
+    AbstractWorkingCache.Node<E> head; // most recently used
+    AbstractWorkingCache.Node<E> tail; // least recently used
+    int size;
+    long weight;
+
+    void linkFirst(AbstractWorkingCache.Node<E> node) {
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        } else {
+            tail = node;
+        }
+        head = node;
+        size++;
+        weight += node.weight;
+    }
+
+    void unlink(AbstractWorkingCache.Node<E> node) {
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else if (tail == node) {
+            tail = node.prev;
+        }
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else if (head == node) {
+            head = node.next;
+        }
+        node.prev = null;
+        node.next = null;
+        size--;
+        weight -= node.weight;
+    }
+
+    void moveToFront(AbstractWorkingCache.Node<E> node) {
+        if (head != node) {
+            unlink(node);
+            linkFirst(node);
+        }
+    }
+
+    void clear() {
+        head = null;
+        tail = null;
+        size = 0;
+        weight = 0L;
+    }
+}
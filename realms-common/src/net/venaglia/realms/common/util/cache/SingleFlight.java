@@ -0,0 +1,77 @@
+package net.venaglia.realms.common.util.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 5:05 PM
+ *
+ * Tracks the loads in flight for each key, so that concurrent misses on the
+ * same key run the loader once. The first thread to miss runs the loader
+ * on its own thread; the others wait for, and share, its result. A loader
+ * that misses on its own key would wait on itself forever, so that fails
+ * right away instead.
+ */
+class SingleFlight<T> {
+
+    private final ConcurrentMap<Long,Flight<T>> inFlight = new ConcurrentHashMap<Long,Flight<T>>();
+
+    T load(Long id, Callable<T> loader) {
+        Flight<T> task = inFlight.get(id);
+        if (task == null) {
+            Flight<T> created = new Flight<T>(loader);
+            task = inFlight.putIfAbsent(id, created);
+            if (task == null) {
+                task = created;
+                try {
+                    created.run();
+                } finally {
+                    inFlight.remove(id, created);
+                }
+            }
+        } else if (task.owner == Thread.currentThread()) {
+            throw new IllegalStateException("Recursive load of " + id);
+        }
+        return await(task);
+    }
+
+    private T await(FutureTask<T> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the load will finish regardless, wait for it
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error)cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Flight<T> extends FutureTask<T> {
+
+        private final Thread owner = Thread.currentThread();
+
+        private Flight(Callable<T> callable) {
+            super(callable);
+        }
+    }
+}
@@ -31,7 +31,8 @@ public class GlobalPointMap extends OctreeMap<GeoPoint> {
     private File hibernationFile = null;
 
     public GlobalPointMap() {
-        super(new BoundingSphere(Point.ORIGIN, 1024.0), 16, 12);
+        // filled once, then only read by the acre builders' lookups
+        super(new BoundingSphere(Point.ORIGIN, 1024.0), 16, 12, Concurrency.OPTIMISTIC);
     }
 
     @Override
@@ -181,6 +182,12 @@ public class GlobalPointMap extends OctreeMap<GeoPoint> {
         return super.intersect(region, consumer);
     }
 
+    @Override
+    public int nearest(double x, double y, double z, int k, double maxDistance, Consumer<GeoPoint> consumer) {
+        checkHiberhate();
+        return super.nearest(x, y, z, k, maxDistance, consumer);
+    }
+
     @Override
     public Series<GeoPoint> asSeries() {
         checkHiberhate();
@@ -0,0 +1,78 @@
+package net.venaglia.realms.common.map.data;
+
+import net.venaglia.realms.common.map.Source;
+import net.venaglia.realms.common.map.things.AbstractThing;
+import net.venaglia.realms.common.util.cache.Cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * User: ed
+ * Date: 10/19/26
+ * Time: 9:20 AM
+ *
+ * A cube only sees its things through the thing cache, so the thing cache's
+ * bound must not take them out from under a cube that is still cached.
+ */
+public class ThingCacheTest {
+
+    private static final int CUBES = 8;
+    private static final int THINGS_PER_CUBE = 10;
+
+    public static void main(String[] args) {
+        ThingCache thingCache = new ThingCache(new Source<ThingRefImpl<? extends AbstractThing>>() {
+            public ThingRefImpl<? extends AbstractThing> createEmpty() {
+                throw new UnsupportedOperationException();
+            }
+
+            public void populate(Long id, ThingRefImpl<? extends AbstractThing> thingRef) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        CubeCache cubeCache = new CubeCache(new Source<CubeImpl>() {
+            public CubeImpl createEmpty() {
+                throw new UnsupportedOperationException();
+            }
+
+            public void populate(Long id, CubeImpl cube) {
+                throw new UnsupportedOperationException();
+            }
+        }, thingCache);
+        cubeCache.setMaximumSize(2);
+        thingCache.setMaximumSize(THINGS_PER_CUBE);
+
+        List<CubeImpl> cubes = new ArrayList<CubeImpl>();
+        for (long c = 0; c < CUBES; c++) {
+            CubeImpl cube = new CubeImpl();
+            cube.id = c;
+            cubes.add(cube);
+            assert cubeCache.seed(cube);
+            List<ThingRefImpl<?>> things = new ArrayList<ThingRefImpl<?>>();
+            for (long t = 0; t < THINGS_PER_CUBE; t++) {
+                ThingRefImpl<AbstractThing> thingRef = new ThingRefImpl<AbstractThing>();
+                thingRef.id = c * THINGS_PER_CUBE + t;
+                thingRef.cube = cube;
+                thingRef.type = "thing";
+                things.add(thingRef);
+            }
+            assert thingCache.seed(things);
+
+            // every cached cube keeps all of its things, over the thing bound
+            for (CubeImpl cached : cubes) {
+                Cache<ThingRefImpl<?>> forCube = thingCache.forCube(cached);
+                if (cubeCache.contains(cached.id)) {
+                    assert forCube.size() == THINGS_PER_CUBE : "cube " + cached.id + " lost things: " + forCube.size();
+                } else {
+                    assert forCube.size() == 0 : "cube " + cached.id + " was evicted, but kept its things";
+                }
+            }
+        }
+        assert cubeCache.size() == 2 : cubeCache.size();
+        assert thingCache.size() == 2 * THINGS_PER_CUBE : thingCache.size();
+
+        cubeCache.clear();
+        assert thingCache.size() == 0 : thingCache.size();
+        System.out.println("All tests passed");
+    }
+}
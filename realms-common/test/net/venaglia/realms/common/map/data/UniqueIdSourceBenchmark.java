@@ -0,0 +1,105 @@
+package net.venaglia.realms.common.map.data;
+
+import net.venaglia.common.util.Ref;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 9:10 PM
+ *
+ * Measures the throughput of AbstractUniqueIdSource.next() from 1 to 32
+ * threads, against a backing store that takes about a millisecond to
+ * reserve a range. Also checks that no id is handed out twice.
+ *
+ *   java -ea -Ddatabase.harmless=true ...
+ */
+public class UniqueIdSourceBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32 };
+    private static final int IDS_PER_THREAD = 100000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%8s %16s %12s\n", "threads", "next() (ids/s)", "reserves");
+        for (int threads : THREAD_COUNTS) {
+            run(threads);
+        }
+    }
+
+    private static void run(int threadCount) throws InterruptedException {
+        final BenchmarkIdSource source = new BenchmarkIdSource();
+        source.next(); // init, and reserve the first range
+        final long[][] ids = new long[threadCount][IDS_PER_THREAD];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final long[] mine = ids[t];
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < mine.length; i++) {
+                        mine[i] = source.next();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long[] all = new long[threadCount * IDS_PER_THREAD];
+        for (int t = 0; t < threadCount; t++) {
+            System.arraycopy(ids[t], 0, all, t * IDS_PER_THREAD, IDS_PER_THREAD);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assert all[i] != all[i - 1] : "id " + all[i] + " was handed out twice";
+        }
+        System.out.printf("%8d %16.0f %12d\n", threadCount, all.length * 1.0e9 / elapsed, source.reserves.get());
+    }
+
+    private static class BenchmarkIdSource extends AbstractUniqueIdSource {
+
+        private static final UUID INSTANCE = UUID.randomUUID();
+
+        private final AtomicLong next = new AtomicLong(1L);
+        private final AtomicLong reserves = new AtomicLong();
+
+        private BenchmarkIdSource() {
+            super(Sequence.THING, new Ref<UUID>() {
+                public UUID get() {
+                    return INSTANCE;
+                }
+            });
+        }
+
+        @Override
+        protected IdRange getNextRange(int size) {
+            try {
+                Thread.sleep(1L); // a round trip to the database
+            } catch (InterruptedException e) {
+                // don't care
+            }
+            reserves.incrementAndGet();
+            long start = next.getAndAdd(size);
+            return new IdRange(start, start + size);
+        }
+
+        @Override
+        protected long lookupNextAvailableInRange(IdRange range) {
+            return range.getStart();
+        }
+    }
+}
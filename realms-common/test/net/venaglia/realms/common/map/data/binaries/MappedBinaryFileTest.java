@@ -0,0 +1,125 @@
+package net.venaglia.realms.common.map.data.binaries;
+
+import net.venaglia.common.util.Digest;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 7:30 PM
+ */
+public class MappedBinaryFileTest {
+
+    private static final BinaryType TYPE = new BinaryType() {
+        public Class<?> getJavaType() {
+            return byte[].class;
+        }
+
+        public String mimeType() {
+            return "test/mapped";
+        }
+
+        public Map<String,Object> generateMetadata(byte[] data) {
+            return Collections.<String,Object>singletonMap("length", data.length);
+        }
+
+        public Map<String,Object> decodeMetadata(String encoded) {
+            return Collections.<String,Object>singletonMap("length", Integer.parseInt(encoded));
+        }
+
+        public String encodeMetadata(Map<String,Object> metadata) {
+            return String.valueOf(metadata.get("length"));
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        BinaryTypeRegistry.add(TYPE);
+        File file = File.createTempFile("binaries", ".seg");
+        assert file.delete();
+        file.deleteOnExit();
+
+        byte[] a = bytes(1000, 1);
+        byte[] b = bytes(5000, 2);
+        MappedBinaryFile binaries = new MappedBinaryFile(file, true);
+        binaries.open();
+        binaries.append(1L, TYPE, TYPE.generateMetadata(a), Digest.sha1(a), a);
+        binaries.link(TYPE.mimeType(), 100L, 1L);
+        binaries.link(TYPE.mimeType(), 101L, 1L); // de-duplicated, shared by two locators
+        binaries.append(2L, TYPE, TYPE.generateMetadata(b), Digest.sha1(b), b);
+        binaries.link(TYPE.mimeType(), 200L, 2L);
+        assertContents(binaries, 1L, a);
+        assertContents(binaries, 2L, b);
+        assert binaries.findId(TYPE.mimeType(), Digest.sha1(a), a.length) == 1L;
+        assert binaries.getReferenceCount(1L) == 2;
+        binaries.close();
+
+        // index is rebuilt from the file
+        binaries = new MappedBinaryFile(file, true);
+        binaries.open();
+        assert binaries.findId(TYPE.mimeType(), 100L) == 1L;
+        assert binaries.findId(TYPE.mimeType(), 101L) == 1L;
+        assert binaries.findId(TYPE.mimeType(), 200L) == 2L;
+        assert binaries.getReferenceCount(1L) == 2;
+        assertContents(binaries, 1L, a);
+        assertContents(binaries, 2L, b);
+
+        // replace and unlink
+        byte[] c = bytes(3000, 3);
+        binaries.append(2L, TYPE, TYPE.generateMetadata(c), Digest.sha1(c), c);
+        binaries.link(TYPE.mimeType(), 101L, null);
+        assertContents(binaries, 2L, c);
+        assert binaries.getSha1(2L).equals(Digest.sha1(c));
+        assert binaries.getLength(2L) == c.length;
+        assert binaries.getSha1(3L) == null && binaries.getLength(3L) == -1;
+        assert binaries.findId(TYPE.mimeType(), Digest.sha1(b), b.length) == null;
+        assert binaries.findId(TYPE.mimeType(), 101L) == null;
+        assert binaries.getReferenceCount(1L) == 1;
+        binaries.close();
+
+        binaries = new MappedBinaryFile(file, false);
+        binaries.open();
+        assertContents(binaries, 2L, c);
+        assert binaries.findId(TYPE.mimeType(), 101L) == null;
+        try {
+            binaries.link(TYPE.mimeType(), 300L, 2L);
+            assert false : "read only file accepted a write";
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        binaries.close();
+    }
+
+    private static void assertContents(MappedBinaryFile binaries, Long id, byte[] expected) throws Exception {
+        BinaryResource resource = new BinaryResource();
+        assert binaries.load(id, resource);
+        assert resource.isDirect();
+        assert resource.getLength() == expected.length;
+        assert resource.getMetadata().get("length").equals(expected.length);
+        ByteBuffer buffer = resource.getDataBuffer();
+        assert buffer.isReadOnly();
+        for (int i = 0; i < expected.length; i++) {
+            assert buffer.get(i) == expected[i] : "mismatch at " + i;
+        }
+        assert resource.getSha1Hash().equals(Digest.sha1(expected));
+
+        // hashing, or reading a copy, must not leave a heap copy behind
+        BinaryResource unhashed = new BinaryResource();
+        unhashed.init(id, resource.getType(), resource.getMetadata(), null, resource.getDataBuffer());
+        assert unhashed.getSha1Hash().equals(Digest.sha1(expected));
+        assert Arrays.equals(unhashed.getData(), expected);
+        assert unhashed.isDirect();
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte)(i * 31 + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,122 @@
+package net.venaglia.realms.common.map.serializers;
+
+import net.venaglia.common.util.Pair;
+import net.venaglia.common.util.serializer.ObjectSerializer;
+import net.venaglia.common.util.serializer.SerializerStrategy;
+import net.venaglia.gloo.physical.decorators.Color;
+import net.venaglia.gloo.physical.geom.Point;
+import net.venaglia.gloo.physical.geom.Vector;
+import net.venaglia.realms.common.map.things.TestThing;
+import net.venaglia.realms.common.map.things.ThingFactory;
+import net.venaglia.realms.common.map.things.ThingMetadata;
+import net.venaglia.realms.common.map.things.ThingProperties;
+import net.venaglia.realms.common.map.world.AcreDetail;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 9:40 PM
+ *
+ * Measures serialize and deserialize throughput, with no debugger attached,
+ * for the two payloads that dominate the data store: acre details, and the
+ * property buffers of things.
+ */
+public class SerializerBenchmark {
+
+    private static final int WARM_UP = 200000;
+    private static final int ITERATIONS = 500000;
+    private static final int ROUNDS = 5;
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        System.out.printf("%16s %18s %18s\n", "payload", "serialize (op/s)", "deserialize (op/s)");
+        benchmarkAcreDetail();
+        benchmarkThingProperties();
+    }
+
+    private static void benchmarkAcreDetail() {
+        final SerializerStrategy<AcreDetail> serializer = AcreDetail.DEFINITION.getSerializer();
+        final AcreDetail[] samples = AcreDetail.getSampleAcreDetail();
+        final ByteBuffer out = ByteBuffer.allocate(65536);
+        final ByteBuffer[] serialized = new ByteBuffer[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            out.clear();
+            serializer.serialize(samples[i], out);
+            out.flip();
+            serialized[i] = ByteBuffer.allocate(out.limit());
+            serialized[i].put(out).flip();
+        }
+        double write = measure(new Runnable() {
+            int i = 0;
+            public void run() {
+                out.clear();
+                serializer.serialize(samples[i++ % samples.length], out);
+                sink += out.position();
+            }
+        });
+        double read = measure(new Runnable() {
+            int i = 0;
+            public void run() {
+                ByteBuffer in = serialized[i++ % serialized.length];
+                in.rewind();
+                sink += serializer.deserialize(in).getId();
+            }
+        });
+        System.out.printf("%16s %18.0f %18.0f\n", "AcreDetail", write, read);
+    }
+
+    private static void benchmarkThingProperties() {
+        new TestThing(); // registers its metadata
+        ThingMetadata<?> metadata = ThingFactory.getFor(TestThing.class).getMetadata();
+        final ThingProperties properties = new ThingProperties(metadata, new byte[0]);
+        final ThingMetadata.PropertyMetadata<?> name = metadata.getPropertyMetadata("name");
+        final ThingMetadata.PropertyMetadata<?> color = metadata.getPropertyMetadata("color");
+        final ThingMetadata.PropertyMetadata<?> size = metadata.getPropertyMetadata("size");
+        final ThingMetadata.PropertyMetadata<?> mesh = metadata.getPropertyMetadata("mesh");
+        final ThingMetadata.PropertyMetadata<?> normals = metadata.getPropertyMetadata("normals");
+        final Point[] points = { new Point(1,2,3), new Point(4,5,6), new Point(7,8,9) };
+        final Vector[] vectors = { new Vector(1,2,3), new Vector(4,5,6), new Vector(7,8,9) };
+        final Color gray = new Color(0.5f, 0.5f, 0.5f, 1.0f);
+        double write = measure(new Runnable() {
+            public void run() {
+                properties.set(name, "benchmark");
+                properties.set(color, gray);
+                properties.set(size, 3);
+                properties.set(mesh, points);
+                properties.set(normals, vectors);
+                sink += properties.updateBuffer().length;
+            }
+        });
+        double read = measure(new Runnable() {
+            public void run() {
+                for (Iterator<Pair<ThingMetadata.PropertyMetadata<?>,Object>> i = properties.iterator(); i.hasNext(); ) {
+                    sink += i.next().getB().hashCode();
+                }
+            }
+        });
+        System.out.printf("%16s %18.0f %18.0f\n", "ThingProperties", write, read);
+        assert ObjectSerializer.INSTANCE.deserialize(ObjectSerializer.INSTANCE.serialize("sanity")).equals("sanity");
+    }
+
+    /**
+     * @return The best of several rounds, in operations per second.
+     */
+    private static double measure(Runnable op) {
+        for (int i = 0; i < WARM_UP; i++) {
+            op.run();
+        }
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                op.run();
+            }
+            best = Math.max(best, ITERATIONS * 1.0e9 / (System.nanoTime() - start));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,238 @@
+package net.venaglia.realms.common.map.things.annotations;
+
+import net.venaglia.common.util.Factory;
+import net.venaglia.common.util.Predicate;
+import net.venaglia.common.util.serializer.SerializerException;
+import net.venaglia.common.util.serializer.SerializerStrategy;
+import net.venaglia.realms.common.map.PropertyStore;
+import net.venaglia.realms.common.map.things.PropertyType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 10:45 PM
+ */
+public class GeneratedSerializerStrategyTest {
+
+    public static class Sample {
+        @Property
+        int count;
+        @Property
+        String label;
+        @Property
+        int[] values;
+    }
+
+    private static final SerializerStrategy<Sample> SERIALIZER =
+            AnnotationDrivenThingProcessor.generateSerializer(Sample.class, new Factory<Sample>() {
+                public Sample createEmpty() {
+                    return new Sample();
+                }
+            });
+
+    private static final Predicate<String> ONLY_LABEL = new Predicate<String>() {
+        public boolean allow(String value) {
+            return "label".equals(value);
+        }
+    };
+
+    public static void main(String[] args) {
+        testSchema();
+        testUnbound();
+        testRoundTrip();
+        testLegacyRecord();
+        testPartial();
+        testStoredSchema();
+        System.out.println("All tests passed");
+    }
+
+    private static void testSchema() {
+        PropertySchema schema = PropertySchema.create("test", Arrays.asList("a", "b"));
+        assert schema.extend(Arrays.asList("b", "a")) == schema;
+        PropertySchema extended = schema.extend(Arrays.asList("b", "c"));
+        assert extended.getVersion() == 2;
+        assert extended.getId("a") == 1 : "removed fields keep their ids";
+        assert extended.getId("b") == 2;
+        assert extended.getId("c") == 3;
+        PropertySchema decoded = PropertySchema.decode("test", extended.encode());
+        assert decoded.getVersion() == 2;
+        assert "c".equals(decoded.getName(3));
+        assert decoded.getId("missing") == -1;
+    }
+
+    private static void testUnbound() {
+        try {
+            serialize(sample());
+            assert false : "a generated serializer should not assign ids before a store is bound";
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static void testRoundTrip() {
+        PropertySchemaRegistry.bind(null, false, null);
+        Sample sample = sample();
+        ByteBuffer buffer = serialize(sample);
+        assert buffer.get(0) == AnnotationDrivenThingProcessor.GeneratedSerializerStrategy.SCHEMA_TAGGED;
+        assertEqual(sample, SERIALIZER.deserialize(buffer));
+        assert buffer.remaining() == 0;
+    }
+
+    private static void testLegacyRecord() {
+        PropertySchemaRegistry.bind(null, false, null);
+        Sample sample = sample();
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put((byte)4);
+        writeLegacyField("count", PropertyType.resolveForType(int.class), sample.count, buffer);
+        writeLegacyField("unknown", PropertyType.resolveForType(int.class), 99, buffer);
+        writeLegacyField("label", PropertyType.resolveForType(String.class), sample.label, buffer);
+        buffer.put((byte)6).put("values".getBytes(Charset.forName("UTF-8"))).putInt(-1);
+        buffer.flip();
+        Sample read = SERIALIZER.deserialize(buffer);
+        assert read.count == sample.count;
+        assert read.label.equals(sample.label);
+        assert read.values == null;
+        assert buffer.remaining() == 0;
+    }
+
+    private static void testPartial() {
+        PropertySchemaRegistry.bind(null, false, null);
+        ByteBuffer buffer = serialize(sample());
+        Sample partial = SERIALIZER.deserializePartial(buffer, ONLY_LABEL);
+        assert partial.count == 0;
+        assert partial.values == null;
+        assert "acre".equals(partial.label);
+        assert buffer.remaining() == 0;
+
+        buffer.rewind();
+        Map<String,Object> out = new HashMap<String,Object>();
+        SERIALIZER.deserializePartial(buffer, ONLY_LABEL, out);
+        assert out.size() == 1;
+        assert "acre".equals(out.get("label"));
+        assert buffer.remaining() == 0;
+    }
+
+    private static void testStoredSchema() {
+        final Map<String,String> properties = new HashMap<String,String>();
+        String key = "schema." + Sample.class.getName();
+        properties.put(key, "4:retired=1,values=2,count=3");
+        PropertyStore store = propertyStore(properties);
+        UUID instance = UUID.randomUUID();
+        PropertySchemaRegistry.bind(store, true, instance);
+        Sample sample = sample();
+        ByteBuffer buffer = serialize(sample);
+        assert "5:retired=1,values=2,count=3,label=4".equals(properties.get(key)) : properties.get(key);
+        assert buffer.get(1) == 5; // schema version
+        assertEqual(sample, SERIALIZER.deserialize(buffer));
+
+        // a record holding the retired field is still readable
+        buffer = ByteBuffer.allocate(64);
+        buffer.put(AnnotationDrivenThingProcessor.GeneratedSerializerStrategy.SCHEMA_TAGGED).put((byte)4).put((byte)2);
+        buffer.put((byte)1).putInt(4).putInt(12345);
+        buffer.put((byte)3).putInt(4).putInt(7);
+        buffer.flip();
+        Sample read = SERIALIZER.deserialize(buffer);
+        assert read.count == 7;
+        assert buffer.remaining() == 0;
+
+        // another process sharing the store added a field, and wrote a record with it
+        properties.put(key, "6:retired=1,values=2,count=3,label=4,extra=5");
+        buffer = ByteBuffer.allocate(64);
+        buffer.put(AnnotationDrivenThingProcessor.GeneratedSerializerStrategy.SCHEMA_TAGGED).put((byte)6).put((byte)2);
+        buffer.put((byte)5).putInt(4).putInt(12345);
+        buffer.put((byte)3).putInt(4).putInt(9);
+        buffer.flip();
+        read = SERIALIZER.deserialize(buffer);
+        assert read.count == 9;
+        assert buffer.remaining() == 0;
+        assert serialize(sample).get(1) == 6 : "the newer schema should have been reloaded";
+
+        // a version the store has never seen can't be trusted
+        buffer = ByteBuffer.allocate(64);
+        buffer.put(AnnotationDrivenThingProcessor.GeneratedSerializerStrategy.SCHEMA_TAGGED).put((byte)9).put((byte)0);
+        buffer.flip();
+        try {
+            SERIALIZER.deserialize(buffer);
+            assert false : "schema version 9 is not in the store";
+        } catch (SerializerException e) {
+            // expected
+        }
+
+        // a store of another instance can't be bound beside the first
+        try {
+            PropertySchemaRegistry.bind(propertyStore(new HashMap<String,String>()), true, UUID.randomUUID());
+            assert false : "a second instance would write records with the first one's field ids";
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            PropertySchemaRegistry.bind(null, false, null);
+            assert false : "a memory-only binding would drop the store's schemas";
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assert serialize(sample).get(1) == 6;
+
+        // another store of the same instance shares its schemas, and keeps them once the first is closed
+        PropertyStore sameInstance = propertyStore(properties);
+        PropertySchemaRegistry.bind(sameInstance, false, instance);
+        PropertySchemaRegistry.unbind(store);
+        assert serialize(sample).get(1) == 6;
+        PropertySchemaRegistry.unbind(sameInstance);
+        testUnbound();
+        PropertySchemaRegistry.bind(null, false, null);
+    }
+
+    private static PropertyStore propertyStore(final Map<String,String> properties) {
+        return new PropertyStore() {
+            public String get(String name) {
+                return properties.get(name);
+            }
+
+            public void set(String name, String value) {
+                properties.put(name, value);
+            }
+
+            public void remove(String name) {
+                properties.remove(name);
+            }
+        };
+    }
+
+    private static Sample sample() {
+        Sample sample = new Sample();
+        sample.count = 42;
+        sample.label = "acre";
+        sample.values = new int[]{ 1, 2, 3, 500 };
+        return sample;
+    }
+
+    private static ByteBuffer serialize(Sample sample) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        SERIALIZER.serialize(sample, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static <P> void writeLegacyField(String name, PropertyType<P> type, Object value, ByteBuffer out) {
+        byte[] bytes = name.getBytes(Charset.forName("UTF-8"));
+        out.put((byte)bytes.length).put(bytes);
+        int sizePosition = out.position();
+        out.putInt(0);
+        type.write(type.cast(value), out);
+        out.putInt(sizePosition, out.position() - sizePosition - 4);
+    }
+
+    private static void assertEqual(Sample expected, Sample actual) {
+        assert expected.count == actual.count;
+        assert expected.label.equals(actual.label);
+        assert Arrays.equals(expected.values, actual.values);
+    }
+}
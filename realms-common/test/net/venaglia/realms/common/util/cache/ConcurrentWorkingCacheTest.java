@@ -0,0 +1,352 @@
+package net.venaglia.realms.common.util.cache;
+
+import net.venaglia.common.util.Identifiable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 9:40 AM
+ */
+public class ConcurrentWorkingCacheTest {
+
+    private static final int KEYS = 4096;
+    private static final long RUN_MILLIS = 2000L;
+
+    public static void main(String[] args) throws Exception {
+        testLruOrder();
+        testSeedAndIterate();
+        testBounds();
+        testReweigh();
+        testSeedPinned();
+        testSingleFlight(false);
+        testSingleFlight(true);
+        testRecursiveLoad();
+        int maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+        System.out.printf("%8s %18s %18s %8s\n", "threads", "current (ops/s)", "concurrent (ops/s)", "ratio");
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            double basic = throughput(new BasicWorkingCache<Item>(), threads);
+            double concurrent = throughput(new BasicConcurrentWorkingCache<Item>(), threads);
+            System.out.printf("%8d %18.0f %18.0f %8.2f\n", threads, basic, concurrent, concurrent / basic);
+        }
+    }
+
+    private static void testLruOrder() {
+        Cache<Item> cache = new BasicConcurrentWorkingCache<Item>();
+        for (long i = 0; i < 8; i++) {
+            assert cache.seed(new Item(i));
+        }
+        assert !cache.seed(new Item(3L));
+        assert cache.size() == 8;
+        // touch the two oldest, they should now survive the first evictions
+        assert cache.get(0L).getId() == 0L;
+        assert cache.get(1L).getId() == 1L;
+        for (int i = 0; i < 6; i++) {
+            cache.evictOldest();
+        }
+        Set<Long> remaining = new HashSet<Long>();
+        for (Item item : cache) {
+            remaining.add(item.getId());
+        }
+        assert remaining.size() == 2 : remaining;
+        assert remaining.contains(0L) && remaining.contains(1L) : remaining;
+        cache.clear();
+        assert cache.size() == 0;
+    }
+
+    private static void testSeedAndIterate() {
+        final AtomicLong misses = new AtomicLong();
+        BasicConcurrentWorkingCache<Item> cache = new BasicConcurrentWorkingCache<Item>() {
+            @Override
+            protected Item miss(Long id) {
+                misses.incrementAndGet();
+                return new Item(id);
+            }
+        };
+        List<Item> items = new ArrayList<Item>();
+        for (long i = 0; i < 100; i++) {
+            items.add(new Item(i));
+        }
+        assert cache.seed(items);
+        assert !cache.seed(items);
+        assert cache.size() == 100;
+        assert cache.get(50L).getId() == 50L;
+        assert misses.get() == 0;
+        assert cache.get(500L).getId() == 500L;
+        assert misses.get() == 1;
+        assert cache.size() == 101;
+        assert cache.getIfPresent(500L).getId() == 500L;
+        assert cache.getIfPresent(600L) == null;
+        assert misses.get() == 1 : "getIfPresent() should never load";
+        int count = 0;
+        long last = -1L;
+        for (Item item : cache) {
+            assert item.getId() > last : "not in id order: " + item + " after " + last;
+            last = item.getId();
+            count++;
+        }
+        assert count == 101;
+        cache.evict(new Item(500L));
+        assert cache.size() == 100;
+    }
+
+    private static void testBounds() {
+        BasicConcurrentWorkingCache<Item> cache = new BasicConcurrentWorkingCache<Item>() {
+            @Override
+            protected boolean canEvict(AbstractWorkingCache.Node<Item> node) {
+                return node.getValue().getId() % 10 != 0; // pin every tenth item
+            }
+
+            @Override
+            protected long weigh(Item value) {
+                return 100L;
+            }
+        };
+        cache.setMaximumSize(20);
+        for (long i = 0; i < 100; i++) {
+            cache.seed(new Item(i));
+            cache.get(5L); // keep one hot item
+        }
+        assert cache.size() == 20 : cache.size();
+        Set<Long> remaining = new HashSet<Long>();
+        for (Item item : cache) {
+            remaining.add(item.getId());
+        }
+        for (long i = 0; i < 100; i += 10) {
+            assert remaining.contains(i) : "pinned item " + i + " was evicted: " + remaining;
+        }
+        assert remaining.contains(5L) : "hot item was evicted: " + remaining;
+        CacheStatistics statistics = cache.getStatistics();
+        assert statistics.getEvictionCount() == 80 : statistics;
+        assert statistics.getHitCount() == 95 : statistics; // item 5 was a miss until it was seeded
+        assert statistics.getMissCount() == 5 : statistics;
+        assert statistics.getWeight() == 2000L : statistics;
+
+        cache.setMaximumWeight(1500L);
+        assert cache.size() == 15 : cache.size();
+        assert cache.getStatistics().getWeight() == 1500L;
+
+        cache.setMaximumSize(5); // can't go below the pinned items
+        assert cache.size() == 10 : cache.size();
+    }
+
+    private static void testReweigh() {
+        final ConcurrentMap<Long,Long> weights = new ConcurrentHashMap<Long,Long>();
+        BasicConcurrentWorkingCache<Item> cache = new BasicConcurrentWorkingCache<Item>() {
+            @Override
+            protected long weigh(Item value) {
+                Long weight = weights.get(value.getId());
+                return weight == null ? 10L : weight;
+            }
+        };
+        cache.setMaximumWeight(100L);
+        for (long i = 0; i < 10; i++) {
+            cache.seed(new Item(i));
+        }
+        assert cache.getStatistics().getWeight() == 100L;
+        weights.put(3L, 40L); // grows after it was cached
+        cache.reweigh(cache.get(3L));
+        assert cache.getStatistics().getWeight() <= 100L : cache.getStatistics();
+        assert cache.size() == 7 : cache.size();
+        assert cache.contains(3L);
+
+        weights.put(3L, 70L); // the next applied hit notices
+        for (int i = 0; i < 64; i++) {
+            cache.get(3L);
+        }
+        cache.seed(new Item(99L)); // drains any hits still buffered
+        assert cache.getStatistics().getWeight() <= 100L : cache.getStatistics();
+        assert cache.contains(3L);
+    }
+
+    private static void testSeedPinned() {
+        BasicConcurrentWorkingCache<Item> cache = new BasicConcurrentWorkingCache<Item>();
+        cache.setMaximumSize(4);
+        for (long i = 0; i < 4; i++) {
+            cache.seed(new Item(i));
+        }
+        List<Item> prefetched = new ArrayList<Item>();
+        for (long i = 100; i < 108; i++) {
+            prefetched.add(new Item(i));
+        }
+        assert cache.seed(prefetched, 60000L);
+        assert cache.size() == 8 : cache.size(); // everything else went first
+        for (Item item : prefetched) {
+            assert cache.contains(item.getId()) : item;
+        }
+
+        BasicConcurrentWorkingCache<Item> expired = new BasicConcurrentWorkingCache<Item>();
+        expired.setMaximumSize(4);
+        assert expired.seed(prefetched, 0L);
+        assert expired.size() == 4 : expired.size();
+    }
+
+    private static void testSingleFlight(boolean concurrent) throws InterruptedException {
+        final CountingSource source = new CountingSource();
+        final Cache<Item> cache;
+        if (concurrent) {
+            cache = new BasicConcurrentWorkingCache<Item>() {
+                @Override
+                protected Item miss(Long id) {
+                    return source.load(id);
+                }
+            };
+        } else {
+            cache = new BasicWorkingCache<Item>() {
+                @Override
+                protected Item miss(Long id) {
+                    return source.load(id);
+                }
+            };
+        }
+        final int threads = 16;
+        final int coldKeys = 32;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Item[][] seen = new Item[threads][coldKeys];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int n = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < coldKeys; i++) {
+                        long key = (i + n) % coldKeys; // stagger, so every key is contended
+                        seen[n][(int)key] = cache.get(key);
+                    }
+                }
+            }, "cold-reader-" + t);
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (long key = 0; key < coldKeys; key++) {
+            assert source.count(key) == 1 : "key " + key + " was loaded " + source.count(key) + " times";
+            for (int t = 1; t < threads; t++) {
+                assert seen[t][(int)key] == seen[0][(int)key] : "readers of key " + key + " saw different values";
+            }
+        }
+        assert cache.size() == coldKeys : cache.size();
+    }
+
+    private static void testRecursiveLoad() {
+        final AtomicReference<Cache<Item>> self = new AtomicReference<Cache<Item>>();
+        BasicConcurrentWorkingCache<Item> cache = new BasicConcurrentWorkingCache<Item>() {
+            @Override
+            protected Item miss(Long id) {
+                return id == 7L ? self.get().get(id) : new Item(id);
+            }
+        };
+        self.set(cache);
+        try {
+            cache.get(7L);
+            assert false : "a loader that misses on its own key should fail, not hang";
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assert cache.get(8L).getId() == 8L;
+        assert !cache.contains(7L);
+    }
+
+    private static class CountingSource {
+
+        private final ConcurrentMap<Long,AtomicInteger> loads = new ConcurrentHashMap<Long,AtomicInteger>();
+
+        Item load(Long id) {
+            AtomicInteger count = loads.get(id);
+            if (count == null) {
+                loads.putIfAbsent(id, new AtomicInteger());
+                count = loads.get(id);
+            }
+            count.incrementAndGet();
+            try {
+                Thread.sleep(5L); // a slow database round trip
+            } catch (InterruptedException e) {
+                // don't care
+            }
+            return new Item(id);
+        }
+
+        int count(Long id) {
+            AtomicInteger count = loads.get(id);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    private static double throughput(final Cache<Item> cache, int threads) throws InterruptedException {
+        for (long i = 0; i < KEYS; i++) {
+            cache.seed(new Item(i));
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong ops = new AtomicLong();
+        final long[] stopAt = { 0L };
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t * 7919L + 1L;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    long x = seed;
+                    long count = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (System.nanoTime() < stopAt[0]) {
+                        for (int i = 0; i < 1024; i++) {
+                            x ^= x << 13;
+                            x ^= x >>> 7;
+                            x ^= x << 17;
+                            // skewed toward low ids, the way a hot working set is
+                            long key = (x & Long.MAX_VALUE) % KEYS;
+                            key = (key * key) / KEYS;
+                            cache.get(key);
+                        }
+                        count += 1024;
+                    }
+                    ops.addAndGet(count);
+                }
+            }, "cache-reader-" + t);
+            workers[t].start();
+        }
+        stopAt[0] = System.nanoTime() + RUN_MILLIS * 1000000L;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return ops.get() * 1000.0 / RUN_MILLIS;
+    }
+
+    private static class Item implements Identifiable {
+
+        private final Long id;
+
+        private Item(Long id) {
+            this.id = id;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "Item[" + id + "]";
+        }
+    }
+}
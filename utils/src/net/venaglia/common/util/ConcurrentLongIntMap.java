@@ -0,0 +1,170 @@
+package net.venaglia.common.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 2:05 AM
+ *
+ * A thread safe LongIntMap, split into separately locked segments, whose
+ * addTo() makes it a convenient table of counters. See
+ * ConcurrentLongObjectMap.
+ */
+public class ConcurrentLongIntMap {
+
+    private final LongIntMap[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final int missingValue;
+
+    public ConcurrentLongIntMap() {
+        this(16);
+    }
+
+    public ConcurrentLongIntMap(int expectedSize) {
+        this(expectedSize, Runtime.getRuntime().availableProcessors() * 4, 0);
+    }
+
+    public ConcurrentLongIntMap(int expectedSize, int concurrencyLevel, int missingValue) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(concurrencyLevel, 1 << 16)) * 2 - 1);
+        segments = new LongIntMap[count];
+        segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+        segmentMask = count - 1;
+        this.missingValue = missingValue;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new LongIntMap(expectedSize / count, 0.7f, missingValue);
+        }
+    }
+
+    private LongIntMap segmentFor(long key) {
+        return segments[PrimitiveHashing.mix(key) >>> segmentShift & segmentMask];
+    }
+
+    public int getMissingValue() {
+        return missingValue;
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongIntMap segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (LongIntMap segment : segments) {
+            synchronized (segment) {
+                if (!segment.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean containsKey(long key) {
+        LongIntMap segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    public int get(long key) {
+        LongIntMap segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public int put(long key, int value) {
+        LongIntMap segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    public int addTo(long key, int delta) {
+        LongIntMap segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.addTo(key, delta);
+        }
+    }
+
+    public int remove(long key) {
+        LongIntMap segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (LongIntMap segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return A weakly consistent cursor over this map. Setting a value
+     *     through the cursor puts it in the map.
+     */
+    public LongIntCursor cursor() {
+        return new LongIntCursor() {
+
+            private int segment = -1;
+            private long[] keys = new long[0];
+            private int[] values = new int[0];
+            private int index = -1;
+
+            public boolean next() {
+                while (++index >= keys.length) {
+                    if (++segment >= segments.length) {
+                        index = keys.length;
+                        return false;
+                    }
+                    copy(segments[segment]);
+                }
+                return true;
+            }
+
+            private void copy(LongIntMap map) {
+                synchronized (map) {
+                    keys = new long[map.size()];
+                    values = new int[keys.length];
+                    int i = 0;
+                    for (LongIntCursor cursor = map.cursor(); cursor.next(); i++) {
+                        keys[i] = cursor.key();
+                        values[i] = cursor.value();
+                    }
+                }
+                index = -1;
+            }
+
+            private int current() {
+                if (index < 0 || index >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                return index;
+            }
+
+            public long key() {
+                return keys[current()];
+            }
+
+            public int value() {
+                return values[current()];
+            }
+
+            public void setValue(int value) {
+                int i = current();
+                put(keys[i], value);
+                values[i] = value;
+            }
+        };
+    }
+}
@@ -0,0 +1,193 @@
+package net.venaglia.common.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 1:50 AM
+ *
+ * A thread safe LongObjectMap, split into segments that are each locked on
+ * their own, so threads working on different keys rarely wait on each other.
+ * Cursors are weakly consistent: each segment is copied when the cursor
+ * reaches it, and changes after that are not seen.
+ */
+public class ConcurrentLongObjectMap<V> {
+
+    private final LongObjectMap<V>[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    public ConcurrentLongObjectMap() {
+        this(16);
+    }
+
+    public ConcurrentLongObjectMap(int expectedSize) {
+        this(expectedSize, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongObjectMap(int expectedSize, int concurrencyLevel) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(concurrencyLevel, 1 << 16)) * 2 - 1);
+        segments = (LongObjectMap<V>[])new LongObjectMap<?>[count];
+        segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+        segmentMask = count - 1;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new LongObjectMap<V>(expectedSize / count);
+        }
+    }
+
+    private LongObjectMap<V> segmentFor(long key) {
+        return segments[PrimitiveHashing.mix(key) >>> segmentShift & segmentMask];
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongObjectMap<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (LongObjectMap<V> segment : segments) {
+            synchronized (segment) {
+                if (!segment.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean containsKey(long key) {
+        LongObjectMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    public V get(long key) {
+        LongObjectMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public V put(long key, V value) {
+        LongObjectMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    public V putIfAbsent(long key, V value) {
+        LongObjectMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.putIfAbsent(key, value);
+        }
+    }
+
+    public V remove(long key) {
+        LongObjectMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes the key only if it is mapped to the passed value.
+     */
+    public boolean remove(long key, V value) {
+        LongObjectMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (value != null && value.equals(segment.get(key))) {
+                segment.remove(key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public void clear() {
+        for (LongObjectMap<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public LongSet keySet() {
+        LongSet set = new LongSet(size());
+        for (LongObjectMap<V> segment : segments) {
+            synchronized (segment) {
+                for (LongObjectCursor<V> cursor = segment.cursor(); cursor.next();) {
+                    set.add(cursor.key());
+                }
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @return A weakly consistent cursor over this map. Setting a value
+     *     through the cursor puts it in the map.
+     */
+    public LongObjectCursor<V> cursor() {
+        return new LongObjectCursor<V>() {
+
+            private int segment = -1;
+            private long[] keys = new long[0];
+            private Object[] values = new Object[0];
+            private int index = -1;
+
+            public boolean next() {
+                while (++index >= keys.length) {
+                    if (++segment >= segments.length) {
+                        index = keys.length;
+                        return false;
+                    }
+                    copy(segments[segment]);
+                }
+                return true;
+            }
+
+            private void copy(LongObjectMap<V> map) {
+                synchronized (map) {
+                    keys = new long[map.size()];
+                    values = new Object[keys.length];
+                    int i = 0;
+                    for (LongObjectCursor<V> cursor = map.cursor(); cursor.next(); i++) {
+                        keys[i] = cursor.key();
+                        values[i] = cursor.value();
+                    }
+                }
+                index = -1;
+            }
+
+            private int current() {
+                if (index < 0 || index >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                return index;
+            }
+
+            public long key() {
+                return keys[current()];
+            }
+
+            @SuppressWarnings("unchecked")
+            public V value() {
+                return (V)values[current()];
+            }
+
+            public void setValue(V value) {
+                int i = current();
+                put(keys[i], value);
+                values[i] = value;
+            }
+        };
+    }
+}
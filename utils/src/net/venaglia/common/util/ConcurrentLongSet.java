@@ -0,0 +1,137 @@
+package net.venaglia.common.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 2:00 AM
+ *
+ * A thread safe LongSet, split into separately locked segments. See
+ * ConcurrentLongObjectMap.
+ */
+public class ConcurrentLongSet {
+
+    private final LongSet[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    public ConcurrentLongSet() {
+        this(16);
+    }
+
+    public ConcurrentLongSet(int expectedSize) {
+        this(expectedSize, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public ConcurrentLongSet(int expectedSize, int concurrencyLevel) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(concurrencyLevel, 1 << 16)) * 2 - 1);
+        segments = new LongSet[count];
+        segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+        segmentMask = count - 1;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new LongSet(expectedSize / count);
+        }
+    }
+
+    private LongSet segmentFor(long v) {
+        return segments[PrimitiveHashing.mix(v) >>> segmentShift & segmentMask];
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongSet segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (LongSet segment : segments) {
+            synchronized (segment) {
+                if (!segment.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean contains(long v) {
+        LongSet segment = segmentFor(v);
+        synchronized (segment) {
+            return segment.contains(v);
+        }
+    }
+
+    public boolean add(long v) {
+        LongSet segment = segmentFor(v);
+        synchronized (segment) {
+            return segment.add(v);
+        }
+    }
+
+    public boolean remove(long v) {
+        LongSet segment = segmentFor(v);
+        synchronized (segment) {
+            return segment.remove(v);
+        }
+    }
+
+    public void clear() {
+        for (LongSet segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return A copy of this set, consistent within each segment.
+     */
+    public LongSet toLongSet() {
+        LongSet set = new LongSet(size());
+        for (LongSet segment : segments) {
+            synchronized (segment) {
+                set.addAll(segment);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @return A weakly consistent cursor over this set.
+     */
+    public LongCursor cursor() {
+        return new LongCursor() {
+
+            private int segment = -1;
+            private long[] keys = new long[0];
+            private int index = -1;
+
+            public boolean next() {
+                while (++index >= keys.length) {
+                    if (++segment >= segments.length) {
+                        index = keys.length;
+                        return false;
+                    }
+                    LongSet set = segments[segment];
+                    synchronized (set) {
+                        keys = set.toArray();
+                    }
+                    index = -1;
+                }
+                return true;
+            }
+
+            public long key() {
+                if (index < 0 || index >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                return keys[index];
+            }
+        };
+    }
+}
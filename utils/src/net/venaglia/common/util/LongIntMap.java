@@ -0,0 +1,272 @@
+package net.venaglia.common.util;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 1:35 AM
+ *
+ * A map of primitive long keys to primitive int values, in parallel open
+ * addressing arrays, for counts and indexes keyed by id. NO_KEY marks free
+ * slots, so it cannot be used as a key. Lookups of a missing key return the
+ * map's missing value, 0 unless another is passed to the constructor.
+ */
+public class LongIntMap {
+
+    public static final long NO_KEY = Long.MIN_VALUE;
+
+    private final float loadFactor;
+    private final int missingValue;
+
+    private int size;
+    private int mask;
+    private int maxFill;
+    private int modCount;
+    private long[] keys;
+    private int[] values;
+
+    public LongIntMap() {
+        this(8, 0.7f, 0);
+    }
+
+    public LongIntMap(int expectedSize) {
+        this(expectedSize, 0.7f, 0);
+    }
+
+    public LongIntMap(int expectedSize, float loadFactor, int missingValue) {
+        this.loadFactor = PrimitiveHashing.checkLoadFactor(loadFactor);
+        this.missingValue = missingValue;
+        allocate(PrimitiveHashing.tableSizeFor(expectedSize, loadFactor));
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        values = new int[tableSize];
+        Arrays.fill(keys, NO_KEY);
+        mask = tableSize - 1;
+        maxFill = PrimitiveHashing.maxFill(tableSize, loadFactor);
+    }
+
+    public int getMissingValue() {
+        return missingValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(long key) {
+        if (key == NO_KEY) {
+            return -1;
+        }
+        long[] keys = this.keys;
+        for (int i = PrimitiveHashing.mix(key) & mask; ; i = i + 1 & mask) {
+            long k = keys[i];
+            if (k == key) return i;
+            if (k == NO_KEY) return -1;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public int get(long key) {
+        int i = indexOf(key);
+        return i < 0 ? missingValue : values[i];
+    }
+
+    /**
+     * @return The value previously mapped to the key, or the missing value.
+     */
+    public int put(long key, int value) {
+        int i = insert(key);
+        if (i < 0) {
+            values[-i - 1] = value;
+            return missingValue;
+        }
+        int old = values[i];
+        values[i] = value;
+        return old;
+    }
+
+    /**
+     * Adds to the value mapped to a key, starting from the missing value if
+     * there is none.
+     * @return The new value.
+     */
+    public int addTo(long key, int delta) {
+        int i = insert(key);
+        if (i < 0) {
+            return values[-i - 1] = missingValue + delta;
+        }
+        return values[i] += delta;
+    }
+
+    /**
+     * @return The index of the key, or if it was just added, -(index + 1).
+     */
+    private int insert(long key) {
+        if (key == NO_KEY) {
+            throw new IllegalArgumentException();
+        }
+        long[] keys = this.keys;
+        int i = PrimitiveHashing.mix(key) & mask;
+        for (long k = keys[i]; k != NO_KEY; k = keys[i]) {
+            if (k == key) {
+                return i;
+            }
+            i = i + 1 & mask;
+        }
+        keys[i] = key;
+        modCount++;
+        if (++size > maxFill) {
+            rehash(PrimitiveHashing.grow(keys.length));
+            i = indexOf(key);
+        }
+        return -i - 1;
+    }
+
+    /**
+     * @return The value that was mapped to the key, or the missing value.
+     */
+    public int remove(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return missingValue;
+        }
+        int old = values[i];
+        shiftKeys(i);
+        size--;
+        modCount++;
+        return old;
+    }
+
+    private void shiftKeys(int pos) {
+        long[] keys = this.keys;
+        int[] values = this.values;
+        for (int last = pos; ; last = pos) {
+            long k;
+            for (pos = last + 1 & mask; ; pos = pos + 1 & mask) {
+                k = keys[pos];
+                if (k == NO_KEY) {
+                    keys[last] = NO_KEY;
+                    return;
+                }
+                int slot = PrimitiveHashing.mix(k) & mask;
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+            }
+            keys[last] = k;
+            values[last] = values[pos];
+        }
+    }
+
+    public void clear() {
+        if (size > 0) {
+            size = 0;
+            Arrays.fill(keys, NO_KEY);
+        }
+        modCount++;
+    }
+
+    private void rehash(int tableSize) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(tableSize);
+        long[] keys = this.keys;
+        int[] values = this.values;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k != NO_KEY) {
+                int i = PrimitiveHashing.mix(k) & mask;
+                while (keys[i] != NO_KEY) {
+                    i = i + 1 & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    public LongSet keySet() {
+        LongSet set = new LongSet(size);
+        for (long k : keys) {
+            if (k != NO_KEY) {
+                set.add(k);
+            }
+        }
+        return set;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder(size * 12);
+        boolean first = true;
+        buffer.append('{');
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != NO_KEY) {
+                if (first) {
+                    first = false;
+                } else {
+                    buffer.append(',');
+                }
+                buffer.append(keys[i]).append('=').append(values[i]);
+            }
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+
+    /**
+     * @return A cursor over this map. Changing a value through the cursor is
+     *     fine; any other change to the map causes the cursor to throw a
+     *     ConcurrentModificationException.
+     */
+    public LongIntCursor cursor() {
+        return new LongIntCursor() {
+
+            private final int expectedModCount = modCount;
+
+            private int index = -1;
+
+            public boolean next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                long[] keys = LongIntMap.this.keys;
+                while (++index < keys.length) {
+                    if (keys[index] != NO_KEY) return true;
+                }
+                return false;
+            }
+
+            private int current() {
+                if (index < 0 || index >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                return index;
+            }
+
+            public long key() {
+                return keys[current()];
+            }
+
+            public int value() {
+                return values[current()];
+            }
+
+            public void setValue(int value) {
+                values[current()] = value;
+            }
+        };
+    }
+}
@@ -0,0 +1,267 @@
+package net.venaglia.common.util;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 1:25 AM
+ *
+ * A map of primitive long keys to objects, in parallel open addressing
+ * arrays, with no boxed keys and no entry objects. NO_KEY marks free slots,
+ * so it cannot be used as a key. Null values are not allowed; get() returns
+ * null for a missing key.
+ */
+public class LongObjectMap<V> {
+
+    public static final long NO_KEY = Long.MIN_VALUE;
+
+    private final float loadFactor;
+
+    private int size;
+    private int mask;
+    private int maxFill;
+    private int modCount;
+    private long[] keys;
+    private Object[] values;
+
+    public LongObjectMap() {
+        this(8, 0.7f);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        this(expectedSize, 0.7f);
+    }
+
+    public LongObjectMap(int expectedSize, float loadFactor) {
+        this.loadFactor = PrimitiveHashing.checkLoadFactor(loadFactor);
+        allocate(PrimitiveHashing.tableSizeFor(expectedSize, loadFactor));
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        values = new Object[tableSize];
+        Arrays.fill(keys, NO_KEY);
+        mask = tableSize - 1;
+        maxFill = PrimitiveHashing.maxFill(tableSize, loadFactor);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(long key) {
+        if (key == NO_KEY) {
+            return -1;
+        }
+        long[] keys = this.keys;
+        for (int i = PrimitiveHashing.mix(key) & mask; ; i = i + 1 & mask) {
+            long k = keys[i];
+            if (k == key) return i;
+            if (k == NO_KEY) return -1;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V)values[i];
+    }
+
+    /**
+     * @return The value previously mapped to the key, or null.
+     */
+    public V put(long key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * @return The value already mapped to the key, or null if there was none
+     *     and the passed value was added.
+     */
+    public V putIfAbsent(long key, V value) {
+        return put(key, value, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(long key, V value, boolean replace) {
+        if (key == NO_KEY) {
+            throw new IllegalArgumentException();
+        }
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        long[] keys = this.keys;
+        int i = PrimitiveHashing.mix(key) & mask;
+        for (long k = keys[i]; k != NO_KEY; k = keys[i]) {
+            if (k == key) {
+                V old = (V)values[i];
+                if (replace) {
+                    values[i] = value;
+                }
+                return old;
+            }
+            i = i + 1 & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        modCount++;
+        if (++size > maxFill) {
+            rehash(PrimitiveHashing.grow(keys.length));
+        }
+        return null;
+    }
+
+    /**
+     * @return The value that was mapped to the key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        V old = (V)values[i];
+        shiftKeys(i);
+        size--;
+        modCount++;
+        return old;
+    }
+
+    private void shiftKeys(int pos) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        for (int last = pos; ; last = pos) {
+            long k;
+            for (pos = last + 1 & mask; ; pos = pos + 1 & mask) {
+                k = keys[pos];
+                if (k == NO_KEY) {
+                    keys[last] = NO_KEY;
+                    values[last] = null;
+                    return;
+                }
+                int slot = PrimitiveHashing.mix(k) & mask;
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+            }
+            keys[last] = k;
+            values[last] = values[pos];
+        }
+    }
+
+    public void clear() {
+        if (size > 0) {
+            size = 0;
+            Arrays.fill(keys, NO_KEY);
+            Arrays.fill(values, null);
+        }
+        modCount++;
+    }
+
+    private void rehash(int tableSize) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(tableSize);
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k != NO_KEY) {
+                int i = PrimitiveHashing.mix(k) & mask;
+                while (keys[i] != NO_KEY) {
+                    i = i + 1 & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    public LongSet keySet() {
+        LongSet set = new LongSet(size);
+        for (long k : keys) {
+            if (k != NO_KEY) {
+                set.add(k);
+            }
+        }
+        return set;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder(size * 16);
+        boolean first = true;
+        buffer.append('{');
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != NO_KEY) {
+                if (first) {
+                    first = false;
+                } else {
+                    buffer.append(',');
+                }
+                buffer.append(keys[i]).append('=').append(values[i]);
+            }
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+
+    /**
+     * @return A cursor over this map. Changing a value through the cursor is
+     *     fine; any other change to the map causes the cursor to throw a
+     *     ConcurrentModificationException.
+     */
+    public LongObjectCursor<V> cursor() {
+        return new LongObjectCursor<V>() {
+
+            private final int expectedModCount = modCount;
+
+            private int index = -1;
+
+            public boolean next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                long[] keys = LongObjectMap.this.keys;
+                while (++index < keys.length) {
+                    if (keys[index] != NO_KEY) return true;
+                }
+                return false;
+            }
+
+            private int current() {
+                if (index < 0 || index >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                return index;
+            }
+
+            public long key() {
+                return keys[current()];
+            }
+
+            @SuppressWarnings("unchecked")
+            public V value() {
+                return (V)values[current()];
+            }
+
+            public void setValue(V value) {
+                if (value == null) {
+                    throw new NullPointerException();
+                }
+                values[current()] = value;
+            }
+        };
+    }
+}
@@ -0,0 +1,267 @@
+package net.venaglia.common.util;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 1:10 AM
+ *
+ * A set of primitive longs in a single open addressing table, with no boxing
+ * and no per-element objects. NO_VALUE marks free slots, so it cannot be
+ * added. Removal shifts later entries back rather than leaving tombstones,
+ * so lookups stay short however many elements come and go.
+ */
+public class LongSet implements Cloneable {
+
+    public static final long NO_VALUE = Long.MIN_VALUE;
+
+    private final float loadFactor;
+
+    private int size;
+    private int mask;
+    private int maxFill;
+    private int modCount;
+    private long[] keys;
+
+    public LongSet() {
+        this(8, 0.7f);
+    }
+
+    public LongSet(int expectedSize) {
+        this(expectedSize, 0.7f);
+    }
+
+    public LongSet(int expectedSize, float loadFactor) {
+        this.loadFactor = PrimitiveHashing.checkLoadFactor(loadFactor);
+        allocate(PrimitiveHashing.tableSizeFor(expectedSize, loadFactor));
+    }
+
+    private LongSet(LongSet that) {
+        this.loadFactor = that.loadFactor;
+        this.size = that.size;
+        this.mask = that.mask;
+        this.maxFill = that.maxFill;
+        this.keys = that.keys.clone();
+    }
+
+    @SuppressWarnings({ "CloneDoesntDeclareCloneNotSupportedException", "CloneDoesntCallSuperClone" })
+    @Override
+    public LongSet clone() {
+        return new LongSet(this);
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        Arrays.fill(keys, NO_VALUE);
+        mask = tableSize - 1;
+        maxFill = PrimitiveHashing.maxFill(tableSize, loadFactor);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(long v) {
+        long[] keys = this.keys;
+        for (int i = PrimitiveHashing.mix(v) & mask; ; i = i + 1 & mask) {
+            long k = keys[i];
+            if (k == v) return i;
+            if (k == NO_VALUE) return -1;
+        }
+    }
+
+    public boolean contains(long v) {
+        return v != NO_VALUE && indexOf(v) >= 0;
+    }
+
+    public boolean containsAll(LongSet set) {
+        if (set.size() > size) {
+            return false;
+        }
+        for (LongCursor cursor = set.cursor(); cursor.next();) {
+            if (indexOf(cursor.key()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean add(long v) {
+        if (v == NO_VALUE) {
+            throw new IllegalArgumentException();
+        }
+        long[] keys = this.keys;
+        int i = PrimitiveHashing.mix(v) & mask;
+        for (long k = keys[i]; k != NO_VALUE; k = keys[i]) {
+            if (k == v) return false;
+            i = i + 1 & mask;
+        }
+        keys[i] = v;
+        modCount++;
+        if (++size > maxFill) {
+            rehash(PrimitiveHashing.grow(keys.length));
+        }
+        return true;
+    }
+
+    public boolean addAll(LongSet set) {
+        boolean changed = false;
+        for (LongCursor cursor = set.cursor(); cursor.next();) {
+            changed |= add(cursor.key());
+        }
+        return changed;
+    }
+
+    public boolean remove(long v) {
+        int i = v == NO_VALUE ? -1 : indexOf(v);
+        if (i < 0) {
+            return false;
+        }
+        shiftKeys(i);
+        size--;
+        modCount++;
+        return true;
+    }
+
+    public boolean removeAll(LongSet set) {
+        boolean changed = false;
+        for (LongCursor cursor = set.cursor(); cursor.next();) {
+            changed |= remove(cursor.key());
+        }
+        return changed;
+    }
+
+    /**
+     * Closes the gap left by a removed key, moving back any later key in the
+     * same run that would otherwise no longer be found.
+     */
+    private void shiftKeys(int pos) {
+        long[] keys = this.keys;
+        for (int last = pos; ; last = pos) {
+            long k;
+            for (pos = last + 1 & mask; ; pos = pos + 1 & mask) {
+                k = keys[pos];
+                if (k == NO_VALUE) {
+                    keys[last] = NO_VALUE;
+                    return;
+                }
+                int slot = PrimitiveHashing.mix(k) & mask;
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+            }
+            keys[last] = k;
+        }
+    }
+
+    public void clear() {
+        if (size > 0) {
+            size = 0;
+            Arrays.fill(keys, NO_VALUE);
+        }
+        modCount++;
+    }
+
+    private void rehash(int tableSize) {
+        long[] oldKeys = keys;
+        allocate(tableSize);
+        long[] keys = this.keys;
+        for (long k : oldKeys) {
+            if (k != NO_VALUE) {
+                int i = PrimitiveHashing.mix(k) & mask;
+                while (keys[i] != NO_VALUE) {
+                    i = i + 1 & mask;
+                }
+                keys[i] = k;
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (long k : keys) {
+            if (k != NO_VALUE) {
+                h += (int)(k ^ k >>> 32);
+            }
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || !(obj instanceof LongSet) || ((LongSet)obj).size() != size) {
+            return false;
+        }
+        return containsAll((LongSet)obj);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder(size * 8);
+        boolean first = true;
+        buffer.append('[');
+        for (long k : keys) {
+            if (k != NO_VALUE) {
+                if (first) {
+                    first = false;
+                } else {
+                    buffer.append(',');
+                }
+                buffer.append(k);
+            }
+        }
+        buffer.append(']');
+        return buffer.toString();
+    }
+
+    /**
+     * @return A cursor over this set. Any change to the set, other than
+     *     through another cursor, causes the cursor to throw a
+     *     ConcurrentModificationException.
+     */
+    public LongCursor cursor() {
+        return new LongCursor() {
+
+            private final int expectedModCount = modCount;
+
+            private int index = -1;
+
+            public boolean next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                long[] keys = LongSet.this.keys;
+                while (++index < keys.length) {
+                    if (keys[index] != NO_VALUE) return true;
+                }
+                return false;
+            }
+
+            public long key() {
+                if (index < 0 || index >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                return keys[index];
+            }
+        };
+    }
+
+    public long[] toArray() {
+        long[] array = new long[size];
+        int i = 0;
+        for (long k : keys) {
+            if (k != NO_VALUE) {
+                array[i++] = k;
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,66 @@
+package net.venaglia.common.util;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 1:05 AM
+ *
+ * Hashing and table sizing shared by the open addressing primitive sets and
+ * maps. Tables are powers of two, probed linearly, and always keep at least
+ * one free slot so a probe for a missing key ends.
+ */
+final class PrimitiveHashing {
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private PrimitiveHashing() {
+        // pure static class
+    }
+
+    /**
+     * Spreads a long key so that sequential ids land in scattered slots, and
+     * both halves of the key affect the low bits used to pick a slot.
+     */
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ h >>> 32);
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    static float checkLoadFactor(float loadFactor) {
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        return loadFactor;
+    }
+
+    /**
+     * @return The table size needed to hold the passed number of entries
+     *     without exceeding the load factor.
+     */
+    static int tableSizeFor(int expected, float loadFactor) {
+        if (expected < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + expected);
+        }
+        long needed = Math.max(2L, (long)Math.ceil(expected / loadFactor) + 1);
+        if (needed > MAXIMUM_CAPACITY) {
+            return MAXIMUM_CAPACITY;
+        }
+        return Integer.highestOneBit((int)needed - 1) << 1;
+    }
+
+    static int maxFill(int tableSize, float loadFactor) {
+        return Math.min(tableSize - 1, (int)Math.ceil(tableSize * loadFactor));
+    }
+
+    static int grow(int tableSize) {
+        if (tableSize >= MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("Not enough room");
+        }
+        return tableSize << 1;
+    }
+}
@@ -2,8 +2,6 @@ package net.venaglia.common.util;
 
 //import junit.framework.TestCase;
 
-import java.util.List;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.ConcurrentModificationException;
 import java.util.NoSuchElementException;
@@ -12,28 +10,22 @@ import java.util.NoSuchElementException;
  * Utility class that contains integers as a set of ranges. While this set may
  * report an enormous size, it is not likely that it will consume a large
  * amount of memeory if the values are mostly consecutive.
+ *
+ * Values are held in 64K chunks, each as a run list, a sorted array or a
+ * bitmap, whichever is smallest, so scattered values are cheap to add too.
+ * See ContainerSet.
  */
 public class RangeBasedIntegerSet implements Iterable<Integer> {
 
-    private List<Range> _liAllRanges;
-    private long _lSize;
+    private final ContainerSet _oValues;
     private int _iModCount = 0;
 
     public RangeBasedIntegerSet() {
-        _liAllRanges = new ArrayList<Range>();
-        _liAllRanges.add(new Range(false, Integer.MIN_VALUE, Integer.MAX_VALUE));
-        _lSize = 0;
+        _oValues = new ContainerSet(Integer.MIN_VALUE, Integer.MAX_VALUE);
     }
 
     public RangeBasedIntegerSet(RangeBasedIntegerSet oIntSet) {
-        _liAllRanges = new ArrayList<Range>(oIntSet._liAllRanges.size());
-        for (int i = 0; i < oIntSet._liAllRanges.size(); i++) {
-            Range oRange = oIntSet._liAllRanges.get(i);
-            _liAllRanges.add(new Range(oRange.isIncluded(),
-                                       oRange.getBegin(),
-                                       oRange.getEnd()));
-        }
-        _lSize = oIntSet._lSize;
+        _oValues = new ContainerSet(oIntSet._oValues);
     }
 
     private void valdateFromTo(int iFrom, int iTo) {
@@ -43,348 +35,61 @@ public class RangeBasedIntegerSet implements Iterable<Integer> {
         }
     }
 
-    private Range findRange(int iValue) {
-        Range oRange = null;
-        int iLow = 0;
-        int iHigh = _liAllRanges.size() - 1;
-        while (iLow <= iHigh) {
-            int iMid = (iLow + iHigh) >> 1;
-            Range oMidRange = _liAllRanges.get(iMid);
-            int iCmp = oMidRange.compareTo(iValue);
-
-            if (iCmp < 0) {
-                iLow = iMid + 1;
-            } else if (iCmp > 0) {
-                iHigh = iMid - 1;
-            } else {
-                oMidRange.setIndex(iMid);
-                oRange = oMidRange;
-                break;
-            }
-        }
-//    if (oRange == null)
-//    {
-//      throw new RuntimeException("Binary search failed. findRange() should " +
-//                                 "ALWAYS find something.");
-//    }
-        return oRange;
-    }
-
-    private void alterRanges(Range[] arNewRanges) {
-        int iBaseIndex = -1;
-        int iNewRangeIndex = -1;
-        for (int i = 0; i < arNewRanges.length; i++) {
-            Range oNewRange = arNewRanges[i];
-            if (oNewRange.getIndex() >= 0) {
-//        if (iNewRangeIndex >= 0)
-//        {
-//          // more than one, abort
-//          iNewRangeIndex = -1;
-//          iBaseIndex = -1;
-//          break;
-//        }
-                iNewRangeIndex = i;
-                iBaseIndex = oNewRange.getIndex();
-            }
-        }
-//    if (iBaseIndex < 0)
-//    {
-//      throw new RuntimeException("alterRanges() only valid when there is " +
-//                                 "exactly one existing range in the array.");
-//    }
-        for (int i = 0; i < arNewRanges.length; i++) {
-            Range oNewRange = arNewRanges[i];
-            int iInsertIndex = iBaseIndex + i;
-            oNewRange.setIndex(iInsertIndex);
-            if (i != iNewRangeIndex) {
-                _liAllRanges.add(iInsertIndex, oNewRange);
-                _lSize += oNewRange.size();
-            }
-        }
-        // remove any following ranges that are overlapped by newly inserted ranges.
-        {
-            int iTestIndex = iBaseIndex + arNewRanges.length - 1;
-            Range oThisRange = _liAllRanges.get(iTestIndex);
-            boolean boDoneRemoving = (iTestIndex + 1) >= _liAllRanges.size();
-            while (!boDoneRemoving) {
-                Range oNextRange = _liAllRanges.get(iTestIndex + 1);
-                if ((oThisRange.getEnd() + 1) == oNextRange.getBegin()) {
-                    boDoneRemoving = true;
-                } else {
-                    RangeBasedIntegerSet.Range oRange
-                            = _liAllRanges.remove(iTestIndex + 1);
-                    _lSize -= oRange.size();
-                    if (iTestIndex + 1 >= _liAllRanges.size()) {
-                        boDoneRemoving = true;
-                    }
-                }
-            }
-        }
-        for (int i = iBaseIndex + arNewRanges.length - 1; i >= (iBaseIndex - 1); i--) {
-            if ((i >= 0) && (i + 1 < _liAllRanges.size())) {
-                Range oThisRange = _liAllRanges.get(i);
-                Range oNextRange = _liAllRanges.get(i + 1);
-                if ((oThisRange.isIncluded() == oNextRange.isIncluded()) &&
-                        ((oThisRange.getEnd() + 1) == oNextRange.getBegin())) {
-                    // consolidate these adjacent ranges, size is not modified here.
-                    oNextRange.setBegin(oThisRange.getBegin());
-                    _liAllRanges.remove(i);
-                }
-            }
+    private boolean changed(boolean boChanged) {
+        if (boChanged) {
+            _iModCount++;
         }
+        return boChanged;
     }
 
     public boolean isEmpty() {
-        return _lSize == 0;
+        return _oValues.isEmpty();
     }
 
     public boolean contains(int iValue) {
-        return findRange(iValue).isIncluded();
+        return _oValues.contains(iValue);
     }
 
     public boolean add(int iValue) {
-        Range oRange = findRange(iValue);
-        boolean boChanged = false;
-        if (!oRange.isIncluded()) {
-            Range oNewRange = new Range(true, iValue, iValue);
-            Range[] arModifyRanges;
-            if ((oRange.getBegin() == iValue) && (oRange.getEnd() == iValue)) {
-                _lSize += oRange.setIncluded(true);
-                arModifyRanges = new Range[]{
-                        oRange
-                };
-            } else if (oRange.getBegin() == iValue) {
-                _lSize += oRange.setBegin(iValue + 1);
-                arModifyRanges = new Range[]{
-                        oNewRange,
-                        oRange
-                };
-            } else if (oRange.getEnd() == iValue) {
-                _lSize += oRange.setEnd(iValue - 1);
-                arModifyRanges = new Range[]{
-                        oRange,
-                        oNewRange
-                };
-            } else {
-                int iEndValue = oRange.getEnd();
-                _lSize += oRange.setEnd(iValue - 1);
-                arModifyRanges = new Range[]{
-                        oRange,
-                        oNewRange,
-                        new Range(false, iValue + 1, iEndValue)
-                };
-            }
-            alterRanges(arModifyRanges);
-            _iModCount++;
-            boChanged = true;
-        }
-        return boChanged;
+        return changed(_oValues.add(iValue));
     }
 
     public boolean remove(int iValue) {
-        Range oRange = findRange(iValue);
-        boolean boChanged = false;
-        if (oRange.isIncluded()) {
-            Range[] arModifyRanges;
-            if ((oRange.getBegin() == iValue) && (oRange.getEnd() == iValue)) {
-                _lSize += oRange.setIncluded(false);
-                arModifyRanges = new Range[]{
-                        oRange
-                };
-            } else if (oRange.getBegin() == iValue) {
-                _lSize += oRange.setBegin(iValue + 1);
-                arModifyRanges = new Range[]{
-                        new Range(false, iValue, iValue),
-                        oRange
-                };
-            } else if (oRange.getEnd() == iValue) {
-                _lSize += oRange.setEnd(iValue - 1);
-                arModifyRanges = new Range[]{
-                        oRange,
-                        new Range(false, iValue, iValue)
-                };
-            } else {
-                int iEndValue = oRange.getEnd();
-                _lSize += oRange.setEnd(iValue - 1);
-                arModifyRanges = new Range[]{
-                        oRange,
-                        new Range(false, iValue, iValue),
-                        new Range(true, iValue + 1, iEndValue)
-                };
-            }
-            alterRanges(arModifyRanges);
-            _iModCount++;
-            boChanged = true;
-        }
-        return boChanged;
+        return changed(_oValues.remove(iValue));
     }
 
     public boolean containsAll(int iFrom, int iTo) {
         valdateFromTo(iFrom, iTo);
-        Range oRange = findRange(iFrom);
-        return oRange.isIncluded() && oRange.contains(iTo);
+        return _oValues.containsAll(iFrom, iTo);
     }
 
     public boolean containsAll(RangeBasedIntegerSet oValues) {
-        boolean boContainsAll = true;
-        for (int i = 0; i < oValues._liAllRanges.size(); i++) {
-            Range oRange = oValues._liAllRanges.get(i);
-            if (oRange.isIncluded() &&
-                    (!containsAll(oRange.getBegin(), oRange.getEnd()))) {
-                boContainsAll = false;
-                break;
-            }
-        }
-        return boContainsAll;
+        return _oValues.containsAll(oValues._oValues);
     }
 
     public boolean containsAny(int iFrom, int iTo) {
-        try {
-            int iValue = getNext(iFrom);
-            return iValue <= iTo;
-        } catch (NoSuchElementException e) {
-            return false;
-        }
+        return _oValues.containsAny(iFrom, iTo);
     }
 
     public boolean containsAny(RangeBasedIntegerSet oValues) {
-        boolean boContainsAny = false;
-        for (int i = 0; i < oValues._liAllRanges.size(); i++) {
-            Range oRange = oValues._liAllRanges.get(i);
-            if (oRange.isIncluded() &&
-                    (containsAny(oRange.getBegin(), oRange.getEnd()))) {
-                boContainsAny = true;
-                break;
-            }
-        }
-        return boContainsAny;
+        return _oValues.containsAny(oValues._oValues);
     }
 
     public int getNext(int iValue) throws NoSuchElementException {
-        Range oRange = findRange(iValue);
-        if ((!oRange.isIncluded()) && (oRange.getEnd() == Integer.MAX_VALUE)) {
-            throw new NoSuchElementException();
-        }
-        return oRange.isIncluded() ? iValue : oRange.getEnd() + 1;
+        return (int)_oValues.next(iValue);
     }
 
     public int getNextNotIncluded(int iValue) throws NoSuchElementException {
-        Range oRange = findRange(iValue);
-        if (oRange.isIncluded() && (oRange.getEnd() == Integer.MAX_VALUE)) {
-            throw new NoSuchElementException();
-        }
-        return oRange.isIncluded() ? oRange.getEnd() + 1 : iValue;
+        return (int)_oValues.nextNotIncluded(iValue);
     }
 
     public boolean addAll(int iFrom, int iTo) {
         valdateFromTo(iFrom, iTo);
-        Range oFirstRange = findRange(iFrom);
-        Range oLastRange = findRange(iTo);
-        Range[] arModifyRanges = null;
-        if (oFirstRange.isIncluded() &&
-                oLastRange.isIncluded()) {
-            if (oFirstRange.getIndex() == oLastRange.getIndex()) {
-                // nothing to do, already included
-            } else {
-                _lSize += oFirstRange.setEnd(oLastRange.getEnd());
-                arModifyRanges = new Range[]{
-                        oFirstRange
-                };
-                alterRanges(arModifyRanges);
-                _iModCount++;
-            }
-        } else if (oLastRange.isIncluded()) {
-            if (oFirstRange.getBegin() == iFrom) {
-                _lSize += oFirstRange.setIncluded(true);
-                _lSize += oFirstRange.setEnd(oLastRange.getEnd());
-                arModifyRanges = new Range[]{
-                        oFirstRange
-                };
-                alterRanges(arModifyRanges);
-                _iModCount++;
-            } else {
-                _lSize += oFirstRange.setEnd(iFrom - 1);
-                Range oNewRange = new Range(true, iFrom, oLastRange.getBegin() - 1);
-                arModifyRanges = new Range[]{
-                        oFirstRange,
-                        oNewRange
-                };
-                alterRanges(arModifyRanges);
-                _iModCount++;
-            }
-        } else if (oFirstRange.isIncluded()) {
-            _lSize += oFirstRange.setEnd(iTo);
-            if (oLastRange.getEnd() != iTo) {
-                oLastRange.setBegin(iTo + 1);
-            }
-            arModifyRanges = new Range[]{
-                    oFirstRange
-            };
-            alterRanges(arModifyRanges);
-            _iModCount++;
-        } else if ((oFirstRange.getBegin() == iFrom) && (oLastRange.getEnd() == iTo)) {
-            _lSize += oFirstRange.setIncluded(true);
-            _lSize += oFirstRange.setEnd(iTo);
-            arModifyRanges = new Range[]{
-                    oFirstRange
-            };
-            alterRanges(arModifyRanges);
-            _iModCount++;
-        } else if (oFirstRange.getBegin() == iFrom) {
-            Range oNewRange = new Range(false, iTo + 1, oLastRange.getEnd());
-            _lSize += oFirstRange.setIncluded(true);
-            _lSize += oFirstRange.setEnd(iTo);
-            arModifyRanges = new Range[]{
-                    oFirstRange,
-                    oNewRange
-            };
-            alterRanges(arModifyRanges);
-            _iModCount++;
-        } else if (oLastRange.getEnd() == iTo) {
-            Range oNewRange = new Range(true, iFrom, iTo);
-            _lSize += oFirstRange.setEnd(iFrom - 1);
-            arModifyRanges = new Range[]{
-                    oFirstRange,
-                    oNewRange
-            };
-            alterRanges(arModifyRanges);
-            _iModCount++;
-        } else {
-            if (oFirstRange.getIndex() == oLastRange.getIndex()) {
-                Range oNewRange = new Range(true, iFrom, iTo);
-                Range oNewRange2 = new Range(false, iTo + 1, oFirstRange.getEnd());
-                _lSize += oFirstRange.setEnd(iFrom - 1);
-                arModifyRanges = new Range[]{
-                        oFirstRange,
-                        oNewRange,
-                        oNewRange2
-                };
-                alterRanges(arModifyRanges);
-                _iModCount++;
-            } else {
-                Range oNewRange = new Range(true, iFrom, iTo);
-                _lSize += oFirstRange.setEnd(iFrom - 1);
-                _lSize += oLastRange.setBegin(iTo + 1);
-                arModifyRanges = new Range[]{
-                        oFirstRange,
-                        oNewRange
-                };
-                alterRanges(arModifyRanges);
-                _iModCount++;
-            }
-        }
-        return arModifyRanges != null;
+        return changed(_oValues.addRange(iFrom, iTo));
     }
 
     public boolean addAll(RangeBasedIntegerSet oValues) {
-        boolean boChanged = false;
-        for (int i = 0; i < oValues._liAllRanges.size(); i++) {
-            Range oRange = oValues._liAllRanges.get(i);
-            if (oRange.isIncluded()) {
-                boChanged |= addAll(oRange.getBegin(), oRange.getEnd());
-            }
-        }
-        return boChanged;
+        return changed(_oValues.addAll(oValues._oValues));
     }
 
     public boolean retainAll(int iFrom, int iTo) {
@@ -395,164 +100,16 @@ public class RangeBasedIntegerSet implements Iterable<Integer> {
     }
 
     public boolean retainAll(RangeBasedIntegerSet oValues) {
-        boolean boChanged = false;
-        List<Range> liRanges = new ArrayList<Range>(_liAllRanges.size());
-        Iterator<Range> itLeftRanges = _liAllRanges.iterator();
-        Iterator<Range> itRightRanges = oValues._liAllRanges.iterator();
-        Range oLeft = itLeftRanges.next();
-        Range oRight = itRightRanges.next();
-        boolean boDone = false;
-        while (!boDone) {
-            // This loops increments based on the left side;
-            // left and right will always begin at the same value.
-            boChanged |= (oLeft.isIncluded() != oRight.isIncluded());
-            if (oLeft.getEnd() == oRight.getEnd()) {
-                liRanges.add(new Range(oLeft.isIncluded() && oRight.isIncluded(),
-                                       oLeft.getBegin(),
-                                       oLeft.getEnd()));
-                if (itLeftRanges.hasNext()) {
-                    oLeft = itLeftRanges.next();
-                    oRight = itRightRanges.next();
-                } else {
-                    boDone = true;
-                }
-            } else if (oLeft.getEnd() < oRight.getEnd()) {
-                liRanges.add(new Range(oLeft.isIncluded() && oRight.isIncluded(),
-                                       oLeft.getBegin(),
-                                       oLeft.getEnd()));
-                oRight = new Range(oRight.isIncluded(),
-                                   oLeft.getEnd() + 1,
-                                   oRight.getEnd());
-                oLeft = itLeftRanges.next();
-            } else if (oLeft.getEnd() > oRight.getEnd()) {
-                liRanges.add(new Range(oLeft.isIncluded() && oRight.isIncluded(),
-                                       oLeft.getBegin(),
-                                       oRight.getEnd()));
-                oLeft = new Range(oLeft.isIncluded(),
-                                  oRight.getEnd() + 1,
-                                  oLeft.getEnd());
-                oRight = itRightRanges.next();
-            }
-        }
-
-        if (boChanged) {
-            // Consolidate and optimize ranges.
-            Iterator<Range> itRanges = liRanges.iterator();
-            Range oLeftRange = itRanges.next();
-            long lSize = oLeftRange.size();
-            while (itRanges.hasNext()) {
-                Range oRightRange = itRanges.next();
-                lSize += oRightRange.size();
-                if (oRightRange.isIncluded() == oLeftRange.isIncluded()) {
-                    oLeftRange.setEnd(oRightRange.getEnd());
-                    itRanges.remove();
-                } else {
-                    oLeftRange = oRightRange;
-                }
-            }
-            _liAllRanges.clear();
-            _liAllRanges = liRanges;
-            _lSize = lSize;
-            _iModCount++;
-        }
-        return boChanged;
+        return changed(_oValues.retainAll(oValues._oValues));
     }
 
     public boolean removeAll(int iFrom, int iTo) {
         valdateFromTo(iFrom, iTo);
-        Range oFirstRange = findRange(iFrom);
-        Range oLastRange = findRange(iTo);
-        Range[] arModifyRanges = null;
-        if (!oFirstRange.isIncluded() &&
-                !oLastRange.isIncluded()) {
-            if (oFirstRange.getIndex() == oLastRange.getIndex()) {
-                // nothing to do, already not included
-            } else {
-                _lSize += oFirstRange.setEnd(oLastRange.getEnd());
-                arModifyRanges = new Range[]{
-                        oFirstRange
-                };
-            }
-        } else if (!oLastRange.isIncluded()) {
-            if (oFirstRange.getBegin() == iFrom) {
-                _lSize += oFirstRange.setIncluded(false);
-                _lSize += oFirstRange.setEnd(oLastRange.getEnd());
-                arModifyRanges = new Range[]{
-                        oFirstRange
-                };
-            } else {
-                _lSize += oFirstRange.setEnd(iFrom - 1);
-                Range oNewRange = new Range(false, iFrom, oLastRange.getBegin() - 1);
-                arModifyRanges = new Range[]{
-                        oFirstRange,
-                        oNewRange
-                };
-            }
-        } else if (!oFirstRange.isIncluded()) {
-            _lSize += oFirstRange.setEnd(iTo);
-            if (oLastRange.getEnd() != iTo) {
-                _lSize += oLastRange.setBegin(iTo + 1);
-            }
-            arModifyRanges = new Range[]{
-                    oFirstRange
-            };
-        } else if ((oFirstRange.getBegin() == iFrom) && (oLastRange.getEnd() == iTo)) {
-            _lSize += oFirstRange.setIncluded(false);
-            _lSize += oFirstRange.setEnd(iTo);
-            arModifyRanges = new Range[]{
-                    oFirstRange
-            };
-        } else if (oFirstRange.getBegin() == iFrom) {
-            Range oNewRange = new Range(true, iTo + 1, oLastRange.getEnd());
-            _lSize += oFirstRange.setIncluded(false);
-            _lSize += oFirstRange.setEnd(iTo);
-            arModifyRanges = new Range[]{
-                    oFirstRange,
-                    oNewRange
-            };
-        } else if (oLastRange.getEnd() == iTo) {
-            Range oNewRange = new Range(false, iFrom, iTo);
-            _lSize += oFirstRange.setEnd(iFrom - 1);
-            arModifyRanges = new Range[]{
-                    oFirstRange,
-                    oNewRange
-            };
-        } else {
-            if (oFirstRange.getIndex() == oLastRange.getIndex()) {
-                Range oNewRange = new Range(false, iFrom, iTo);
-                Range oNewRange2 = new Range(true, iTo + 1, oFirstRange.getEnd());
-                _lSize += oFirstRange.setEnd(iFrom - 1);
-                arModifyRanges = new Range[]{
-                        oFirstRange,
-                        oNewRange,
-                        oNewRange2
-                };
-            } else {
-                Range oNewRange = new Range(false, iFrom, iTo);
-                _lSize += oFirstRange.setEnd(iFrom - 1);
-                _lSize += oLastRange.setBegin(iTo + 1);
-                arModifyRanges = new Range[]{
-                        oFirstRange,
-                        oNewRange
-                };
-            }
-        }
-        if (arModifyRanges != null) {
-            alterRanges(arModifyRanges);
-            _iModCount++;
-        }
-        return arModifyRanges != null;
+        return changed(_oValues.removeRange(iFrom, iTo));
     }
 
     public boolean removeAll(RangeBasedIntegerSet oValues) {
-        boolean boChanged = false;
-        for (int i = 0; i < oValues._liAllRanges.size(); i++) {
-            Range oRange = oValues._liAllRanges.get(i);
-            if (oRange.isIncluded()) {
-                boChanged |= removeAll(oRange.getBegin(), oRange.getEnd());
-            }
-        }
-        return boChanged;
+        return changed(_oValues.removeAll(oValues._oValues));
     }
 
     public Iterator<Integer> iterator() {
@@ -564,25 +121,22 @@ public class RangeBasedIntegerSet implements Iterable<Integer> {
     }
 
     public void clear() {
-        if (_lSize > 0) {
-            _liAllRanges.clear();
-            _liAllRanges.add(new Range(false, Integer.MIN_VALUE, Integer.MAX_VALUE));
-            _lSize = 0;
+        if (!_oValues.isEmpty()) {
+            _oValues.clear();
             _iModCount++;
         }
     }
 
     public void invert() {
-        for (Range oRange : _liAllRanges) {
-            _lSize += oRange.setIncluded(!oRange.isIncluded());
-        }
+        _oValues.invert();
         _iModCount++;
     }
 
     public int size() {
-        return (_lSize > ((long)Integer.MAX_VALUE))
+        long lSize = _oValues.size();
+        return (lSize > ((long)Integer.MAX_VALUE))
                ? Integer.MAX_VALUE
-               : ((int)_lSize);
+               : ((int)lSize);
     }
 
     public boolean equals(Object o) {
@@ -591,26 +145,52 @@ public class RangeBasedIntegerSet implements Iterable<Integer> {
 
         RangeBasedIntegerSet oThat = (RangeBasedIntegerSet)o;
 
-        return _liAllRanges.equals(oThat._liAllRanges);
+        return _oValues.equals(oThat._oValues);
 
     }
 
+    /**
+     * Hashes the alternating excluded and included ranges that make up the
+     * whole int range, so the value is the same as when this set was stored
+     * as a list of them.
+     */
     public int hashCode() {
-        return _liAllRanges.hashCode();
+        int iHash = 1;
+        long lFrom = Integer.MIN_VALUE;
+        for (ContainerSet.Runs oRuns = _oValues.runs(); oRuns.next();) {
+            if (oRuns.begin() > lFrom) {
+                iHash = 31 * iHash + rangeHash(false, lFrom, oRuns.begin() - 1);
+            }
+            iHash = 31 * iHash + rangeHash(true, oRuns.begin(), oRuns.end());
+            lFrom = oRuns.end() + 1;
+        }
+        if (lFrom <= Integer.MAX_VALUE) {
+            iHash = 31 * iHash + rangeHash(false, lFrom, Integer.MAX_VALUE);
+        }
+        return iHash;
+    }
+
+    private static int rangeHash(boolean boIncluded, long lBegin, long lEnd) {
+        int result;
+        result = (boIncluded ? 1 : 0);
+        result = 31 * result + (int)lBegin;
+        result = 31 * result + (int)lEnd;
+        return result;
     }
 
     public String toString() {
         StringBuilder sbBuffer = new StringBuilder();
         boolean boFirstRange = true;
         sbBuffer.append('[');
-        for (Range oRange : _liAllRanges) {
-            if (oRange.isIncluded()) {
-                if (boFirstRange) {
-                    boFirstRange = false;
-                } else {
-                    sbBuffer.append(',');
-                }
-                sbBuffer.append(oRange.toString());
+        for (ContainerSet.Runs oRuns = _oValues.runs(); oRuns.next();) {
+            if (boFirstRange) {
+                boFirstRange = false;
+            } else {
+                sbBuffer.append(',');
+            }
+            sbBuffer.append(oRuns.begin());
+            if (oRuns.begin() != oRuns.end()) {
+                sbBuffer.append("..").append(oRuns.end());
             }
         }
         sbBuffer.append(']');
@@ -621,119 +201,16 @@ public class RangeBasedIntegerSet implements Iterable<Integer> {
         return new RangeBasedIntegerSet(this);
     }
 
-    private class Range {
-
-        private boolean _boIncluded;
-        private int _iBegin; // inclusive
-        private int _iEnd;   // inclusive
-        private int _iIndex = -1;
-
-        Range(boolean boIncluded, int iBegin, int iEnd) {
-            _boIncluded = boIncluded;
-            _iBegin = iBegin;
-            _iEnd = iEnd;
-        }
-
-        int compareTo(int iValue) {
-            return (_iBegin > iValue) ? 1 : ((_iEnd < iValue) ? -1 : 0);
-        }
-
-        boolean isIncluded() {
-            return _boIncluded;
-        }
-
-        long setIncluded(boolean boIncluded) {
-            long lPreviousSize = size();
-            _boIncluded = boIncluded;
-            return size() - lPreviousSize;
-        }
-
-        int getBegin() {
-            return _iBegin;
-        }
-
-        long setBegin(int iBegin) {
-            long lPreviousSize = size();
-            _iBegin = iBegin;
-            return size() - lPreviousSize;
-        }
-
-        int getEnd() {
-            return _iEnd;
-        }
-
-        long setEnd(int iEnd) {
-            long lPreviousSize = size();
-            _iEnd = iEnd;
-            return size() - lPreviousSize;
-        }
-
-        /**
-         * only valid when obtained immediately after calling findRange().
-         */
-        int getIndex() {
-            return _iIndex;
-        }
-
-        void setIndex(int iIndex) {
-            _iIndex = iIndex;
-        }
-
-        boolean contains(int iValue) {
-            return (iValue <= _iEnd) && (iValue >= _iBegin);
-        }
-
-        long size() {
-            return _boIncluded ? ((long)_iEnd) - ((long)_iBegin) + 1L : 0L;
-        }
-
-
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            Range range = (Range)o;
-
-            if (_boIncluded != range._boIncluded) return false;
-            if (_iBegin != range._iBegin) return false;
-            if (_iEnd != range._iEnd) return false;
-
-            return true;
-        }
-
-        public int hashCode() {
-            int result;
-            result = (_boIncluded ? 1 : 0);
-            result = 31 * result + _iBegin;
-            result = 31 * result + _iEnd;
-            return result;
-        }
-
-        public String toString() {
-            return (_iBegin == _iEnd)
-                   ? String.valueOf(_iBegin)
-                   : String.valueOf(_iBegin) + ".." + String.valueOf(_iEnd);
-        }
-    }
-
     private class IntIterator implements Iterator<Integer> {
 
         private int _iExpectedModCount = _iModCount;
-        private boolean _boNextIsMinValue;
+        private long _lNextValue;
+        private boolean _boDone = false;
         private boolean _boHasLastValue = false;
         private int _iLastValue;
-        private Range _oNextRange = null;
 
         private IntIterator(int iFirstValue) {
-            if (iFirstValue == Integer.MIN_VALUE) {
-                _boNextIsMinValue = true;
-                _oNextRange = _liAllRanges.get(0);
-                _oNextRange.setIndex(0);
-                _iLastValue = Integer.MIN_VALUE;
-            } else {
-                _boNextIsMinValue = false;
-                _iLastValue = iFirstValue - 1;
-            }
+            _lNextValue = iFirstValue;
         }
 
         private void checkForComodification() {
@@ -744,23 +221,14 @@ public class RangeBasedIntegerSet implements Iterable<Integer> {
 
         public boolean hasNext() {
             checkForComodification();
-            if (!_boHasLastValue && !_boNextIsMinValue) {
-                _oNextRange = findRange(_iLastValue);
-            }
-            while ((_oNextRange != null) &&
-                    ((!_oNextRange.isIncluded()) ||
-                            (_oNextRange.getEnd() <= _iLastValue))) {
-                _boNextIsMinValue = false;
-                int iIndex = _oNextRange.getIndex() + 1;
-                if (iIndex < _liAllRanges.size()) {
-                    _oNextRange = _liAllRanges.get(iIndex);
-                    _oNextRange.setIndex(iIndex);
-                } else {
-                    _oNextRange = null; // no more values
-                    _boNextIsMinValue = true; // quickens next call to hasNext();
+            if (!_boDone) {
+                try {
+                    _lNextValue = _oValues.next(_lNextValue);
+                } catch (NoSuchElementException e) {
+                    _boDone = true;
                 }
             }
-            return _oNextRange != null;
+            return !_boDone;
         }
 
         public Integer next() {
@@ -769,12 +237,12 @@ public class RangeBasedIntegerSet implements Iterable<Integer> {
                 throw new NoSuchElementException();
             }
             _boHasLastValue = true;
-            _iLastValue = _boNextIsMinValue
-                          ? Integer.MIN_VALUE
-                          : _iLastValue < _oNextRange.getBegin()
-                            ? _oNextRange.getBegin()
-                            : _iLastValue + 1;
-            _boNextIsMinValue = false;
+            _iLastValue = (int)_lNextValue;
+            if (_lNextValue == Integer.MAX_VALUE) {
+                _boDone = true;
+            } else {
+                _lNextValue++;
+            }
             return _iLastValue;
         }
 
@@ -793,24 +261,7 @@ public class RangeBasedIntegerSet implements Iterable<Integer> {
      * Should only be used by unit tests
      */
     protected void assertOptimized() {
-        assert _liAllRanges != null : "_liAllRanges should not be null";
-        assert _liAllRanges.size() > 0 : "_liAllRanges should never be empty";
-        Range oLeftRange = _liAllRanges.get(0);
-        assert Integer.MIN_VALUE == oLeftRange.getBegin() : "The first range should always begin with MIN_VALUE";
-        Range oRightRange;
-        long lSize = oLeftRange.size();
-        for (int i = 1; i < _liAllRanges.size(); i++) {
-            oRightRange = _liAllRanges.get(i);
-            assert oLeftRange.getEnd() + 1 == oRightRange.getBegin()
-                   : "Ranges should always start immediately after the preceeding range [" + i + "]";
-            assert oLeftRange.isIncluded() != oRightRange.isIncluded()
-                   : "Consecutive ranges should not have the same inclusion [" + i + "]";
-            assert oRightRange.getBegin() <= oRightRange.getEnd()
-                   : "Ranges should always end on or after they begin [" + i + "]";
-            lSize += oRightRange.size();
-            oLeftRange = oRightRange;
-        }
-        assert Integer.MAX_VALUE == oLeftRange.getEnd() : "The last range should always end with MAX_VALUE";
-        assert lSize == _lSize : "This set does not indicate the correct size";
+        assert _oValues != null : "_oValues should not be null";
+        _oValues.assertOptimized();
     }
 }
@@ -1,13 +1,23 @@
 package net.venaglia.common.util;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * User: ed
  * Date: 4/2/14
  * Time: 9:20 AM
+ *
+ * Each source has a dense slot number, and every thread keeps its instances
+ * in an array indexed by slot, so get() does no boxing and no hashing.
+ *
+ * A source constructed with a shared pool size instead keeps a bounded pool
+ * of instances shared by all threads, for code running on many short lived
+ * (e.g. virtual) threads, where one instance per thread would be wasteful.
+ * Such a source must be used through acquire() and release(); acquire() and
+ * release() also work on a per-thread source, where they just delegate to
+ * get().
  */
 public abstract class ThreadSingletonSource<T> implements Ref<T> {
 
@@ -19,10 +29,79 @@ public abstract class ThreadSingletonSource<T> implements Ref<T> {
         }
     };
 
-    private final Integer seq = SEQUENCE.getAndIncrement();
+    private final int slot = SEQUENCE.getAndIncrement();
+    private final AtomicReferenceArray<T> shared;
 
+    protected ThreadSingletonSource() {
+        this.shared = null;
+    }
+
+    /**
+     * @param sharedPoolSize The most idle instances to keep in the shared pool.
+     */
+    protected ThreadSingletonSource(int sharedPoolSize) {
+        if (sharedPoolSize < 1) {
+            throw new IllegalArgumentException("Shared pool size must be at least 1: " + sharedPoolSize);
+        }
+        this.shared = new AtomicReferenceArray<T>(sharedPoolSize);
+    }
+
+    public boolean isShared() {
+        return shared != null;
+    }
+
+    /**
+     * @throws IllegalStateException if this source uses a shared pool.
+     */
     public T get() {
-        return THREAD_LOCAL.get().getImpl(this, seq);
+        if (shared != null) {
+            throw new IllegalStateException("A source with a shared pool must be used with acquire() and release()");
+        }
+        return THREAD_LOCAL.get().getImpl(this, slot);
+    }
+
+    /**
+     * @return An instance that the caller may use until it is passed to
+     *     release().
+     */
+    public T acquire() {
+        if (shared == null) {
+            return get();
+        }
+        int length = shared.length();
+        int start = probe(length);
+        for (int i = 0; i < length; i++) {
+            int index = (start + i) % length;
+            if (shared.get(index) != null) {
+                T instance = shared.getAndSet(index, null);
+                if (instance != null) {
+                    return instance;
+                }
+            }
+        }
+        return newInstance();
+    }
+
+    /**
+     * Returns an instance obtained from acquire(). If the shared pool is full
+     * the instance is dropped.
+     */
+    public void release(T instance) {
+        if (shared == null || instance == null) {
+            return;
+        }
+        int length = shared.length();
+        int start = probe(length);
+        for (int i = 0; i < length; i++) {
+            if (shared.compareAndSet((start + i) % length, null, instance)) {
+                return;
+            }
+        }
+    }
+
+    private static int probe(int length) {
+        long id = Thread.currentThread().getId();
+        return (int)(((id ^ id >>> 32) * 0x9E3779B9L >>> 1) % length);
     }
 
     protected abstract T newInstance();
@@ -53,16 +132,31 @@ public abstract class ThreadSingletonSource<T> implements Ref<T> {
         return source;
     }
 
+    public static <T> ThreadSingletonSource<T> shared(final Factory<T> factory, int sharedPoolSize) {
+        ThreadSingletonSource<T> source = new ThreadSingletonSource<T>(sharedPoolSize) {
+            @Override
+            protected T newInstance() {
+                return factory.createEmpty();
+            }
+        };
+        source.newInstance(); // fail-fast check
+        return source;
+    }
+
     private static class Holder {
 
-        private final Map<Integer,Object> cache = new HashMap<Integer,Object>();
+        private Object[] instances = new Object[16];
 
-        private <T> T getImpl(ThreadSingletonSource<T> source, Integer qualifier) {
+        private <T> T getImpl(ThreadSingletonSource<T> source, int slot) {
+            Object[] instances = this.instances;
+            if (slot >= instances.length) {
+                instances = this.instances = Arrays.copyOf(instances, Integer.highestOneBit(slot) << 1);
+            }
             @SuppressWarnings("unchecked")
-            T instance = (T)cache.get(qualifier);
+            T instance = (T)instances[slot];
             if (instance == null) {
                 instance = source.newInstance();
-                cache.put(qualifier, instance);
+                instances[slot] = instance;
             }
             return instance;
         }
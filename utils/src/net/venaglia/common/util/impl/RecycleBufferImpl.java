@@ -2,9 +2,7 @@ package net.venaglia.common.util.impl;
 
 import net.venaglia.common.util.Factory;
 import net.venaglia.common.util.RecycleBuffer;
-
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import net.venaglia.common.util.recycle.MagazinePool;
 
 /**
  * User: ed
@@ -13,52 +11,31 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public abstract class RecycleBufferImpl<E> implements RecycleBuffer<E> {
 
-    private final Object[] unused;
-    private final int upperCapacity;
-    private final int retainedCapacity;
-    private final Lock lock = new ReentrantLock();
-
-    private volatile int top = 0;
+    private final MagazinePool<E> pool;
 
     public RecycleBufferImpl(int upperCapacity) {
         if (upperCapacity < 16) {
             throw new IllegalArgumentException("Upper capacity is too small, must be at least 16: " + upperCapacity);
         }
-        this.upperCapacity = upperCapacity;
-        this.retainedCapacity = Math.round(upperCapacity * 0.75f);
-        this.unused = new Object[upperCapacity];
+        this.pool = new MagazinePool<E>(new Factory<E>() {
+            public E createEmpty() {
+                return bufferUnderflow();
+            }
+        }, upperCapacity);
     }
 
     public E get() {
-        E value = getImpl();
-        return value == null ? bufferUnderflow() : value;
-    }
-
-    @SuppressWarnings("unchecked")
-    private E getImpl() {
-        lock.lock();
-        try {
-            return (top <= 0) ? null : (E)unused[--top];
-        } finally {
-            lock.unlock();
-        }
+        return pool.get();
     }
 
     protected abstract E bufferUnderflow();
 
     public void recycle(E value) {
-        lock.lock();
-        try {
-            if (top >= upperCapacity) {
-                for (int i = retainedCapacity; i < upperCapacity; i++) {
-                    unused[i] = null;
-                }
-                top = retainedCapacity;
-            }
-            unused[top++] = value;
-        } finally {
-            lock.unlock();
-        }
+        pool.put(value);
+    }
+
+    public MagazinePool<E> getPool() {
+        return pool;
     }
 
     public static <T> RecycleBuffer<T> forType(final Class<T> type, int upperCapacity) {
@@ -0,0 +1,287 @@
+package net.venaglia.common.util.recycle;
+
+import net.venaglia.common.util.Factory;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 3:10 AM
+ *
+ * A lock-free object pool. Each thread keeps two small arrays of pooled
+ * objects, its magazines, and gets and puts objects there without touching
+ * any shared state. Only when both magazines are empty (or both full) does it
+ * trade a whole magazine with the shared depot, a lock-free stack of full
+ * magazines. Objects recycled on one thread flow to others through the depot.
+ *
+ * The depot holds at most depotCapacity magazines; a full magazine that does
+ * not fit is discarded. Each thread may hold up to two magazines on top of
+ * that, which are not counted against the cap.
+ *
+ * Statistics are counted in LongAdders, so threads rarely contend on a
+ * counter even though every get and put updates one.
+ */
+public class MagazinePool<E> {
+
+    public static final int DEFAULT_MAGAZINE_SIZE = 32;
+
+    private final Factory<E> factory;
+    private final int magazineSize;
+    private final AtomicReference<Node> depot = new AtomicReference<Node>();
+    private final AtomicInteger depotCount = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder recycled = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final ThreadLocal<Magazines> magazines = new ThreadLocal<Magazines>() {
+        @Override
+        protected Magazines initialValue() {
+            return new Magazines(magazineSize);
+        }
+    };
+
+    private volatile int depotCapacity;
+
+    /**
+     * @param factory Creates objects when the pool is empty, may be null if
+     *     only poll() is used.
+     * @param capacity The approximate number of objects to keep in the depot.
+     */
+    public MagazinePool(Factory<E> factory, int capacity) {
+        this(factory, magazineSizeFor(capacity), 0);
+        setCapacity(capacity);
+    }
+
+    public MagazinePool(Factory<E> factory, int magazineSize, int depotCapacity) {
+        if (magazineSize < 1) {
+            throw new IllegalArgumentException("Magazine size must be at least 1: " + magazineSize);
+        }
+        if (depotCapacity < 0) {
+            throw new IllegalArgumentException("Depot capacity cannot be negative: " + depotCapacity);
+        }
+        this.factory = factory;
+        this.magazineSize = magazineSize;
+        this.depotCapacity = depotCapacity;
+    }
+
+    private static int magazineSizeFor(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        return Math.min(DEFAULT_MAGAZINE_SIZE, Math.max(1, capacity / 4));
+    }
+
+    public int getMagazineSize() {
+        return magazineSize;
+    }
+
+    public int getDepotCapacity() {
+        return depotCapacity;
+    }
+
+    public void setDepotCapacity(int depotCapacity) {
+        if (depotCapacity < 0) {
+            throw new IllegalArgumentException("Depot capacity cannot be negative: " + depotCapacity);
+        }
+        this.depotCapacity = depotCapacity;
+    }
+
+    /**
+     * Sets the depot capacity to hold about this many objects. Magazines
+     * already in the depot over the new cap are kept until they are taken.
+     */
+    public void setCapacity(int capacity) {
+        setDepotCapacity(Math.max(1, capacity / magazineSize));
+    }
+
+    /**
+     * @return A pooled object, or a new one from the factory.
+     */
+    public E get() {
+        E value = poll();
+        if (value == null) {
+            if (factory == null) {
+                throw new IllegalStateException("Pool is empty, and there is no factory to create objects");
+            }
+            value = factory.createEmpty();
+        }
+        return value;
+    }
+
+    /**
+     * @return A pooled object, or null if the pool is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        Magazines m = magazines.get();
+        if (m.loadedCount == 0) {
+            if (m.previousCount > 0) {
+                m.swap();
+            } else {
+                Node node = pop();
+                if (node == null) {
+                    misses.increment();
+                    return null;
+                }
+                // both of ours are empty, keep one as previous and drop the other
+                m.previous = m.loaded;
+                m.loaded = node.items;
+                m.loadedCount = node.count;
+            }
+        }
+        hits.increment();
+        Object[] loaded = m.loaded;
+        int i = --m.loadedCount;
+        E value = (E)loaded[i];
+        loaded[i] = null;
+        return value;
+    }
+
+    /**
+     * Returns an object to the pool. It may be discarded if the depot is full.
+     */
+    public void put(E value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        Magazines m = magazines.get();
+        if (m.loadedCount == magazineSize) {
+            if (m.previousCount == magazineSize) {
+                if (push(m.previous, m.previousCount)) {
+                    m.previous = new Object[magazineSize];
+                } else {
+                    discarded.add(m.previousCount);
+                    Arrays.fill(m.previous, null);
+                }
+                m.previousCount = 0;
+            }
+            m.swap();
+        }
+        m.loaded[m.loadedCount++] = value;
+        recycled.increment();
+    }
+
+    private boolean push(Object[] items, int count) {
+        int n;
+        do {
+            n = depotCount.get();
+            if (n >= depotCapacity) {
+                return false;
+            }
+        } while (!depotCount.compareAndSet(n, n + 1));
+        // a new node on every push, so a node is never seen twice as head (no ABA)
+        Node node = new Node(items, count);
+        Node head;
+        do {
+            head = depot.get();
+            node.next = head;
+        } while (!depot.compareAndSet(head, node));
+        return true;
+    }
+
+    private Node pop() {
+        Node head;
+        do {
+            head = depot.get();
+            if (head == null) {
+                return null;
+            }
+        } while (!depot.compareAndSet(head, head.next));
+        depotCount.decrementAndGet();
+        return head;
+    }
+
+    /**
+     * @return The number of objects in the shared depot. Objects held in
+     *     per-thread magazines are not counted.
+     */
+    public int size() {
+        int size = 0;
+        for (Node node = depot.get(); node != null; node = node.next) {
+            size += node.count;
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of calls that were served from the pool.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of calls that found the pool empty.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of objects put back in the pool.
+     */
+    public long getRecycled() {
+        return recycled.sum();
+    }
+
+    /**
+     * @return The number of recycled objects dropped because the depot was full.
+     */
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * @return The fraction of calls served from the pool, from 0 to 1.
+     */
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + misses.sum();
+        return total == 0 ? 0.0 : (double)hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MagazinePool[hits=%d, misses=%d, recycled=%d, discarded=%d, hitRate=%.1f%%]",
+                             getHits(), getMisses(), getRecycled(), getDiscarded(), getHitRate() * 100.0);
+    }
+
+    private static final class Magazines {
+
+        private Object[] loaded;
+        private int loadedCount;
+        private Object[] previous;
+        private int previousCount;
+
+        private Magazines(int magazineSize) {
+            loaded = new Object[magazineSize];
+            previous = new Object[magazineSize];
+        }
+
+        private void swap() {
+            Object[] items = loaded;
+            int count = loadedCount;
+            loaded = previous;
+            loadedCount = previousCount;
+            previous = items;
+            previousCount = count;
+        }
+    }
+
+    private static final class Node {
+
+        private final Object[] items;
+        private final int count;
+
+        private Node next;
+
+        private Node(Object[] items, int count) {
+            this.items = items;
+            this.count = count;
+        }
+    }
+}
@@ -8,51 +8,74 @@ import java.lang.ref.WeakReference;
  * User: ed
  * Date: 10/9/14
  * Time: 8:05 AM
+ *
+ * Recycled objects are held by their weak references in a MagazinePool, so
+ * they may still be collected while parked. A limit of 0 uses DEFAULT_LIMIT.
  */
 public class RecycleBin<E extends Recyclable<E>> {
 
+    public static final int DEFAULT_LIMIT = 1024;
+
     protected final Factory<E> factory;
-    protected final RecycleDeque<WeakReference<E>> recycleDeque;
+    protected final MagazinePool<WeakReference<E>> pool;
 
     protected RecycleDequeOrder order = RecycleDequeOrder.FIFO;
     protected int limit = 0;
 
-    public RecycleBin(Factory<E> factory, RecycleDeque<WeakReference<E>> recycleDeque) {
+    public RecycleBin(Factory<E> factory) {
+        if (factory == null) {
+            throw new NullPointerException("factory");
+        }
         this.factory = factory;
-        this.recycleDeque = recycleDeque;
+        this.pool = new MagazinePool<WeakReference<E>>(null, DEFAULT_LIMIT);
+    }
+
+    /**
+     * @deprecated The deque is no longer used, recycled objects are held in
+     *     a MagazinePool. Use {@link #RecycleBin(Factory)}.
+     */
+    @Deprecated
+    public RecycleBin(Factory<E> factory, RecycleDeque<WeakReference<E>> recycleDeque) {
+        this(factory);
     }
 
     public void setLimit(int limit) {
         this.limit = limit;
+        pool.setCapacity(limit > 0 ? limit : DEFAULT_LIMIT);
     }
 
+    /**
+     * @deprecated Objects always come back most recently recycled first, from
+     *     the calling thread's own magazine when it has one; the order is
+     *     ignored.
+     */
+    @Deprecated
     public void setOrder(RecycleDequeOrder order) {
         this.order = order;
     }
 
+    /**
+     * @return The number of objects in the shared depot of the pool.
+     */
     public int size() {
-        return recycleDeque.size();
+        return pool.size();
+    }
+
+    public MagazinePool<WeakReference<E>> getPool() {
+        return pool;
     }
 
     public E get() {
-        E result = null;
-        do {
-            WeakReference<E> ref = order.next(recycleDeque);
-            if (ref == null) {
-                break;
+        for (WeakReference<E> ref = pool.poll(); ref != null; ref = pool.poll()) {
+            E result = ref.get();
+            if (result != null) {
+                return result;
             }
-            result = ref.get();
-        } while (result == null);
-        if (result == null) {
-            result = factory.createEmpty();
         }
-        return result;
+        return factory.createEmpty();
     }
 
     public void put (E value) {
-        WeakReference<E> ref = value.getMyWeakReference();
-        if (limit > 0 && limit > size()) {
-            recycleDeque.add(ref);
-        }
+        pool.put(value.getMyWeakReference());
     }
 }
@@ -13,6 +13,8 @@ import java.util.Map;
  */
 public abstract class AbstractSerializerStrategy<T> implements SerializerStrategy<T> {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     protected final Class<T> type;
     protected final char typeMarker;
 
@@ -152,17 +154,17 @@ public abstract class AbstractSerializerStrategy<T> implements SerializerStrateg
     }
 
     protected final void serializeSmallNonNegativeInteger(String field, long v, ByteBuffer out) {
-        SerializerDebugger.Marker marker = SerializerDebugger.start("(snni)" + field);
+        SerializerDebugger.Marker marker = SerializerDebugger.start(label("(snni)", field));
         try {
             if (v < 0 || v > Integer.MAX_VALUE) {
                 serializeByte(field, (byte)-3, out);
-                serializeLong("(long)" + field, (int)v, out);
+                serializeLong(label("(long)", field), (int)v, out);
             } else if (v > Short.MAX_VALUE) {
                 serializeByte(field, (byte)-2, out);
-                serializeInt("(int)" + field, (int)v, out);
+                serializeInt(label("(int)", field), (int)v, out);
             } else if (v > Byte.MAX_VALUE) {
                 serializeByte(field, (byte)-1, out);
-                serializeShort("(short)" + field, (short)v, out);
+                serializeShort(label("(short)", field), (short)v, out);
             } else {
                 serializeByte(field, (byte)v, out);
             }
@@ -171,26 +173,54 @@ public abstract class AbstractSerializerStrategy<T> implements SerializerStrateg
         }
     }
 
+    /**
+     * Writes a non-negative value 7 bits at a time, low bits first, with the
+     * high bit of each byte set if more bytes follow.
+     */
+    protected final void serializeVarint(String field, long v, ByteBuffer out) {
+        if (v < 0) {
+            throw new IllegalArgumentException("Varint value is negative: " + v);
+        }
+        SerializerDebugger.Marker marker = SerializerDebugger.start(field);
+        try {
+            while (v > 0x7F) {
+                out.put((byte)(v | 0x80));
+                v >>>= 7;
+            }
+            out.put((byte)v);
+        } finally {
+            marker.close();
+        }
+    }
+
     protected void serializeString(String field, String value, ByteBuffer out) {
-        SerializerDebugger.Marker marker = SerializerDebugger.start("(String)" + field);
+        SerializerDebugger.Marker marker = SerializerDebugger.start(label("(String)", field));
         try {
-            byte[] bytes = value.getBytes(Charset.forName("UTF-8"));
-            serializeSmallNonNegativeInteger(field + ".length", bytes.length, out);
+            byte[] bytes = value.getBytes(UTF_8);
+            serializeSmallNonNegativeInteger(label(field, ".length"), bytes.length, out);
             out.put(bytes);
         } finally {
             marker.close();
         }
     }
 
+    /**
+     * Joins two parts of a debugger label. Returns null, without building the
+     * label, when no debugger is capturing on this thread.
+     */
+    protected static String label(String a, String b) {
+        return SerializerDebugger.label(a, b);
+    }
+
     protected void serializeType(Class<?> value, ByteBuffer out) {
         serializeString("<type>", value.getName(), out);
     }
 
     protected <T> void serializeObject(String field, T obj, ByteBuffer out) {
-        SerializerDebugger.Marker marker = SerializerDebugger.start("(Object)" + field);
+        SerializerDebugger.Marker marker = SerializerDebugger.start(label("(Object)", field));
         try {
             if (obj != null) {
-                serializeBoolean(field + ".isNull", false, out);
+                serializeBoolean(label(field, ".isNull"), false, out);
                 SerializerStrategy<? super T> strategy = SerializerRegistry.forObject(obj);
                 serializeTypeMarker(strategy, out);
                 SerializerDebugger.Marker marker2 = SerializerDebugger.start(field);
@@ -200,7 +230,7 @@ public abstract class AbstractSerializerStrategy<T> implements SerializerStrateg
                  marker2.close();
                 }
             } else {
-                serializeBoolean(field + ".isNull", true, out);
+                serializeBoolean(label(field, ".isNull"), true, out);
             }
         } finally {
             marker.close();
@@ -309,15 +339,15 @@ public abstract class AbstractSerializerStrategy<T> implements SerializerStrateg
     }
 
     protected final long deserializeSmallNonNegativeInteger(String field, ByteBuffer in) {
-        SerializerDebugger.Marker marker = SerializerDebugger.start("(snni)" + field);
+        SerializerDebugger.Marker marker = SerializerDebugger.start(label("(snni)", field));
         try {
             long v = deserializeByte(field, in);
             if (v == -1) {
-                v = deserializeShort("(short)" + field, in);
+                v = deserializeShort(label("(short)", field), in);
             } else if (v == -2) {
-                v = deserializeInt("(int)" + field, in);
+                v = deserializeInt(label("(int)", field), in);
             } else if (v == -3) {
-                v = deserializeLong("(long)", in);
+                v = deserializeLong(label("(long)", field), in);
             }
             return v;
         } finally {
@@ -326,13 +356,30 @@ public abstract class AbstractSerializerStrategy<T> implements SerializerStrateg
         }
     }
 
+    protected final long deserializeVarint(String field, ByteBuffer in) {
+        SerializerDebugger.Marker marker = SerializerDebugger.start(field);
+        try {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = in.get();
+                v |= (long)(b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new SerializerException("Malformed varint");
+        } finally {
+            marker.close();
+        }
+    }
+
     protected final String deserializeString(String field, ByteBuffer in) {
-        SerializerDebugger.Marker marker = SerializerDebugger.start("(String)" + field);
+        SerializerDebugger.Marker marker = SerializerDebugger.start(label("(String)", field));
         try {
-            int l = (int)deserializeSmallNonNegativeInteger(field + ".length", in);
+            int l = (int)deserializeSmallNonNegativeInteger(label(field, ".length"), in);
             byte[] buffer = new byte[l];
             in.get(buffer);
-            return new String(buffer, Charset.forName("UTF-8"));
+            return new String(buffer, UTF_8);
         } finally {
             marker.close();
         }
@@ -351,9 +398,9 @@ public abstract class AbstractSerializerStrategy<T> implements SerializerStrateg
     }
 
     protected final <T> T deserializeObject(String field, ByteBuffer in) {
-        SerializerDebugger.Marker marker = SerializerDebugger.start("(Object)" + field);
+        SerializerDebugger.Marker marker = SerializerDebugger.start(label("(Object)", field));
         try {
-            boolean isNull = deserializeBoolean(field + ".isNull", in);
+            boolean isNull = deserializeBoolean(label(field, ".isNull"), in);
             if (isNull) {
                 return null;
             }
@@ -24,6 +24,13 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
     public static final SerializerStrategy<double[]> DOUBLES = INSTANCE.castFor(double[].class);
     public static final SerializerStrategy<char[]> CHARS = INSTANCE.castFor(char[].class);
 
+    /**
+     * Written in place of the length of an int, long or double array whose
+     * values are packed. It is followed by the element type marker, the
+     * PackedArrays mode, the length and the size of the packed values.
+     */
+    private static final byte PACKED = -4;
+
     private final Map<Class<?>,PrimitiveSerializer> primitiveSerializers;
 
     private ArraySerializerStrategy() {
@@ -217,6 +224,11 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
     private void serializeInts(int[] value, ByteBuffer out) {
         int length = Array.getLength(value);
         serializeType(Integer.TYPE, out);
+        byte mode = PackedArrays.chooseMode(value);
+        if (mode != PackedArrays.PLAIN) {
+            serializePacked(PrimitiveSerializerStrategy.INTEGER, mode, length, PackedArrays.encode(value, mode), out);
+            return;
+        }
         serializeSmallNonNegativeInteger("[].length", length, out);
         serializeTypeMarker(PrimitiveSerializerStrategy.INTEGER, out);
         SerializerDebugger.Marker marker = SerializerDebugger.start("int[]");
@@ -232,6 +244,11 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
     private void serializeLongs(long[] value, ByteBuffer out) {
         int length = Array.getLength(value);
         serializeType(Long.TYPE, out);
+        byte mode = PackedArrays.chooseMode(value);
+        if (mode != PackedArrays.PLAIN) {
+            serializePacked(PrimitiveSerializerStrategy.LONG, mode, length, PackedArrays.encode(value, mode), out);
+            return;
+        }
         serializeSmallNonNegativeInteger("[].length", length, out);
         serializeTypeMarker(PrimitiveSerializerStrategy.LONG, out);
         SerializerDebugger.Marker marker = SerializerDebugger.start("long[]");
@@ -262,6 +279,12 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
     private void serializeDoubles(double[] value, ByteBuffer out) {
         int length = Array.getLength(value);
         serializeType(Double.TYPE, out);
+        long[] integral = toIntegral(value);
+        byte mode = integral == null ? PackedArrays.PLAIN : PackedArrays.chooseMode(integral);
+        if (mode != PackedArrays.PLAIN) {
+            serializePacked(PrimitiveSerializerStrategy.DOUBLE, mode, length, PackedArrays.encode(integral, mode), out);
+            return;
+        }
         serializeSmallNonNegativeInteger("[].length", length, out);
         serializeTypeMarker(PrimitiveSerializerStrategy.DOUBLE, out);
         SerializerDebugger.Marker marker = SerializerDebugger.start("double[]");
@@ -274,6 +297,37 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
         }
     }
 
+    /**
+     * @return The values as longs, or null if any of them is not a whole
+     *     number that converts back to exactly the same double.
+     */
+    private static long[] toIntegral(double[] value) {
+        for (double v : value) {
+            if (Double.doubleToRawLongBits(v) != Double.doubleToRawLongBits((double)(long)v)) {
+                return null; // checked before allocating, most double[]s are not integral
+            }
+        }
+        long[] integral = new long[value.length];
+        for (int i = 0, l = value.length; i < l; i++) {
+            integral[i] = (long)value[i];
+        }
+        return integral;
+    }
+
+    private void serializePacked(SerializerStrategy<?> elementStrategy, byte mode, int length, byte[] packed, ByteBuffer out) {
+        serializeByte("[].packed", PACKED, out);
+        serializeTypeMarker(elementStrategy, out);
+        serializeByte("[].mode", mode, out);
+        serializeVarint("[].length", length, out);
+        serializeVarint("[].size", packed.length, out);
+        SerializerDebugger.Marker marker = SerializerDebugger.start("[].values");
+        try {
+            out.put(packed);
+        } finally {
+            marker.close();
+        }
+    }
+
     private void serializeChars(char[] value, ByteBuffer out) {
         int length = Array.getLength(value);
         serializeType(Character.TYPE, out);
@@ -293,6 +347,9 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
         Class<?> componentType = deserializeType(in);
         int length = (int)deserializeSmallNonNegativeInteger("[].length", in);
         SerializerStrategy<?> elementStrategy = deserializeTypeMarker(in);
+        if (length == PACKED) {
+            return deserializePacked(elementStrategy, in);
+        }
         switch (elementStrategy.getTypeMarker()) {
             case '0':
                 return deserializeBooleans(in, length);
@@ -319,6 +376,42 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
         return result;
     }
 
+    private Object deserializePacked(SerializerStrategy<?> elementStrategy, ByteBuffer in) {
+        byte mode = deserializeByte("[].mode", in);
+        int length = (int)deserializeVarint("[].length", in);
+        int size = (int)deserializeVarint("[].size", in);
+        byte[] data;
+        int offset;
+        if (in.hasArray()) {
+            data = in.array();
+            offset = in.arrayOffset() + in.position();
+            skip(size, in);
+        } else {
+            data = new byte[size];
+            offset = 0;
+            in.get(data);
+        }
+        switch (elementStrategy.getTypeMarker()) {
+            case 'i':
+                int[] ints = new int[length];
+                PackedArrays.decode(mode, data, offset, size, ints);
+                return ints;
+            case 'l':
+                long[] longs = new long[length];
+                PackedArrays.decode(mode, data, offset, size, longs);
+                return longs;
+            case 'd':
+                long[] integral = new long[length];
+                PackedArrays.decode(mode, data, offset, size, integral);
+                double[] doubles = new double[length];
+                for (int i = 0; i < length; i++) {
+                    doubles[i] = integral[i];
+                }
+                return doubles;
+        }
+        throw new SerializerException("Packed arrays of " + elementStrategy.getJavaType() + " are not supported");
+    }
+
     private boolean[] deserializeBooleans(ByteBuffer in, int length) {
         boolean[] value = new boolean[length];
         SerializerDebugger.Marker marker = SerializerDebugger.start("boolean[]");
@@ -347,9 +440,8 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
         short[] value = new short[length];
         SerializerDebugger.Marker marker = SerializerDebugger.start("short[]");
         try {
-            for (int i = 0; i < length; i++) {
-                value[i] = in.getShort();
-            }
+            in.asShortBuffer().get(value);
+            in.position(in.position() + length * 2);
             return value;
         } finally {
             marker.close();
@@ -360,9 +452,8 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
         int[] value = new int[length];
         SerializerDebugger.Marker marker = SerializerDebugger.start("int[]");
         try {
-            for (int i = 0; i < length; i++) {
-                value[i] = in.getInt();
-            }
+            in.asIntBuffer().get(value);
+            in.position(in.position() + length * 4);
             return value;
         } finally {
             marker.close();
@@ -373,9 +464,8 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
         long[] value = new long[length];
         SerializerDebugger.Marker marker = SerializerDebugger.start("long[]");
         try {
-            for (int i = 0; i < length; i++) {
-                value[i] = in.getLong();
-            }
+            in.asLongBuffer().get(value);
+            in.position(in.position() + length * 8);
             return value;
         } finally {
             marker.close();
@@ -386,9 +476,8 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
         float[] value = new float[length];
         SerializerDebugger.Marker marker = SerializerDebugger.start("float[]");
         try {
-            for (int i = 0; i < length; i++) {
-                value[i] = in.getFloat();
-            }
+            in.asFloatBuffer().get(value);
+            in.position(in.position() + length * 4);
             return value;
         } finally {
             marker.close();
@@ -399,9 +488,8 @@ public class ArraySerializerStrategy extends AbstractSerializerStrategy<Object>
         double[] value = new double[length];
         SerializerDebugger.Marker marker = SerializerDebugger.start("double[]");
         try {
-            for (int i = 0; i < length; i++) {
-                value[i] = in.getDouble();
-            }
+            in.asDoubleBuffer().get(value);
+            in.position(in.position() + length * 8);
             return value;
         } finally {
             marker.close();
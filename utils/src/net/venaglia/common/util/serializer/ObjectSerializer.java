@@ -1,9 +1,10 @@
 package net.venaglia.common.util.serializer;
 
-import net.venaglia.common.util.ThreadSingletonSource;
-
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * User: ed
@@ -14,15 +15,6 @@ public class ObjectSerializer {
 
     public static final ObjectSerializer INSTANCE = new ObjectSerializer();
 
-    public static final ThreadSingletonSource<ByteBuffer> BUFFERS = new ThreadSingletonSource<ByteBuffer>() {
-        @Override
-        protected ByteBuffer newInstance() {
-            ByteBuffer buffer = ByteBuffer.allocate(65536);
-            buffer.order(ByteOrder.BIG_ENDIAN);
-            return buffer;
-        }
-    };
-
     private final AbstractSerializerStrategy<Object> impl = new AbstractSerializerStrategy<Object>() {
         public void serialize(Object value, ByteBuffer out) {
             serializeObject("obj", value, out);
@@ -34,7 +26,7 @@ public class ObjectSerializer {
     };
 
     private ObjectSerializer() {
-        // use the ThreadSingletonSource
+        // use INSTANCE
     }
 
     public void serialize(Object value, ByteBuffer out) {
@@ -42,16 +34,25 @@ public class ObjectSerializer {
     }
 
     public byte[] serialize(Object value) {
-        ByteBuffer buffer = BUFFERS.get();
-        try {
-            impl.serialize(value, buffer);
-            byte[] data = new byte[buffer.position()];
-            buffer.flip();
-            buffer.get(data);
-            return data;
-        } finally {
-            buffer.clear();
-        }
+        SerializerOutput output = SerializerOutput.get();
+        output.write(impl, value);
+        return output.toByteArray();
+    }
+
+    /**
+     * Serializes a value of any size, and streams it to the passed channel
+     * without copying it into an intermediate array.
+     */
+    public void serialize(Object value, WritableByteChannel out) throws IOException {
+        SerializerOutput output = SerializerOutput.get();
+        output.write(impl, value);
+        output.writeTo(out);
+    }
+
+    public void serialize(Object value, OutputStream out) throws IOException {
+        SerializerOutput output = SerializerOutput.get();
+        output.write(impl, value);
+        output.writeTo(out);
     }
 
     @SuppressWarnings("unchecked")
@@ -60,13 +61,8 @@ public class ObjectSerializer {
     }
 
     public <T> T deserialize(byte[] data) {
-        ByteBuffer buffer = BUFFERS.get();
-        try {
-            buffer.put(data);
-            buffer.flip();
-            return deserialize(buffer);
-        } finally {
-            buffer.clear();
-        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return deserialize(buffer);
     }
 }
@@ -0,0 +1,364 @@
+package net.venaglia.common.util.serializer;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 11:58 PM
+ *
+ * Compact encodings for int and long arrays. Each array is scanned once to
+ * pick whichever of these is smallest:
+ *   PLAIN              - fixed width values, written by the caller as before
+ *   VARINT             - each value as a zigzag varint
+ *   DELTA              - the first value, then each difference from the
+ *                        previous value, as zigzag varints
+ *   FRAME_OF_REFERENCE - the minimum value, then each value less the
+ *                        minimum, packed into as few bits as the largest needs
+ *
+ * Sorted or clustered ids, which make up most of the arrays we store, shrink
+ * to a byte or two per value. Encoded payloads are decoded from a byte array
+ * in one pass.
+ */
+final class PackedArrays {
+
+    static final byte PLAIN = 0;
+    static final byte VARINT = 1;
+    static final byte DELTA = 2;
+    static final byte FRAME_OF_REFERENCE = 3;
+
+    private static final int MAX_PACKED_BITS = 56; // keeps every value inside a 64 bit accumulator
+
+    private PackedArrays() {
+        // pure static class
+    }
+
+    static byte chooseMode(int[] values) {
+        int length = values.length;
+        if (length == 0) {
+            return PLAIN;
+        }
+        long varint = 0, delta = 0;
+        long min = values[0], max = values[0], prev = 0;
+        for (int v : values) {
+            varint += varintSize(zigzag(v));
+            delta += varintSize(zigzag(v - prev));
+            prev = v;
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        return chooseMode(length, 4L * length, varint, delta, frameSize(length, min, max));
+    }
+
+    static byte chooseMode(long[] values) {
+        int length = values.length;
+        if (length == 0) {
+            return PLAIN;
+        }
+        long varint = 0, delta = 0;
+        long min = values[0], max = values[0], prev = 0;
+        for (long v : values) {
+            varint += varintSize(zigzag(v));
+            delta += varintSize(zigzag(v - prev));
+            prev = v;
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        return chooseMode(length, 8L * length, varint, delta, frameSize(length, min, max));
+    }
+
+    private static byte chooseMode(int length, long plain, long varint, long delta, long frame) {
+        // ties go to the faster decoder
+        long best = plain + (length > Short.MAX_VALUE ? 5 : length > Byte.MAX_VALUE ? 3 : 1);
+        byte mode = PLAIN;
+        long packedLength = 2 + varintSize(length); // array marker, mode and length
+        if (frame + packedLength + varintSize(frame) < best) {
+            best = frame + packedLength + varintSize(frame);
+            mode = FRAME_OF_REFERENCE;
+        }
+        if (varint + packedLength + varintSize(varint) < best) {
+            best = varint + packedLength + varintSize(varint);
+            mode = VARINT;
+        }
+        if (delta + packedLength + varintSize(delta) < best) {
+            mode = DELTA;
+        }
+        return mode;
+    }
+
+    static byte[] encode(int[] values, byte mode) {
+        Writer writer;
+        switch (mode) {
+            case VARINT:
+                writer = new Writer(sizeOfVarints(values, false));
+                for (int v : values) {
+                    writer.varint(zigzag(v));
+                }
+                break;
+            case DELTA:
+                writer = new Writer(sizeOfVarints(values, true));
+                long prev = 0;
+                for (int v : values) {
+                    writer.varint(zigzag(v - prev));
+                    prev = v;
+                }
+                break;
+            case FRAME_OF_REFERENCE:
+                long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+                for (int v : values) {
+                    if (v < min) min = v;
+                    if (v > max) max = v;
+                }
+                int bits = bitsFor(min, max);
+                writer = new Writer((int)frameSize(values.length, min, max));
+                writer.frameHeader(bits, min);
+                for (int v : values) {
+                    writer.bits(v - min, bits);
+                }
+                writer.flushBits();
+                break;
+            default:
+                throw new IllegalArgumentException("Not a packed mode: " + mode);
+        }
+        return writer.finish();
+    }
+
+    static byte[] encode(long[] values, byte mode) {
+        Writer writer;
+        switch (mode) {
+            case VARINT:
+                writer = new Writer(sizeOfVarints(values, false));
+                for (long v : values) {
+                    writer.varint(zigzag(v));
+                }
+                break;
+            case DELTA:
+                writer = new Writer(sizeOfVarints(values, true));
+                long prev = 0;
+                for (long v : values) {
+                    writer.varint(zigzag(v - prev));
+                    prev = v;
+                }
+                break;
+            case FRAME_OF_REFERENCE:
+                long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+                for (long v : values) {
+                    if (v < min) min = v;
+                    if (v > max) max = v;
+                }
+                int bits = bitsFor(min, max);
+                writer = new Writer((int)frameSize(values.length, min, max));
+                writer.frameHeader(bits, min);
+                for (long v : values) {
+                    writer.bits(v - min, bits);
+                }
+                writer.flushBits();
+                break;
+            default:
+                throw new IllegalArgumentException("Not a packed mode: " + mode);
+        }
+        return writer.finish();
+    }
+
+    static void decode(byte mode, byte[] data, int offset, int size, int[] out) {
+        Reader reader = new Reader(data, offset, size);
+        int length = out.length;
+        switch (mode) {
+            case VARINT:
+                for (int i = 0; i < length; i++) {
+                    out[i] = (int)unzigzag(reader.varint());
+                }
+                break;
+            case DELTA:
+                long prev = 0;
+                for (int i = 0; i < length; i++) {
+                    prev += unzigzag(reader.varint());
+                    out[i] = (int)prev;
+                }
+                break;
+            case FRAME_OF_REFERENCE:
+                int bits = reader.bitWidth();
+                long min = unzigzag(reader.varint());
+                for (int i = 0; i < length; i++) {
+                    out[i] = (int)(min + reader.bits(bits));
+                }
+                break;
+            default:
+                throw new SerializerException("Unknown packed array mode: " + mode);
+        }
+        reader.finish();
+    }
+
+    static void decode(byte mode, byte[] data, int offset, int size, long[] out) {
+        Reader reader = new Reader(data, offset, size);
+        int length = out.length;
+        switch (mode) {
+            case VARINT:
+                for (int i = 0; i < length; i++) {
+                    out[i] = unzigzag(reader.varint());
+                }
+                break;
+            case DELTA:
+                long prev = 0;
+                for (int i = 0; i < length; i++) {
+                    prev += unzigzag(reader.varint());
+                    out[i] = prev;
+                }
+                break;
+            case FRAME_OF_REFERENCE:
+                int bits = reader.bitWidth();
+                long min = unzigzag(reader.varint());
+                for (int i = 0; i < length; i++) {
+                    out[i] = min + reader.bits(bits);
+                }
+                break;
+            default:
+                throw new SerializerException("Unknown packed array mode: " + mode);
+        }
+        reader.finish();
+    }
+
+    private static int sizeOfVarints(int[] values, boolean delta) {
+        int size = 0;
+        long prev = 0;
+        for (int v : values) {
+            size += varintSize(zigzag(delta ? v - prev : v));
+            prev = v;
+        }
+        return size;
+    }
+
+    private static int sizeOfVarints(long[] values, boolean delta) {
+        int size = 0;
+        long prev = 0;
+        for (long v : values) {
+            size += varintSize(zigzag(delta ? v - prev : v));
+            prev = v;
+        }
+        return size;
+    }
+
+    private static int bitsFor(long min, long max) {
+        return 64 - Long.numberOfLeadingZeros(max - min); // the difference is treated as unsigned
+    }
+
+    private static long frameSize(int length, long min, long max) {
+        int bits = bitsFor(min, max);
+        if (bits > MAX_PACKED_BITS) {
+            return Long.MAX_VALUE >> 1;
+        }
+        return 1 + varintSize(zigzag(min)) + ((long)length * bits + 7 >> 3);
+    }
+
+    static int varintSize(long v) {
+        return (63 - Long.numberOfLeadingZeros(v | 1)) / 7 + 1;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static class Writer {
+
+        private final byte[] data;
+
+        private int position;
+        private long acc;
+        private int accBits;
+
+        private Writer(int size) {
+            data = new byte[size];
+        }
+
+        void varint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                data[position++] = (byte)(v | 0x80);
+                v >>>= 7;
+            }
+            data[position++] = (byte)v;
+        }
+
+        void frameHeader(int bits, long min) {
+            data[position++] = (byte)bits;
+            varint(zigzag(min));
+        }
+
+        void bits(long v, int bits) {
+            acc |= v << accBits;
+            accBits += bits;
+            while (accBits >= 8) {
+                data[position++] = (byte)acc;
+                acc >>>= 8;
+                accBits -= 8;
+            }
+        }
+
+        void flushBits() {
+            if (accBits > 0) {
+                data[position++] = (byte)acc;
+                acc = 0;
+                accBits = 0;
+            }
+        }
+
+        byte[] finish() {
+            assert position == data.length;
+            return data;
+        }
+    }
+
+    private static class Reader {
+
+        private final byte[] data;
+        private final int end;
+
+        private int position;
+        private long acc;
+        private int accBits;
+
+        private Reader(byte[] data, int offset, int size) {
+            this.data = data;
+            this.position = offset;
+            this.end = offset + size;
+        }
+
+        long varint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = data[position++];
+                v |= (long)(b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new SerializerException("Malformed varint");
+        }
+
+        int bitWidth() {
+            int bits = data[position++];
+            if (bits < 0 || bits > MAX_PACKED_BITS) {
+                throw new SerializerException("Malformed packed array, bit width: " + bits);
+            }
+            return bits;
+        }
+
+        long bits(int bits) {
+            while (accBits < bits) {
+                acc |= (data[position++] & 0xFFL) << accBits;
+                accBits += 8;
+            }
+            long v = acc & ((1L << bits) - 1);
+            acc >>>= bits;
+            accBits -= bits;
+            return v;
+        }
+
+        void finish() {
+            if (position != end) {
+                throw new SerializerException("Malformed packed array, " + (end - position) + " bytes were not read");
+            }
+        }
+    }
+}
@@ -6,15 +6,22 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: ed
  * Date: 9/17/14
  * Time: 7:53 AM
+ *
+ * Captures a labeled map of the bytes written or read by a serializer. The
+ * strategies only build labels and markers while a debugger is capturing on
+ * the current thread; otherwise {@link #start(String)} and
+ * {@link #label(String, String)} cost a single volatile read.
  */
 public class SerializerDebugger {
 
     private static final ThreadLocal<SerializerDebugger> ACTIVE_DEBUGGER = new ThreadLocal<SerializerDebugger>();
+    private static final AtomicInteger CAPTURING = new AtomicInteger(); // debuggers capturing, on any thread
     private static final Marker DUMMY_MARKER = new Marker() {
         public void close() { }
     };
@@ -57,11 +64,13 @@ public class SerializerDebugger {
         SerializerDebugger debugger = ACTIVE_DEBUGGER.get();
         buffer = out;
         Marker marker = startMethod("serialize");
+        CAPTURING.incrementAndGet();
         try {
             ACTIVE_DEBUGGER.set(this);
             strategy.serialize(value, out);
         } finally {
             ACTIVE_DEBUGGER.set(debugger);
+            CAPTURING.decrementAndGet();
             stopMethod("serialize", marker);
             buffer = null;
         }
@@ -71,11 +80,13 @@ public class SerializerDebugger {
         SerializerDebugger debugger = ACTIVE_DEBUGGER.get();
         buffer = in;
         Marker marker = startMethod("deserialize");
+        CAPTURING.incrementAndGet();
         try {
             ACTIVE_DEBUGGER.set(this);
             return strategy.deserialize(in);
         } finally {
             ACTIVE_DEBUGGER.set(debugger);
+            CAPTURING.decrementAndGet();
             stopMethod("deserialize", marker);
             buffer = null;
         }
@@ -242,8 +253,20 @@ public class SerializerDebugger {
         }
     }
 
+    static boolean isActive() {
+        return CAPTURING.get() > 0 && ACTIVE_DEBUGGER.get() != null;
+    }
+
+    /**
+     * @return The two parts of a label joined, or null if no debugger is
+     *     capturing on this thread, so the label is never built.
+     */
+    static String label(String a, String b) {
+        return isActive() ? a + b : null;
+    }
+
     static Marker start(String label) {
-        if (label == null) {
+        if (label == null || CAPTURING.get() == 0) {
             return DUMMY_MARKER;
         }
         SerializerDebugger debugger = ACTIVE_DEBUGGER.get();
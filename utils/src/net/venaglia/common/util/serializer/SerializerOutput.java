@@ -0,0 +1,241 @@
+package net.venaglia.common.util.serializer;
+
+import net.venaglia.common.util.ThreadSingletonSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 11:50 PM
+ *
+ * A per-thread, direct output buffer for serializers that grows to fit what
+ * is written to it. Strategies write into a single ByteBuffer, and patch
+ * sizes in behind themselves, so when a value overflows the buffer it is
+ * replaced with one twice the size and the value is serialized again.
+ * Strategies with side effects use firstAttempt() to run them only once. A
+ * buffer that grew is dropped again once it has gone unused for a while, or
+ * on the next write if it grew very large.
+ *
+ * The result of the last write can be viewed in place, streamed to a channel
+ * or OutputStream, or read as an InputStream (e.g. for setBinaryStream()),
+ * without copying it into a byte[]. The result is only valid until the next
+ * write on the same thread.
+ */
+public final class SerializerOutput {
+
+    private static final int INITIAL_CAPACITY = 65536;
+    private static final int RETAINED_CAPACITY = 4 << 20; // larger buffers are dropped once no longer needed
+    private static final int SHRINK_AFTER = 16; // writes in a row that use less than a quarter of a grown buffer
+    private static final int MAX_CAPACITY = Integer.getInteger("serializer.maxBuffer", 256 << 20);
+
+    private static final ThreadSingletonSource<SerializerOutput> OUTPUTS = new ThreadSingletonSource<SerializerOutput>() {
+        @Override
+        protected SerializerOutput newInstance() {
+            return new SerializerOutput();
+        }
+    };
+
+    private ByteBuffer buffer = allocate(INITIAL_CAPACITY);
+    private ByteBuffer result;
+    private boolean writing;
+    private int smallWrites;
+    private Set<Object> attempted; // values seen by firstAttempt() during this write
+
+    private SerializerOutput() {
+        // use get()
+    }
+
+    /**
+     * Serializes a value, growing the buffer as needed.
+     * @return A read-only view of the serialized bytes.
+     */
+    public <T> ByteBuffer write(final SerializerStrategy<T> strategy, T value) {
+        return write(new Writer<T>() {
+            public void write(T value, ByteBuffer out) {
+                strategy.serialize(value, out);
+            }
+        }, value);
+    }
+
+    /**
+     * Writes a value that only needs to be serialized, never read back as a
+     * whole, growing the buffer as needed.
+     * @return A read-only view of the serialized bytes.
+     */
+    public <T> ByteBuffer write(Writer<T> writer, T value) {
+        if (writing) {
+            throw new IllegalStateException("A write is already in progress on this output");
+        }
+        writing = true;
+        try {
+            result = null;
+            if (buffer.capacity() > RETAINED_CAPACITY || smallWrites >= SHRINK_AFTER) {
+                buffer = allocate(INITIAL_CAPACITY);
+                smallWrites = 0;
+            }
+            while (true) {
+                buffer.clear();
+                try {
+                    writer.write(value, buffer);
+                    break;
+                } catch (BufferOverflowException e) {
+                    grow();
+                }
+            }
+            buffer.flip();
+            if (buffer.capacity() > INITIAL_CAPACITY && buffer.limit() < buffer.capacity() >> 2) {
+                smallWrites++;
+            } else {
+                smallWrites = 0;
+            }
+            result = buffer.asReadOnlyBuffer();
+            return result.duplicate();
+        } finally {
+            writing = false;
+            attempted = null;
+        }
+    }
+
+    private void grow() {
+        int capacity = buffer.capacity();
+        if (capacity >= MAX_CAPACITY) {
+            throw new SerializerException("Serialized value exceeds the maximum buffer size of " + MAX_CAPACITY + " bytes");
+        }
+        buffer = allocate((int)Math.min(MAX_CAPACITY, capacity * 2L));
+    }
+
+    private ByteBuffer getResult() {
+        if (result == null) {
+            throw new IllegalStateException("Nothing has been written");
+        }
+        return result.duplicate();
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    public int size() {
+        return getResult().remaining();
+    }
+
+    public byte[] toByteArray() {
+        ByteBuffer view = getResult();
+        byte[] data = new byte[view.remaining()];
+        view.get(data);
+        return data;
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer view = getResult();
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        writeTo(Channels.newChannel(out));
+    }
+
+    /**
+     * @return A stream over the serialized bytes, reading directly from the
+     *     buffer.
+     */
+    public InputStream asInputStream() {
+        return new ByteBufferInputStream(getResult());
+    }
+
+    /**
+     * @return This thread's output, or a new one if this thread is already
+     *     in the middle of a write, e.g. a serializer that serializes a
+     *     nested value on its own.
+     */
+    public static SerializerOutput get() {
+        SerializerOutput output = OUTPUTS.get();
+        return output.writing ? new SerializerOutput() : output;
+    }
+
+    /**
+     * Lets a strategy with side effects, e.g. one that updates the value
+     * before writing it, run them only once when a value is serialized again
+     * into a larger buffer.
+     * @return false if the passed value was already passed to this method
+     *     during the write in progress on this thread, true otherwise.
+     */
+    public static boolean firstAttempt(Object value) {
+        SerializerOutput output = OUTPUTS.get();
+        if (!output.writing) {
+            return true; // not serializing through an output, never retried
+        }
+        if (output.attempted == null) {
+            output.attempted = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        }
+        return output.attempted.add(value);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Serializes values of one type into a buffer.
+     */
+    public interface Writer<T> {
+        void write(T value, ByteBuffer out);
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skip = (int)Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skip);
+            return skip;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
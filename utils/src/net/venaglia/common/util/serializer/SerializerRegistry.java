@@ -1,6 +1,9 @@
 package net.venaglia.common.util.serializer;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -8,6 +11,10 @@ import java.util.concurrent.ConcurrentHashMap;
  * User: ed
  * Date: 4/3/14
  * Time: 5:54 PM
+ *
+ * Lookups by class are resolved once per class, and cached in a ClassValue
+ * that is replaced whenever a strategy is added, so they never lock and never
+ * see a half built cache. Lookups by type marker read a copy-on-write array.
  */
 public class SerializerRegistry {
 
@@ -30,13 +37,20 @@ public class SerializerRegistry {
         MapSerializerStrategy.init();
     }
 
-    private final ConcurrentMap<Character,SerializerStrategy<?>> byTypeMarker = new ConcurrentHashMap<Character,SerializerStrategy<?>>();
+    private static final SerializerStrategy<?>[] NO_STRATEGIES = {};
+
     private final ConcurrentMap<Class<?>,SerializerStrategy<?>> byType = new ConcurrentHashMap<Class<?>,SerializerStrategy<?>>();
 
+    // both are replaced, never modified, when a strategy is added
+    private volatile SerializerStrategy<?>[] byTypeMarker = new SerializerStrategy<?>[128];
+    private volatile ClassValue<Resolution> resolutions = new Resolver();
+
     private SerializerRegistry() {
     }
 
-    private void addImpl(SerializerStrategy<?> strategy) {
+    private synchronized void addImpl(SerializerStrategy<?> strategy) {
+        char typeMarker = strategy.getTypeMarker();
+        SerializerStrategy<?> existingForMarker = typeMarker < byTypeMarker.length ? byTypeMarker[typeMarker] : null;
         if (byType.containsKey(strategy.getJavaType())) {
             if (strategy.getClass().getAnnotation(Secondary.class) == null) {
                 throw new IllegalArgumentException(String.format(
@@ -46,78 +60,49 @@ public class SerializerRegistry {
                         byType.get(strategy.getJavaType()).getJavaType().getSimpleName()));
             }
         }
-        if (byTypeMarker.containsKey(strategy.getTypeMarker())) {
+        if (existingForMarker != null) {
             if (strategy.getClass().getAnnotation(Secondary.class) == null) {
                 throw new IllegalArgumentException(String.format(
                         "Cannot add SerializerStrategy<%s>, another strategy already registered for marker '%s': SerializerStrategy<%s>",
                         strategy.getJavaType().getSimpleName(),
-                        strategy.getTypeMarker(),
-                        byTypeMarker.get(strategy.getTypeMarker()).getJavaType().getSimpleName()));
+                        typeMarker,
+                        existingForMarker.getJavaType().getSimpleName()));
             }
         }
         if (!byType.containsKey(strategy.getJavaType())) {
             byType.put(strategy.getJavaType(), strategy);
+            resolutions = new Resolver(); // lookups already resolved may now find this strategy
         }
-        if (!byTypeMarker.containsKey(strategy.getTypeMarker())) {
-            byTypeMarker.put(strategy.getTypeMarker(), strategy);
+        if (existingForMarker == null) {
+            SerializerStrategy<?>[] markers = byTypeMarker;
+            markers = Arrays.copyOf(markers, Math.max(markers.length, typeMarker + 1));
+            markers[typeMarker] = strategy;
+            byTypeMarker = markers;
         }
     }
 
     private <T> SerializerStrategy<T> forObjectImpl(Object o) throws SerializerException {
         SerializerStrategy<?> result = null;
         if (o == null) {
-            result = byTypeMarker.get('\0');
+            result = byTypeMarker['\0'];
         } else {
-            Class<?> type = o.getClass();
-            while (result == null && type != Object.class) {
-                result = byType.get(type);
-                if (result != null && !result.accept(o)) {
-                    result = null;
-                }
-                if (result == null) {
-                    type = type.getSuperclass();
+            // collections and maps are accepted or not by their contents, so check each candidate
+            for (SerializerStrategy<?> candidate : resolutions.get(o.getClass()).candidates) {
+                if (candidate.accept(o)) {
+                    result = candidate;
+                    break;
                 }
             }
             if (result == null) {
-                for (Class<?> c : o.getClass().getInterfaces()) {
-                    result = byType.get(c);
-                    if (result != null && !result.accept(o)) {
-                        result = null;
-                    }
-                }
-            } else if (result.getJavaType() != type) {
-                byType.put(type, result);
+                throw new SerializerException("Cannot find serializer for class " + o.getClass());
             }
         }
-        if (result == null && o != null) {
-            throw new SerializerException("Cannot find serializer for class " + o.getClass());
-        }
         //noinspection unchecked
         return (SerializerStrategy<T>)result;
     }
 
-    private <T> SerializerStrategy<T> forObjectTypeImpl(Class<?> t) throws SerializerException {
-        Class<?> type = t;
-        SerializerStrategy<?> result = null;
-        while (result == null && type != Object.class) {
-            result = byType.get(type);
-            if (result != null && !result.accept(t)) {
-                result = null;
-            }
-            if (result == null) {
-                type = type.getSuperclass();
-            }
-        }
-        if (result == null) {
-            for (Class<?> c : t.getInterfaces()) {
-                result = byType.get(c);
-                if (result != null && !result.accept(t)) {
-                    result = null;
-                }
-            }
-        } else if (result.getJavaType() != type) {
-            byType.put(type, result);
-        }
+    private <T> SerializerStrategy<T> forObjectTypeImpl(Class<?> type) throws SerializerException {
+        SerializerStrategy<?> result = resolutions.get(type).forType;
         if (result == null) {
             throw new SerializerException("Cannot find serializer for class " + type);
         }
@@ -126,7 +111,8 @@ public class SerializerRegistry {
     }
 
     private <T> SerializerStrategy<T> forTypeMarkerImpl(char typeMarker) throws SerializerException {
-        SerializerStrategy<?> strategy = byTypeMarker.get(typeMarker);
+        SerializerStrategy<?>[] markers = byTypeMarker;
+        SerializerStrategy<?> strategy = typeMarker < markers.length ? markers[typeMarker] : null;
         if (strategy == null) {
             throw new SerializerException("Cannot find serialzer for type marker '" + typeMarker + "'");
         }
@@ -134,6 +120,50 @@ public class SerializerRegistry {
         return (SerializerStrategy<T>)strategy;
     }
 
+    /**
+     * The strategies that may serialize instances of one class, in the order
+     * they are tried: those registered for the class and its superclasses,
+     * nearest first, then those registered for the interfaces it declares.
+     */
+    private static class Resolution {
+
+        final SerializerStrategy<?>[] candidates;
+        final SerializerStrategy<?> forType;
+
+        Resolution(SerializerStrategy<?>[] candidates, SerializerStrategy<?> forType) {
+            this.candidates = candidates;
+            this.forType = forType;
+        }
+    }
+
+    private class Resolver extends ClassValue<Resolution> {
+
+        @Override
+        protected Resolution computeValue(Class<?> t) {
+            List<SerializerStrategy<?>> candidates = new ArrayList<SerializerStrategy<?>>(2);
+            for (Class<?> type = t; type != null && type != Object.class; type = type.getSuperclass()) {
+                SerializerStrategy<?> strategy = byType.get(type);
+                if (strategy != null) {
+                    candidates.add(strategy);
+                }
+            }
+            for (Class<?> c : t.getInterfaces()) {
+                SerializerStrategy<?> strategy = byType.get(c);
+                if (strategy != null) {
+                    candidates.add(strategy);
+                }
+            }
+            SerializerStrategy<?> forType = null;
+            for (SerializerStrategy<?> candidate : candidates) {
+                if (candidate.accept(t)) {
+                    forType = candidate;
+                    break;
+                }
+            }
+            return new Resolution(candidates.isEmpty() ? NO_STRATEGIES : candidates.toArray(NO_STRATEGIES), forType);
+        }
+    }
+
     public static void add(SerializerStrategy<?> strategy) {
         INSTANCE.addImpl(strategy);
     }
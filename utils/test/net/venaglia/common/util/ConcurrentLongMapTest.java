@@ -0,0 +1,72 @@
+package net.venaglia.common.util;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 2:50 AM
+ */
+public class ConcurrentLongMapTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 20000;
+
+    public static void main(String[] args) throws InterruptedException {
+        final ConcurrentLongObjectMap<String> objects = new ConcurrentLongObjectMap<String>();
+        final ConcurrentLongIntMap counts = new ConcurrentLongIntMap();
+        final ConcurrentLongSet set = new ConcurrentLongSet();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < KEYS; i++) {
+                        long k = (long)i << 20;
+                        counts.addTo(k, 1);
+                        objects.putIfAbsent(k, "v" + i);
+                        set.add(k);
+                        // every thread adds and removes its own keys
+                        long mine = k | offset + 1;
+                        set.add(mine);
+                        objects.put(mine, "mine");
+                        assert objects.remove(mine, "mine");
+                        assert set.remove(mine);
+                    }
+                }
+            }, "ConcurrentLongMapTest-" + t);
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert counts.size() == KEYS;
+        assert objects.size() == KEYS;
+        assert set.size() == KEYS;
+        int c = 0;
+        for (LongIntCursor cursor = counts.cursor(); cursor.next(); c++) {
+            assert cursor.value() == THREADS;
+            assert set.contains(cursor.key());
+            assert ("v" + (cursor.key() >> 20)).equals(objects.get(cursor.key()));
+        }
+        assert c == KEYS;
+        assert objects.keySet().equals(set.toLongSet());
+        c = 0;
+        for (LongCursor cursor = set.cursor(); cursor.next(); c++) {
+            assert counts.containsKey(cursor.key());
+        }
+        assert c == KEYS;
+        set.clear();
+        counts.clear();
+        objects.clear();
+        assert set.isEmpty() && counts.isEmpty() && objects.isEmpty();
+        System.out.println("ConcurrentLongMapTest passed");
+    }
+}
@@ -0,0 +1,133 @@
+package net.venaglia.common.util;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 5:00 AM
+ *
+ * Cross-checks RangeBasedLongSet against a BitSet under random point, range
+ * and set operations, over a window that crosses several chunks so every
+ * kind of container, and the changes between them, gets exercised.
+ */
+public class ContainerSetTest {
+
+    private static final long BASE = -3L << 16; // so the window spans negative and positive chunks
+    private static final int WINDOW = 6 << 16;
+
+    public static void main(String[] args) {
+        Random random = new Random(41);
+        for (int round = 0; round < 20; round++) {
+            RangeBasedLongSet set = new RangeBasedLongSet();
+            BitSet expected = new BitSet(WINDOW);
+            int density = 1 + random.nextInt(4);
+            for (int op = 0; op < 4000; op++) {
+                int from = random.nextInt(WINDOW);
+                int to = Math.min(WINDOW - 1, from + (random.nextInt(3) == 0 ? random.nextInt(1 << 17) : random.nextInt(64)));
+                switch (random.nextInt(8)) {
+                    case 0:
+                        assert set.addAll(BASE + from, BASE + to) == (expected.get(from, to + 1).cardinality() < to - from + 1);
+                        expected.set(from, to + 1);
+                        break;
+                    case 1:
+                        assert set.removeAll(BASE + from, BASE + to) == !expected.get(from, to + 1).isEmpty();
+                        expected.clear(from, to + 1);
+                        break;
+                    case 2:
+                        assert set.remove(BASE + from) == expected.get(from);
+                        expected.clear(from);
+                        break;
+                    default:
+                        for (int i = 0; i < density * 8; i++) {
+                            int v = random.nextInt(WINDOW);
+                            assert set.add(BASE + v) != expected.get(v);
+                            expected.set(v);
+                        }
+                }
+                if (op % 500 == 0) {
+                    check(set, expected, random);
+                }
+            }
+            check(set, expected, random);
+
+            RangeBasedLongSet other = new RangeBasedLongSet();
+            BitSet otherExpected = new BitSet(WINDOW);
+            for (int i = 0; i < 2000; i++) {
+                int v = random.nextInt(WINDOW);
+                int length = random.nextInt(i % 2 == 0 ? 2 : 100);
+                other.addAll(BASE + v, BASE + v + length);
+                otherExpected.set(v, v + length + 1);
+            }
+            otherExpected.clear(WINDOW, WINDOW + 100);
+            other.removeAll(BASE + WINDOW, BASE + WINDOW + 100);
+            assert otherExpected.equals(toBitSet(other));
+
+            RangeBasedLongSet union = set.clone();
+            union.addAll(other);
+            BitSet unionExpected = (BitSet)expected.clone();
+            unionExpected.or(otherExpected);
+            check(union, unionExpected, random);
+            assert union.containsAll(set) && union.containsAll(other);
+
+            RangeBasedLongSet intersection = set.clone();
+            intersection.retainAll(other);
+            BitSet intersectionExpected = (BitSet)expected.clone();
+            intersectionExpected.and(otherExpected);
+            check(intersection, intersectionExpected, random);
+            assert set.containsAny(other) == !intersectionExpected.isEmpty();
+
+            RangeBasedLongSet difference = set.clone();
+            difference.removeAll(other);
+            BitSet differenceExpected = (BitSet)expected.clone();
+            differenceExpected.andNot(otherExpected);
+            check(difference, differenceExpected, random);
+            assert !difference.containsAny(other);
+
+            RangeBasedLongSet inverted = set.clone();
+            inverted.invert();
+            inverted.assertOptimized();
+            for (int i = 0; i < 1000; i++) {
+                int v = random.nextInt(WINDOW);
+                assert inverted.contains(BASE + v) != expected.get(v);
+            }
+            assert inverted.contains(Long.MIN_VALUE) && inverted.contains(Long.MAX_VALUE);
+            inverted.invert();
+            inverted.assertOptimized();
+            assert inverted.equals(set) && inverted.hashCode() == set.hashCode();
+        }
+        System.out.println("ContainerSetTest passed");
+    }
+
+    private static BitSet toBitSet(RangeBasedLongSet set) {
+        BitSet bits = new BitSet(WINDOW);
+        for (Long v : set) {
+            bits.set((int)(v - BASE));
+        }
+        return bits;
+    }
+
+    private static void check(RangeBasedLongSet set, BitSet expected, Random random) {
+        set.assertOptimized();
+        assert set.size() == expected.cardinality();
+        assert set.isEmpty() == expected.isEmpty();
+        Iterator<Long> iterator = set.iterator();
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            assert iterator.hasNext();
+            assert iterator.next() == BASE + i;
+        }
+        assert !iterator.hasNext();
+        for (int probe = 0; probe < 200; probe++) {
+            int v = random.nextInt(WINDOW);
+            assert set.contains(BASE + v) == expected.get(v);
+            int next = expected.nextSetBit(v);
+            if (next >= 0) {
+                assert set.getNext(BASE + v) == BASE + next;
+            }
+            assert set.getNextNotIncluded(BASE + v) == BASE + expected.nextClearBit(v);
+        }
+        assert set.equals(set.clone());
+    }
+}
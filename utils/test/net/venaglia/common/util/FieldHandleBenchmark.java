@@ -0,0 +1,85 @@
+package net.venaglia.common.util;
+
+import java.lang.reflect.Field;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 11:30 PM
+ *
+ * Compares reading and writing every field of an object through
+ * Field.get()/set() and through FieldHandle, the way the generated
+ * serializers loop over their field accessors.
+ */
+public class FieldHandleBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 2000000;
+
+    @SuppressWarnings("UnusedDeclaration")
+    static class Sample {
+        private int count = 3;
+        private String label = "acre";
+        private double radius = 2.5;
+        private int[] ids = { 1, 2, 3 };
+        private Object ref = new Object();
+        private long stamp = 5L;
+        private float[] weights = { 0.5f };
+        private boolean visible = true;
+    }
+
+    private static long sink;
+
+    public static void main(String[] args) throws IllegalAccessException {
+        Field[] fields = Sample.class.getDeclaredFields();
+        FieldHandle[] handles = new FieldHandle[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i].setAccessible(true);
+            handles[i] = FieldHandle.of(fields[i]);
+        }
+        Sample[] samples = new Sample[64];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = new Sample();
+        }
+
+        Sample test = new Sample();
+        handles[0].set(test, 7);
+        assert test.count == 7;
+        assert handles[0].get(test).equals(7);
+        handles[1].set(test, "plot");
+        assert "plot".equals(handles[1].get(test));
+
+        System.out.printf("%12s %16s\n", "accessor", "fields/s");
+        for (int round = 0; round < ROUNDS; round++) {
+            double reflect = reflect(fields, samples);
+            double handle = handle(handles, samples);
+            System.out.printf("%12s %16.0f\n%12s %16.0f\n", "Field", reflect, "FieldHandle", handle);
+        }
+    }
+
+    private static double reflect(Field[] fields, Sample[] samples) throws IllegalAccessException {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Sample sample = samples[i & 63];
+            for (Field field : fields) {
+                Object value = field.get(sample);
+                field.set(sample, value);
+                sink += value.hashCode();
+            }
+        }
+        return (double)ITERATIONS * fields.length * 1.0e9 / (System.nanoTime() - start);
+    }
+
+    private static double handle(FieldHandle[] handles, Sample[] samples) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Sample sample = samples[i & 63];
+            for (FieldHandle handle : handles) {
+                Object value = handle.get(sample);
+                handle.set(sample, value);
+                sink += value.hashCode();
+            }
+        }
+        return (double)ITERATIONS * handles.length * 1.0e9 / (System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,61 @@
+package net.venaglia.common.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 2:40 AM
+ */
+public class LongIntMapTest {
+
+    @SuppressWarnings("AssertWithSideEffects")
+    public static void main(String[] args) {
+        LongIntMap map = new LongIntMap(4, 0.5f, -1);
+        assert map.getMissingValue() == -1;
+        assert map.get(3L) == -1;
+        assert map.put(3L, 30) == -1;
+        assert map.put(3L, 33) == 30;
+        assert map.addTo(3L, 2) == 35;
+        assert map.addTo(4L, 5) == 4;
+        assert map.remove(4L) == 4;
+        assert map.remove(4L) == -1;
+        assert map.size() == 1;
+        for (LongIntCursor cursor = map.cursor(); cursor.next();) {
+            assert cursor.key() == 3L;
+            cursor.setValue(cursor.value() * 2);
+        }
+        assert map.get(3L) == 70;
+        try {
+            new LongIntMap(4, 1.0f, 0);
+            assert false : "fail";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // counting against a HashMap, growing from a tiny table
+        Random random = new Random(31);
+        Map<Long,Integer> expected = new HashMap<Long,Integer>();
+        LongIntMap counts = new LongIntMap();
+        for (int i = 0; i < 200000; i++) {
+            long k = random.nextInt(8192) * 1000003L;
+            if (random.nextInt(5) == 0) {
+                Integer old = expected.remove(k);
+                assert counts.remove(k) == (old == null ? 0 : old);
+            } else {
+                Integer old = expected.get(k);
+                int now = (old == null ? 0 : old) + 1;
+                expected.put(k, now);
+                assert counts.addTo(k, 1) == now;
+            }
+            assert counts.size() == expected.size();
+        }
+        for (Map.Entry<Long,Integer> entry : expected.entrySet()) {
+            assert counts.get(entry.getKey()) == entry.getValue();
+        }
+        assert counts.keySet().size() == expected.size();
+        System.out.println("LongIntMapTest passed");
+    }
+}
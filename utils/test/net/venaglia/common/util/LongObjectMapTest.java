@@ -0,0 +1,94 @@
+package net.venaglia.common.util;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 2:30 AM
+ */
+public class LongObjectMapTest {
+
+    @SuppressWarnings("AssertWithSideEffects")
+    public static void main(String[] args) {
+        LongObjectMap<String> map = new LongObjectMap<String>();
+        assert map.put(5L, "five") == null;
+        assert "five".equals(map.put(5L, "FIVE"));
+        assert "FIVE".equals(map.putIfAbsent(5L, "five"));
+        assert map.putIfAbsent(-6L, "minus six") == null;
+        assert map.size() == 2;
+        assert map.get(7L) == null;
+        assert map.get(LongObjectMap.NO_KEY) == null;
+        assert map.containsKey(-6L);
+        try {
+            map.put(LongObjectMap.NO_KEY, "x");
+            assert false : "fail";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            map.put(1L, null);
+            assert false : "fail";
+        } catch (NullPointerException e) {
+            // expected
+        }
+        for (LongObjectCursor<String> cursor = map.cursor(); cursor.next();) {
+            cursor.setValue(cursor.value() + "!");
+        }
+        assert "FIVE!".equals(map.get(5L));
+        assert "minus six!".equals(map.get(-6L));
+        assert map.keySet().size() == 2 && map.keySet().contains(-6L);
+        LongObjectCursor<String> cursor = map.cursor();
+        map.remove(5L);
+        try {
+            cursor.next();
+            assert false : "fail";
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+        map.clear();
+        assert map.isEmpty();
+
+        Random random = new Random(23);
+        Map<Long,String> expected = new HashMap<Long,String>();
+        IntObjectMap<String> intMap = new IntObjectMap<String>();
+        Map<Integer,String> intExpected = new HashMap<Integer,String>();
+        for (int i = 0; i < 200000; i++) {
+            int k = random.nextInt(4096) << 16;
+            String v = String.valueOf(i);
+            switch (random.nextInt(4)) {
+                case 0:
+                    assert eq(map.remove(k), expected.remove((long)k));
+                    assert eq(intMap.remove(k), intExpected.remove(k));
+                    break;
+                case 1:
+                    assert eq(map.get(k), expected.get((long)k));
+                    assert eq(intMap.get(k), intExpected.get(k));
+                    break;
+                default:
+                    assert eq(map.put(k, v), expected.put((long)k, v));
+                    assert eq(intMap.put(k, v), intExpected.put(k, v));
+            }
+            assert map.size() == expected.size();
+            assert intMap.size() == intExpected.size();
+        }
+        int c = 0;
+        for (LongObjectCursor<String> each = map.cursor(); each.next(); c++) {
+            assert each.value().equals(expected.get(each.key()));
+        }
+        assert c == expected.size();
+        c = 0;
+        for (IntObjectCursor<String> each = intMap.cursor(); each.next(); c++) {
+            assert each.value().equals(intExpected.get(each.key()));
+        }
+        assert c == intExpected.size();
+        System.out.println("LongObjectMapTest passed");
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,98 @@
+package net.venaglia.common.util;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 2:20 AM
+ */
+public class LongSetTest {
+
+    @SuppressWarnings({ "AssertWithSideEffects", "ObjectEqualsNull", "EqualsBetweenInconvertibleTypes" })
+    public static void main(String[] args) {
+        long[] values = {38776L,-17751L,42511L,1L << 40,43262L,40111L,65050L,8413L,25052L,-(1L << 52),51231L,3577L,15120L,3581L,10793L,Long.MAX_VALUE,0L};
+        LongSet set = new LongSet();
+        for (long value : values) {
+            assert set.add(value);
+            assert !set.add(value);
+            assert set.remove(value);
+            assert !set.remove(value);
+            assert set.add(value);
+        }
+        assert set.size() == values.length;
+        long[] array = set.toArray();
+        Arrays.sort(values);
+        Arrays.sort(array);
+        assert Arrays.equals(values, array);
+        assert !set.contains(LongSet.NO_VALUE);
+        assert !set.remove(LongSet.NO_VALUE);
+        try {
+            set.add(LongSet.NO_VALUE);
+            assert false : "fail";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        LongSet set2 = set.clone();
+        assert set2.equals(set);
+        assert set.equals(set2);
+        assert set.hashCode() == set2.hashCode();
+        assert set2.remove(values[0]);
+        assert !set2.equals(set);
+        assert set.containsAll(set2);
+        assert !set2.containsAll(set);
+        assert !set2.equals(null);
+        assert !set2.equals("null");
+        assert set.removeAll(set2);
+        assert set.size() == 1 && set.contains(values[0]);
+        assert set.addAll(set2);
+        assert !set.addAll(set2);
+        assert set.size() == values.length;
+
+        LongCursor cursor = set.cursor();
+        int c = 0;
+        while (cursor.next()) {
+            assert Arrays.binarySearch(values, cursor.key()) >= 0;
+            c++;
+        }
+        assert c == values.length;
+        assert !cursor.next();
+        cursor = set.cursor();
+        assert cursor.next();
+        set.remove(cursor.key());
+        try {
+            cursor.next();
+            assert false : "fail";
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+        set.clear();
+        assert set.isEmpty();
+        assert !set.cursor().next();
+        assert "[]".equals(set.toString());
+
+        // random churn against HashSet, on a small key range so that runs
+        // collide and removals have to shift keys back
+        Random random = new Random(17);
+        Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 200000; i++) {
+            long v = random.nextInt(4096) * 0x10000000L;
+            if (random.nextInt(3) == 0) {
+                assert set.remove(v) == expected.remove(v);
+            } else {
+                assert set.add(v) == expected.add(v);
+            }
+            assert set.size() == expected.size();
+        }
+        for (long v = 0; v < 4096; v++) {
+            assert set.contains(v * 0x10000000L) == expected.contains(v * 0x10000000L);
+        }
+        assert set.toArray().length == expected.size();
+        System.out.println("LongSetTest passed");
+    }
+}
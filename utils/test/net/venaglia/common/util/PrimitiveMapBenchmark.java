@@ -0,0 +1,180 @@
+package net.venaglia.common.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 3:00 AM
+ *
+ * Compares the heap used by the primitive sets and maps against the boxed
+ * JDK collections holding the same keys, and the rate of lookups in each.
+ */
+public class PrimitiveMapBenchmark {
+
+    private static final int SIZE = 1000000;
+    private static final int ROUNDS = 5;
+
+    private static final Object VALUE = new Object();
+
+    private static long sink;
+
+    private interface Subject {
+        Object build(long[] keys);
+        void lookup(Object built, long[] keys);
+    }
+
+    public static void main(String[] args) {
+        long[] keys = new long[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            keys[i] = i * 0x9E3779B97F4A7C15L >>> 20; // scattered, like global vertex ids
+        }
+        System.out.printf("%32s %16s %12s %16s\n", "collection", "heap (bytes)", "per key", "lookups/s");
+        run("HashSet<Long>", keys, new Subject() {
+            public Object build(long[] keys) {
+                Set<Long> set = new HashSet<Long>();
+                for (long k : keys) set.add(k);
+                return set;
+            }
+            @SuppressWarnings("unchecked")
+            public void lookup(Object built, long[] keys) {
+                Set<Long> set = (Set<Long>)built;
+                for (long k : keys) if (set.contains(k)) sink++;
+            }
+        });
+        run("LongSet", keys, new Subject() {
+            public Object build(long[] keys) {
+                LongSet set = new LongSet();
+                for (long k : keys) set.add(k);
+                return set;
+            }
+            public void lookup(Object built, long[] keys) {
+                LongSet set = (LongSet)built;
+                for (long k : keys) if (set.contains(k)) sink++;
+            }
+        });
+        run("HashMap<Long,Object>", keys, new Subject() {
+            public Object build(long[] keys) {
+                Map<Long,Object> map = new HashMap<Long,Object>();
+                for (long k : keys) map.put(k, VALUE);
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            public void lookup(Object built, long[] keys) {
+                Map<Long,Object> map = (Map<Long,Object>)built;
+                for (long k : keys) if (map.get(k) != null) sink++;
+            }
+        });
+        run("LongObjectMap", keys, new Subject() {
+            public Object build(long[] keys) {
+                LongObjectMap<Object> map = new LongObjectMap<Object>();
+                for (long k : keys) map.put(k, VALUE);
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            public void lookup(Object built, long[] keys) {
+                LongObjectMap<Object> map = (LongObjectMap<Object>)built;
+                for (long k : keys) if (map.get(k) != null) sink++;
+            }
+        });
+        run("HashMap<Long,Integer>", keys, new Subject() {
+            public Object build(long[] keys) {
+                Map<Long,Integer> map = new HashMap<Long,Integer>();
+                for (int i = 0; i < keys.length; i++) map.put(keys[i], i);
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            public void lookup(Object built, long[] keys) {
+                Map<Long,Integer> map = (Map<Long,Integer>)built;
+                for (long k : keys) sink += map.get(k);
+            }
+        });
+        run("LongIntMap", keys, new Subject() {
+            public Object build(long[] keys) {
+                LongIntMap map = new LongIntMap();
+                for (int i = 0; i < keys.length; i++) map.put(keys[i], i);
+                return map;
+            }
+            public void lookup(Object built, long[] keys) {
+                LongIntMap map = (LongIntMap)built;
+                for (long k : keys) sink += map.get(k);
+            }
+        });
+        run("HashMap<Integer,Object>", keys, new Subject() {
+            public Object build(long[] keys) {
+                Map<Integer,Object> map = new HashMap<Integer,Object>();
+                for (long k : keys) map.put((int)k, VALUE);
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            public void lookup(Object built, long[] keys) {
+                Map<Integer,Object> map = (Map<Integer,Object>)built;
+                for (long k : keys) if (map.get((int)k) != null) sink++;
+            }
+        });
+        run("IntObjectMap", keys, new Subject() {
+            public Object build(long[] keys) {
+                IntObjectMap<Object> map = new IntObjectMap<Object>();
+                for (long k : keys) map.put((int)k, VALUE);
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            public void lookup(Object built, long[] keys) {
+                IntObjectMap<Object> map = (IntObjectMap<Object>)built;
+                for (long k : keys) if (map.get((int)k) != null) sink++;
+            }
+        });
+        run("ConcurrentHashMap<Long,Object>", keys, new Subject() {
+            public Object build(long[] keys) {
+                Map<Long,Object> map = new ConcurrentHashMap<Long,Object>();
+                for (long k : keys) map.put(k, VALUE);
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            public void lookup(Object built, long[] keys) {
+                Map<Long,Object> map = (Map<Long,Object>)built;
+                for (long k : keys) if (map.get(k) != null) sink++;
+            }
+        });
+        run("ConcurrentLongObjectMap", keys, new Subject() {
+            public Object build(long[] keys) {
+                ConcurrentLongObjectMap<Object> map = new ConcurrentLongObjectMap<Object>();
+                for (long k : keys) map.put(k, VALUE);
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            public void lookup(Object built, long[] keys) {
+                ConcurrentLongObjectMap<Object> map = (ConcurrentLongObjectMap<Object>)built;
+                for (long k : keys) if (map.get(k) != null) sink++;
+            }
+        });
+    }
+
+    private static void run(String name, long[] keys, Subject subject) {
+        long before = usedHeap();
+        Object built = subject.build(keys);
+        long heap = usedHeap() - before;
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            subject.lookup(built, keys);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%32s %,16d %12.1f %,16.0f\n", name, heap, heap / (double)keys.length, keys.length * 1.0e9 / best);
+        if (built.hashCode() == 42) {
+            sink++; // keep the collection reachable until it has been measured
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -628,34 +628,7 @@ public class RangeBasedLongSetTest {
         }
 
         public void assertOptimized() {
-            assertNotNull("allRanges should not be null", ranges);
-            assertTrue("allRanges should never be empty", ranges.size() > 0);
-            Range leftRange = ranges.get(0);
-            assertEquals("The first range should always begin with MIN_VALUE",
-                         Long.MIN_VALUE,
-                         leftRange.getBegin());
-            Range rightRange;
-            long size = leftRange.size();
-            for (int i = 1; i < ranges.size(); i++) {
-                rightRange = ranges.get(i);
-                assertEquals("Ranges should always start immediately after " +
-                             "the preceeding range [" + i + "]",
-                             leftRange.getEnd() + 1, rightRange.getBegin());
-                assertTrue("Consecutive ranges should not have the same " +
-                           "inclusion [" + i + "]",
-                           leftRange.isIncluded() != rightRange.isIncluded());
-                assertTrue("Ranges should always end on or after they begin " +
-                           "[" + i + "]",
-                           rightRange.getBegin() <= rightRange.getEnd());
-                size += rightRange.size();
-                leftRange = rightRange;
-            }
-            assertEquals("The last range should always end with MAX_VALUE",
-                         Long.MAX_VALUE,
-                         leftRange.getEnd());
-            assertEquals("This set does not indicate the correct size",
-                         size,
-                         this.size);
+            super.assertOptimized();
         }
     }
 
@@ -686,7 +659,7 @@ public class RangeBasedLongSetTest {
     }
 
     public static void main(String[] args) throws Exception {
-        RangeBasedIntegerSetTest test = new RangeBasedIntegerSetTest();
+        RangeBasedLongSetTest test = new RangeBasedLongSetTest();
         for (Method m : test.getClass().getDeclaredMethods()) {
             if (Void.TYPE.equals(m.getReturnType()) && m.getParameterTypes().length == 0) {
                 int mod = m.getModifiers();
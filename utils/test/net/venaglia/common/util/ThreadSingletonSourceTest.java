@@ -0,0 +1,95 @@
+package net.venaglia.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 4:15 AM
+ */
+public class ThreadSingletonSourceTest {
+
+    public static class Scratch {
+
+        private final AtomicBoolean inUse = new AtomicBoolean();
+    }
+
+    public static void main(String[] args) throws Exception {
+        // enough sources to grow the per-thread array a few times
+        List<ThreadSingletonSource<Scratch>> sources = new ArrayList<ThreadSingletonSource<Scratch>>();
+        for (int i = 0; i < 100; i++) {
+            sources.add(ThreadSingletonSource.forType(Scratch.class));
+        }
+        final List<Scratch> mine = new ArrayList<Scratch>();
+        for (ThreadSingletonSource<Scratch> source : sources) {
+            Scratch scratch = source.get();
+            assert scratch != null;
+            assert source.get() == scratch;
+            assert source.acquire() == scratch;
+            source.release(scratch);
+            assert !mine.contains(scratch);
+            mine.add(scratch);
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            assert sources.get(i).get() == mine.get(i);
+        }
+        final ThreadSingletonSource<Scratch> first = sources.get(0);
+        final Scratch[] other = new Scratch[1];
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                other[0] = first.get();
+            }
+        });
+        thread.start();
+        thread.join();
+        assert other[0] != null && other[0] != mine.get(0);
+
+        // shared pool, instances are never held by two threads at once
+        final AtomicInteger created = new AtomicInteger();
+        final ThreadSingletonSource<Scratch> shared = ThreadSingletonSource.shared(new Factory<Scratch>() {
+            public Scratch createEmpty() {
+                created.incrementAndGet();
+                return new Scratch();
+            }
+        }, 4);
+        assert shared.isShared();
+        assert !first.isShared();
+        try {
+            shared.get();
+            assert false : "fail";
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Scratch a = shared.acquire();
+        shared.release(a);
+        assert shared.acquire() == a;
+        shared.release(a);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 64; t++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        Scratch scratch = shared.acquire();
+                        if (!scratch.inUse.compareAndSet(false, true)) {
+                            failures.incrementAndGet();
+                        }
+                        scratch.inUse.set(false);
+                        shared.release(scratch);
+                    }
+                }
+            });
+            worker.start();
+            threads.add(worker);
+        }
+        for (Thread worker : threads) {
+            worker.join();
+        }
+        assert failures.get() == 0 : failures.get();
+        System.out.println("Shared pool created " + created.get() + " instances for 64 threads");
+        System.out.println("All tests passed");
+    }
+}
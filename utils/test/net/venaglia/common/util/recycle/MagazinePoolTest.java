@@ -0,0 +1,137 @@
+package net.venaglia.common.util.recycle;
+
+import net.venaglia.common.util.Factory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 3:40 AM
+ */
+public class MagazinePoolTest {
+
+    private static class Pooled {
+
+        private final AtomicBoolean inUse = new AtomicBoolean();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        Factory<Pooled> factory = new Factory<Pooled>() {
+            public Pooled createEmpty() {
+                created.incrementAndGet();
+                return new Pooled();
+            }
+        };
+
+        // single thread, objects come back most recently recycled first
+        MagazinePool<Pooled> pool = new MagazinePool<Pooled>(factory, 4, 1);
+        assert pool.poll() == null;
+        Pooled a = pool.get();
+        Pooled b = pool.get();
+        assert created.get() == 2;
+        assert pool.getMisses() == 3 && pool.getHits() == 0;
+        pool.put(a);
+        pool.put(b);
+        assert pool.get() == b;
+        assert pool.get() == a;
+        assert pool.getHits() == 2 && pool.getRecycled() == 2;
+        assert pool.getHitRate() == 0.4;
+
+        // two magazines per thread plus one in the depot, the rest is discarded
+        for (int i = 0; i < 20; i++) {
+            pool.put(new Pooled());
+        }
+        assert pool.size() == 4 : pool.size();
+        assert pool.getDiscarded() == 8 : pool.getDiscarded();
+        for (int i = 0; i < 12; i++) {
+            assert pool.poll() != null;
+        }
+        assert pool.poll() == null;
+        assert pool.size() == 0;
+
+        try {
+            pool.put(null);
+            assert false : "fail";
+        } catch (NullPointerException e) {
+            // expected
+        }
+        try {
+            new MagazinePool<Pooled>(null, 4, 1).get();
+            assert false : "fail";
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // objects recycled on one thread reach another through the depot
+        final MagazinePool<Pooled> handOff = new MagazinePool<Pooled>(factory, 8, 4);
+        final List<Pooled> given = new ArrayList<Pooled>();
+        for (int i = 0; i < 24; i++) {
+            given.add(new Pooled());
+        }
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (Pooled p : given) {
+                    handOff.put(p);
+                }
+            }
+        });
+        producer.start();
+        producer.join();
+        assert handOff.size() == 8 : handOff.size();
+        for (int i = 0; i < 8; i++) {
+            assert given.contains(handOff.poll());
+        }
+        assert handOff.poll() == null;
+
+        // no object is ever handed to two holders at once
+        final MagazinePool<Pooled> shared = new MagazinePool<Pooled>(factory, 64);
+        final int threads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    List<Pooled> held = new ArrayList<Pooled>();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 200000; i++) {
+                        if (held.isEmpty() || held.size() < 8 && random.nextBoolean()) {
+                            Pooled p = shared.get();
+                            if (!p.inUse.compareAndSet(false, true)) {
+                                failures.incrementAndGet();
+                            }
+                            held.add(p);
+                        } else {
+                            Pooled p = held.remove(held.size() - 1);
+                            p.inUse.set(false);
+                            shared.put(p);
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assert failures.get() == 0 : failures.get();
+        assert shared.getHits() + shared.getMisses() > shared.getRecycled();
+        assert shared.getHitRate() > 0.5 : shared;
+        System.out.println(shared);
+        System.out.println("All tests passed");
+    }
+}
@@ -7,7 +7,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * User: ed
@@ -103,16 +102,13 @@ public class RecycleBinTest {
     public static void main(String[] args) {
         final long runUntil = System.currentTimeMillis() + 60000; // 60 seconds
         final AtomicInteger objectsCreated = new AtomicInteger();
-        final AtomicReference<RecycleDeque<WeakReference<MyRecycleable>>> parkingRef =
-                new AtomicReference<RecycleDeque<WeakReference<MyRecycleable>>>();
         final Factory<MyRecycleable> factory = new Factory<MyRecycleable>() {
             public MyRecycleable createEmpty() {
                 objectsCreated.incrementAndGet();
                 return new MyRecycleable();
             }
         };
-        final RecycleDeque<WeakReference<MyRecycleable>> recycleDeque = new RecycleDeque<WeakReference<MyRecycleable>>();
-        final RecycleBin<MyRecycleable> recycleBin = new RecycleBin<MyRecycleable>(factory, recycleDeque);
+        final RecycleBin<MyRecycleable> recycleBin = new RecycleBin<MyRecycleable>(factory);
         recycleBin.setLimit(64);
         RecycleBinTest test = new RecycleBinTest(recycleBin, runUntil);
         for (int i = 0; i < 64; i++) {
@@ -122,10 +118,12 @@ public class RecycleBinTest {
         System.out.println();
         System.out.printf("Objects taken: %d (%d reused)\n" +
                           "Objects created: %d\n" +
-                          "Final buffer size: %d\n",
+                          "Final buffer size: %d\n" +
+                          "%s\n",
                           test.objectsTaken.get(),
                           test.objectsTaken.get() - objectsCreated.get(),
                           objectsCreated.get(),
-                          parkingRef.get().size());
+                          recycleBin.size(),
+                          recycleBin.getPool());
     }
 }
@@ -0,0 +1,124 @@
+package net.venaglia.common.util.serializer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 11:59 PM
+ */
+public class ArraySerializerStrategyTest {
+
+    public static void main(String[] args) {
+        testInts();
+        testLongs();
+        testDoubles();
+        testPlainLayout();
+        testDirectBuffer();
+        System.out.println("All tests passed");
+    }
+
+    private static void testInts() {
+        Random random = new Random(42);
+        int[] sequential = new int[500];
+        int[] clustered = new int[500];
+        int[] noise = new int[500];
+        for (int i = 0; i < 500; i++) {
+            sequential[i] = 1000000 + i * 3;
+            clustered[i] = 2900 + random.nextInt(200);
+            noise[i] = random.nextInt();
+        }
+        assertPacked(sequential, PackedArrays.DELTA);
+        assertPacked(clustered, PackedArrays.FRAME_OF_REFERENCE);
+        assertPacked(new int[]{ 3, 1, 4, 1, 5, 9, 2, 6, 100000, 2, 7, -1, 8 }, PackedArrays.VARINT);
+        assertPacked(noise, PackedArrays.PLAIN);
+        assertPacked(new int[]{ Integer.MIN_VALUE, Integer.MAX_VALUE, 0 }, PackedArrays.PLAIN);
+        assertPacked(new int[]{ 7, 7, 7, 7, 7, 7, 7, 7, 7, 7 }, PackedArrays.FRAME_OF_REFERENCE);
+        assertPacked(new int[0], PackedArrays.PLAIN);
+        for (byte mode = PackedArrays.VARINT; mode <= PackedArrays.FRAME_OF_REFERENCE; mode++) {
+            for (int[] values : new int[][]{ sequential, clustered, noise }) {
+                int[] decoded = new int[values.length];
+                byte[] packed = PackedArrays.encode(values, mode);
+                PackedArrays.decode(mode, packed, 0, packed.length, decoded);
+                assert Arrays.equals(values, decoded) : "mode " + mode;
+            }
+        }
+    }
+
+    private static void testLongs() {
+        Random random = new Random(7);
+        long[] seams = new long[42];
+        for (int i = 0; i < 42; i++) {
+            seams[i] = i % 7 < 5 ? 22639616L + i * 64 : 15323972608L + random.nextInt(100000) * 64;
+        }
+        assertPacked(seams, PackedArrays.DELTA);
+        assertPacked(new long[]{ Long.MIN_VALUE, Long.MAX_VALUE, -1L }, PackedArrays.PLAIN);
+        long[] wide = new long[100];
+        for (int i = 0; i < wide.length; i++) {
+            wide[i] = random.nextLong();
+        }
+        for (byte mode = PackedArrays.VARINT; mode <= PackedArrays.DELTA; mode++) {
+            long[] decoded = new long[wide.length];
+            byte[] packed = PackedArrays.encode(wide, mode);
+            PackedArrays.decode(mode, packed, 0, packed.length, decoded);
+            assert Arrays.equals(wide, decoded) : "mode " + mode;
+        }
+    }
+
+    private static void testDoubles() {
+        double[] whole = { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0 };
+        assert Arrays.equals(whole, (double[])roundTrip(whole));
+        assert serialize(whole).limit() < 8 * whole.length;
+        double[] fractions = { 0.5, -0.0, Double.NaN, 1.0e300 };
+        assert Arrays.equals(fractions, (double[])roundTrip(fractions));
+        assert serialize(fractions).limit() > 8 * fractions.length;
+    }
+
+    private static void testPlainLayout() {
+        // arrays written before packing was added are still readable
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte)3).put("int".getBytes()).put((byte)3).put((byte)'i');
+        buffer.putInt(5).putInt(-6).putInt(7).flip();
+        assert Arrays.equals(new int[]{ 5, -6, 7 }, (int[])ArraySerializerStrategy.INSTANCE.deserialize(buffer));
+        assert buffer.remaining() == 0;
+    }
+
+    private static void testDirectBuffer() {
+        long[] values = new long[300];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 5000000000L + i;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        ArraySerializerStrategy.LONGS.serialize(values, buffer);
+        buffer.put((byte)99).flip();
+        assert Arrays.equals(values, ArraySerializerStrategy.LONGS.deserialize(buffer));
+        assert buffer.get() == 99;
+    }
+
+    private static void assertPacked(Object values, byte expectedMode) {
+        byte mode = values instanceof int[]
+                    ? PackedArrays.chooseMode((int[])values)
+                    : PackedArrays.chooseMode((long[])values);
+        assert mode == expectedMode : "expected mode " + expectedMode + ", chose " + mode;
+        Object copy = roundTrip(values);
+        assert values instanceof int[]
+               ? Arrays.equals((int[])values, (int[])copy)
+               : Arrays.equals((long[])values, (long[])copy);
+    }
+
+    private static Object roundTrip(Object values) {
+        ByteBuffer buffer = serialize(values);
+        Object copy = ArraySerializerStrategy.INSTANCE.deserialize(buffer);
+        assert buffer.remaining() == 0;
+        return copy;
+    }
+
+    private static ByteBuffer serialize(Object values) {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        ArraySerializerStrategy.INSTANCE.serialize(values, buffer);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,156 @@
+package net.venaglia.common.util.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * User: ed
+ * Date: 10/17/26
+ * Time: 11:55 PM
+ */
+public class SerializerOutputTest {
+
+    public static void main(String[] args) throws IOException {
+        testSmallValue();
+        testLargeValue();
+        testStreams();
+        testNested();
+        testShrink();
+        testFirstAttempt();
+        testOutOfBounds();
+        System.out.println("All tests passed");
+    }
+
+    private static void testSmallValue() {
+        byte[] data = ObjectSerializer.INSTANCE.serialize("hello");
+        assert "hello".equals(ObjectSerializer.INSTANCE.deserialize(data));
+    }
+
+    private static void testLargeValue() {
+        String big = largeString(300000);
+        byte[] data = ObjectSerializer.INSTANCE.serialize(big);
+        assert data.length > 300000;
+        assert big.equals(ObjectSerializer.INSTANCE.deserialize(data));
+
+        int[] ints = new int[100000];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i * 0x9E3779B9; // scattered, so they stay fixed width
+        }
+        ByteBuffer view = SerializerOutput.get().write(ArraySerializerStrategy.INTS, ints);
+        assert view.remaining() > 400000;
+        assert Arrays.equals(ints, ArraySerializerStrategy.INTS.deserialize(view));
+
+        // the buffer goes back to its original size after a large value
+        assert "small".equals(ObjectSerializer.INSTANCE.deserialize(ObjectSerializer.INSTANCE.serialize("small")));
+    }
+
+    private static void testStreams() throws IOException {
+        String big = largeString(200000);
+        byte[] expected = ObjectSerializer.INSTANCE.serialize(big);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectSerializer.INSTANCE.serialize(big, Channels.newChannel(bytes));
+        assert Arrays.equals(expected, bytes.toByteArray());
+
+        bytes.reset();
+        ObjectSerializer.INSTANCE.serialize(big, bytes);
+        assert Arrays.equals(expected, bytes.toByteArray());
+
+        SerializerOutput output = SerializerOutput.get();
+        ByteBuffer view = output.write(StringSerializerStrategy.INSTANCE, big);
+        assert view.isReadOnly();
+        assert view.remaining() == output.size();
+        assert big.equals(StringSerializerStrategy.INSTANCE.deserialize(view));
+
+        byte[] array = output.toByteArray();
+        InputStream in = output.asInputStream();
+        assert in.available() == array.length;
+        bytes.reset();
+        byte[] chunk = new byte[4096];
+        for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+            bytes.write(chunk, 0, n);
+        }
+        assert Arrays.equals(array, bytes.toByteArray());
+    }
+
+    private static void testNested() {
+        final SerializerOutput outer = SerializerOutput.get();
+        AbstractSerializerStrategy<String> nesting = new AbstractSerializerStrategy<String>() {
+            public void serialize(String value, ByteBuffer out) {
+                SerializerOutput inner = SerializerOutput.get();
+                assert inner != outer;
+                inner.write(StringSerializerStrategy.INSTANCE, value);
+                out.putInt(inner.size());
+            }
+
+            public String deserialize(ByteBuffer in) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        ByteBuffer view = outer.write(nesting, "nested");
+        assert view.remaining() == 4;
+        assert SerializerOutput.get() == outer;
+    }
+
+    private static void testShrink() {
+        SerializerOutput output = SerializerOutput.get();
+        output.write(StringSerializerStrategy.INSTANCE, largeString(1 << 20));
+        int grown = output.capacity();
+        assert grown > 1 << 20;
+        for (int i = 0; i < 16; i++) {
+            output.write(StringSerializerStrategy.INSTANCE, "small");
+            assert output.capacity() == grown : "shrunk too soon, after " + i + " small writes";
+        }
+        output.write(StringSerializerStrategy.INSTANCE, "small");
+        assert output.capacity() < grown >> 2 : output.capacity();
+    }
+
+    private static void testFirstAttempt() {
+        final int[] visits = { 0 };
+        AbstractSerializerStrategy<String> visiting = new AbstractSerializerStrategy<String>() {
+            public void serialize(String value, ByteBuffer out) {
+                if (SerializerOutput.firstAttempt(value)) {
+                    visits[0]++;
+                }
+                StringSerializerStrategy.INSTANCE.serialize(value, out);
+            }
+
+            public String deserialize(ByteBuffer in) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        String big = largeString(1 << 20); // overflows, and is serialized again
+        SerializerOutput.get().write(visiting, big);
+        assert visits[0] == 1 : visits[0];
+        SerializerOutput.get().write(visiting, big);
+        assert visits[0] == 2 : visits[0];
+    }
+
+    private static void testOutOfBounds() {
+        SerializerOutput output = SerializerOutput.get();
+        int capacity = output.capacity();
+        try {
+            output.write(new SerializerOutput.Writer<String>() {
+                public void write(String value, ByteBuffer out) {
+                    out.put(Integer.MAX_VALUE, (byte)0); // a bug, not a full buffer
+                }
+            }, "bad");
+            assert false : "only an overflow should grow the buffer and retry";
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        assert output.capacity() == capacity;
+    }
+
+    private static String largeString(int length) {
+        StringBuilder buffer = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            buffer.append((char)('a' + i % 26));
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package net.venaglia.common.util.serializer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 12:40 AM
+ *
+ * Measures SerializerRegistry.forObject() and forTypeMarker() against the
+ * superclass walk over a ConcurrentHashMap that they replaced, on a mix of
+ * the values serializeObject() sees most often.
+ */
+public class SerializerRegistryBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 5000000;
+
+    private static final Object[] VALUES = { "a", 1, 2L, 3.0f, 4.0, true, 'c', (short)5, (byte)6, "b", 7, 8.0 };
+
+    private static long sink;
+
+    public static void main(String[] args) throws InterruptedException {
+        final ConcurrentMap<Class<?>,SerializerStrategy<?>> byType = new ConcurrentHashMap<Class<?>,SerializerStrategy<?>>();
+        final ConcurrentMap<Character,SerializerStrategy<?>> byTypeMarker = new ConcurrentHashMap<Character,SerializerStrategy<?>>();
+        final char[] markers = new char[VALUES.length];
+        for (int i = 0; i < VALUES.length; i++) {
+            SerializerStrategy<?> strategy = SerializerRegistry.forObject(VALUES[i]);
+            byType.put(strategy.getJavaType(), strategy);
+            byTypeMarker.put(strategy.getTypeMarker(), strategy);
+            markers[i] = strategy.getTypeMarker();
+        }
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%24s %8s %16s\n", "lookup", "threads", "lookups/s");
+        for (int n : new int[]{ 1, threads }) {
+            System.out.printf("%24s %8d %,16.0f\n", "HashMap walk", n, measure(n, new Runnable() {
+                public void run() {
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        Object o = VALUES[i % VALUES.length];
+                        SerializerStrategy<?> result = null;
+                        for (Class<?> type = o.getClass(); result == null && type != Object.class; type = type.getSuperclass()) {
+                            result = byType.get(type);
+                            if (result != null && !result.accept(o)) {
+                                result = null;
+                            }
+                        }
+                        sink += result.getTypeMarker();
+                    }
+                }
+            }));
+            System.out.printf("%24s %8d %,16.0f\n", "forObject", n, measure(n, new Runnable() {
+                public void run() {
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        sink += SerializerRegistry.forObject(VALUES[i % VALUES.length]).getTypeMarker();
+                    }
+                }
+            }));
+            System.out.printf("%24s %8d %,16.0f\n", "HashMap forTypeMarker", n, measure(n, new Runnable() {
+                public void run() {
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        sink += byTypeMarker.get(markers[i % markers.length]).getTypeMarker();
+                    }
+                }
+            }));
+            System.out.printf("%24s %8d %,16.0f\n", "forTypeMarker", n, measure(n, new Runnable() {
+                public void run() {
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        sink += SerializerRegistry.forTypeMarker(markers[i % markers.length]).getTypeMarker();
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * @return The best of several rounds, in lookups per second across all
+     *     threads.
+     */
+    private static double measure(int threadCount, Runnable op) throws InterruptedException {
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            Thread[] threads = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                threads[t] = new Thread(op);
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            best = Math.max(best, (double)ITERATIONS * threadCount * 1.0e9 / (System.nanoTime() - start));
+        }
+        return best;
+    }
+}
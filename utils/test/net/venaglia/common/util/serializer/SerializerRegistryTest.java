@@ -0,0 +1,142 @@
+package net.venaglia.common.util.serializer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * User: ed
+ * Date: 10/18/26
+ * Time: 12:20 AM
+ */
+public class SerializerRegistryTest {
+
+    static class Base {}
+    static class Child extends Base {}
+    static class Extra0 {}
+    static class Extra1 {}
+    static class Extra2 {}
+    static class Extra3 {}
+    static class Extra4 {}
+    static class Extra5 {}
+    static class Extra6 {}
+    static class Extra7 {}
+
+    private static final Class<?>[] EXTRAS = {
+            Extra0.class, Extra1.class, Extra2.class, Extra3.class,
+            Extra4.class, Extra5.class, Extra6.class, Extra7.class
+    };
+
+    private static final int THREADS = 4;
+    private static final int ITERATIONS = 200000;
+
+    public static void main(String[] args) throws InterruptedException {
+        testLookups();
+        testSubclassRegisteredLater();
+        testConcurrentLookups();
+        System.out.println("All tests passed");
+    }
+
+    private static void testLookups() {
+        assert SerializerRegistry.forObject("text") == StringSerializerStrategy.INSTANCE;
+        assert SerializerRegistry.forObjectType(String.class) == StringSerializerStrategy.INSTANCE;
+        assert SerializerRegistry.forTypeMarker('$') == (Object)StringSerializerStrategy.INSTANCE;
+        assert SerializerRegistry.forObject(null).getTypeMarker() == '\0';
+        assert SerializerRegistry.forObject(42) == PrimitiveSerializerStrategy.INTEGER_OBJ;
+        assert SerializerRegistry.forObjectType(Integer.class) == PrimitiveSerializerStrategy.INTEGER_OBJ;
+        assert !SerializerRegistry.canHandle(new Object());
+        assert !SerializerRegistry.canHandle(Thread.class);
+        try {
+            SerializerRegistry.forTypeMarker('\ufffe');
+            assert false;
+        } catch (SerializerException e) {
+            // expected
+        }
+    }
+
+    private static void testSubclassRegisteredLater() {
+        SerializerStrategy<Base> base = strategy(Base.class, '\u0300');
+        assert SerializerRegistry.forObject(new Child()) == base;
+        assert SerializerRegistry.forObjectType(Child.class) == base;
+        SerializerStrategy<Child> child = strategy(Child.class, '\u0301');
+        assert SerializerRegistry.forObject(new Child()) == child;
+        assert SerializerRegistry.forObjectType(Child.class) == child;
+        assert SerializerRegistry.forObject(new Base()) == base;
+        assert SerializerRegistry.forTypeMarker('\u0301') == (Object)child;
+        try {
+            strategy(Child.class, '\u0302');
+            assert false : "duplicate type was registered";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void testConcurrentLookups() throws InterruptedException {
+        final Object[] values = { "a", 1, 2L, 3.0f, 4.0, true, 'c', (short)5, (byte)6, null, new Base(), new Child() };
+        final SerializerStrategy<?>[] expected = new SerializerStrategy<?>[values.length];
+        for (int i = 0; i < values.length; i++) {
+            expected[i] = SerializerRegistry.forObject(values[i]);
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger lookups = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread("lookup-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            int j = i % values.length;
+                            if (SerializerRegistry.forObject(values[j]) != expected[j]) {
+                                throw new AssertionError("Wrong strategy for " + values[j]);
+                            }
+                            if (SerializerRegistry.forTypeMarker(expected[j].getTypeMarker()) != expected[j]) {
+                                throw new AssertionError("Wrong strategy for marker " + expected[j].getTypeMarker());
+                            }
+                            Class<?> extra = EXTRAS[i & 7];
+                            if (SerializerRegistry.canHandle(extra) &&
+                                SerializerRegistry.forObjectType(extra).getJavaType() != extra) {
+                                throw new AssertionError("Wrong strategy for " + extra);
+                            }
+                            lookups.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (int i = 0; i < EXTRAS.length; i++) {
+            strategy(EXTRAS[i], (char)(0x400 + i)); // registered while the lookups run
+            Thread.yield();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assert lookups.get() == THREADS * ITERATIONS;
+        for (int i = 0; i < EXTRAS.length; i++) {
+            assert SerializerRegistry.forObjectType(EXTRAS[i]).getJavaType() == EXTRAS[i];
+            assert SerializerRegistry.forTypeMarker((char)(0x400 + i)).getJavaType() == EXTRAS[i];
+        }
+    }
+
+    private static <T> SerializerStrategy<T> strategy(Class<T> type, char typeMarker) {
+        return new AbstractSerializerStrategy<T>(type, typeMarker) {
+            public void serialize(T value, ByteBuffer out) {
+                // no-op
+            }
+
+            public T deserialize(ByteBuffer in) {
+                return null;
+            }
+        };
+    }
+}